@@ -22,13 +22,20 @@
  */
 package org.rhq.core.domain.discovery;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
 import org.rhq.core.domain.measurement.Availability;
 import org.rhq.core.domain.measurement.AvailabilityType;
+import org.rhq.core.domain.server.ExternalizableStrategy;
+import org.rhq.core.domain.util.serial.CompactEncoding;
 
 /**
  * Contains a set of one or more {@link Availability} values used to indicate the statuses of a set of resources. Note
@@ -38,11 +45,14 @@ import org.rhq.core.domain.measurement.AvailabilityType;
  * the span of time a resource was up or down, it only tells you what state they were in at a particular millisecond in
  * time.
  *
+ * <p>When externalized for agent-server communication, the availabilities are written in a compact form: resource ids
+ * and start times as the difference to the previous availability. See {@link CompactEncoding}.</p>
+ *
  * @author Jay Shaughnessy
  * @author Greg Hinkle
  * @author Joseph Marques
  */
-public class AvailabilityReport implements Serializable {
+public class AvailabilityReport implements Externalizable {
     private static final long serialVersionUID = 1L;
 
     public static class Datum implements Serializable {
@@ -92,6 +102,10 @@ public class AvailabilityReport implements Serializable {
     // true if this is report was generated on the server side - it did not come from an actual agent
     private boolean serverSideReport = false;
 
+    /* no-arg constructor required by Externalizable (Externalizable also requires it to be public) */
+    public AvailabilityReport() {
+    }
+
     /**
      * Constructor for {@link AvailabilityReport} that assumes this report will represent a full inventory (same as if
      * constructing with {@link #AvailabilityReport(boolean, String)} with the first argument being <code>false</code>).
@@ -211,4 +225,72 @@ public class AvailabilityReport implements Serializable {
 
         return str.toString();
     }
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        ExternalizableStrategy.Subsystem strategy = ExternalizableStrategy.getStrategy();
+        out.writeChar(strategy.id());
+
+        if (ExternalizableStrategy.Subsystem.AGENT == strategy) {
+            writeExternalAgent(out);
+        } else {
+            out.writeObject(agentName);
+            out.writeBoolean(changesOnly);
+            out.writeBoolean(enablementReport);
+            out.writeBoolean(serverSideReport);
+            out.writeObject(availabilities);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        char strategy = in.readChar();
+
+        if (ExternalizableStrategy.Subsystem.AGENT.id() == strategy) {
+            readExternalAgent(in);
+        } else if (ExternalizableStrategy.Subsystem.REFLECTIVE_SERIALIZATION.id() == strategy) {
+            agentName = (String) in.readObject();
+            changesOnly = in.readBoolean();
+            enablementReport = in.readBoolean();
+            serverSideReport = in.readBoolean();
+            availabilities = (List<Datum>) in.readObject();
+        } else {
+            throw new StreamCorruptedException("Unknown externalization strategy [" + (int) strategy + "]");
+        }
+    }
+
+    private void writeExternalAgent(ObjectOutput out) throws IOException {
+        CompactEncoding.Writer writer = new CompactEncoding.Writer(out);
+        writer.writeString(agentName);
+        out.writeBoolean(changesOnly);
+        out.writeBoolean(enablementReport);
+        out.writeBoolean(serverSideReport);
+
+        // resources are mostly reported in inventory order, so consecutive ids tend to be close together
+        writer.writeVarInt(availabilities.size());
+        int lastResourceId = 0;
+        for (Datum datum : availabilities) {
+            writer.writeSignedVarLong((long) datum.resourceId - lastResourceId);
+            lastResourceId = datum.resourceId;
+            writer.writeTimestamp(datum.startTime);
+            writer.writeEnum(datum.availabilityType);
+        }
+    }
+
+    private void readExternalAgent(ObjectInput in) throws IOException {
+        CompactEncoding.Reader reader = new CompactEncoding.Reader(in);
+        agentName = reader.readString();
+        changesOnly = in.readBoolean();
+        enablementReport = in.readBoolean();
+        serverSideReport = in.readBoolean();
+
+        int count = reader.readVarInt();
+        availabilities = new ArrayList<Datum>(Math.max(0, Math.min(count, 65536)));
+        int lastResourceId = 0;
+        for (int i = 0; i < count; i++) {
+            int resourceId = (int) (lastResourceId + reader.readSignedVarLong());
+            lastResourceId = resourceId;
+            long startTime = reader.readTimestamp();
+            availabilities.add(new Datum(resourceId, reader.readEnum(AvailabilityType.class), startTime));
+        }
+    }
 }
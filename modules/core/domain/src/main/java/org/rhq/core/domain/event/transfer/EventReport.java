@@ -98,16 +98,34 @@ public class EventReport implements Serializable {
         return;
     }
 
+    /**
+     * Records that <code>count</code> events from the given source were dropped before they could be added to this
+     * report (e.g. because the plugin container's buffer for the source was full). The dropped events are reported
+     * by {@link #addLimitWarningEvents()} just like the ones this report rejects itself.
+     *
+     * @param eventSource the source of the dropped Events
+     * @param count the number of Events that were dropped
+     */
+    public void addDroppedEvents(@NotNull EventSource eventSource, int count) {
+        if (count > 0) {
+            droppedEvents(eventSource, count);
+        }
+    }
+
     private void droppedEvent(EventSource eventSource) {
+        droppedEvents(eventSource, 1);
+    }
+
+    private void droppedEvents(EventSource eventSource, int count) {
         if (this.eventsDropped == null) {
             this.eventsDropped = new HashMap<EventSource, Integer>();
         }
 
         Integer droppedCount = this.eventsDropped.get(eventSource);
         if (droppedCount == null) {
-            droppedCount = Integer.valueOf(1);
+            droppedCount = Integer.valueOf(count);
         } else {
-            droppedCount = Integer.valueOf(droppedCount.intValue() + 1);
+            droppedCount = Integer.valueOf(droppedCount.intValue() + count);
         }
 
         this.eventsDropped.put(eventSource, droppedCount);
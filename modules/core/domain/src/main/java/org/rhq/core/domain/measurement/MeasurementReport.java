@@ -22,26 +22,41 @@
   */
 package org.rhq.core.domain.measurement;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
 import org.jetbrains.annotations.NotNull;
 
 import org.rhq.core.domain.measurement.calltime.CallTimeData;
+import org.rhq.core.domain.server.ExternalizableStrategy;
+import org.rhq.core.domain.util.serial.CompactEncoding;
 
 /**
  * A report of measurement information. When a plugin collects measurement data that is emitted from a monitored
  * resource, it will store that measurement data in an instance of this type.
  * <p/>
- * <p>This report has an optimized serialization strategy.</p>
+ * <p>This report has an optimized serialization strategy. When externalized for agent-server communication, the
+ * numeric and trait data are written in a compact form: schedule ids as variable length integers, timestamps as the
+ * difference to the previous timestamp and metric names only once per report. See {@link CompactEncoding}.</p>
+ * <p/>
+ * <p>A report can additionally be {@link #setDeltaEncoded(boolean) delta encoded}, in which case its numeric data
+ * are written as runs per schedule that only carry what changed from one datum of a schedule to the next. A delta
+ * encoded report that is read is only expanded into numeric data objects when those are first asked for.</p>
  *
  * @author Greg Hinkle
  * @author Ian Springer
  */
-public class MeasurementReport implements Serializable {
+public class MeasurementReport implements Externalizable {
     private static final long serialVersionUID = 1;
 
+    private static final byte NUMERIC_DATA_FULL = 0;
+    private static final byte NUMERIC_DATA_RUNS = 1;
+
     /*
      * instead of using synchronized collection wrappers - which won't GWT-compile - we can use the synchronized
      * modifier on the various methods that access these collections
@@ -52,6 +67,11 @@ public class MeasurementReport implements Serializable {
 
     private long collectionTime;
 
+    private boolean deltaEncoded;
+
+    // the delta encoded numeric data of a report that was read but whose numeric data were not asked for yet
+    private NumericDataRuns numericDataRuns;
+
     /**
      * Adds the given piece of numeric data to this report. Items are added to this report's list of numeric data in order.
      * That is, the order in which you add multiple pieces of numeric data is the same order in which you get them
@@ -60,6 +80,7 @@ public class MeasurementReport implements Serializable {
      * @param value the measurement data to be added
      */
     public synchronized void addData(MeasurementDataNumeric value) {
+        expandNumericDataRuns();
         measurementNumericData.add(value); // note, duplicates will be silently ignored
     }
 
@@ -92,6 +113,7 @@ public class MeasurementReport implements Serializable {
      * @return the list of all the numeric data items in this report
      */
     public synchronized Set<MeasurementDataNumeric> getNumericData() {
+        expandNumericDataRuns();
         return measurementNumericData;
     }
 
@@ -122,7 +144,34 @@ public class MeasurementReport implements Serializable {
      * @return the total number of data items (numeric metrics, traits, or call-time datums) in this report
      */
     public synchronized long getDataCount() {
-        return this.measurementNumericData.size() + this.measurementTraitData.size() + this.callTimeData.size();
+        int numericCount = (numericDataRuns != null) ? numericDataRuns.size() : measurementNumericData.size();
+        return numericCount + this.measurementTraitData.size() + this.callTimeData.size();
+    }
+
+    /**
+     * @return true if the numeric data of this report are written, or were read, in the delta encoded form
+     */
+    public synchronized boolean isDeltaEncoded() {
+        return deltaEncoded;
+    }
+
+    /**
+     * Determines if the numeric data of this report are written in the delta encoded form when the report is
+     * externalized for agent-server communication. This pays off when the report holds several data of the same
+     * schedules, which is the case when reports are sent less often than measurements are collected.
+     *
+     * @param deltaEncoded true to write the numeric data as runs per schedule
+     */
+    public synchronized void setDeltaEncoded(boolean deltaEncoded) {
+        this.deltaEncoded = deltaEncoded;
+    }
+
+    private void expandNumericDataRuns() {
+        if (numericDataRuns != null) {
+            NumericDataRuns runs = numericDataRuns;
+            numericDataRuns = null;
+            runs.expandInto(measurementNumericData);
+        }
     }
 
     public long getCollectionTime() {
@@ -136,4 +185,111 @@ public class MeasurementReport implements Serializable {
     public void incrementCollectionTime(long collectionTime) {
         this.collectionTime += collectionTime;
     }
-}
\ No newline at end of file
+
+    public synchronized void writeExternal(ObjectOutput out) throws IOException {
+        expandNumericDataRuns();
+        ExternalizableStrategy.Subsystem strategy = ExternalizableStrategy.getStrategy();
+        out.writeChar(strategy.id());
+
+        if (ExternalizableStrategy.Subsystem.AGENT == strategy) {
+            writeExternalAgent(out);
+        } else {
+            out.writeLong(collectionTime);
+            out.writeObject(measurementNumericData);
+            out.writeObject(measurementTraitData);
+            out.writeObject(callTimeData);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        char strategy = in.readChar();
+
+        if (ExternalizableStrategy.Subsystem.AGENT.id() == strategy) {
+            readExternalAgent(in);
+        } else if (ExternalizableStrategy.Subsystem.REFLECTIVE_SERIALIZATION.id() == strategy) {
+            collectionTime = in.readLong();
+            measurementNumericData = (Set<MeasurementDataNumeric>) in.readObject();
+            measurementTraitData = (Set<MeasurementDataTrait>) in.readObject();
+            callTimeData = (Set<CallTimeData>) in.readObject();
+        } else {
+            throw new StreamCorruptedException("Unknown externalization strategy [" + (int) strategy + "]");
+        }
+    }
+
+    private void writeExternalAgent(ObjectOutput out) throws IOException {
+        CompactEncoding.Writer writer = new CompactEncoding.Writer(out);
+        writer.writeSignedVarLong(collectionTime);
+
+        if (deltaEncoded) {
+            out.writeByte(NUMERIC_DATA_RUNS);
+            NumericDataRuns.write(measurementNumericData, writer, out);
+        } else {
+            out.writeByte(NUMERIC_DATA_FULL);
+            writer.writeVarInt(measurementNumericData.size());
+            for (MeasurementDataNumeric datum : measurementNumericData) {
+                writer.writeVarInt(datum.getScheduleId());
+                writer.writeTimestamp(datum.getTimestamp());
+                writer.writeName(datum.getName());
+                writer.writeDouble(datum.getValue());
+            }
+        }
+
+        writer.writeVarInt(measurementTraitData.size());
+        for (MeasurementDataTrait datum : measurementTraitData) {
+            writer.writeVarInt(datum.getScheduleId());
+            writer.writeTimestamp(datum.getTimestamp());
+            writer.writeName(datum.getName());
+            writer.writeString(datum.getValue());
+        }
+
+        // call-time data is keyed by destination strings that vary too much to gain from a compact form
+        out.writeObject(callTimeData);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readExternalAgent(ObjectInput in) throws IOException, ClassNotFoundException {
+        CompactEncoding.Reader reader = new CompactEncoding.Reader(in);
+        collectionTime = reader.readSignedVarLong();
+
+        int count;
+        byte numericDataFormat = in.readByte();
+        if (numericDataFormat == NUMERIC_DATA_RUNS) {
+            deltaEncoded = true;
+            numericDataRuns = NumericDataRuns.read(reader, in);
+            measurementNumericData = new LinkedHashSet<MeasurementDataNumeric>(capacityFor(numericDataRuns.size()));
+        } else if (numericDataFormat == NUMERIC_DATA_FULL) {
+            count = reader.readVarInt();
+            measurementNumericData = new LinkedHashSet<MeasurementDataNumeric>(capacityFor(count));
+            for (int i = 0; i < count; i++) {
+                int scheduleId = reader.readVarInt();
+                long timestamp = reader.readTimestamp();
+                String name = reader.readName();
+                MeasurementDataNumeric datum = new MeasurementDataNumeric(timestamp, scheduleId, reader.readDouble());
+                datum.setName(name);
+                measurementNumericData.add(datum);
+            }
+        } else {
+            throw new StreamCorruptedException("Unknown numeric data format [" + numericDataFormat + "]");
+        }
+
+        count = reader.readVarInt();
+        measurementTraitData = new LinkedHashSet<MeasurementDataTrait>(capacityFor(count));
+        for (int i = 0; i < count; i++) {
+            int scheduleId = reader.readVarInt();
+            long timestamp = reader.readTimestamp();
+            String name = reader.readName();
+            MeasurementDataTrait datum = new MeasurementDataTrait(new MeasurementDataPK(timestamp, scheduleId),
+                reader.readString());
+            datum.setName(name);
+            measurementTraitData.add(datum);
+        }
+
+        callTimeData = (Set<CallTimeData>) in.readObject();
+    }
+
+    private static int capacityFor(int count) {
+        // the count is not trusted to size the set up front beyond a reasonable report size
+        return Math.max(16, (int) (Math.min(count, 65536) / 0.75f) + 1);
+    }
+}
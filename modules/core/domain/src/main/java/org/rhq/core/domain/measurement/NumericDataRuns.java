@@ -0,0 +1,253 @@
+/*
+  * RHQ Management Platform
+  * Copyright (C) 2005-2008 Red Hat, Inc.
+  * All rights reserved.
+  *
+  * This program is free software; you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License, version 2, as
+  * published by the Free Software Foundation, and/or the GNU Lesser
+  * General Public License, version 2.1, also as published by the Free
+  * Software Foundation.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License and the GNU Lesser General Public License
+  * for more details.
+  *
+  * You should have received a copy of the GNU General Public License
+  * and the GNU Lesser General Public License along with this program;
+  * if not, write to the Free Software Foundation, Inc.,
+  * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+  */
+package org.rhq.core.domain.measurement;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.rhq.core.domain.util.serial.CompactEncoding;
+
+/**
+ * Numeric measurement data in the delta encoded form of a {@link MeasurementReport}.
+ * <p>
+ * The data of a report are written as runs, one per schedule, holding the data of that schedule in the order they
+ * were collected. The first datum of a run carries its timestamp; each further datum only records whether it was
+ * collected one interval after the previous one, and whether its value is unchanged, differs by a whole number or
+ * has to be written in full. Flat gauges therefore take a single byte per datum and counters usually two or three.
+ * <p>
+ * The runs never refer to data outside of the report, because a report may be spooled, retried or delivered to
+ * another server than the one that got the previous report. When read, the data are kept in primitive arrays until
+ * the report's numeric data are first asked for, which is when the server merges the report.
+ */
+final class NumericDataRuns {
+
+    // a datum was collected the same time after its predecessor as that one after its own predecessor
+    private static final int SAME_STEP = 0x01;
+
+    private static final int VALUE_MASK = 0x06;
+    private static final int VALUE_UNCHANGED = 0x00;
+    private static final int VALUE_WHOLE_DELTA = 0x02;
+    private static final int VALUE_FULL = 0x04;
+    private static final int VALUE_NULL = 0x06;
+
+    // whole numbers beyond this are not exact as doubles, so their differences are not either
+    private static final double MAX_WHOLE = 9007199254740992.0; // 2^53
+
+    private int size;
+    private int[] scheduleIds;
+    private String[] names;
+    private long[] timestamps;
+    private double[] values;
+    private boolean[] nulls;
+
+    private NumericDataRuns(int capacity) {
+        scheduleIds = new int[capacity];
+        names = new String[capacity];
+        timestamps = new long[capacity];
+        values = new double[capacity];
+        nulls = new boolean[capacity];
+    }
+
+    static void write(Set<MeasurementDataNumeric> data, CompactEncoding.Writer writer, ObjectOutput out)
+        throws IOException {
+        List<List<MeasurementDataNumeric>> runs = toRuns(data);
+        writer.writeVarInt(runs.size());
+        for (List<MeasurementDataNumeric> run : runs) {
+            MeasurementDataNumeric first = run.get(0);
+            writer.writeVarInt(first.getScheduleId());
+            writer.writeName(first.getName());
+            writer.writeVarInt(run.size());
+            writer.writeTimestamp(first.getTimestamp());
+
+            long previousTimestamp = first.getTimestamp();
+            long step = 0L;
+            double previousValue = 0.0;
+            for (int i = 0; i < run.size(); i++) {
+                MeasurementDataNumeric datum = run.get(i);
+                Double value = datum.getValue();
+
+                int header = 0;
+                long delta = datum.getTimestamp() - previousTimestamp;
+                if (i > 0 && delta == step) {
+                    header |= SAME_STEP;
+                }
+                if (value == null) {
+                    header |= VALUE_NULL;
+                } else if (Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(previousValue)) {
+                    header |= VALUE_UNCHANGED;
+                } else if (isWhole(value) && isWhole(previousValue)) {
+                    header |= VALUE_WHOLE_DELTA;
+                } else {
+                    header |= VALUE_FULL;
+                }
+                out.writeByte(header);
+
+                if (i > 0 && (header & SAME_STEP) == 0) {
+                    writer.writeSignedVarLong(delta);
+                }
+                switch (header & VALUE_MASK) {
+                case VALUE_WHOLE_DELTA:
+                    writer.writeSignedVarLong((long) value.doubleValue() - (long) previousValue);
+                    break;
+                case VALUE_FULL:
+                    out.writeDouble(value);
+                    break;
+                default:
+                    break;
+                }
+
+                if (i > 0) {
+                    step = delta;
+                }
+                previousTimestamp = datum.getTimestamp();
+                if (value != null) {
+                    previousValue = value;
+                }
+            }
+        }
+    }
+
+    static NumericDataRuns read(CompactEncoding.Reader reader, ObjectInput in) throws IOException {
+        int runCount = reader.readVarInt();
+        NumericDataRuns runs = new NumericDataRuns(Math.min(runCount, 65536));
+        for (int r = 0; r < runCount; r++) {
+            int scheduleId = reader.readVarInt();
+            String name = reader.readName();
+            int count = reader.readVarInt();
+            long timestamp = reader.readTimestamp();
+
+            long step = 0L;
+            double value = 0.0;
+            for (int i = 0; i < count; i++) {
+                int header = in.readUnsignedByte();
+                if ((header & ~(SAME_STEP | VALUE_MASK)) != 0) {
+                    throw new StreamCorruptedException("Invalid numeric data header [" + header + "]");
+                }
+                if (i > 0) {
+                    if ((header & SAME_STEP) == 0) {
+                        step = reader.readSignedVarLong();
+                    }
+                    timestamp += step;
+                }
+                boolean isNull = false;
+                switch (header & VALUE_MASK) {
+                case VALUE_UNCHANGED:
+                    break;
+                case VALUE_WHOLE_DELTA:
+                    value = (long) value + reader.readSignedVarLong();
+                    break;
+                case VALUE_FULL:
+                    value = in.readDouble();
+                    break;
+                default:
+                    isNull = true;
+                    break;
+                }
+                runs.add(scheduleId, name, timestamp, value, isNull);
+            }
+        }
+        return runs;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void expandInto(Set<MeasurementDataNumeric> data) {
+        for (int i = 0; i < size; i++) {
+            MeasurementDataNumeric datum = new MeasurementDataNumeric(timestamps[i], scheduleIds[i],
+                nulls[i] ? null : Double.valueOf(values[i]));
+            datum.setName(names[i]);
+            data.add(datum);
+        }
+    }
+
+    private void add(int scheduleId, String name, long timestamp, double value, boolean isNull) {
+        if (size == scheduleIds.length) {
+            int capacity = Math.max(16, size * 2);
+            scheduleIds = Arrays.copyOf(scheduleIds, capacity);
+            names = Arrays.copyOf(names, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+            nulls = Arrays.copyOf(nulls, capacity);
+        }
+        scheduleIds[size] = scheduleId;
+        names[size] = name;
+        timestamps[size] = timestamp;
+        values[size] = value;
+        nulls[size] = isNull;
+        size++;
+    }
+
+    /*
+     * Groups the data by schedule, keeping the order in which they were added. A schedule's data only share a run if
+     * they also share the name, which they always do in practice.
+     */
+    private static List<List<MeasurementDataNumeric>> toRuns(Set<MeasurementDataNumeric> data) {
+        Map<Integer, List<List<MeasurementDataNumeric>>> bySchedule = new LinkedHashMap<Integer, List<List<MeasurementDataNumeric>>>();
+        int runCount = 0;
+        for (MeasurementDataNumeric datum : data) {
+            List<List<MeasurementDataNumeric>> scheduleRuns = bySchedule.get(datum.getScheduleId());
+            if (scheduleRuns == null) {
+                scheduleRuns = new ArrayList<List<MeasurementDataNumeric>>(1);
+                bySchedule.put(datum.getScheduleId(), scheduleRuns);
+            }
+            List<MeasurementDataNumeric> run = null;
+            for (List<MeasurementDataNumeric> scheduleRun : scheduleRuns) {
+                if (equal(scheduleRun.get(0).getName(), datum.getName())) {
+                    run = scheduleRun;
+                    break;
+                }
+            }
+            if (run == null) {
+                run = new ArrayList<MeasurementDataNumeric>(4);
+                scheduleRuns.add(run);
+                runCount++;
+            }
+            run.add(datum);
+        }
+
+        List<List<MeasurementDataNumeric>> runs = new ArrayList<List<MeasurementDataNumeric>>(runCount);
+        for (List<List<MeasurementDataNumeric>> scheduleRuns : bySchedule.values()) {
+            runs.addAll(scheduleRuns);
+        }
+        return runs;
+    }
+
+    private static boolean isWhole(double value) {
+        return value == Math.rint(value) && Math.abs(value) < MAX_WHOLE
+            && !(value == 0.0 && Double.doubleToRawLongBits(value) != 0L);
+    }
+
+    private static boolean equal(String a, String b) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+}
@@ -91,6 +91,8 @@ public class CallTimeData implements Serializable {
         value.setMaximum(maximum);
         value.setTotal(total);
         value.setCount(count);
+        // any call times merged into the value before no longer describe it
+        value.setSketch(null);
     }
 
     public int getScheduleId() {
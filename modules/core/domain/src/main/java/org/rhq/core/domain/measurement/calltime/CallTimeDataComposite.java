@@ -25,6 +25,7 @@ package org.rhq.core.domain.measurement.calltime;
 import java.io.Serializable;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * The composite object returned by GUI-initiated call-time data queries.
@@ -41,6 +42,8 @@ public class CallTimeDataComposite implements Serializable {
     private double total;
     private long count;
     private double average;
+    private Double percentile95;
+    private Double percentile99;
 
     /** No-args constructor for JAXB serialization purposes */
     @SuppressWarnings("unused")
@@ -57,6 +60,17 @@ public class CallTimeDataComposite implements Serializable {
         this.average = average.doubleValue();
     }
 
+    /**
+     * @since 4.10
+     */
+    public CallTimeDataComposite(@NotNull String callDestination, @NotNull Number minimum, @NotNull Number maximum,
+        @NotNull Number total, @NotNull Number count, @NotNull Number average, @Nullable Double percentile95,
+        @Nullable Double percentile99) {
+        this(callDestination, minimum, maximum, total, count, average);
+        this.percentile95 = percentile95;
+        this.percentile99 = percentile99;
+    }
+
     @NotNull
     public String getCallDestination() {
         return this.callDestination;
@@ -82,6 +96,28 @@ public class CallTimeDataComposite implements Serializable {
         return this.average;
     }
 
+    /**
+     * Returns the estimated 95th percentile call time. This is only available from the top-N call-time queries, and
+     * only if all of the underlying data came with a {@link CallTimeDataSketch call time distribution}.
+     *
+     * @return the estimated 95th percentile call time, or null if not known
+     */
+    @Nullable
+    public Double getPercentile95() {
+        return this.percentile95;
+    }
+
+    /**
+     * Returns the estimated 99th percentile call time.
+     *
+     * @return the estimated 99th percentile call time, or null if not known
+     * @see #getPercentile95()
+     */
+    @Nullable
+    public Double getPercentile99() {
+        return this.percentile99;
+    }
+
     @Override
     public String toString() {
         return this.getClass().getName().substring(this.getClass().getName().lastIndexOf(".")+1) + "[" + "callDestination=" + this.callDestination + ", " + "minimum="
@@ -0,0 +1,273 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.core.domain.measurement.calltime;
+
+import java.io.Serializable;
+
+/**
+ * A compact, mergeable summary of the distribution of call times, used to estimate percentiles (e.g. the 95th
+ * percentile call time of a destination) without keeping the individual call times.
+ * <p/>
+ * Call times are counted in logarithmically sized buckets: bucket <code>i</code> holds the call times in
+ * <code>(GAMMA^(i-1), GAMMA^i]</code>, so any quantile is estimated to within {@link #RELATIVE_ACCURACY} of the true
+ * value. Only non-empty buckets are stored. Sketches with the same accuracy can be merged losslessly, so the sketches
+ * of a destination can be combined across collection intervals, schedules and resources.
+ *
+ * @since 4.10
+ */
+public class CallTimeDataSketch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The maximum relative error of the quantiles estimated by a sketch.
+     */
+    public static final double RELATIVE_ACCURACY = 0.01;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    // call times beyond ~GAMMA^+/-2000 (roughly 1e-17 to 1e17) are counted in the first or last bucket
+    private static final int MAX_INDEX = 2000;
+
+    private static final byte ENCODING_VERSION = 1;
+
+    private long zeroCount;
+    private int size;
+    private int[] indexes;
+    private long[] counts;
+
+    public CallTimeDataSketch() {
+        this.indexes = new int[4];
+        this.counts = new long[4];
+    }
+
+    /**
+     * Adds a single call time.
+     *
+     * @param callTime the call time, which must be &gt;= 0
+     */
+    public void add(double callTime) {
+        add(callTime, 1);
+    }
+
+    /**
+     * Adds <code>count</code> calls that all took <code>callTime</code>.
+     */
+    public void add(double callTime, long count) {
+        if (callTime <= 0) {
+            this.zeroCount += count;
+        } else {
+            addToBucket(index(callTime), count);
+        }
+    }
+
+    /**
+     * Adds all of the call times counted by the other sketch to this one.
+     */
+    public void merge(CallTimeDataSketch other) {
+        this.zeroCount += other.zeroCount;
+        if (other.size == 0) {
+            return;
+        }
+        int[] mergedIndexes = new int[this.size + other.size];
+        long[] mergedCounts = new long[this.size + other.size];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < this.size || j < other.size) {
+            if (j == other.size || (i < this.size && this.indexes[i] < other.indexes[j])) {
+                mergedIndexes[n] = this.indexes[i];
+                mergedCounts[n++] = this.counts[i++];
+            } else if (i == this.size || other.indexes[j] < this.indexes[i]) {
+                mergedIndexes[n] = other.indexes[j];
+                mergedCounts[n++] = other.counts[j++];
+            } else {
+                mergedIndexes[n] = this.indexes[i];
+                mergedCounts[n++] = this.counts[i++] + other.counts[j++];
+            }
+        }
+        this.indexes = mergedIndexes;
+        this.counts = mergedCounts;
+        this.size = n;
+    }
+
+    /**
+     * @return the number of call times counted by this sketch
+     */
+    public long getCount() {
+        long count = this.zeroCount;
+        for (int i = 0; i < this.size; i++) {
+            count += this.counts[i];
+        }
+        return count;
+    }
+
+    /**
+     * Estimates the given quantile of the counted call times.
+     *
+     * @param quantile the quantile, between 0 and 1 (e.g. 0.95 for the 95th percentile)
+     *
+     * @return the estimated call time, or NaN if this sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + quantile);
+        }
+        long count = getCount();
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) (quantile * (count - 1));
+        long seen = this.zeroCount;
+        if (rank < seen) {
+            return 0;
+        }
+        for (int i = 0; i < this.size; i++) {
+            seen += this.counts[i];
+            if (rank < seen) {
+                return value(this.indexes[i]);
+            }
+        }
+        return value(this.indexes[this.size - 1]);
+    }
+
+    /**
+     * Encodes this sketch into a compact byte array, suitable for storage.
+     *
+     * @see #fromBytes(byte[])
+     */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[1 + 10 + 5 + this.size * 15];
+        int position = 0;
+        bytes[position++] = ENCODING_VERSION;
+        position = writeVarLong(bytes, position, this.zeroCount);
+        position = writeVarLong(bytes, position, this.size);
+        int previousIndex = 0;
+        for (int i = 0; i < this.size; i++) {
+            // indexes are sorted, so after the first one only the (small, positive) deltas are written
+            int delta = this.indexes[i] - previousIndex;
+            position = writeVarLong(bytes, position, (i == 0) ? ((delta << 1) ^ (delta >> 31)) : delta);
+            position = writeVarLong(bytes, position, this.counts[i]);
+            previousIndex = this.indexes[i];
+        }
+        byte[] encoded = new byte[position];
+        System.arraycopy(bytes, 0, encoded, 0, position);
+        return encoded;
+    }
+
+    /**
+     * Decodes a sketch encoded by {@link #toBytes()}.
+     *
+     * @throws IllegalArgumentException if the bytes are not a valid encoding of a sketch
+     */
+    public static CallTimeDataSketch fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length == 0 || bytes[0] != ENCODING_VERSION) {
+            throw new IllegalArgumentException("Unsupported call-time sketch encoding.");
+        }
+        try {
+            int[] position = new int[] { 1 };
+            CallTimeDataSketch sketch = new CallTimeDataSketch();
+            sketch.zeroCount = readVarLong(bytes, position);
+            int size = (int) readVarLong(bytes, position);
+            sketch.indexes = new int[Math.max(size, 4)];
+            sketch.counts = new long[Math.max(size, 4)];
+            int index = 0;
+            for (int i = 0; i < size; i++) {
+                int delta = (int) readVarLong(bytes, position);
+                index += (i == 0) ? ((delta >>> 1) ^ -(delta & 1)) : delta;
+                sketch.indexes[i] = index;
+                sketch.counts[i] = readVarLong(bytes, position);
+            }
+            sketch.size = size;
+            return sketch;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated call-time sketch encoding.");
+        }
+    }
+
+    private void addToBucket(int index, long count) {
+        int low = 0;
+        int high = this.size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (this.indexes[mid] < index) {
+                low = mid + 1;
+            } else if (this.indexes[mid] > index) {
+                high = mid - 1;
+            } else {
+                this.counts[mid] += count;
+                return;
+            }
+        }
+        if (this.size == this.indexes.length) {
+            int[] newIndexes = new int[this.size * 2];
+            long[] newCounts = new long[this.size * 2];
+            System.arraycopy(this.indexes, 0, newIndexes, 0, this.size);
+            System.arraycopy(this.counts, 0, newCounts, 0, this.size);
+            this.indexes = newIndexes;
+            this.counts = newCounts;
+        }
+        System.arraycopy(this.indexes, low, this.indexes, low + 1, this.size - low);
+        System.arraycopy(this.counts, low, this.counts, low + 1, this.size - low);
+        this.indexes[low] = index;
+        this.counts[low] = count;
+        this.size++;
+    }
+
+    private static int index(double callTime) {
+        double index = Math.ceil(Math.log(callTime) / LOG_GAMMA);
+        return (int) Math.max(-MAX_INDEX, Math.min(MAX_INDEX, index));
+    }
+
+    private static double value(int index) {
+        // the middle of the bucket, in terms of relative error
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    private static int writeVarLong(byte[] bytes, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+        return position;
+    }
+
+    private static long readVarLong(byte[] bytes, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "CallTimeDataSketch[count=" + getCount() + ", buckets=" + this.size + "]";
+    }
+}
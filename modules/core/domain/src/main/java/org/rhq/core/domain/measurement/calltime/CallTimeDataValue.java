@@ -36,6 +36,7 @@ import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 
 import org.jetbrains.annotations.Nullable;
 
@@ -98,6 +99,11 @@ public class CallTimeDataValue implements Serializable {
     @Column(name = "COUNT", nullable = false)
     private long count;
 
+    // only filled in by the agent when it sees the individual call times; it is stored in the SKETCH column by the
+    // server's JDBC inserts and read back by the call-time top-N queries, so JPA doesn't need to know about it
+    @Transient
+    private CallTimeDataSketch sketch;
+
     /**
      * Create a new <code>CallTimeDataValue</code>.
      *
@@ -166,6 +172,21 @@ public class CallTimeDataValue implements Serializable {
         this.count = count;
     }
 
+    /**
+     * Returns the distribution of the individual call times merged into this value, which allows percentiles to be
+     * estimated. This is null if the data was reported already aggregated.
+     *
+     * @return the call time distribution, or null if not known
+     */
+    @Nullable
+    public CallTimeDataSketch getSketch() {
+        return sketch;
+    }
+
+    public void setSketch(@Nullable CallTimeDataSketch sketch) {
+        this.sketch = sketch;
+    }
+
     public void mergeCallTime(double callTime) {
         if (callTime < 0) {
             throw new IllegalArgumentException("Call time is a duration and so must be >= 0.");
@@ -173,6 +194,10 @@ public class CallTimeDataValue implements Serializable {
 
         this.count++;
         this.total += callTime;
+        if (this.sketch == null) {
+            this.sketch = new CallTimeDataSketch();
+        }
+        this.sketch.add(callTime);
         if ((callTime < this.minimum) || Double.isNaN(this.minimum)) {
             this.minimum = callTime;
         }
@@ -0,0 +1,216 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.core.domain.util.serial;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helpers for the compact encodings that the agent reports use when they are externalized for agent-server
+ * communication. Integers are written as variable length quantities (7 bits per byte, the high bit set on all but the
+ * last byte), so small ids and small differences take one or two bytes instead of four or eight. Timestamps are written
+ * as the signed difference to the previous timestamp written by the same writer, and strings that are written with
+ * {@link Writer#writeName(String)} are only written in full the first time; later occurrences refer back to the first.
+ * <p>
+ * A {@link Writer} and the {@link Reader} that reads its output must be used in the same order, and a new pair is
+ * needed for every externalized object.
+ */
+public class CompactEncoding {
+
+    private static final int NULL_NAME = 0;
+    private static final int NEW_NAME = 1;
+    private static final int NAME_REFERENCE_BASE = 2;
+
+    private CompactEncoding() {
+    }
+
+    public static final class Writer {
+        private final ObjectOutput out;
+        private final Map<String, Integer> names = new HashMap<String, Integer>();
+        private long lastTimestamp;
+
+        public Writer(ObjectOutput out) {
+            this.out = out;
+        }
+
+        public void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        public void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0L) {
+                out.writeByte(((int) value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        /**
+         * Writes a value that may be negative; values close to zero take the fewest bytes.
+         */
+        public void writeSignedVarLong(long value) throws IOException {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        public void writeTimestamp(long timestamp) throws IOException {
+            writeSignedVarLong(timestamp - lastTimestamp);
+            lastTimestamp = timestamp;
+        }
+
+        /**
+         * Writes a string that is likely to be repeated, such as a metric name.
+         */
+        public void writeName(String name) throws IOException {
+            if (name == null) {
+                writeVarInt(NULL_NAME);
+                return;
+            }
+            Integer index = names.get(name);
+            if (index != null) {
+                writeVarInt(NAME_REFERENCE_BASE + index);
+            } else {
+                names.put(name, names.size());
+                writeVarInt(NEW_NAME);
+                writeString(name);
+            }
+        }
+
+        /**
+         * Writes a string of any length that may be <code>null</code>. Unlike {@link ObjectOutput#writeUTF(String)}
+         * this is not limited to 64K.
+         */
+        public void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes("UTF-8");
+            writeVarInt(bytes.length + 1);
+            out.write(bytes);
+        }
+
+        public void writeDouble(Double value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeDouble(value);
+            }
+        }
+
+        public void writeEnum(Enum<?> value) throws IOException {
+            writeVarInt((value == null) ? 0 : value.ordinal() + 1);
+        }
+    }
+
+    public static final class Reader {
+        private final ObjectInput in;
+        private final List<String> names = new ArrayList<String>();
+        private long lastTimestamp;
+
+        public Reader(ObjectInput in) {
+            this.in = in;
+        }
+
+        public int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed variable length int");
+        }
+
+        public long readVarLong() throws IOException {
+            long value = 0L;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed variable length long");
+        }
+
+        public long readSignedVarLong() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1L);
+        }
+
+        public long readTimestamp() throws IOException {
+            lastTimestamp += readSignedVarLong();
+            return lastTimestamp;
+        }
+
+        public String readName() throws IOException {
+            int code = readVarInt();
+            if (code == NULL_NAME) {
+                return null;
+            }
+            if (code == NEW_NAME) {
+                String name = readString();
+                names.add(name);
+                return name;
+            }
+            int index = code - NAME_REFERENCE_BASE;
+            if (index < 0 || index >= names.size()) {
+                throw new StreamCorruptedException("Invalid name reference [" + index + "]");
+            }
+            return names.get(index);
+        }
+
+        public String readString() throws IOException {
+            int length = readVarInt();
+            if (length == 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length - 1];
+            in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+
+        public Double readDouble() throws IOException {
+            return in.readBoolean() ? Double.valueOf(in.readDouble()) : null;
+        }
+
+        public <E extends Enum<E>> E readEnum(Class<E> type) throws IOException {
+            int code = readVarInt();
+            if (code == 0) {
+                return null;
+            }
+            E[] values = type.getEnumConstants();
+            if (code > values.length) {
+                throw new StreamCorruptedException("Invalid " + type.getSimpleName() + " ordinal [" + (code - 1) + "]");
+            }
+            return values[code - 1];
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.core.domain.measurement.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.measurement.calltime.CallTimeData;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataSketch;
+
+@Test
+public class CallTimeDataSketchTest {
+
+    public void testQuantilesAreWithinRelativeAccuracy() {
+        CallTimeDataSketch sketch = new CallTimeDataSketch();
+        for (int i = 1; i <= 10000; i++) {
+            sketch.add(i);
+        }
+
+        assertEquals(sketch.getCount(), 10000);
+        assertWithinAccuracy(sketch.getQuantile(0.5), 5000);
+        assertWithinAccuracy(sketch.getQuantile(0.95), 9500);
+        assertWithinAccuracy(sketch.getQuantile(0.99), 9900);
+        assertWithinAccuracy(sketch.getQuantile(1.0), 10000);
+    }
+
+    public void testZeroCallTimes() {
+        CallTimeDataSketch sketch = new CallTimeDataSketch();
+        sketch.add(0, 90);
+        sketch.add(100, 10);
+
+        assertEquals(sketch.getQuantile(0.5), 0.0);
+        assertWithinAccuracy(sketch.getQuantile(0.95), 100);
+    }
+
+    public void testEmptySketch() {
+        CallTimeDataSketch sketch = new CallTimeDataSketch();
+        assertEquals(sketch.getCount(), 0);
+        assertTrue(Double.isNaN(sketch.getQuantile(0.95)));
+    }
+
+    public void testMerge() {
+        CallTimeDataSketch low = new CallTimeDataSketch();
+        CallTimeDataSketch high = new CallTimeDataSketch();
+        for (int i = 1; i <= 500; i++) {
+            low.add(i);
+            high.add(500 + i);
+        }
+
+        low.merge(high);
+
+        assertEquals(low.getCount(), 1000);
+        assertWithinAccuracy(low.getQuantile(0.5), 500);
+        assertWithinAccuracy(low.getQuantile(0.99), 990);
+    }
+
+    public void testEncodingRoundTrip() {
+        CallTimeDataSketch sketch = new CallTimeDataSketch();
+        sketch.add(0, 3);
+        sketch.add(0.25);
+        sketch.add(17, 5);
+        sketch.add(123456789);
+
+        CallTimeDataSketch decoded = CallTimeDataSketch.fromBytes(sketch.toBytes());
+
+        assertEquals(decoded.getCount(), sketch.getCount());
+        for (double quantile = 0; quantile <= 1; quantile += 0.1) {
+            assertEquals(decoded.getQuantile(quantile), sketch.getQuantile(quantile));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDecodingUnknownEncoding() {
+        CallTimeDataSketch.fromBytes(new byte[] { 99, 0, 0 });
+    }
+
+    public void testAggregatedCallDataDropsSketch() {
+        CallTimeData data = new CallTimeData(new MeasurementScheduleRequest(1, "calltime", 60000L, true,
+            DataType.CALLTIME));
+        Date beginTime = new Date(1000L);
+        data.addCallData("/foo", beginTime, 10L);
+        assertNotNull(data.getValues().get("/foo").getSketch());
+
+        data.addAggregatedCallData("/foo", beginTime, new Date(2000L), 5, 50, 100, 4);
+
+        assertEquals(data.getValues().get("/foo").getCount(), 4);
+        assertNull(data.getValues().get("/foo").getSketch(), "the sketch no longer matches the aggregated data");
+    }
+
+    private static void assertWithinAccuracy(double actual, double expected) {
+        double error = Math.abs(actual - expected) / expected;
+        assertTrue(error <= CallTimeDataSketch.RELATIVE_ACCURACY + 0.001, "Expected about " + expected + " but got "
+            + actual);
+    }
+}
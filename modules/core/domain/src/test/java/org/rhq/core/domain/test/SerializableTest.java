@@ -29,6 +29,7 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -61,6 +62,7 @@ import org.rhq.core.domain.measurement.calltime.CallTimeData;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.domain.resource.ResourceCategory;
 import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.domain.server.ExternalizableStrategy;
 
 /**
  * This tests to make sure things are serializable and externalizable.
@@ -134,6 +136,127 @@ public class SerializableTest {
         assert ensureSerializable(report).getResourceAvailability().size() == 3;
     }
 
+    public void testMeasurementReportCompactEncoding() {
+        MeasurementReport report = new MeasurementReport();
+        report.setCollectionTime(1234);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            MeasurementDataNumeric numeric = new MeasurementDataNumeric(now - i, 10000 + i, (i == 5) ? null
+                : Double.valueOf(i * 1.5));
+            numeric.setName((i % 2 == 0) ? "even" : "odd");
+            report.addData(numeric);
+        }
+        report.addData(new MeasurementDataTrait(now + 10000L, new MeasurementScheduleRequest(Integer.MAX_VALUE, null,
+            1, true, DataType.TRAIT), null));
+
+        for (ExternalizableStrategy.Subsystem strategy : ExternalizableStrategy.Subsystem.values()) {
+            ExternalizableStrategy.setStrategy(strategy);
+            try {
+                MeasurementReport copy = ensureSerializable(report);
+                assert copy.getCollectionTime() == 1234 : strategy;
+                List<MeasurementDataNumeric> numerics = new ArrayList<MeasurementDataNumeric>(copy.getNumericData());
+                assert numerics.equals(new ArrayList<MeasurementDataNumeric>(report.getNumericData())) : strategy;
+                assert numerics.get(5).getValue() == null : numerics.get(5);
+                MeasurementDataNumeric numeric = copy.getNumericData().iterator().next();
+                assert numeric.getValue().equals(0.0) : numeric;
+                assert numeric.getTimestamp() == now : numeric;
+
+                MeasurementDataTrait trait = copy.getTraitData().iterator().next();
+                assert trait.getScheduleId() == Integer.MAX_VALUE : trait;
+                assert trait.getTimestamp() == now + 10000L : trait;
+                assert trait.getValue() == null : trait;
+            } finally {
+                ExternalizableStrategy.setStrategy(ExternalizableStrategy.Subsystem.AGENT);
+            }
+        }
+    }
+
+    public void testMeasurementReportDeltaEncoding() throws Exception {
+        MeasurementReport report = new MeasurementReport();
+        long now = System.currentTimeMillis();
+        Double[] odd = new Double[] { 1.5, null, Double.NaN, -0.0, 0.0, Double.MAX_VALUE, -1e300, 2.0 };
+        for (int i = 0; i < 10; i++) {
+            for (int schedule = 0; schedule < 50; schedule++) {
+                Double value;
+                if (schedule % 3 == 0) {
+                    value = 42.0; // flat gauge
+                } else if (schedule % 3 == 1) {
+                    value = (double) (1000000L + (i * i * 17L)); // counter
+                } else {
+                    value = odd[(i + schedule) % odd.length];
+                }
+                // one schedule is collected at irregular times
+                long timestamp = now + (i * 60000L) + ((schedule == 7) ? i * i : 0L);
+                MeasurementDataNumeric numeric = new MeasurementDataNumeric(timestamp, 20000 + schedule, value);
+                numeric.setName("metric" + (schedule % 5));
+                report.addData(numeric);
+            }
+        }
+        report.addData(new MeasurementDataTrait(now, new MeasurementScheduleRequest(5, "trait", 1, true,
+            DataType.TRAIT), "value"));
+
+        byte[] full = serialize(report);
+        report.setDeltaEncoded(true);
+        byte[] delta = serialize(report);
+        assert delta.length < full.length / 2 : delta.length + " vs " + full.length;
+
+        MeasurementReport copy = (MeasurementReport) deserialize(delta);
+        assert copy.isDeltaEncoded();
+        assert copy.getDataCount() == report.getDataCount() : copy.getDataCount();
+        assert copy.getNumericData().size() == report.getNumericData().size() : copy.getNumericData().size();
+        assert copy.getTraitData().iterator().next().getValue().equals("value");
+
+        List<String> expected = new ArrayList<String>();
+        for (MeasurementDataNumeric numeric : report.getNumericData()) {
+            expected.add(describe(numeric));
+        }
+        List<String> actual = new ArrayList<String>();
+        for (MeasurementDataNumeric numeric : copy.getNumericData()) {
+            actual.add(describe(numeric));
+        }
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assert actual.equals(expected) : actual;
+
+        // a server can pass the expanded report on in the full form
+        copy.setDeltaEncoded(false);
+        assert ((MeasurementReport) deserialize(serialize(copy))).getNumericData().size() == expected.size();
+    }
+
+    private static String describe(MeasurementDataNumeric numeric) {
+        Double value = numeric.getValue();
+        return numeric.getScheduleId() + "/" + numeric.getTimestamp() + "/" + numeric.getName() + "/"
+            + ((value == null) ? "null" : Long.toHexString(Double.doubleToRawLongBits(value)));
+    }
+
+    public void testAvailabilityReportCompactEncoding() {
+        AvailabilityReport report = new AvailabilityReport(true, "the-agent-name");
+        report.setEnablementReport(true);
+        report.addAvailability(new AvailabilityReport.Datum(500, AvailabilityType.UP, 2000L));
+        report.addAvailability(new AvailabilityReport.Datum(3, AvailabilityType.DOWN, 1000L));
+        report.addAvailability(new AvailabilityReport.Datum(Integer.MAX_VALUE, null, Long.MAX_VALUE));
+        report.addAvailability(new AvailabilityReport.Datum(Integer.MIN_VALUE, AvailabilityType.DISABLED, 0L));
+
+        for (ExternalizableStrategy.Subsystem strategy : ExternalizableStrategy.Subsystem.values()) {
+            ExternalizableStrategy.setStrategy(strategy);
+            try {
+                AvailabilityReport copy = ensureSerializable(report);
+                assert copy.getAgentName().equals("the-agent-name") : strategy;
+                assert copy.isChangesOnlyReport() && copy.isEnablementReport() && copy.isServerSideReport() : strategy;
+                List<AvailabilityReport.Datum> expected = report.getResourceAvailability();
+                List<AvailabilityReport.Datum> actual = copy.getResourceAvailability();
+                assert actual.size() == expected.size() : strategy;
+                for (int i = 0; i < expected.size(); i++) {
+                    assert actual.get(i).getResourceId() == expected.get(i).getResourceId() : actual.get(i);
+                    assert actual.get(i).getStartTime() == expected.get(i).getStartTime() : actual.get(i);
+                    assert actual.get(i).getAvailabilityType() == expected.get(i).getAvailabilityType() : actual.get(i);
+                }
+            } finally {
+                ExternalizableStrategy.setStrategy(ExternalizableStrategy.Subsystem.AGENT);
+            }
+        }
+    }
+
     public void testEventReport() {
         ResourceType resourceType = new ResourceType("foo", "foo", ResourceCategory.PLATFORM, null);
         Resource resource = new Resource(1);
@@ -23,6 +23,7 @@
 package org.rhq.core.pluginapi.event.log;
 
 import java.io.File;
+import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -50,6 +51,8 @@ import org.rhq.core.domain.event.EventSeverity;
  */
 public class Log4JLogEntryProcessor extends MultiLineLogEntryProcessor {
 
+    private static final String DEFAULT_REGEX = "(.*?) [\\[\\(]??\\s*(TRACE|DEBUG|INFO|WARN|ERROR|FATAL)\\s*"
+        + "[\\]\\)]?? (.*)";
     private static final String REGEX;
     private static final Pattern PATTERN;
 
@@ -70,7 +73,7 @@ public class Log4JLogEntryProcessor extends MultiLineLogEntryProcessor {
         // just in case there is something unanticipated that our default pattern doesn't like, allow
         // a backdoor prop to set the REGEX pattern.
         String regex = System.getProperty("rhq.agent.event.log4j.regex");
-        REGEX = (null != regex) ? regex : "(.*?) [\\[\\(]??\\s*(TRACE|DEBUG|INFO|WARN|ERROR|FATAL)\\s*[\\]\\)]?? (.*)";
+        REGEX = (null != regex) ? regex : DEFAULT_REGEX;
         PATTERN = Pattern.compile(REGEX);
 
         PRIORITY_TO_SEVERITY_MAP.put(Priority.TRACE, EventSeverity.DEBUG);
@@ -104,6 +107,24 @@ public class Log4JLogEntryProcessor extends MultiLineLogEntryProcessor {
         return new LogEntry(timestamp, severity, detail);
     }
 
+    /**
+     * A line can only match the default pattern if it contains one of the priorities, so a line that contains none
+     * of the priorities that map to at least the minimum severity can not begin an entry that becomes an Event.
+     */
+    @Override
+    protected boolean mayBeginEntry(LogFileTailer.Line line) {
+        if (!DEFAULT_REGEX.equals(REGEX)) {
+            return true;
+        }
+        for (Priority priority : Priority.values()) {
+            if (PRIORITY_TO_SEVERITY_MAP.get(priority).isAtLeastAsSevereAs(this.minimumSeverity)
+                && line.contains(priority.token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected DateFormat getDefaultDateFormat() {
         return iso8601DateFormat;
     }
@@ -129,6 +150,9 @@ public class Log4JLogEntryProcessor extends MultiLineLogEntryProcessor {
     }
 
     private enum Priority {
-        TRACE, DEBUG, INFO, WARN, ERROR, FATAL
+        TRACE, DEBUG, INFO, WARN, ERROR, FATAL;
+
+        // the name as it appears in the bytes of a line, the tailer only scans files with ASCII compatible charsets
+        private final byte[] token = name().getBytes(Charset.forName("US-ASCII"));
     }
 }
@@ -21,9 +21,7 @@ package org.rhq.core.pluginapi.event.log;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -39,7 +37,9 @@ import org.rhq.core.pluginapi.event.EventContext;
 import org.rhq.core.pluginapi.event.EventPoller;
 
 /**
- * An Event poller that polls a log file for new entries. 
+ * An Event poller that polls a log file for new entries. The new lines are read by a {@link LogFileTailer}; if the
+ * entry processor is a {@link MultiLineLogEntryProcessor}, lines are handed to it without going through a reader, so
+ * that lines that can not become part of an Event are skipped before they are decoded.
  *
  * @author Ian Springer
  */
@@ -49,6 +49,7 @@ public class LogFileEventPoller implements EventPoller {
     private String eventType;
     private File logFile;
     private FileInfo logFileInfo;
+    private LogFileTailer tailer;
     private LogEntryProcessor entryProcessor;
     private EventContext eventContext;
     private boolean initialized;
@@ -114,6 +115,8 @@ public class LogFileEventPoller implements EventPoller {
         if (sigar != null) {
             try {
                 this.logFileInfo = new LogFileInfo(sigar.getFileInfo(logFile.getPath()));
+                // start tailing at the end of the file
+                this.tailer = new LogFileTailer(this.logFile, this.logFileInfo.getSize(), this.logFileInfo.getInode());
             } catch (SigarException e) {
                 throw new RuntimeException("Failed to obtain file info for log file [" + this.logFile + "].", e);
             }
@@ -126,60 +129,19 @@ public class LogFileEventPoller implements EventPoller {
 
     private Set<Event> processNewLines(FileInfo fileInfo) {
         Set<Event> events = null;
-        Reader reader = null;
         try {
-            reader = new FileReader(this.logFile);
-
-            long offset = getOffset(fileInfo);
-
-            if (offset > 0) {
-                reader.skip(offset);
+            if (this.tailer.isLineScanning() && this.entryProcessor instanceof MultiLineLogEntryProcessor) {
+                MultiLineLogEntryProcessor.LineCollector collector = ((MultiLineLogEntryProcessor) this.entryProcessor)
+                    .newLineCollector();
+                this.tailer.read(fileInfo.getInode(), collector);
+                events = collector.getEvents();
+            } else {
+                BufferedReader bufferedReader = this.tailer.readNewContent(fileInfo.getInode());
+                events = this.entryProcessor.processLines(bufferedReader);
             }
-            BufferedReader bufferedReader = new BufferedReader(reader);
-            events = this.entryProcessor.processLines(bufferedReader);
         } catch (IOException e) {
             LOG.error("Failed to read log file being tailed: " + this.logFile, e);
-        } finally {
-            if (reader != null) {
-                //noinspection EmptyCatchBlock
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                }
-            }
         }
         return events;
     }
-
-    private long getOffset(FileInfo fileInfo) {
-        FileInfo previousFileInfo = fileInfo.getPreviousInfo();
-
-        if (previousFileInfo == null) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug(this.logFile + ": first stat");
-            }
-            return fileInfo.getSize();
-        }
-
-        if (fileInfo.getInode() != previousFileInfo.getInode()) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug(this.logFile + ": file inode changed");
-            }
-            return -1;
-        }
-
-        if (fileInfo.getSize() < previousFileInfo.getSize()) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug(this.logFile + ": file truncated");
-            }
-            return -1;
-        }
-
-        if (LOG.isDebugEnabled()) {
-            long diff = fileInfo.getSize() - previousFileInfo.getSize();
-            LOG.debug(this.logFile + ": " + diff + " new bytes");
-        }
-
-        return previousFileInfo.getSize();
-    }
 }
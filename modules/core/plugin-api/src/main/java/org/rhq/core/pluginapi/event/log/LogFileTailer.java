@@ -0,0 +1,308 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.core.pluginapi.event.log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Reads the lines appended to a log file since the previous read. The tailer remembers the byte offset up to which the
+ * file has been read and the inode of the file; if the inode changes (the file was rotated) or the file becomes shorter
+ * than the offset (the file was truncated), the file is read from its beginning.
+ *
+ * <p>Lines are found by scanning the bytes of the file in a reused direct buffer and are handed to a
+ * {@link LineHandler} as {@link Line}s, which are only decoded into strings if the handler asks for it. A line that
+ * has not been terminated yet is left for the next read. Lines are split at '\n' bytes, so this is only possible if
+ * the file's charset encodes ASCII as single bytes, see {@link #isLineScanning()}; otherwise
+ * {@link #readNewContent(long)} has to be used.</p>
+ *
+ * @since 4.10
+ */
+public class LogFileTailer {
+    private static final Log LOG = LogFactory.getLog(LogFileTailer.class);
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File logFile;
+    private final Charset charset;
+    private final boolean lineScanning;
+    private long position;
+    private long inode;
+    private ByteBuffer buffer;
+
+    /**
+     * @param logFile the file to tail
+     * @param position the offset from which to read, usually the size of the file when tailing starts
+     * @param inode the inode of the file
+     */
+    public LogFileTailer(File logFile, long position, long inode) {
+        this(logFile, position, inode, Charset.defaultCharset());
+    }
+
+    /**
+     * @param logFile the file to tail
+     * @param position the offset from which to read, usually the size of the file when tailing starts
+     * @param inode the inode of the file
+     * @param charset the charset of the file
+     */
+    public LogFileTailer(File logFile, long position, long inode, Charset charset) {
+        this.logFile = logFile;
+        this.position = position;
+        this.inode = inode;
+        this.charset = charset;
+        this.lineScanning = isAsciiCompatible(charset);
+    }
+
+    /**
+     * @return <code>true</code> if {@link #read(long, LineHandler)} can be used for the charset of the file
+     */
+    public boolean isLineScanning() {
+        return lineScanning;
+    }
+
+    /**
+     * @return the offset up to which the file has been read
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Hands the complete lines appended to the file since the previous read to the handler.
+     *
+     * @param currentInode the current inode of the file
+     * @param handler receives the lines
+     *
+     * @throws IOException if reading the file fails
+     * @throws IllegalStateException if the charset of the file does not allow scanning lines
+     */
+    public void read(long currentInode, LineHandler handler) throws IOException {
+        if (!lineScanning) {
+            throw new IllegalStateException("Lines can not be scanned in files encoded with " + charset);
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        Line line = new Line(buffer, charset);
+
+        RandomAccessFile file = new RandomAccessFile(logFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            checkFile(currentInode, size);
+
+            buffer.clear();
+            long readPosition = position;
+            while (readPosition < size) {
+                if (buffer.remaining() > size - readPosition) {
+                    buffer.limit(buffer.position() + (int) (size - readPosition)); // the size this read started with
+                }
+                int read = channel.read(buffer, readPosition);
+                if (read <= 0) {
+                    break;
+                }
+                readPosition += read;
+                buffer.flip();
+
+                int lineStart = 0;
+                int limit = buffer.limit();
+                for (int i = 0; i < limit; i++) {
+                    if (buffer.get(i) == '\n') {
+                        int lineEnd = (i > lineStart && buffer.get(i - 1) == '\r') ? i - 1 : i;
+                        handler.line(line.set(lineStart, lineEnd));
+                        lineStart = i + 1;
+                    }
+                }
+                if (lineStart == 0 && limit == buffer.capacity()) {
+                    // a line longer than the buffer, hand it out in pieces
+                    handler.line(line.set(0, limit));
+                    lineStart = limit;
+                }
+
+                position += lineStart;
+                buffer.position(lineStart);
+                buffer.compact();
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Reads everything appended to the file since the previous read, including a last line that has not been
+     * terminated yet.
+     *
+     * @param currentInode the current inode of the file
+     *
+     * @return a reader over the new content
+     *
+     * @throws IOException if reading the file fails
+     */
+    public BufferedReader readNewContent(long currentInode) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(logFile, "r");
+        byte[] content;
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            checkFile(currentInode, size);
+
+            content = new byte[(int) Math.min(size - position, Integer.MAX_VALUE)];
+            ByteBuffer contentBuffer = ByteBuffer.wrap(content);
+            while (contentBuffer.hasRemaining()) {
+                if (channel.read(contentBuffer, position + contentBuffer.position()) <= 0) {
+                    break;
+                }
+            }
+            position += contentBuffer.position();
+        } finally {
+            file.close();
+        }
+        return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content), charset));
+    }
+
+    private void checkFile(long currentInode, long size) {
+        if (currentInode != inode) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(logFile + ": file inode changed");
+            }
+            inode = currentInode;
+            position = 0;
+        } else if (size < position) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(logFile + ": file truncated");
+            }
+            position = 0;
+        } else if (LOG.isDebugEnabled()) {
+            LOG.debug(logFile + ": " + (size - position) + " new bytes");
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the charset encodes every ASCII character as the same single byte
+     */
+    static boolean isAsciiCompatible(Charset charset) {
+        byte[] ascii = new byte[128];
+        char[] chars = new char[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (byte) i;
+            chars[i] = (char) i;
+        }
+        return Arrays.equals(ascii, new String(chars).getBytes(charset));
+    }
+
+    /**
+     * Receives the lines read by a {@link LogFileTailer}.
+     */
+    public interface LineHandler {
+        /**
+         * @param line the line, only valid until this method returns
+         */
+        void line(Line line) throws IOException;
+    }
+
+    /**
+     * A line of a log file, without its line terminator. Its bytes are only valid while it is being handled.
+     */
+    public static final class Line {
+        private final ByteBuffer buffer;
+        private final Charset charset;
+        private byte[] bytes = new byte[256];
+        private int start;
+        private int end;
+
+        private Line(ByteBuffer buffer, Charset charset) {
+            this.buffer = buffer;
+            this.charset = charset;
+        }
+
+        private Line set(int start, int end) {
+            this.start = start;
+            this.end = end;
+            return this;
+        }
+
+        public int length() {
+            return end - start;
+        }
+
+        public byte byteAt(int index) {
+            return buffer.get(start + index);
+        }
+
+        /**
+         * @param sequence the bytes to look for
+         * @return <code>true</code> if the line contains the bytes
+         */
+        public boolean contains(byte[] sequence) {
+            int last = end - sequence.length;
+            for (int i = start; i <= last; i++) {
+                if (buffer.get(i) == sequence[0]) {
+                    int j = 1;
+                    while (j < sequence.length && buffer.get(i + j) == sequence[j]) {
+                        j++;
+                    }
+                    if (j == sequence.length) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(copyBytes(), 0, length());
+        }
+
+        /**
+         * @return the line decoded with the charset of the file
+         */
+        @Override
+        public String toString() {
+            return new String(copyBytes(), 0, length(), charset);
+        }
+
+        private byte[] copyBytes() {
+            int length = length();
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.limit(end);
+            view.position(start);
+            view.get(bytes, 0, length);
+            return bytes;
+        }
+    }
+}
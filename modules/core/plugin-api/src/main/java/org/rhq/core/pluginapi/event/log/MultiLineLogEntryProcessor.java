@@ -87,6 +87,30 @@ public abstract class MultiLineLogEntryProcessor implements LogEntryProcessor {
         this.dateFormat = dateFormat;
     }
 
+    /**
+     * Returns a handler that processes the lines read by a {@link LogFileTailer} the way
+     * {@link #processLines(BufferedReader)} does. Lines that can neither add to an entry that may become an Event nor
+     * begin such an entry, as told by {@link #mayBeginEntry(LogFileTailer.Line)}, are skipped without being decoded.
+     */
+    LineCollector newLineCollector() {
+        return new LineCollector();
+    }
+
+    /**
+     * Tells from the bytes of a line whether it may begin a log entry that is at least as severe as the
+     * {@link #setMinimumSeverity(EventSeverity) minimum severity}. This is asked before the line is decoded and
+     * matched against the {@link #getPattern() pattern}, and only for lines that would otherwise be dropped if they do
+     * not begin an entry. The default implementation returns <code>true</code>; subclasses can return
+     * <code>false</code> when they are sure that the line can not begin an entry that becomes an Event.
+     *
+     * @param line the line
+     *
+     * @return <code>false</code> if the line can be skipped
+     */
+    protected boolean mayBeginEntry(LogFileTailer.Line line) {
+        return true;
+    }
+
     protected LogEntry processLine(String line, Set<Event> events, LogEntry currentEntry) {
         Matcher matcher = getPattern().matcher(line);
         if (matcher.matches()) {
@@ -113,6 +137,10 @@ public abstract class MultiLineLogEntryProcessor implements LogEntryProcessor {
 
     protected abstract Pattern getPattern();
 
+    private boolean mayBecomeEvent(LogEntry entry) {
+        return entry != null && entry.getSeverity().isAtLeastAsSevereAs(this.minimumSeverity);
+    }
+
     private void addEventForCurrentEntry(Set<Event> events, LogEntry currentEntry) {
         if (currentEntry != null) {
             if (currentEntry.getSeverity().isAtLeastAsSevereAs(this.minimumSeverity)
@@ -163,6 +191,33 @@ public abstract class MultiLineLogEntryProcessor implements LogEntryProcessor {
         return date;
     }
 
+    /**
+     * Processes lines read by a {@link LogFileTailer}, keeping the current entry between lines.
+     */
+    final class LineCollector implements LogFileTailer.LineHandler {
+        // Use a LinkedHashSet so the Events are in the same order as the log entries they correspond to.
+        private final Set<Event> events = new LinkedHashSet<Event>();
+        private LogEntry currentEntry;
+
+        public void line(LogFileTailer.Line line) {
+            // a line that does not begin an entry is appended to the current entry, which may not become an Event
+            if (!mayBecomeEvent(currentEntry) && !mayBeginEntry(line)) {
+                return;
+            }
+            currentEntry = processLine(line.toString(), events, currentEntry);
+        }
+
+        /**
+         * @return the Events for the lines processed, including the last entry
+         */
+        Set<Event> getEvents() {
+            // We've reached the end of the new lines, so assume the current entry is complete.
+            addEventForCurrentEntry(events, currentEntry);
+            currentEntry = null;
+            return events;
+        }
+    }
+
     protected static class LogEntry {
         private Date date;
         private EventSeverity severity;
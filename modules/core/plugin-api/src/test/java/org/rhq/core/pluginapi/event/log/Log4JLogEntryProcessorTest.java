@@ -24,7 +24,9 @@ package org.rhq.core.pluginapi.event.log;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.StringReader;
+import java.nio.charset.Charset;
 import java.util.Calendar;
 import java.util.Iterator;
 import java.util.Set;
@@ -156,4 +158,35 @@ public class Log4JLogEntryProcessorTest {
         assert event1.getDetail().equals("[com.example.FooBar] test message");
     }
 
+    public void testProcessTailedLines() throws Exception {
+        String eventType = "logEntry";
+        File logFile = File.createTempFile("Log4JLogEntryProcessorTest", ".log");
+        logFile.deleteOnExit();
+        LogFileTailer tailer = new LogFileTailer(logFile, 0L, 1L, Charset.forName("UTF-8"));
+        FileOutputStream out = new FileOutputStream(logFile);
+        try {
+            out.write(TEST_LOG.toString().getBytes("UTF-8"));
+            out.write("2008-02-09 02:10:12,000 ERROR [com.example.FooBar] failed\n\tat Foo.bar()\n".getBytes("UTF-8"));
+            out.write("2008-02-09 02:10:13,000 DEBUG [com.example.FooBar] mentions ERROR in passing\n".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        Log4JLogEntryProcessor processor = new Log4JLogEntryProcessor(eventType, logFile);
+        processor.setMinimumSeverity(EventSeverity.WARN);
+        MultiLineLogEntryProcessor.LineCollector collector = processor.newLineCollector();
+        tailer.read(1L, collector);
+        Set<Event> events = collector.getEvents();
+        assert events.size() == 1 : events;
+        Event event = events.iterator().next();
+        assert event.getSeverity().equals(EventSeverity.ERROR);
+        assert event.getDetail().equals("[com.example.FooBar] failed\n\tat Foo.bar()") : event.getDetail();
+
+        processor.setMinimumSeverity(null);
+        tailer = new LogFileTailer(logFile, 0L, 1L, Charset.forName("UTF-8"));
+        collector = processor.newLineCollector();
+        tailer.read(1L, collector);
+        events = collector.getEvents();
+        assert events.size() == 4 : events;
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.core.pluginapi.event.log;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+@Test
+public class LogFileTailerTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public void testReadsAppendedLines() throws Exception {
+        File file = newLogFile("old line\n");
+        LogFileTailer tailer = new LogFileTailer(file, file.length(), 1L, UTF8);
+
+        append(file, "first\r\nsecond\n");
+        assertEquals(readLines(tailer, 1L), Arrays.asList("first", "second"));
+        assertEquals(tailer.getPosition(), file.length());
+
+        assertEquals(readLines(tailer, 1L), new ArrayList<String>(), "nothing new");
+    }
+
+    public void testUnterminatedLineIsLeftForNextRead() throws Exception {
+        File file = newLogFile("");
+        LogFileTailer tailer = new LogFileTailer(file, 0L, 1L, UTF8);
+
+        append(file, "complete\npart");
+        assertEquals(readLines(tailer, 1L), Arrays.asList("complete"));
+        append(file, "ial\n");
+        assertEquals(readLines(tailer, 1L), Arrays.asList("partial"));
+    }
+
+    public void testTruncatedFileIsReadFromStart() throws Exception {
+        File file = newLogFile("a long line that will be truncated\n");
+        LogFileTailer tailer = new LogFileTailer(file, file.length(), 1L, UTF8);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+        } finally {
+            raf.close();
+        }
+        append(file, "new\n");
+        assertEquals(readLines(tailer, 1L), Arrays.asList("new"));
+    }
+
+    public void testRotatedFileIsReadFromStart() throws Exception {
+        File file = newLogFile("");
+        LogFileTailer tailer = new LogFileTailer(file, 0L, 1L, UTF8);
+        append(file, "before rotation\n");
+        assertEquals(readLines(tailer, 1L), Arrays.asList("before rotation"));
+
+        append(file, "after\n");
+        assertEquals(readLines(tailer, 2L), Arrays.asList("before rotation", "after"), "a new inode is a new file");
+    }
+
+    public void testLinesSpanningBuffers() throws Exception {
+        File file = newLogFile("");
+        LogFileTailer tailer = new LogFileTailer(file, 0L, 1L, UTF8);
+
+        StringBuilder content = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; content.length() < 3 * LogFileTailer.BUFFER_SIZE; i++) {
+            String line = "line " + i + " \u00e9\u00e8";
+            expected.add(line);
+            content.append(line).append('\n');
+        }
+        char[] longLine = new char[LogFileTailer.BUFFER_SIZE + 10];
+        Arrays.fill(longLine, 'x');
+        content.append(longLine).append('\n');
+        append(file, content.toString());
+
+        List<String> lines = readLines(tailer, 1L);
+        assertEquals(lines.subList(0, expected.size()), expected);
+        assertEquals(lines.size(), expected.size() + 2, "a line longer than the buffer is split");
+        assertEquals(lines.get(expected.size()).length() + lines.get(expected.size() + 1).length(), longLine.length);
+    }
+
+    public void testReadNewContent() throws Exception {
+        File file = newLogFile("old\n");
+        LogFileTailer tailer = new LogFileTailer(file, file.length(), 1L, UTF8);
+        append(file, "one\ntwo");
+
+        BufferedReader reader = tailer.readNewContent(1L);
+        assertEquals(reader.readLine(), "one");
+        assertEquals(reader.readLine(), "two");
+        assertEquals(reader.readLine(), null);
+        assertEquals(tailer.getPosition(), file.length());
+    }
+
+    public void testLineContains() throws Exception {
+        File file = newLogFile("");
+        LogFileTailer tailer = new LogFileTailer(file, 0L, 1L, UTF8);
+        append(file, "2014-01-01 10:00:00,000 ERROR [foo] bar\n");
+        final List<Boolean> results = new ArrayList<Boolean>();
+        tailer.read(1L, new LogFileTailer.LineHandler() {
+            public void line(LogFileTailer.Line line) {
+                results.add(line.contains("ERROR".getBytes(UTF8)));
+                results.add(line.contains("bar".getBytes(UTF8)));
+                results.add(line.contains("WARN".getBytes(UTF8)));
+                results.add(line.contains("bar!".getBytes(UTF8)));
+            }
+        });
+        assertEquals(results, Arrays.asList(true, true, false, false));
+    }
+
+    public void testAsciiCompatibility() {
+        assertTrue(LogFileTailer.isAsciiCompatible(UTF8));
+        assertTrue(LogFileTailer.isAsciiCompatible(Charset.forName("ISO-8859-1")));
+        assertFalse(LogFileTailer.isAsciiCompatible(Charset.forName("UTF-16")));
+    }
+
+    private static List<String> readLines(LogFileTailer tailer, long inode) throws IOException {
+        final List<String> lines = new ArrayList<String>();
+        tailer.read(inode, new LogFileTailer.LineHandler() {
+            public void line(LogFileTailer.Line line) {
+                lines.add(line.toString());
+            }
+        });
+        return lines;
+    }
+
+    private static File newLogFile(String content) throws IOException {
+        File file = File.createTempFile("LogFileTailerTest", ".log");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(UTF8));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void append(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(content.getBytes(UTF8));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -88,6 +88,18 @@ public class PluginContainerConfiguration {
     public static final long AVAILABILITY_SCAN_PERIOD_DEFAULT = 30L;
     public static final String AVAILABILITY_SCAN_THREADPOOL_SIZE_PROP = "availability-scan-threadpool-size";
     public static final int AVAILABILITY_SCAN_THREADPOOL_SIZE_DEFAULT = 100;
+    private static final String AVAILABILITY_SCAN_CONCURRENCY_PROP = PROP_PREFIX + "availability-scan-concurrency";
+    public static final int AVAILABILITY_SCAN_CONCURRENCY_DEFAULT = 4;
+    private static final String AVAILABILITY_SCAN_TIMEOUT_PROP = PROP_PREFIX + "availability-scan-timeout";
+    public static final long AVAILABILITY_SCAN_TIMEOUT_DEFAULT = 0L; // in seconds, 0 means the scan period
+
+    // Component invocation ----------
+
+    private static final String COMPONENT_INVOKER_THREADPOOL_SIZE_PROP = PROP_PREFIX
+        + "component-invoker-threadpool-size";
+    public static final int COMPONENT_INVOKER_THREADPOOL_SIZE_DEFAULT = 200;
+    private static final String COMPONENT_INVOCATION_INLINE_PROP = PROP_PREFIX + "component-invocation-inline";
+    public static final boolean COMPONENT_INVOCATION_INLINE_DEFAULT = false;
 
     // Measurement ----------
 
@@ -97,6 +109,14 @@ public class PluginContainerConfiguration {
     private static final String MEASUREMENT_COLLECTION_THREADCOUNT_PROP = PROP_PREFIX
         + "measurement-collection-threadpoolsize";
     public static final int MEASUREMENT_COLLECTION_THREADCOUNT_DEFAULT = 5;
+    private static final String MEASUREMENT_COLLECTION_PLUGIN_CONCURRENCY_PROP = PROP_PREFIX
+        + "measurement-collection-plugin-concurrency";
+    public static final int MEASUREMENT_COLLECTION_PLUGIN_CONCURRENCY_DEFAULT = 3;
+    private static final String MEASUREMENT_REPORT_PERIOD_PROP = PROP_PREFIX + "measurement-report-period";
+    public static final long MEASUREMENT_REPORT_PERIOD_DEFAULT = 30L; // in seconds
+    private static final String MEASUREMENT_REPORT_DELTA_ENCODING_PROP = PROP_PREFIX
+        + "measurement-report-delta-encoding";
+    public static final boolean MEASUREMENT_REPORT_DELTA_ENCODING_DEFAULT = false;
 
     // Drift ----------
 
@@ -496,6 +516,89 @@ public class PluginContainerConfiguration {
         configuration.put(AVAILABILITY_SCAN_THREADPOOL_SIZE_PROP, Integer.valueOf(size));
     }
 
+    /**
+     * Returns the maximum number of subtrees of the inventory that a single availability scan checks at the same
+     * time. A value of 1 checks the whole inventory on the scan thread.
+     *
+     * @return the number of subtrees checked concurrently by an availability scan
+     */
+    public int getAvailabilityScanConcurrency() {
+        Integer concurrency = (Integer) configuration.get(AVAILABILITY_SCAN_CONCURRENCY_PROP);
+        return (concurrency == null) ? AVAILABILITY_SCAN_CONCURRENCY_DEFAULT : concurrency.intValue();
+    }
+
+    /**
+     * Sets the maximum number of subtrees of the inventory that a single availability scan checks at the same time.
+     *
+     * @param concurrency the number of subtrees checked concurrently by an availability scan
+     */
+    public void setAvailabilityScanConcurrency(int concurrency) {
+        configuration.put(AVAILABILITY_SCAN_CONCURRENCY_PROP, Integer.valueOf(concurrency));
+    }
+
+    /**
+     * Returns the length of time, in seconds, an availability scan may take. A scan that runs out of time stops
+     * checking further resources and reports what it has so far, and the following scan sends a full report. If not
+     * set, or not positive, the {@link #getAvailabilityScanPeriod() scan period} is used.
+     *
+     * @return the number of seconds an availability scan may take
+     */
+    public long getAvailabilityScanTimeout() {
+        Long timeout = (Long) configuration.get(AVAILABILITY_SCAN_TIMEOUT_PROP);
+        long secs = (timeout == null) ? AVAILABILITY_SCAN_TIMEOUT_DEFAULT : timeout.longValue();
+        return (secs > 0) ? secs : getAvailabilityScanPeriod();
+    }
+
+    /**
+     * Sets the length of time, in seconds, an availability scan may take.
+     *
+     * @param timeout the number of seconds an availability scan may take, 0 to use the scan period
+     */
+    public void setAvailabilityScanTimeout(long timeout) {
+        configuration.put(AVAILABILITY_SCAN_TIMEOUT_PROP, Long.valueOf(timeout));
+    }
+
+    /**
+     * Returns the maximum number of threads each of the pools that invoke resource components with a timeout may
+     * have. Once a pool has that many busy threads, further invocations run on the calling thread.
+     *
+     * @return the maximum size of a component invoker thread pool
+     */
+    public int getComponentInvokerThreadPoolSize() {
+        Integer size = (Integer) configuration.get(COMPONENT_INVOKER_THREADPOOL_SIZE_PROP);
+        return (size == null) ? COMPONENT_INVOKER_THREADPOOL_SIZE_DEFAULT : size.intValue();
+    }
+
+    /**
+     * Sets the maximum number of threads each component invoker thread pool may have.
+     *
+     * @param size the maximum size of a component invoker thread pool
+     */
+    public void setComponentInvokerThreadPoolSize(int size) {
+        configuration.put(COMPONENT_INVOKER_THREADPOOL_SIZE_PROP, Integer.valueOf(size));
+    }
+
+    /**
+     * If true, resource component invocations that have a timeout run on the calling thread whenever that thread can
+     * stand in for an invoker thread, and the timeout is enforced by interrupting the calling thread. This saves a
+     * thread handoff per invocation, but a component that ignores the interrupt holds up the caller past the timeout.
+     *
+     * @return true if component invocations may run on the calling thread
+     */
+    public boolean isComponentInvocationInline() {
+        Boolean inline = (Boolean) configuration.get(COMPONENT_INVOCATION_INLINE_PROP);
+        return (inline == null) ? COMPONENT_INVOCATION_INLINE_DEFAULT : inline.booleanValue();
+    }
+
+    /**
+     * Defines if resource component invocations that have a timeout may run on the calling thread.
+     *
+     * @param inline true to let component invocations run on the calling thread
+     */
+    public void setComponentInvocationInline(boolean inline) {
+        configuration.put(COMPONENT_INVOCATION_INLINE_PROP, Boolean.valueOf(inline));
+    }
+
     /**
      * Returns the length of time, in seconds, before measurements begin getting collected.
      *
@@ -515,6 +618,46 @@ public class PluginContainerConfiguration {
         configuration.put(MEASUREMENT_COLLECTION_INITIAL_DELAY_PROP, Long.valueOf(period));
     }
 
+    /**
+     * Returns how often, in seconds, the collected measurements are sent to the server.
+     *
+     * @return the measurement report period in seconds
+     */
+    public long getMeasurementReportPeriod() {
+        Long period = (Long) configuration.get(MEASUREMENT_REPORT_PERIOD_PROP);
+        return (period == null) ? MEASUREMENT_REPORT_PERIOD_DEFAULT : period.longValue();
+    }
+
+    /**
+     * Sets how often, in seconds, the collected measurements are sent to the server.
+     *
+     * @param period the measurement report period in seconds
+     */
+    public void setMeasurementReportPeriod(long period) {
+        configuration.put(MEASUREMENT_REPORT_PERIOD_PROP, Long.valueOf(period));
+    }
+
+    /**
+     * If true, the numeric data of measurement reports are sent as runs per schedule that only carry the changes
+     * from one collection to the next. This makes reports smaller the more collections of each schedule they hold,
+     * i.e. the longer the {@link #getMeasurementReportPeriod() report period} is compared to the collection intervals.
+     *
+     * @return true if measurement reports are delta encoded
+     */
+    public boolean isMeasurementReportDeltaEncoding() {
+        Boolean deltaEncoding = (Boolean) configuration.get(MEASUREMENT_REPORT_DELTA_ENCODING_PROP);
+        return (deltaEncoding == null) ? MEASUREMENT_REPORT_DELTA_ENCODING_DEFAULT : deltaEncoding.booleanValue();
+    }
+
+    /**
+     * Defines if the numeric data of measurement reports are delta encoded.
+     *
+     * @param deltaEncoding true to delta encode measurement reports
+     */
+    public void setMeasurementReportDeltaEncoding(boolean deltaEncoding) {
+        configuration.put(MEASUREMENT_REPORT_DELTA_ENCODING_PROP, Boolean.valueOf(deltaEncoding));
+    }
+
     /**
      * Returns the length of time, in seconds, before auto-discovery of platforms/servers first begins.
      *
@@ -663,6 +806,27 @@ public class PluginContainerConfiguration {
         configuration.put(MEASUREMENT_COLLECTION_THREADCOUNT_PROP, Integer.valueOf(size));
     }
 
+    /**
+     * Measurements of the resources of a single plugin are collected by at most this many threads of the measurement
+     * collection thread pool at the same time, so that a plugin whose resources are slow to respond can not hold up
+     * the collections of all other plugins.
+     *
+     * @return the maximum number of concurrent collections per plugin
+     */
+    public int getMeasurementCollectionPluginConcurrency() {
+        Integer concurrency = (Integer) configuration.get(MEASUREMENT_COLLECTION_PLUGIN_CONCURRENCY_PROP);
+        return (concurrency == null) ? MEASUREMENT_COLLECTION_PLUGIN_CONCURRENCY_DEFAULT : concurrency.intValue();
+    }
+
+    /**
+     * Defines the maximum number of measurement collections that can run concurrently for a single plugin.
+     *
+     * @param concurrency the maximum number of concurrent collections per plugin
+     */
+    public void setMeasurementCollectionPluginConcurrency(int concurrency) {
+        configuration.put(MEASUREMENT_COLLECTION_PLUGIN_CONCURRENCY_PROP, Integer.valueOf(concurrency));
+    }
+
     /**
      * Returns the length of time, in seconds, before drift detection first begins.
      *
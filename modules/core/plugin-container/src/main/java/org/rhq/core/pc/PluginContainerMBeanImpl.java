@@ -299,6 +299,26 @@ public class PluginContainerMBeanImpl implements PluginContainerMBeanImplMBean {
         return this.pluginContainer.getPluginManager().getClassLoaderManager().getNumberOfResourceClassLoaders();
     }
 
+    public long getComponentInvocationCount() {
+        return ResourceContainer.getComponentInvocationCount();
+    }
+
+    public long getInlineComponentInvocationCount() {
+        return ResourceContainer.getInlineComponentInvocationCount();
+    }
+
+    public long getOverflowComponentInvocationCount() {
+        return ResourceContainer.getOverflowComponentInvocationCount();
+    }
+
+    public long getTimedOutComponentInvocationCount() {
+        return ResourceContainer.getTimedOutComponentInvocationCount();
+    }
+
+    public int getComponentInvokerThreadCount() {
+        return ResourceContainer.getComponentInvokerThreadCount();
+    }
+
     private String generateInventoryReportString(InventoryReport report) {
         StringBuilder reportStr = new StringBuilder();
         if (report != null) {
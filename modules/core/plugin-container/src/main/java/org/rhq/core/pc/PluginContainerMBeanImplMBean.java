@@ -106,4 +106,40 @@ public interface PluginContainerMBeanImplMBean {
      * @return resource classloader count
      */
     int getNumberOfResourceClassLoaders();
+
+    /**
+     * Returns the number of facet method calls made through resource component proxies.
+     *
+     * @return component invocation count
+     */
+    long getComponentInvocationCount();
+
+    /**
+     * Returns the number of facet method calls that ran on the calling thread rather than on an invoker thread.
+     *
+     * @return inline component invocation count
+     */
+    long getInlineComponentInvocationCount();
+
+    /**
+     * Returns the number of facet method calls that ran on the calling thread because all invoker threads were busy.
+     *
+     * @return overflow component invocation count
+     */
+    long getOverflowComponentInvocationCount();
+
+    /**
+     * Returns the number of facet method calls that timed out or were turned down because all invoker threads were
+     * busy.
+     *
+     * @return timed out component invocation count
+     */
+    long getTimedOutComponentInvocationCount();
+
+    /**
+     * Returns the number of threads currently in the pools that invoke resource components.
+     *
+     * @return component invoker thread count
+     */
+    int getComponentInvokerThreadCount();
 }
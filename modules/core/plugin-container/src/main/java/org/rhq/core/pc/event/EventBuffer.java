@@ -0,0 +1,236 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.event;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.rhq.core.domain.event.Event;
+import org.rhq.core.domain.event.EventSource;
+import org.rhq.core.domain.event.transfer.EventReport;
+
+/**
+ * Holds the {@link Event}s published since the last Event report was sent. Each {@link EventSource} gets its own
+ * bounded ring that any number of threads can publish into without taking a lock; a single sender drains all of the
+ * rings into an {@link EventReport} while publishers keep going.
+ * <p/>
+ * The report limits are enforced here, when an Event is offered, rather than after the Event has been added to the
+ * report: a ring holds at most <code>maxEventsPerSource</code> Events and all of the rings together hold at most
+ * <code>maxEventsTotal</code>. Events that do not fit are counted as dropped against their source and the counts are
+ * handed to the report when it is drained, so the usual limit warning Events still get generated.
+ */
+class EventBuffer {
+
+    private final int maxEventsPerSource;
+    private final int maxEventsTotal;
+
+    private final ConcurrentMap<EventSource, SourceRing> rings = new ConcurrentHashMap<EventSource, SourceRing>();
+    private final AtomicInteger bufferedEvents = new AtomicInteger();
+
+    EventBuffer(int maxEventsPerSource, int maxEventsTotal) {
+        this.maxEventsPerSource = Math.max(1, maxEventsPerSource);
+        this.maxEventsTotal = maxEventsTotal;
+    }
+
+    /**
+     * Buffers the given Event if neither its source nor the buffer as a whole is full. May be called concurrently by
+     * any number of threads.
+     *
+     * @return true if the Event was buffered, false if it was dropped
+     */
+    boolean offer(Event event, EventSource eventSource) {
+        SourceRing ring = getRing(eventSource);
+        if (!reserve()) {
+            ring.dropped.incrementAndGet();
+            return false;
+        }
+        while (true) {
+            switch (ring.offer(event)) {
+            case ACCEPTED:
+                return true;
+            case FULL:
+                this.bufferedEvents.decrementAndGet();
+                ring.dropped.incrementAndGet();
+                return false;
+            default:
+                // the sender retired this ring between our lookup and our offer - replace it and try again
+                this.rings.remove(eventSource, ring);
+                ring = getRing(eventSource);
+            }
+        }
+    }
+
+    /**
+     * Indicates whether an Event from the given source would currently be buffered. This is only a hint, since other
+     * threads may fill the buffer in the meantime, but it lets callers avoid creating Events that would be dropped.
+     *
+     * @param eventSource the source to check, or null to only check the total capacity of the buffer
+     */
+    boolean hasCapacity(EventSource eventSource) {
+        if (this.bufferedEvents.get() >= this.maxEventsTotal) {
+            return false;
+        }
+        if (eventSource == null) {
+            return true;
+        }
+        SourceRing ring = this.rings.get(eventSource);
+        return ring == null || ring.size() < ring.capacity();
+    }
+
+    /**
+     * Moves all buffered Events, along with the number of Events dropped since the last drain, into the given report.
+     * Publishers are not blocked while this runs; Events they publish concurrently end up in this report or the next.
+     *
+     * @return the number of Events moved into the report
+     */
+    synchronized int drainTo(EventReport report) {
+        int drained = 0;
+        for (SourceRing ring : this.rings.values()) {
+            int count = ring.drainTo(report);
+            int dropped = ring.dropped.getAndSet(0);
+            report.addDroppedEvents(ring.eventSource, dropped);
+
+            // Rings of sources that have gone quiet are removed so that sources of deleted Resources do not pile up.
+            // A ring has to be idle for two drains in a row, so sources that publish every period keep their ring.
+            if (count == 0 && dropped == 0) {
+                if (ring.idle && ring.retire()) {
+                    this.rings.remove(ring.eventSource, ring);
+                } else {
+                    ring.idle = true;
+                }
+            } else {
+                ring.idle = false;
+            }
+            drained += count;
+        }
+        this.bufferedEvents.addAndGet(-drained);
+        return drained;
+    }
+
+    int size() {
+        return this.bufferedEvents.get();
+    }
+
+    private SourceRing getRing(EventSource eventSource) {
+        SourceRing ring = this.rings.get(eventSource);
+        if (ring == null) {
+            SourceRing newRing = new SourceRing(eventSource, this.maxEventsPerSource);
+            ring = this.rings.putIfAbsent(eventSource, newRing);
+            if (ring == null) {
+                ring = newRing;
+            }
+        }
+        return ring;
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int buffered = this.bufferedEvents.get();
+            if (buffered >= this.maxEventsTotal) {
+                return false;
+            }
+            if (this.bufferedEvents.compareAndSet(buffered, buffered + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private enum OfferResult {
+        ACCEPTED, FULL, RETIRED
+    }
+
+    /**
+     * A bounded multi-producer, single-consumer ring. Producers claim a sequence number by advancing the tail and then
+     * publish their Event into the claimed slot; the consumer takes Events from the head until it reaches a slot
+     * whose Event has not been published yet.
+     */
+    private static final class SourceRing {
+        private static final long RETIRED_TAIL = -1L;
+
+        final EventSource eventSource;
+        final AtomicInteger dropped = new AtomicInteger();
+
+        private final AtomicReferenceArray<Event> slots;
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+
+        // only accessed by the consumer
+        boolean idle;
+
+        SourceRing(EventSource eventSource, int capacity) {
+            this.eventSource = eventSource;
+            this.slots = new AtomicReferenceArray<Event>(capacity);
+        }
+
+        int capacity() {
+            return this.slots.length();
+        }
+
+        int size() {
+            long t = this.tail.get();
+            return (t == RETIRED_TAIL) ? 0 : (int) (t - this.head);
+        }
+
+        OfferResult offer(Event event) {
+            while (true) {
+                long t = this.tail.get();
+                if (t == RETIRED_TAIL) {
+                    return OfferResult.RETIRED;
+                }
+                if (t - this.head >= capacity()) {
+                    return OfferResult.FULL;
+                }
+                if (this.tail.compareAndSet(t, t + 1)) {
+                    this.slots.set(index(t), event);
+                    return OfferResult.ACCEPTED;
+                }
+            }
+        }
+
+        int drainTo(EventReport report) {
+            long end = this.tail.get();
+            long h = this.head;
+            int count = 0;
+            while (h < end) {
+                int index = index(h);
+                Event event = this.slots.get(index);
+                if (event == null) {
+                    break; // the slot is claimed but its producer has not published into it yet
+                }
+                this.slots.set(index, null);
+                this.head = ++h;
+                report.addEvent(event, this.eventSource);
+                count++;
+            }
+            return count;
+        }
+
+        boolean retire() {
+            long t = this.tail.get();
+            return t == this.head && this.tail.compareAndSet(t, RETIRED_TAIL);
+        }
+
+        private int index(long sequence) {
+            return (int) (sequence % this.slots.length());
+        }
+    }
+}
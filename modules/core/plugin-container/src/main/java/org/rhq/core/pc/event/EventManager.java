@@ -24,7 +24,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -61,15 +60,14 @@ public class EventManager implements ContainerService {
 
     private final PluginContainerConfiguration pcConfig;
     private final ScheduledThreadPoolExecutor senderThreadPool;
-    private volatile EventReport activeReport;
-    private final ReentrantReadWriteLock reportLock = new ReentrantReadWriteLock(true);
+    private final EventBuffer eventBuffer;
     private final ScheduledThreadPoolExecutor pollerThreadPool;
     private final Map<PollerKey, Runnable> pollerThreads;
     private SigarProxy sigar;
 
     public EventManager(PluginContainerConfiguration configuration) {
         this.pcConfig = configuration;
-        this.activeReport = new EventReport(this.pcConfig.getEventReportMaxPerSource(), this.pcConfig
+        this.eventBuffer = new EventBuffer(this.pcConfig.getEventReportMaxPerSource(), this.pcConfig
             .getEventReportMaxTotal());
 
         // Schedule sender thread(s) to send Event reports to the Server periodically.
@@ -98,19 +96,37 @@ public class EventManager implements ContainerService {
     }
 
     void publishEvents(@NotNull Set<Event> events, @NotNull Resource resource) {
-        this.reportLock.readLock().lock();
         try {
             for (Event event : events) {
                 EventSource eventSource = createEventSource(event, resource);
-                this.activeReport.addEvent(event, eventSource);
+                this.eventBuffer.offer(event, eventSource);
             }
         } catch (Throwable t) {
             log.error("Failed to add Events for " + resource + " to Event report: " + events, t);
-        } finally {
-            this.reportLock.readLock().unlock();
         }
     }
 
+    /**
+     * Indicates whether Events of the given type and source location would currently be accepted for the next Event
+     * report, so that pollers are not asked to create Events that would only be dropped.
+     *
+     * @param resource the Resource the Events would be published for
+     * @param eventType the type of the Events
+     * @param sourceLocation the source location of the Events, or null if it is not known up front
+     *
+     * @return false if the source, or the report as a whole, is already full
+     */
+    boolean isAcceptingEvents(@NotNull Resource resource, @NotNull String eventType, @Nullable String sourceLocation) {
+        EventSource eventSource = null;
+        if (sourceLocation != null) {
+            EventDefinition eventDefinition = EventUtility.getEventDefinition(eventType, resource.getResourceType());
+            if (eventDefinition != null) {
+                eventSource = new EventSource(sourceLocation, eventDefinition, resource);
+            }
+        }
+        return this.eventBuffer.hasCapacity(eventSource);
+    }
+
     @Nullable
     SigarProxy getSigar() {
         if (this.sigar == null) {
@@ -146,19 +162,14 @@ public class EventManager implements ContainerService {
     }
 
     EventReport swapReport() {
-        this.reportLock.writeLock().lock();
-        try {
-            EventReport previousReport = this.activeReport;
-            this.activeReport = new EventReport(this.pcConfig.getEventReportMaxPerSource(), this.pcConfig
-                .getEventReportMaxTotal());
-            return previousReport;
-        } finally {
-            this.reportLock.writeLock().unlock();
-        }
+        EventReport report = new EventReport(this.pcConfig.getEventReportMaxPerSource(), this.pcConfig
+            .getEventReportMaxTotal());
+        this.eventBuffer.drainTo(report);
+        return report;
     }
 
     void registerEventPoller(EventPoller poller, int pollingInterval, Resource resource, String sourceLocation) {
-        EventPollerRunner pollerRunner = new EventPollerRunner(poller, resource, this);
+        EventPollerRunner pollerRunner = new EventPollerRunner(poller, resource, sourceLocation, this);
         Runnable pollerFuture = (Runnable) this.pollerThreadPool.scheduleAtFixedRate(pollerRunner,
             POLLER_INITIAL_DELAY_SECS, pollingInterval, TimeUnit.SECONDS);
         PollerKey pollerKey = new PollerKey(resource.getId(), poller.getEventType(), sourceLocation);
@@ -43,16 +43,33 @@ public class EventPollerRunner implements Runnable {
     
     private EventPoller eventPoller;
     private Resource resource;
+    private String sourceLocation;
     private EventManager eventManager;
 
     public EventPollerRunner(EventPoller eventPoller, Resource resource, EventManager eventManager) {
+        this(eventPoller, resource, null, eventManager);
+    }
+
+    public EventPollerRunner(EventPoller eventPoller, Resource resource, String sourceLocation,
+        EventManager eventManager) {
         this.eventPoller = eventPoller;
         this.resource = resource;
+        this.sourceLocation = sourceLocation;
         this.eventManager = eventManager;
     }
 
     public void run() {
         try {
+            // Don't let the poller create Events that would only be dropped; skip this poll and let the next one
+            // pick them up once the pending Event report has been sent.
+            if (!this.eventManager.isAcceptingEvents(this.resource, this.eventPoller.getEventType(),
+                this.sourceLocation)) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Skipping poll of " + eventPoller + " on resource " + resource
+                        + " - the pending Event report is full for its source");
+                }
+                return;
+            }
             Set<Event> events = this.eventPoller.poll();
             if (LOG.isTraceEnabled()) {
                 LOG.trace("Gathered " + (events == null ? "no" : events.size()) + " events on resource " + resource + " using the poller " + eventPoller);
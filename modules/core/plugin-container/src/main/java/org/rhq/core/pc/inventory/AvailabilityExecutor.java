@@ -26,12 +26,26 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -52,6 +66,14 @@ import org.rhq.core.util.stream.StreamUtil;
 
 /**
  * Runs a periodic scan for resource availability.
+ * <p>
+ * The scan walks the inventory tree from the platform down. Whenever it descends from an UP resource and the
+ * configured concurrency allows it, it hands all but one of the child subtrees to the availability scan thread pool of
+ * the {@link InventoryManager}, where they are walked the same way, and continues with the remaining child itself.
+ * Subtrees below a resource that is not UP are never handed off, their resources simply take over the parent's
+ * availability without asking any component. A scan that runs past its timeout stops checking further resources,
+ * reports what it has and makes the next report a full one. The next scan then starts with the subtree the timed out
+ * scan stopped in, so that a slow part of the inventory cannot keep the rest of it from ever being checked.
  *
  * @author Jay Shaughnessy
  * @author John Mazzitelli
@@ -66,17 +88,18 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
     private final AtomicBoolean sendChangesOnlyReport;
     private static final Random RANDOM = new Random();
 
-    // NOTE: this is probably useless. The concurrency of the availability checks is mainly guarded by the size of the
-    // availabilityThreadPoolExecutor in InventoryManager. While this lock object would prevent multiple avail checks
-    // from running concurrently even if the size of the above executor was more than 1 (which it isn't), the problem
-    // we'd then face would be that we use multiple instances of AvailabilityExecutor in InventoryManager:
+    // The scans are not serialized. Several instances of AvailabilityExecutor are used in InventoryManager (the
     // availabilityExecutor field but also local instances in executeAvailabilityScanImmediately() and
-    // getCurrentAvailability(). This means that the only thing preventing from the multiple availability checks
-    // happening concurrently is the size of the thread pool and this object serves little purpose in that regard.
-    private final Object lock = new Object();
+    // getCurrentAvailability()), so a lock here never prevented concurrent scans anyway. Instead, the availability
+    // of a resource is only changed by a compare-and-set against the state the scan read, so that exactly one of
+    // concurrent scans reports a change.
 
-    private int scanHistorySize = 1;
-    private final LinkedList<Scan> scanHistory = new LinkedList<Scan>();
+    // most recent scan first, replaced as a whole on every update
+    private final AtomicReference<Scan[]> scanHistory = new AtomicReference<Scan[]>(new Scan[0]);
+    private volatile int scanHistorySize = 1;
+
+    // the first resource a timed out scan did not check, the next scan starts with it
+    private volatile Resource resumeAt;
 
     public AvailabilityExecutor(InventoryManager inventoryManager) {
         this.inventoryManager = inventoryManager;
@@ -85,10 +108,8 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
 
     public void run() {
         try {
-            synchronized (lock) {
-                AvailabilityReport report = call();
-                inventoryManager.handleReport(report);
-            }
+            AvailabilityReport report = call();
+            inventoryManager.handleReport(report);
         } catch (Exception e) {
             LOG.warn("Availability report collection failed", e);
         }
@@ -112,23 +133,16 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
      */
     @Nullable
     public AvailabilityReport call() throws Exception {
-        AvailabilityReport availabilityReport;
-
-        synchronized (lock) {
-            if (inventoryManager.getPlatform().getInventoryStatus() != InventoryStatus.COMMITTED) {
-                return null;
-            }
-
-            boolean changesOnly = sendChangesOnlyReport.get();
-            availabilityReport = new AvailabilityReport(changesOnly, inventoryManager.getAgent().getName());
+        if (inventoryManager.getPlatform().getInventoryStatus() != InventoryStatus.COMMITTED) {
+            return null;
+        }
 
-            // Follow up full reports with changesOnly reports
-            if (!changesOnly) {
-                sendChangesOnlyReportNextTime();
-            }
+        // Follow up full reports with changesOnly reports
+        boolean changesOnly = sendChangesOnlyReport.getAndSet(true);
+        AvailabilityReport availabilityReport = new AvailabilityReport(changesOnly, inventoryManager.getAgent()
+            .getName());
 
-            startScan(inventoryManager.getPlatform(), availabilityReport, changesOnly);
-        }
+        startScan(inventoryManager.getPlatform(), availabilityReport, changesOnly);
 
         return availabilityReport;
     }
@@ -144,6 +158,10 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
     protected void startScan(Resource scanRoot, AvailabilityReport availabilityReport, boolean changesOnly) {
         long start = System.currentTimeMillis();
         Scan scan = new Scan(start, !changesOnly);
+        long timeout = inventoryManager.getAvailabilityScanTimeout();
+        scan.fork = new ScanFork(inventoryManager.getAvailabilityScanThreadPoolExecutor(),
+            inventoryManager.getAvailabilityScanConcurrency() - 1, (timeout > 0) ? start + timeout : Long.MAX_VALUE,
+            getResumePath(resumeAt));
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Scan Starting: " + new Date(start));
@@ -172,10 +190,13 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         boolean traceEnabled = LOG.isTraceEnabled();
         try {
             checkInventory(scanRoot, availabilityReport, parentAvailabilityType, false, scan, traceEnabled);
+            joinForkedChecks(scan, availabilityReport);
         } catch (InterruptedException e) {
             LOG.debug("Availability check was interrupted", e);
+            scan.fork.cancel();
             return;
         } catch (RuntimeException e) {
+            scan.fork.cancel();
             if (LOG.isDebugEnabled()) {
                 if (Thread.interrupted()) {
                     LOG.debug("Exception occurred during availability check, but this thread has been interrupted, "
@@ -189,6 +210,21 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
 
         scan.setEndTime(System.currentTimeMillis());
 
+        if (scan.isPartial()) {
+            // resources that were not checked, and changes recorded by checks that finished too late for this
+            // report, are covered by making the next report a full one
+            LOG.warn("Availability scan did not check all resources (scan timeout is [" + timeout
+                + "]ms), reporting the availability of [" + availabilityReport.getResourceAvailability().size()
+                + "] resources checked so far");
+            sendFullReportNextTime();
+            Resource stoppedAt = scan.fork.stoppedAt.get();
+            if (stoppedAt != null) {
+                resumeAt = stoppedAt;
+            }
+        } else {
+            resumeAt = null;
+        }
+
         if (LOG.isDebugEnabled()) {
             LOG.debug("Scan Ended   : " + new Date(scan.getEndTime()) + " : " + scan.toString());
         }
@@ -220,6 +256,12 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
     protected void checkInventory(Resource resource, AvailabilityReport availabilityReport,
                                   AvailabilityType parentAvailType, boolean isForced, Scan scan, boolean traceEnabled) throws InterruptedException {
 
+        if (scan.isExpired()) {
+            scan.partial = true;
+            scan.fork.stoppedAt.compareAndSet(null, resource);
+            return;
+        }
+
         // Only report avail for committed Resources - that's all the Server cares about.
         if (resource.getId() == 0 || resource.getInventoryStatus() != InventoryStatus.COMMITTED) {
             return;
@@ -295,9 +337,10 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             }
         }
 
-        // find out what the avail was the last time we checked it. this may be null
-        Availability previous = this.inventoryManager.getAvailabilityIfKnown(resource);
-        AvailabilityType previousType = (null == previous) ? UNKNOWN : previous.getAvailabilityType();
+        // find out what the avail was the last time we checked it. it is only known if the component is started
+        long previousState = resourceContainer.getAvailabilityState();
+        boolean previousKnown = resourceContainer.getResourceComponentState() == ResourceComponentState.STARTED;
+        AvailabilityType previousType = previousKnown ? AvailabilityStateTable.getType(previousState) : UNKNOWN;
         AvailabilityType current = null;
 
         // If the resource's parent is DOWN, the rules are that the resource and all of the parent's other
@@ -318,7 +361,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         } else {
             // regardless of whether the avail schedule is met, we still must check avail if isForce is true or if
             // it's a full report and we don't yet have an avail for the resource.
-            if (!checkAvail && (isForced || (scan.isFull && null == previous))) {
+            if (!checkAvail && (isForced || (scan.isFull && !previousKnown))) {
                 checkAvail = true;
             }
 
@@ -364,20 +407,23 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         }
 
         // Add the availability to the report if it changed from its previous state or if this is a full report.
-        // Update the resource container only if the avail has changed.
+        // Update the resource container only if the avail has changed. If another scan changed it in the meantime,
+        // that scan reports the change.
         boolean availChanged = (UNKNOWN != current && current != previousType);
+        Availability availability = null;
 
-        if (availChanged || scan.isFull) {
-            Availability availability;
+        if (availChanged) {
+            availability = resourceContainer.updateAvailability(previousState, current);
+            availChanged = (null != availability);
+        }
 
+        if (availChanged || scan.isFull) {
             if (availChanged) {
                 if (traceEnabled) {
                     LOG.trace("Availability changed for " + resource);
                 }
                 ++scan.numAvailabilityChanges;
 
-                availability = this.inventoryManager.updateAvailability(resource, current);
-
                 // if the resource avail changed to UP then we must perform avail checks for all
                 // children, to ensure their avails are up to date. Note that if it changed to NOT UP
                 // then the children will just get the parent avail type and there is no avail check anyway.
@@ -396,12 +442,108 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             availabilityReport.addAvailability(availability);
         }
 
-        for (Resource child : this.inventoryManager.getContainerChildren(resource, resourceContainer)) {
+        Collection<Resource> children = inScanOrder(this.inventoryManager.getContainerChildren(resource,
+            resourceContainer), scan);
+        int remaining = children.size();
+        for (Resource child : children) {
+            // Only the subtrees of an UP resource need avail checks and are worth handing to another thread. Keep
+            // the last one for this thread rather than waiting idle.
+            if (UP == current && --remaining > 0 && fork(child, isForced, scan, traceEnabled)) {
+                continue;
+            }
             checkInventory(child, availabilityReport, current, isForced, scan, traceEnabled);
         }
 
     }
 
+    /**
+     * @return the ids of the resource and its ancestors, or <code>null</code> if there is no resource to resume at
+     */
+    private static Set<Integer> getResumePath(Resource resource) {
+        if (resource == null) {
+            return null;
+        }
+        Set<Integer> path = new HashSet<Integer>();
+        for (Resource r = resource; r != null; r = r.getParentResource()) {
+            path.add(r.getId());
+        }
+        return path;
+    }
+
+    /**
+     * Orders the children so that the one leading to the resource the previous scan stopped at comes first.
+     */
+    private static Collection<Resource> inScanOrder(Set<Resource> children, Scan scan) {
+        Set<Integer> resumePath = (scan.fork == null) ? null : scan.fork.resumePath;
+        if (resumePath == null || children.size() < 2) {
+            return children;
+        }
+        List<Resource> ordered = new ArrayList<Resource>(children);
+        for (int i = 1; i < ordered.size(); ++i) {
+            if (resumePath.contains(ordered.get(i).getId())) {
+                Collections.rotate(ordered, -i);
+                break;
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Hands the check of the subtree rooted at the resource to the availability scan thread pool, if the concurrency
+     * of the scan allows it.
+     *
+     * @return <code>true</code> if the subtree is checked by another thread, <code>false</code> if the caller has to
+     *         check it
+     */
+    private boolean fork(Resource resource, boolean isForced, Scan scan, boolean traceEnabled) {
+        ScanFork fork = scan.fork;
+        if (fork == null || !fork.tryAcquire()) {
+            return false;
+        }
+
+        SubtreeCheck check = new SubtreeCheck(resource, isForced, new Scan(scan), traceEnabled);
+        try {
+            check.future = fork.executor.submit(check);
+        } catch (RejectedExecutionException e) {
+            // most likely the plugin container is shutting down, let the caller deal with it
+            fork.release();
+            return false;
+        }
+        fork.forked.add(check);
+        return true;
+    }
+
+    /**
+     * Waits for the subtree checks forked off during the scan, including the ones forked off by those checks, and
+     * adds their results to the scan and the report. Checks that do not complete by the deadline of the scan are
+     * given up on and make the scan partial.
+     */
+    private void joinForkedChecks(Scan scan, AvailabilityReport availabilityReport) throws InterruptedException {
+        ScanFork fork = scan.fork;
+        SubtreeCheck check;
+        while ((check = fork.forked.poll()) != null) {
+            try {
+                long wait = Math.max(fork.deadline - System.currentTimeMillis(), 0L);
+                check.future.get(wait, TimeUnit.MILLISECONDS);
+                scan.add(check.scan);
+                for (AvailabilityReport.Datum datum : check.report.getResourceAvailability()) {
+                    availabilityReport.addAvailability(datum);
+                }
+            } catch (TimeoutException e) {
+                fork.expired = true;
+                check.future.cancel(false);
+                scan.partial = true;
+            } catch (CancellationException e) {
+                scan.partial = true;
+            } catch (ExecutionException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Availability check of the subtree of " + check.resource + " failed: " + e.getCause());
+                }
+                scan.partial = true;
+            }
+        }
+    }
+
     /**
      * Resources must report UP or DOWN, If current is UNKNOWN, return previously set avail, otherwise current.
      */
@@ -444,37 +586,124 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
     }
 
     public void addScanHistory(Scan scan) {
-        synchronized (scanHistory) {
-            if (scanHistory.size() == scanHistorySize) {
-                scanHistory.removeLast();
-            }
-            scanHistory.push(scan);
-        }
+        Scan[] current;
+        Scan[] updated;
+        do {
+            current = scanHistory.get();
+            int size = Math.min(current.length + 1, scanHistorySize);
+            updated = new Scan[size];
+            updated[0] = scan;
+            System.arraycopy(current, 0, updated, 1, size - 1);
+        } while (!scanHistory.compareAndSet(current, updated));
     }
 
     public List<Scan> getScanHistory() {
-        synchronized (scanHistory) {
-            List<Scan> result = new ArrayList<Scan>(scanHistory.size());
-            result.addAll(scanHistory);
-            return result;
-        }
+        return new ArrayList<Scan>(Arrays.asList(scanHistory.get()));
     }
 
     public Scan getMostRecentScanHistory() {
-        synchronized (scanHistory) {
-            return scanHistory.isEmpty() ? null : scanHistory.get(0);
-        }
+        Scan[] current = scanHistory.get();
+        return current.length == 0 ? null : current[0];
     }
 
     public void setScanHistorySize(int scanHistorySize) {
-        synchronized (scanHistory) {
-            if (scanHistorySize < 1) {
+        if (scanHistorySize < 1) {
+            return;
+        }
+        this.scanHistorySize = scanHistorySize;
+
+        Scan[] current;
+        do {
+            current = scanHistory.get();
+            if (current.length <= scanHistorySize) {
                 return;
             }
-            while (scanHistory.size() > scanHistorySize) {
-                scanHistory.removeLast();
+        } while (!scanHistory.compareAndSet(current, Arrays.copyOf(current, scanHistorySize)));
+    }
+
+    /**
+     * The state that a scan shares with the subtree checks forked off from it.
+     */
+    private static final class ScanFork {
+        private final ExecutorService executor;
+        private final AtomicInteger permits;
+        private final long deadline;
+        private final ConcurrentLinkedQueue<SubtreeCheck> forked = new ConcurrentLinkedQueue<SubtreeCheck>();
+        private volatile boolean expired;
+        // the ids on the path to the resource the previous scan stopped at, null to scan in the usual order
+        private final Set<Integer> resumePath;
+        // the first resource this scan did not check because it ran out of time
+        private final AtomicReference<Resource> stoppedAt = new AtomicReference<Resource>();
+
+        private ScanFork(ExecutorService executor, int permits, long deadline, Set<Integer> resumePath) {
+            this.executor = executor;
+            this.permits = new AtomicInteger((executor == null) ? 0 : permits);
+            this.deadline = deadline;
+            this.resumePath = resumePath;
+        }
+
+        private boolean tryAcquire() {
+            int available;
+            do {
+                available = permits.get();
+                if (available <= 0) {
+                    return false;
+                }
+            } while (!permits.compareAndSet(available, available - 1));
+            return true;
+        }
+
+        private void release() {
+            permits.incrementAndGet();
+        }
+
+        private boolean isExpired() {
+            if (!expired && System.currentTimeMillis() >= deadline) {
+                expired = true;
+            }
+            return expired;
+        }
+
+        private void cancel() {
+            expired = true;
+            SubtreeCheck check;
+            while ((check = forked.poll()) != null) {
+                check.future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * The check of a subtree forked off by a scan. It fills its own scan statistics and report, which the scan thread
+     * merges once the check is done.
+     */
+    private final class SubtreeCheck implements Runnable {
+        private final Resource resource;
+        private final boolean isForced;
+        private final Scan scan;
+        private final boolean traceEnabled;
+        private final AvailabilityReport report;
+        private Future<?> future;
+
+        private SubtreeCheck(Resource resource, boolean isForced, Scan scan, boolean traceEnabled) {
+            this.resource = resource;
+            this.isForced = isForced;
+            this.scan = scan;
+            this.traceEnabled = traceEnabled;
+            this.report = new AvailabilityReport(!scan.isFull, null);
+        }
+
+        public void run() {
+            try {
+                // subtrees are only forked off below an UP resource
+                checkInventory(resource, report, UP, isForced, scan, traceEnabled);
+            } catch (InterruptedException e) {
+                LOG.debug("Availability check was interrupted", e);
+                scan.partial = true;
+                Thread.currentThread().interrupt();
+            } finally {
+                scan.fork.release();
             }
-            this.scanHistorySize = scanHistorySize;
         }
     }
 
@@ -485,6 +714,10 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
 
         private boolean isFull = false;
         private boolean isForced = false;
+        private boolean partial = false;
+
+        // shared with the scans of forked subtree checks, null if the scan does not fork
+        private ScanFork fork;
 
         int numResources = 0;
         int numGetAvailabilityCalls = 0;
@@ -498,6 +731,28 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             this.isFull = isFull;
         }
 
+        // the scan of a subtree check forked off from the given scan
+        private Scan(Scan forkedFrom) {
+            this(forkedFrom.startTime, forkedFrom.isFull);
+            this.isForced = forkedFrom.isForced;
+            this.fork = forkedFrom.fork;
+        }
+
+        private void add(Scan other) {
+            numResources += other.numResources;
+            numGetAvailabilityCalls += other.numGetAvailabilityCalls;
+            numScheduledRandomly += other.numScheduledRandomly;
+            numPushedByInterval += other.numPushedByInterval;
+            numAvailabilityChanges += other.numAvailabilityChanges;
+            numDeferToParent += other.numDeferToParent;
+            isForced |= other.isForced;
+            partial |= other.partial;
+        }
+
+        private boolean isExpired() {
+            return fork != null && fork.isExpired();
+        }
+
         public long getStartTime() {
             return startTime;
         }
@@ -527,6 +782,13 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             this.isForced = isForced;
         }
 
+        /**
+         * @return true if the scan ran out of time and did not check all resources
+         */
+        public boolean isPartial() {
+            return partial;
+        }
+
         public int getNumResources() {
             return numResources;
         }
@@ -554,10 +816,10 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         @Override
         public String toString() {
             return "Scan [startTime=" + startTime + ", endTime=" + endTime + ", runtime=" + runtime + ", isFull="
-                + isFull + ", isForced=" + isForced + ", numResources=" + numResources + ", numGetAvailabilityCalls="
-                + numGetAvailabilityCalls + ", numScheduledRandomly=" + numScheduledRandomly + ", numPushedByInterval="
-                + numPushedByInterval + ", numAvailabilityChanges=" + numAvailabilityChanges + ", numDeferToParent="
-                + numDeferToParent + "]";
+                + isFull + ", isForced=" + isForced + ", isPartial=" + partial + ", numResources=" + numResources
+                + ", numGetAvailabilityCalls=" + numGetAvailabilityCalls + ", numScheduledRandomly="
+                + numScheduledRandomly + ", numPushedByInterval=" + numPushedByInterval + ", numAvailabilityChanges="
+                + numAvailabilityChanges + ", numDeferToParent=" + numDeferToParent + "]";
         }
     }
 }
@@ -0,0 +1,232 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.inventory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.rhq.core.domain.measurement.AvailabilityType;
+
+/**
+ * The currently known availability of the resource containers, kept in primitive arrays indexed by a dense slot
+ * number rather than in the containers themselves.
+ * <p>
+ * The availability type and the time it started are packed together with a generation number into a single
+ * <code>long</code> per slot, so that both are read and updated atomically without locking the container. A slot is
+ * handed out by {@link #allocate()} as a handle made of its index and its generation. Releasing the slot bumps the
+ * generation, which makes any handle still held for the old resource inert: it reads as {@link AvailabilityType#UNKNOWN}
+ * and its updates are ignored, so that the slot can safely be reused for another resource.
+ * <p>
+ * Slots are stored in fixed size segments which are never moved once created, so growing the table does not block
+ * readers or writers of existing slots.
+ */
+final class AvailabilityStateTable {
+
+    static final int SEGMENT_SHIFT = 10;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+    // state layout: 3 bits availability type code, 42 bits start time, 19 bits generation
+    private static final int TYPE_SHIFT = 61;
+    private static final int TIME_SHIFT = 19;
+    private static final long TIME_MASK = (1L << 42) - 1;
+    private static final long GENERATION_MASK = (1L << TIME_SHIFT) - 1;
+
+    // type code 0 stands for a null availability type, the others are the ordinals shifted by one
+    private static final AvailabilityType[] TYPES = AvailabilityType.values();
+
+    private final ReentrantLock growLock = new ReentrantLock();
+    private volatile AtomicLongArray[] segments = new AtomicLongArray[0];
+    // slot 0 is never used so that a handle is never 0
+    private final AtomicInteger nextIndex = new AtomicInteger(1);
+    private final ConcurrentLinkedQueue<Integer> freeIndexes = new ConcurrentLinkedQueue<Integer>();
+
+    /**
+     * Allocates a slot whose availability is {@link AvailabilityType#UNKNOWN} and returns its handle.
+     *
+     * @return the handle of the slot, never 0
+     */
+    long allocate() {
+        Integer free = freeIndexes.poll();
+        int index = (free != null) ? free.intValue() : nextIndex.getAndIncrement();
+        AtomicLongArray segment = segment(index);
+        int offset = index & (SEGMENT_SIZE - 1);
+        long generation;
+        if (free != null) {
+            // release already reset the state and bumped the generation
+            generation = segment.get(offset) & GENERATION_MASK;
+        } else {
+            generation = 0;
+            segment.set(offset, state(AvailabilityType.UNKNOWN, 0, 0));
+        }
+        return ((long) index << 32) | generation;
+    }
+
+    /**
+     * Releases the slot of the handle. The handle, and any copy of it, no longer refers to the slot afterwards.
+     *
+     * @param handle the handle of the slot
+     */
+    void release(long handle) {
+        int index = index(handle);
+        AtomicLongArray segment = existingSegment(index);
+        if (segment == null) {
+            return;
+        }
+        int offset = index & (SEGMENT_SIZE - 1);
+        long generation = generation(handle);
+        long current;
+        do {
+            current = segment.get(offset);
+            if ((current & GENERATION_MASK) != generation) {
+                return; // already released
+            }
+        } while (!segment.compareAndSet(offset, current,
+            state(AvailabilityType.UNKNOWN, 0, (generation + 1) & GENERATION_MASK)));
+
+        freeIndexes.offer(Integer.valueOf(index));
+    }
+
+    /**
+     * Returns the state of the slot of the handle, to be decoded with {@link #getType(long)} and
+     * {@link #getStartTime(long)}. A released handle reads as {@link AvailabilityType#UNKNOWN}.
+     *
+     * @param handle the handle of the slot
+     * @return the state of the slot
+     */
+    long get(long handle) {
+        int index = index(handle);
+        AtomicLongArray segment = existingSegment(index);
+        long generation = generation(handle);
+        if (segment != null) {
+            long current = segment.get(index & (SEGMENT_SIZE - 1));
+            if ((current & GENERATION_MASK) == generation) {
+                return current;
+            }
+        }
+        return state(AvailabilityType.UNKNOWN, 0, generation);
+    }
+
+    /**
+     * Sets the availability of the slot of the handle.
+     *
+     * @param handle the handle of the slot
+     * @param type the availability type, may be <code>null</code>
+     * @param startTime the time the availability started
+     * @return <code>false</code> if the handle has been released
+     */
+    boolean set(long handle, AvailabilityType type, long startTime) {
+        long expected;
+        do {
+            expected = get(handle);
+        } while (!compareAndSet(handle, expected, type, startTime) && isCurrent(handle));
+
+        return isCurrent(handle);
+    }
+
+    /**
+     * Sets the availability of the slot of the handle if its state is still the expected one, as previously
+     * returned by {@link #get(long)}.
+     *
+     * @param handle the handle of the slot
+     * @param expected the expected state
+     * @param type the availability type, may be <code>null</code>
+     * @param startTime the time the availability started
+     * @return <code>true</code> if the state was updated, <code>false</code> if it has been changed in the meantime
+     *         or the handle has been released
+     */
+    boolean compareAndSet(long handle, long expected, AvailabilityType type, long startTime) {
+        long generation = generation(handle);
+        if ((expected & GENERATION_MASK) != generation) {
+            return false;
+        }
+        int index = index(handle);
+        AtomicLongArray segment = existingSegment(index);
+        return segment != null
+            && segment.compareAndSet(index & (SEGMENT_SIZE - 1), expected, state(type, startTime, generation));
+    }
+
+    /**
+     * @return the number of slots that are currently allocated
+     */
+    int size() {
+        return nextIndex.get() - 1 - freeIndexes.size();
+    }
+
+    static AvailabilityType getType(long state) {
+        int code = (int) (state >>> TYPE_SHIFT);
+        return (code == 0) ? null : TYPES[code - 1];
+    }
+
+    static long getStartTime(long state) {
+        return (state >>> TIME_SHIFT) & TIME_MASK;
+    }
+
+    private boolean isCurrent(long handle) {
+        int index = index(handle);
+        AtomicLongArray segment = existingSegment(index);
+        return segment != null
+            && (segment.get(index & (SEGMENT_SIZE - 1)) & GENERATION_MASK) == generation(handle);
+    }
+
+    private static long state(AvailabilityType type, long startTime, long generation) {
+        long code = (type == null) ? 0 : type.ordinal() + 1;
+        long time = (startTime < 0) ? 0 : Math.min(startTime, TIME_MASK);
+        return (code << TYPE_SHIFT) | (time << TIME_SHIFT) | generation;
+    }
+
+    private static int index(long handle) {
+        return (int) (handle >>> 32);
+    }
+
+    private static long generation(long handle) {
+        return handle & GENERATION_MASK;
+    }
+
+    private AtomicLongArray existingSegment(int index) {
+        AtomicLongArray[] current = segments;
+        int segmentIndex = index >>> SEGMENT_SHIFT;
+        return (segmentIndex < current.length) ? current[segmentIndex] : null;
+    }
+
+    private AtomicLongArray segment(int index) {
+        AtomicLongArray segment = existingSegment(index);
+        if (segment != null) {
+            return segment;
+        }
+        growLock.lock();
+        try {
+            AtomicLongArray[] current = segments;
+            int segmentIndex = index >>> SEGMENT_SHIFT;
+            if (segmentIndex >= current.length) {
+                AtomicLongArray[] grown = new AtomicLongArray[Math.max(segmentIndex + 1, current.length * 2)];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                for (int i = current.length; i < grown.length; i++) {
+                    grown[i] = new AtomicLongArray(SEGMENT_SIZE);
+                }
+                segments = grown;
+                current = grown;
+            }
+            return current[segmentIndex];
+        } finally {
+            growLock.unlock();
+        }
+    }
+}
@@ -19,14 +19,21 @@
 
 package org.rhq.core.pc.inventory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -38,16 +45,26 @@ import org.rhq.core.clientapi.agent.metadata.PluginMetadataManager;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.domain.resource.ResourceType;
 import org.rhq.core.pc.PluginContainer;
+import org.rhq.core.pc.plugin.PluginManager;
 
 /**
  * Provides methods to read and write inventory data to a file.
  *
+ * <p>The inventory is stored as a snapshot with one record per resource container plus a journal of the containers
+ * that changed or were removed since the snapshot was written (see {@link InventoryJournal}). Each container is
+ * serialized on its own: the resource's parent and children are not written but relinked by UUID when the inventory
+ * is loaded, and resource types are written by name and plugin and reconnected to the plugin metadata. Storing the
+ * inventory again with the same instance only appends the containers that changed, until the journal has grown large
+ * enough to be compacted into a new snapshot. Inventory files written by Java-serializing the whole inventory at once
+ * can still be loaded.</p>
+ *
  * @author John Mazzitelli
  */
 public class InventoryFile {
     private static final Log log = LogFactory.getLog(InventoryFile.class);
 
     private final File inventoryFile;
+    private final InventoryJournal journal;
     private Resource platform;
     private Map<String, ResourceContainer> resourceContainers; // keyed on UUID
 
@@ -61,6 +78,7 @@ public class InventoryFile {
     public InventoryFile(File inventoryFile, InventoryManager inventoryManager) {
         this.inventoryFile = inventoryFile;
         this.inventoryManager = inventoryManager;
+        this.journal = new InventoryJournal(inventoryFile);
     }
 
     /**
@@ -114,15 +132,19 @@ public class InventoryFile {
     public void loadInventory() throws PluginContainerException {
         FileInputStream fis = null;
         try {
-            fis = new FileInputStream(inventoryFile);
-            ObjectInputStream ois = new ObjectInputStream(fis);
+            if (InventoryJournal.isJournaled(inventoryFile)) {
+                loadJournaledInventory();
+            } else {
+                fis = new FileInputStream(inventoryFile);
+                ObjectInputStream ois = new ObjectInputStream(fis);
+                this.platform = (Resource) ois.readObject();
+                this.resourceContainers = (Map<String, ResourceContainer>) ois.readObject();
+            }
 
             // this list will contain UUIDs of resources that we should ignore usually due to disabled plugins
             Set<String> uuidsToIgnore = new HashSet<String>();
 
-            this.platform = (Resource) ois.readObject();
             connectTypes(this.platform, uuidsToIgnore);
-            this.resourceContainers = (Map<String, ResourceContainer>) ois.readObject();
             for (ResourceContainer resourceContainer : this.resourceContainers.values()) {
                 connectTypes(resourceContainer.getResource(), uuidsToIgnore);
             }
@@ -146,6 +168,74 @@ public class InventoryFile {
         }
     }
 
+    private void loadJournaledInventory() throws IOException {
+        final Map<String, ResourceContainer> containers = new HashMap<String, ResourceContainer>();
+        final Map<String, String> parentUuids = new HashMap<String, String>();
+
+        String platformUuid = journal.load(new InventoryJournal.Replay() {
+            public void container(String uuid, String parentUuid, byte[] payload) throws IOException {
+                containers.put(uuid, readContainer(payload));
+                parentUuids.put(uuid, parentUuid);
+            }
+
+            public void removed(String uuid) {
+                containers.remove(uuid);
+                parentUuids.remove(uuid);
+            }
+        });
+
+        // the records only hold the UUID of the parent, relink the resource tree
+        for (ResourceContainer container : containers.values()) {
+            container.getResource().setChildResources(null);
+        }
+        for (Map.Entry<String, String> entry : parentUuids.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            ResourceContainer parent = containers.get(entry.getValue());
+            Resource child = containers.get(entry.getKey()).getResource();
+            if (parent != null) {
+                parent.getResource().addChildResourceWithoutAncestry(child);
+            } else if (log.isDebugEnabled()) {
+                log.debug("Persisted resource [" + child + "] has no persisted parent - will not link it");
+            }
+        }
+
+        ResourceContainer platformContainer = (platformUuid == null) ? null : containers.get(platformUuid);
+        if (platformContainer == null) {
+            throw new IOException("Inventory file [" + inventoryFile + "] does not contain a platform");
+        }
+        this.platform = platformContainer.getResource();
+        this.resourceContainers = containers;
+    }
+
+    private ResourceContainer readContainer(byte[] payload) throws IOException {
+        ObjectInputStream in = new ContainerInputStream(new ByteArrayInputStream(payload));
+        try {
+            return (ResourceContainer) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Cannot read persisted resource container", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] writeContainer(ResourceContainer container) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        ObjectOutputStream out = new ContainerOutputStream(bytes, container.getResource());
+        try {
+            out.writeObject(container);
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static InventoryJournal.Entry toEntry(String uuid, ResourceContainer container) throws IOException {
+        Resource parent = container.getResource().getParentResource();
+        return new InventoryJournal.Entry(uuid, (parent == null) ? null : parent.getUuid(), writeContainer(container));
+    }
+
     private void removeIgnoredResourcesFromChildren(Resource resource, Set<String> uuidsToIgnore) {
         Set<Resource> children = inventoryManager.getContainerChildren(resource);
         if (!children.isEmpty() && !uuidsToIgnore.isEmpty()) {
@@ -203,26 +293,125 @@ public class InventoryFile {
      * {@link #getInventoryFile() inventory file}. This object's {@link #getPlatform() platform} and
      * {@link #getResourceContainers() resource containers} will be set to those passed to this method.
      *
+     * <p>If this object has loaded or stored the inventory before, only the containers that changed since are
+     * appended to the journal, unless the journal has grown large enough to write a new snapshot instead.</p>
+     *
      * @param  platformResource
      * @param  containers
      *
      * @throws IOException
      */
     public void storeInventory(Resource platformResource, Map<String, ResourceContainer> containers) throws IOException {
-        FileOutputStream fos = new FileOutputStream(inventoryFile);
-        try {
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-            try {
-                oos.writeObject(platformResource);
-                oos.writeObject(containers);
+        String platformUuid = platformResource.getUuid();
+        if (!containers.containsKey(platformUuid)) {
+            // the platform is restored from its container record
+            containers = new HashMap<String, ResourceContainer>(containers);
+            containers.put(platformUuid, new ResourceContainer(platformResource, null));
+        }
+
+        if (!journal.isCompactionDue(0)) {
+            List<InventoryJournal.Entry> changed = new ArrayList<InventoryJournal.Entry>();
+            Set<String> removed = journal.getStoredUuids();
+            for (Map.Entry<String, ResourceContainer> entry : containers.entrySet()) {
+                removed.remove(entry.getKey());
+                InventoryJournal.Entry journalEntry = toEntry(entry.getKey(), entry.getValue());
+                if (!journal.isStored(journalEntry.uuid, journalEntry.payload)) {
+                    changed.add(journalEntry);
+                }
+            }
 
+            if (!journal.isCompactionDue(changed.size() + removed.size())) {
+                journal.append(platformUuid, changed, removed);
+                if (log.isDebugEnabled()) {
+                    log.debug("Appended [" + changed.size() + "] changed and [" + removed.size()
+                        + "] removed resource containers to [" + journal.getJournalFile() + "]");
+                }
                 this.platform = platformResource;
                 this.resourceContainers = containers;
-            } finally {
-                oos.close();
+                return;
             }
+        }
+
+        InventoryJournal.SnapshotWriter snapshot = journal.writeSnapshot(platformUuid);
+        boolean committed = false;
+        try {
+            for (Map.Entry<String, ResourceContainer> entry : containers.entrySet()) {
+                snapshot.add(toEntry(entry.getKey(), entry.getValue()));
+            }
+            snapshot.commit();
+            committed = true;
         } finally {
-            fos.close();
+            if (!committed) {
+                snapshot.abort();
+            }
+        }
+
+        this.platform = platformResource;
+        this.resourceContainers = containers;
+    }
+
+    /**
+     * Writes a resource container without the rest of the inventory: any resource other than the container's own is
+     * written as <code>null</code>, and resource types are written by name and plugin.
+     */
+    private static class ContainerOutputStream extends ObjectOutputStream {
+        private final Resource resource;
+
+        private ContainerOutputStream(OutputStream out, Resource resource) throws IOException {
+            super(out);
+            this.resource = resource;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof Resource && obj != resource) {
+                return null;
+            }
+            if (obj instanceof ResourceType) {
+                ResourceType type = (ResourceType) obj;
+                if (type.getName() != null && type.getPlugin() != null) {
+                    return new ResourceTypeReference(type.getName(), type.getPlugin());
+                }
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * Reads a resource container written by {@link ContainerOutputStream}, resolving resource types through the plugin
+     * metadata when the plugin container is running.
+     */
+    private static class ContainerInputStream extends ObjectInputStream {
+
+        private ContainerInputStream(InputStream in) throws IOException {
+            super(in);
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof ResourceTypeReference) {
+                ResourceTypeReference reference = (ResourceTypeReference) obj;
+                PluginManager pluginManager = PluginContainer.getInstance().getPluginManager();
+                ResourceType type = (pluginManager == null) ? null : pluginManager.getMetadataManager().getType(
+                    reference.name, reference.plugin);
+                // connectTypes() deals with types that are not known to the plugin container
+                return (type != null) ? type : new ResourceType(reference.name, reference.plugin, null, null);
+            }
+            return obj;
+        }
+    }
+
+    private static class ResourceTypeReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String plugin;
+
+        private ResourceTypeReference(String name, String plugin) {
+            this.name = name;
+            this.plugin = plugin;
         }
     }
 }
@@ -0,0 +1,503 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.inventory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * The on-disk format of the persisted inventory: a snapshot file holding one record per resource container, and a
+ * journal file next to it to which the containers that changed or were removed since the snapshot are appended.
+ * <p>
+ * Both files start with a header holding a magic number, the format version and the id of the snapshot. A journal
+ * whose snapshot id does not match the one of the snapshot belongs to an older snapshot and is ignored. Each record
+ * is framed as its type, its length, its body and a CRC32 of type and body. A snapshot is only valid if it ends with
+ * an end record. A journal is replayed up to its first incomplete or corrupt record, which is what a crash while
+ * appending leaves behind, and the next append truncates it there.
+ * <p>
+ * The body of a container record is opaque to this class. It is stored deflated, and its length and a checksum of it
+ * are kept per container so that {@link #isStored(String, byte[])} can tell whether a container has to be written
+ * again.
+ */
+final class InventoryJournal {
+
+    static final int MAGIC = 0x52485149; // "RHQI"
+    static final byte FORMAT_VERSION = 1;
+
+    private static final byte RECORD_CONTAINER = 1;
+    private static final byte RECORD_REMOVED = 2;
+    private static final byte RECORD_PLATFORM = 3;
+    private static final byte RECORD_END = 4;
+
+    private static final int HEADER_LENGTH = 4 + 1 + 8;
+    private static final int RECORD_OVERHEAD = 1 + 4 + 4;
+
+    // the journal is compacted into a new snapshot once it holds more records than this or half the snapshot
+    static final int MIN_COMPACTION_RECORDS = 64;
+
+    /**
+     * Receives the records of the snapshot and the journal in the order in which they were written.
+     */
+    interface Replay {
+        void container(String uuid, String parentUuid, byte[] payload) throws IOException;
+
+        void removed(String uuid);
+    }
+
+    /**
+     * The serialized form of one resource container. The parent UUID is <code>null</code> for the platform.
+     */
+    static final class Entry {
+        final String uuid;
+        final String parentUuid;
+        final byte[] payload;
+
+        Entry(String uuid, String parentUuid, byte[] payload) {
+            this.uuid = uuid;
+            this.parentUuid = parentUuid;
+            this.payload = payload;
+        }
+    }
+
+    private final File snapshotFile;
+    private final File journalFile;
+
+    // what is on disk, valid once loaded or written
+    private boolean current;
+    private long snapshotId;
+    private String platformUuid;
+    private final Map<String, Long> checksums = new HashMap<String, Long>();
+    private int snapshotRecords;
+    private int journalRecords;
+    private long journalLength = -1; // -1 if there is no journal for the snapshot
+
+    InventoryJournal(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".journal");
+    }
+
+    File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * @return <code>true</code> if the file starts like a snapshot written by this class
+     */
+    static boolean isJournaled(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] magic = new byte[4];
+            int read = 0;
+            while (read < magic.length) {
+                int n = in.read(magic, read, magic.length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+            return ByteBuffer.wrap(magic).getInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the snapshot and replays the journal on top of it.
+     *
+     * @param replay receives the records
+     * @return the UUID of the platform
+     * @throws IOException if the snapshot can not be read or is not complete
+     */
+    String load(Replay replay) throws IOException {
+        current = false;
+        checksums.clear();
+
+        ByteBuffer snapshot = read(snapshotFile);
+        long id = readHeader(snapshot, snapshotFile);
+        Replayer snapshotReplayer = new Replayer(replay);
+        if (!snapshotReplayer.replay(snapshot) || !snapshotReplayer.ended) {
+            throw new IOException("Inventory snapshot [" + snapshotFile + "] is incomplete or corrupt");
+        }
+        snapshotId = id;
+        snapshotRecords = checksums.size();
+        journalRecords = 0;
+        journalLength = -1;
+
+        if (journalFile.exists()) {
+            ByteBuffer journal = read(journalFile);
+            if (journal.remaining() >= HEADER_LENGTH && readHeader(journal, journalFile) == snapshotId) {
+                Replayer journalReplayer = new Replayer(replay);
+                journalReplayer.replay(journal);
+                journalRecords = journalReplayer.records;
+                journalLength = journal.position();
+            }
+        }
+
+        current = true;
+        return platformUuid;
+    }
+
+    /**
+     * @return <code>true</code> if the payload is what is stored for the container
+     */
+    boolean isStored(String uuid, byte[] payload) {
+        Long checksum = checksums.get(uuid);
+        return current && checksum != null && checksum.longValue() == checksum(payload);
+    }
+
+    /**
+     * @return the UUIDs of the containers that are stored
+     */
+    Set<String> getStoredUuids() {
+        return current ? new HashSet<String>(checksums.keySet()) : Collections.<String> emptySet();
+    }
+
+    /**
+     * @param changes the number of records that would be appended
+     * @return <code>true</code> if a new snapshot should be written rather than appending to the journal
+     */
+    boolean isCompactionDue(int changes) {
+        return !current || !snapshotFile.exists()
+            || journalRecords + changes > Math.max(snapshotRecords / 2, MIN_COMPACTION_RECORDS);
+    }
+
+    /**
+     * Appends the changes since the snapshot was written or loaded to the journal and forces them to disk.
+     *
+     * @param platform the UUID of the platform
+     * @param changed the containers that changed or were added
+     * @param removed the UUIDs of the containers that were removed
+     */
+    void append(String platform, Collection<Entry> changed, Collection<String> removed) throws IOException {
+        if (!current) {
+            throw new IllegalStateException("The inventory snapshot must be loaded or written before appending");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (journalLength < 0) {
+            writeHeader(out, snapshotId);
+        }
+        int records = 0;
+        if (!platform.equals(platformUuid)) {
+            writeRecord(out, RECORD_PLATFORM, utf(platform));
+            records++;
+        }
+        for (Entry entry : changed) {
+            writeRecord(out, RECORD_CONTAINER, containerBody(entry));
+            records++;
+        }
+        for (String uuid : removed) {
+            writeRecord(out, RECORD_REMOVED, utf(uuid));
+            records++;
+        }
+        if (records == 0) {
+            return;
+        }
+        out.flush();
+
+        // on failure the state is left as it was; a partially written record is dropped on the next load
+        RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+        try {
+            long start = Math.max(journalLength, 0L);
+            file.setLength(start);
+            file.seek(start);
+            file.write(bytes.toByteArray());
+            file.getFD().sync();
+            journalLength = file.getFilePointer();
+        } finally {
+            file.close();
+        }
+
+        platformUuid = platform;
+        for (Entry entry : changed) {
+            checksums.put(entry.uuid, Long.valueOf(checksum(entry.payload)));
+        }
+        for (String uuid : removed) {
+            checksums.remove(uuid);
+        }
+        journalRecords += records;
+    }
+
+    /**
+     * Starts writing a new snapshot of the whole inventory. The snapshot replaces the current one and its journal
+     * once {@link SnapshotWriter#commit()} is called.
+     *
+     * @param platform the UUID of the platform
+     */
+    SnapshotWriter writeSnapshot(String platform) throws IOException {
+        return new SnapshotWriter(platform);
+    }
+
+    final class SnapshotWriter {
+        private final File tmpFile;
+        private final FileOutputStream fileOut;
+        private final DataOutputStream out;
+        private final long id;
+        private final String platform;
+        private final Map<String, Long> writtenChecksums = new HashMap<String, Long>();
+
+        private SnapshotWriter(String platform) throws IOException {
+            this.platform = platform;
+            this.tmpFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+            this.fileOut = new FileOutputStream(tmpFile);
+            this.out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+            // any value different from the previous snapshot's id will do
+            this.id = System.currentTimeMillis() ^ (System.nanoTime() << 20) ^ snapshotId;
+            writeHeader(out, id);
+            writeRecord(out, RECORD_PLATFORM, utf(platform));
+        }
+
+        void add(Entry entry) throws IOException {
+            writeRecord(out, RECORD_CONTAINER, containerBody(entry));
+            writtenChecksums.put(entry.uuid, Long.valueOf(checksum(entry.payload)));
+        }
+
+        void commit() throws IOException {
+            writeRecord(out, RECORD_END, new byte[0]);
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+
+            if (!tmpFile.renameTo(snapshotFile)) {
+                // renaming over an existing file fails on some platforms
+                if (!snapshotFile.delete() || !tmpFile.renameTo(snapshotFile)) {
+                    throw new IOException("Failed to move [" + tmpFile + "] to [" + snapshotFile + "]");
+                }
+            }
+            // the journal belongs to the previous snapshot, it would be ignored anyway
+            journalFile.delete();
+
+            snapshotId = id;
+            platformUuid = platform;
+            checksums.clear();
+            checksums.putAll(writtenChecksums);
+            snapshotRecords = writtenChecksums.size();
+            journalRecords = 0;
+            journalLength = -1;
+            current = true;
+        }
+
+        void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // nothing to do, the file is deleted anyway
+            }
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Replays records up to the first one that is incomplete or corrupt, leaving the buffer positioned after the last
+     * good record.
+     */
+    private final class Replayer {
+        private final Replay replay;
+        private int records;
+        private boolean ended;
+
+        private Replayer(Replay replay) {
+            this.replay = replay;
+        }
+
+        /**
+         * @return <code>false</code> if an incomplete or corrupt record was found before the end of the buffer
+         */
+        private boolean replay(ByteBuffer buffer) throws IOException {
+            while (buffer.remaining() > 0 && !ended) {
+                int start = buffer.position();
+                if (buffer.remaining() < RECORD_OVERHEAD) {
+                    return false;
+                }
+                byte type = buffer.get();
+                int length = buffer.getInt();
+                if (length < 0 || buffer.remaining() < length + 4) {
+                    buffer.position(start);
+                    return false;
+                }
+                byte[] body = new byte[length];
+                buffer.get(body);
+                int crc = buffer.getInt();
+                if (crc != recordChecksum(type, body)) {
+                    buffer.position(start);
+                    return false;
+                }
+
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+                switch (type) {
+                case RECORD_CONTAINER:
+                    String uuid = in.readUTF();
+                    String parentUuid = in.readUTF();
+                    int payloadLength = in.readInt();
+                    byte[] payload = inflate(body, body.length - in.available(), payloadLength);
+                    checksums.put(uuid, Long.valueOf(checksum(payload)));
+                    replay.container(uuid, (parentUuid.length() == 0) ? null : parentUuid, payload);
+                    break;
+                case RECORD_REMOVED:
+                    String removed = in.readUTF();
+                    checksums.remove(removed);
+                    replay.removed(removed);
+                    break;
+                case RECORD_PLATFORM:
+                    platformUuid = in.readUTF();
+                    break;
+                case RECORD_END:
+                    ended = true;
+                    break;
+                default:
+                    throw new IOException("Unknown inventory record type [" + type + "]");
+                }
+                records++;
+            }
+            return true;
+        }
+    }
+
+    private static long readHeader(ByteBuffer buffer, File file) throws IOException {
+        if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+            throw new IOException("[" + file + "] is not an inventory file");
+        }
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("[" + file + "] has unsupported format version [" + version + "]");
+        }
+        return buffer.getLong();
+    }
+
+    private static void writeHeader(DataOutputStream out, long id) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(id);
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, byte[] body) throws IOException {
+        out.writeByte(type);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeInt(recordChecksum(type, body));
+    }
+
+    private static byte[] containerBody(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.payload.length / 2 + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(entry.uuid);
+        out.writeUTF((entry.parentUuid == null) ? "" : entry.parentUuid);
+        out.writeInt(entry.payload.length);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater);
+            deflated.write(entry.payload);
+            deflated.finish();
+        } finally {
+            deflater.end();
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] body, int offset, int inflatedLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body, offset, body.length - offset);
+            byte[] payload = new byte[inflatedLength];
+            int inflated = 0;
+            while (inflated < inflatedLength) {
+                int n = inflater.inflate(payload, inflated, inflatedLength - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new EOFException("Inventory record is shorter than its declared length");
+                }
+                inflated += n;
+            }
+            return payload;
+        } catch (DataFormatException e) {
+            throw new IOException("Inventory record can not be inflated: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] utf(String value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length() + 2);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(value);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static int recordChecksum(byte type, byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return the length of the payload in the upper and its CRC32 in the lower 32 bits, so that payloads of different
+     *         lengths never compare equal
+     */
+    private static long checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return ((long) payload.length << 32) | crc.getValue();
+    }
+
+    private static ByteBuffer read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("[" + file + "] is too large");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -39,6 +39,8 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -153,6 +155,7 @@ public class InventoryManager extends AgentService implements ContainerService,
     private static final String INVENTORY_THREAD_POOL_NAME = "InventoryManager.discovery";
     private static final String AVAIL_THREAD_POOL_NAME = "InventoryManager.availability";
     private static final int AVAIL_THREAD_POOL_CORE_POOL_SIZE = 1;
+    private static final String AVAIL_SCAN_THREAD_POOL_NAME = "InventoryManager.availability.scan";
 
     private static final int COMPONENT_START_TIMEOUT = 60 * 1000; // 60 seconds
     private static final int COMPONENT_STOP_TIMEOUT = 5 * 1000; // 5 seconds
@@ -176,6 +179,8 @@ public class InventoryManager extends AgentService implements ContainerService,
 
     private ScheduledThreadPoolExecutor inventoryThreadPoolExecutor;
     private ScheduledThreadPoolExecutor availabilityThreadPoolExecutor;
+    // runs the subtree checks that an availability scan forks off, null if scans check everything on the scan thread
+    private ExecutorService availabilityScanThreadPoolExecutor;
 
     // The executors are Callable
     private final AutoDiscoveryExecutor serverScanExecutor;
@@ -214,6 +219,11 @@ public class InventoryManager extends AgentService implements ContainerService,
     private final TIntObjectMap<ResourceContainer> resourceContainerByResourceId = new TIntObjectHashMap<ResourceContainer>(
         500);
 
+    /**
+     * The inventory file last loaded or stored, kept so that persisting the inventory only writes what changed
+     */
+    private InventoryFile persistedInventory;
+
     /**
      * Collection of event listeners to inform of changes to the inventory.
      */
@@ -289,6 +299,13 @@ public class InventoryManager extends AgentService implements ContainerService,
             availabilityThreadPoolExecutor = new ScheduledThreadPoolExecutor(AVAIL_THREAD_POOL_CORE_POOL_SIZE,
                 new LoggingThreadFactory(AVAIL_THREAD_POOL_NAME, true));
 
+            // The avail check itself checks independent subtrees in parallel, the scan thread counts as one of them.
+            int availScanConcurrency = configuration.getAvailabilityScanConcurrency();
+            if (availScanConcurrency > 1) {
+                availabilityScanThreadPoolExecutor = Executors.newFixedThreadPool(availScanConcurrency - 1,
+                    new LoggingThreadFactory(AVAIL_SCAN_THREAD_POOL_NAME, true));
+            }
+
             // Never run more than one discovery scan at a time (service and service scans share the same pool).
             inventoryThreadPoolExecutor = new ScheduledThreadPoolExecutor(1, new LoggingThreadFactory(
                 INVENTORY_THREAD_POOL_NAME, true));
@@ -325,6 +342,9 @@ public class InventoryManager extends AgentService implements ContainerService,
     public void shutdown() {
         PluginContainer.shutdownExecutorService(this.inventoryThreadPoolExecutor, true);
         PluginContainer.shutdownExecutorService(this.availabilityThreadPoolExecutor, true);
+        if (this.availabilityScanThreadPoolExecutor != null) {
+            PluginContainer.shutdownExecutorService(this.availabilityScanThreadPoolExecutor, true);
+        }
         if (this.configuration.isInsideAgent()) {
             this.persistToDisk();
         }
@@ -1081,6 +1101,29 @@ public class InventoryManager extends AgentService implements ContainerService,
         return null;
     }
 
+    /**
+     * @return the pool that availability scans fork subtree checks into, or <code>null</code> if availability scans
+     *         check the whole inventory on the scan thread
+     */
+    @Nullable
+    ExecutorService getAvailabilityScanThreadPoolExecutor() {
+        return this.availabilityScanThreadPoolExecutor;
+    }
+
+    /**
+     * @return the maximum number of subtrees a single availability scan checks at the same time
+     */
+    int getAvailabilityScanConcurrency() {
+        return this.configuration.getAvailabilityScanConcurrency();
+    }
+
+    /**
+     * @return the time, in milliseconds, an availability scan may take before it reports partial results
+     */
+    long getAvailabilityScanTimeout() {
+        return this.configuration.getAvailabilityScanTimeout() * 1000L;
+    }
+
     public void handleReport(AvailabilityReport report) {
         // a null report means a non-committed inventory - we are either brand new or our platform was deleted recently
         if (report == null) {
@@ -1520,13 +1563,15 @@ public class InventoryManager extends AgentService implements ContainerService,
 
             measurementManager.unscheduleCollection(Collections.singleton(resource.getId()));
 
-            if (this.resourceContainersByUUID.remove(resource.getUuid()) == null) {
+            ResourceContainer removedContainer = this.resourceContainersByUUID.remove(resource.getUuid());
+            if (removedContainer == null) {
                 if (log.isDebugEnabled()) {
                     log.debug("Asked to remove an unknown Resource [" + resource + "] with UUID [" + resource.getUuid()
                         + "]");
                 }
             } else {
                 this.resourceContainerByResourceId.remove(resource.getId());
+                removedContainer.releaseAvailabilityState();
             }
 
             // Notify InventoryEventListeners a Resource has been removed.
@@ -2267,6 +2312,7 @@ public class InventoryManager extends AgentService implements ContainerService,
 
                 InventoryFile inventoryFile = new InventoryFile(file, this);
                 inventoryFile.loadInventory();
+                this.persistedInventory = inventoryFile;
 
                 this.platform = inventoryFile.getPlatform();
                 this.resourceContainersByUUID.clear();
@@ -2344,8 +2390,13 @@ public class InventoryManager extends AgentService implements ContainerService,
                 }
             }
             File file = new File(dataDir, "inventory.dat");
-            InventoryFile inventoryFile = new InventoryFile(file, this);
+            // reuse the inventory file that was loaded so that only the changes since are written
+            InventoryFile inventoryFile = this.persistedInventory;
+            if (inventoryFile == null || !file.equals(inventoryFile.getInventoryFile())) {
+                inventoryFile = new InventoryFile(file, this);
+            }
             inventoryFile.storeInventory(this.platform, this.resourceContainersByUUID);
+            this.persistedInventory = inventoryFile;
         } catch (Exception e) {
             log.error("Could not persist inventory data to disk", e);
         }
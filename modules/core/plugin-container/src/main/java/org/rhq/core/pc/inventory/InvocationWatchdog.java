@@ -0,0 +1,145 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.inventory;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Enforces the timeout of component invocations that run on the calling thread instead of being handed off to an
+ * invoker thread. A single timer thread checks the watched invocations a few times per second and interrupts the
+ * thread of any invocation that has run past its deadline.
+ *
+ * <p>The timeout is only enforced as far as the component responds to the interrupt: unlike a caller waiting on an
+ * invoker thread, the calling thread can not return before the component does.</p>
+ */
+final class InvocationWatchdog {
+    private static final Log LOG = LogFactory.getLog(InvocationWatchdog.class);
+
+    static final long CHECK_INTERVAL_MILLIS = 100L;
+
+    private final Set<Watch> watches = Collections.newSetFromMap(new ConcurrentHashMap<Watch, Boolean>());
+    private final ScheduledExecutorService timer;
+
+    InvocationWatchdog(ThreadFactory threadFactory) {
+        this.timer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.timer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                check(System.currentTimeMillis());
+            }
+        }, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts watching an invocation on the current thread. The caller must call {@link Watch#done()} once the
+     * invocation has returned, whether or not it succeeded.
+     *
+     * @param timeoutMillis the time the invocation may take
+     * @param onTimeout run by the watchdog before the thread is interrupted, may be null
+     * @return the watch
+     */
+    Watch watch(long timeoutMillis, Runnable onTimeout) {
+        Watch watch = new Watch(Thread.currentThread(), System.currentTimeMillis() + timeoutMillis, onTimeout);
+        watches.add(watch);
+        return watch;
+    }
+
+    /**
+     * Interrupts the invocations that are past their deadline at the given time.
+     */
+    void check(long now) {
+        for (Watch watch : watches) {
+            if (watch.deadline <= now) {
+                watch.timeOut();
+            }
+        }
+    }
+
+    int size() {
+        return watches.size();
+    }
+
+    void shutdown() {
+        timer.shutdownNow();
+        watches.clear();
+    }
+
+    final class Watch {
+        private static final int RUNNING = 0;
+        private static final int TIMING_OUT = 1;
+        private static final int TIMED_OUT = 2;
+        private static final int DONE = 3;
+
+        private final Thread thread;
+        private final long deadline;
+        private final Runnable onTimeout;
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+
+        private Watch(Thread thread, long deadline, Runnable onTimeout) {
+            this.thread = thread;
+            this.deadline = deadline;
+            this.onTimeout = onTimeout;
+        }
+
+        private void timeOut() {
+            if (!state.compareAndSet(RUNNING, TIMING_OUT)) {
+                return;
+            }
+            watches.remove(this);
+            try {
+                if (onTimeout != null) {
+                    onTimeout.run();
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to prepare timed out invocation on thread [" + thread.getName() + "]", e);
+            } finally {
+                thread.interrupt();
+                state.set(TIMED_OUT);
+            }
+        }
+
+        /**
+         * Stops watching the invocation. If the invocation timed out, this clears the interrupt the watchdog sent to
+         * the current thread.
+         *
+         * @return <code>true</code> if the invocation finished before its deadline, <code>false</code> if it timed out
+         */
+        boolean done() {
+            if (state.compareAndSet(RUNNING, DONE)) {
+                watches.remove(this);
+                return true;
+            }
+            // the watchdog may be about to interrupt this thread, wait for it so the interrupt can be cleared
+            while (state.get() != TIMED_OUT) {
+                Thread.yield();
+            }
+            Thread.interrupted();
+            return false;
+        }
+    }
+}
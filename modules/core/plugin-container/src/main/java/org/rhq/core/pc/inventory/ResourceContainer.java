@@ -40,7 +40,11 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -92,8 +96,22 @@ public class ResourceContainer implements Serializable {
     private static final String DAEMON_THREAD_POOL_NAME = "ResourceContainer.invoker.daemon";
     private static final String NON_DAEMON_THREAD_POOL_NAME = "ResourceContainer.invoker.nonDaemon";
     private static final String AVAIL_CHECK_THREAD_POOL_NAME = "ResourceContainer.invoker.availCheck.daemon";
-    private static ExecutorService DAEMON_THREAD_POOL;
-    private static ExecutorService NON_DAEMON_THREAD_POOL;
+    private static final String WATCHDOG_THREAD_NAME = "ResourceContainer.invoker.watchdog";
+    private static ThreadPoolExecutor DAEMON_THREAD_POOL;
+    private static ThreadPoolExecutor NON_DAEMON_THREAD_POOL;
+
+    // enforces the timeout of invocations that run on the calling thread
+    private static InvocationWatchdog INVOCATION_WATCHDOG;
+    private static volatile boolean INLINE_INVOCATIONS;
+
+    // the component invocation running on the current thread, if any
+    private static final ThreadLocal<ComponentInvocation> CURRENT_INVOCATION = new ThreadLocal<ComponentInvocation>();
+
+    // component invocation statistics
+    private static final AtomicLong INVOCATION_COUNT = new AtomicLong();
+    private static final AtomicLong INLINE_INVOCATION_COUNT = new AtomicLong();
+    private static final AtomicLong OVERFLOW_INVOCATION_COUNT = new AtomicLong();
+    private static final AtomicLong TIMED_OUT_INVOCATION_COUNT = new AtomicLong();
 
     /**
      * This thread pool protects us from generating a potentially huge number of threads on slow running
@@ -105,6 +123,10 @@ public class ResourceContainer implements Serializable {
      */
     private static ExecutorService AVAIL_CHECK_THREAD_POOL;
 
+    // The table holding the currently known availability of the containers. It is replaced when the plugin container
+    // is initialized again, containers created before keep the table they allocated their slot from.
+    private static volatile AvailabilityStateTable AVAILABILITY_STATES = new AvailabilityStateTable();
+
     // non-transient fields
     private final Resource resource;
     private SynchronizationState synchronizationState = SynchronizationState.NEW;
@@ -120,9 +142,9 @@ public class ResourceContainer implements Serializable {
     private transient ReentrantReadWriteLock facetAccessLock = new ReentrantReadWriteLock();
     private transient TIntObjectMap<Object> proxyCache = new TIntObjectHashMap<Object>(5);
     private transient ClassLoader resourceClassLoader;
-    // the currently known availability
-    private transient AvailabilityType currentAvailType = AvailabilityType.UNKNOWN;
-    private transient long currentAvailStart;
+    // the slot holding the currently known availability, allocated on first use (0 means not yet allocated)
+    private transient AvailabilityStateTable availabilityStates;
+    private transient volatile long availabilityHandle;
     // the time at which this resource is up for an avail check. 0 indicates unscheduled.
     private transient long availabilityScheduleTime;
     private transient AvailabilityProxy availabilityProxy;
@@ -136,10 +158,14 @@ public class ResourceContainer implements Serializable {
         LoggingThreadFactory daemonFactory = new LoggingThreadFactory(DAEMON_THREAD_POOL_NAME, true);
         LoggingThreadFactory nonDaemonFactory = new LoggingThreadFactory(NON_DAEMON_THREAD_POOL_NAME, false);
         LoggingThreadFactory availCheckFactory = new LoggingThreadFactory(AVAIL_CHECK_THREAD_POOL_NAME, true);
-        DAEMON_THREAD_POOL = Executors.newCachedThreadPool(daemonFactory);
-        NON_DAEMON_THREAD_POOL = Executors.newCachedThreadPool(nonDaemonFactory);
+        int invokerThreadPoolSize = pcConfig.getComponentInvokerThreadPoolSize();
+        DAEMON_THREAD_POOL = newInvokerThreadPool(invokerThreadPoolSize, daemonFactory);
+        NON_DAEMON_THREAD_POOL = newInvokerThreadPool(invokerThreadPoolSize, nonDaemonFactory);
+        INVOCATION_WATCHDOG = new InvocationWatchdog(new LoggingThreadFactory(WATCHDOG_THREAD_NAME, true));
+        INLINE_INVOCATIONS = pcConfig.isComponentInvocationInline();
         AVAIL_CHECK_THREAD_POOL = Executors.newFixedThreadPool(pcConfig.getAvailabilityScanThreadPoolSize(),
             availCheckFactory);
+        AVAILABILITY_STATES = new AvailabilityStateTable();
     }
 
     /**
@@ -150,6 +176,55 @@ public class ResourceContainer implements Serializable {
         DAEMON_THREAD_POOL.shutdown();
         NON_DAEMON_THREAD_POOL.shutdown();
         AVAIL_CHECK_THREAD_POOL.shutdown();
+        INVOCATION_WATCHDOG.shutdown();
+    }
+
+    /**
+     * Like a cached thread pool, but with at most <code>size</code> threads. Once they are all busy, submitting
+     * another task fails and the invocation is run on the calling thread instead.
+     */
+    private static ThreadPoolExecutor newInvokerThreadPool(int size, LoggingThreadFactory threadFactory) {
+        return new ThreadPoolExecutor(0, Math.max(size, 1), 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            threadFactory);
+    }
+
+    /**
+     * @return the number of facet method calls made through component proxies
+     */
+    public static long getComponentInvocationCount() {
+        return INVOCATION_COUNT.get();
+    }
+
+    /**
+     * @return the number of facet method calls that ran on the calling thread rather than on an invoker thread
+     */
+    public static long getInlineComponentInvocationCount() {
+        return INLINE_INVOCATION_COUNT.get();
+    }
+
+    /**
+     * @return the number of facet method calls that ran on the calling thread because all invoker threads were busy
+     */
+    public static long getOverflowComponentInvocationCount() {
+        return OVERFLOW_INVOCATION_COUNT.get();
+    }
+
+    /**
+     * @return the number of facet method calls that timed out or were turned down because all invoker threads were
+     * busy
+     */
+    public static long getTimedOutComponentInvocationCount() {
+        return TIMED_OUT_INVOCATION_COUNT.get();
+    }
+
+    /**
+     * @return the number of threads currently in the invoker thread pools
+     */
+    public static int getComponentInvokerThreadCount() {
+        ThreadPoolExecutor daemonPool = DAEMON_THREAD_POOL;
+        ThreadPoolExecutor nonDaemonPool = NON_DAEMON_THREAD_POOL;
+        return ((daemonPool == null) ? 0 : daemonPool.getPoolSize())
+            + ((nonDaemonPool == null) ? 0 : nonDaemonPool.getPoolSize());
     }
 
     public ResourceContainer(Resource resource, ClassLoader resourceClassLoader) {
@@ -158,14 +233,35 @@ public class ResourceContainer implements Serializable {
     }
 
     public Availability updateAvailability(AvailabilityType availabilityType) {
-        synchronized (this) {
-            this.currentAvailType = availabilityType;
-            this.currentAvailStart = System.currentTimeMillis();
+        long start = System.currentTimeMillis();
+        long handle = getAvailabilityHandle();
+        availabilityStates.set(handle, availabilityType, start);
 
-            Availability tmp = new Availability(this.resource,availabilityType);
-            tmp.setStartTime(this.currentAvailStart);
-            return tmp;
+        Availability tmp = new Availability(this.resource, availabilityType);
+        tmp.setStartTime(start);
+        return tmp;
+    }
+
+    /**
+     * Updates the availability of the resource unless it has changed since its state was read with
+     * {@link #getAvailabilityState()}. This lets concurrent availability checks agree on which one of them saw the
+     * change.
+     *
+     * @param expectedState the state the availability was last read as
+     * @param availabilityType the new availability type
+     * @return the new availability, or <code>null</code> if the availability has been changed in the meantime
+     */
+    @Nullable
+    Availability updateAvailability(long expectedState, AvailabilityType availabilityType) {
+        long start = System.currentTimeMillis();
+        long handle = getAvailabilityHandle();
+        if (!availabilityStates.compareAndSet(handle, expectedState, availabilityType, start)) {
+            return null;
         }
+
+        Availability tmp = new Availability(this.resource, availabilityType);
+        tmp.setStartTime(start);
+        return tmp;
     }
 
     public Resource getResource() {
@@ -180,13 +276,50 @@ public class ResourceContainer implements Serializable {
      */
     @Nullable
     public Availability getAvailability() {
+        long state = getAvailabilityState();
+        Availability tmp = new Availability(this.resource, AvailabilityStateTable.getType(state));
+        tmp.setStartTime(AvailabilityStateTable.getStartTime(state));
+        return tmp;
+    }
+
+    /**
+     * Returns the currently known availability of the resource as a packed state, to be decoded with
+     * {@link AvailabilityStateTable#getType(long)} and passed to {@link #updateAvailability(long, AvailabilityType)}.
+     *
+     * @return the packed availability state
+     */
+    long getAvailabilityState() {
+        long handle = getAvailabilityHandle();
+        return availabilityStates.get(handle);
+    }
+
+    /**
+     * Gives back the slot of the availability state once this container has been removed from inventory. The
+     * container reads as {@link AvailabilityType#UNKNOWN} afterwards and ignores availability updates.
+     */
+    void releaseAvailabilityState() {
         synchronized (this) {
-            Availability tmp = new Availability(this.resource,this.currentAvailType);
-            tmp.setStartTime(this.currentAvailStart);
-            return tmp;
+            if (availabilityHandle != 0) {
+                availabilityStates.release(availabilityHandle);
+            }
         }
     }
 
+    private long getAvailabilityHandle() {
+        long handle = availabilityHandle;
+        if (handle == 0) {
+            synchronized (this) {
+                handle = availabilityHandle;
+                if (handle == 0) {
+                    availabilityStates = AVAILABILITY_STATES;
+                    handle = availabilityStates.allocate();
+                    availabilityHandle = handle;
+                }
+            }
+        }
+        return handle;
+    }
+
     /**
      * If a piece of code wants to make a call into a plugin component's facet, and that call doesn't need to write or
      * modify any data within the component or the managed resource itself, that code should obtain the returned read
@@ -458,7 +591,7 @@ public class ResourceContainer implements Serializable {
 
     @Override
     public String toString() {
-        AvailabilityType avail = (this.currentAvailType != null) ? this.currentAvailType : null;
+        AvailabilityType avail = AvailabilityStateTable.getType(getAvailabilityState());
         return this.getClass().getSimpleName() + "[resource=" + this.resource + ", syncState="
             + this.synchronizationState + ", componentState=" + this.resourceComponentState + ", avail=" + avail + "]";
     }
@@ -523,6 +656,11 @@ public class ResourceContainer implements Serializable {
             }
 
             T proxy = (T) this.proxyCache.get(key);
+            if (proxy != null
+                && !((ResourceComponentInvocationHandler) Proxy.getInvocationHandler(proxy)).isFor(facetInterface,
+                    lockType, timeout, daemonThread, transferInterrupt)) {
+                proxy = null; // another proxy with the same key, replace it
+            }
             if (proxy == null) {
                 ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 
@@ -583,12 +721,20 @@ public class ResourceContainer implements Serializable {
      *   1) obtain a facet lock before passing the invocation call to the actual component, and/or
      *   2) interrupt the invocation thread and throw a {@link TimeoutException} if its execution time exceeds a
      *      specified timeout
+     *
+     * If the plugin container is configured to invoke components inline, and the calling thread can stand in for a
+     * pooled thread, the method is invoked on the calling thread and the {@link InvocationWatchdog} interrupts it when
+     * the timeout is exceeded. The same happens when all the pooled threads are busy, provided the calling thread
+     * could have stood in for a pooled thread; otherwise the invocation fails immediately with a
+     * {@link TimeoutException}.
      */
     private static class ResourceComponentInvocationHandler implements InvocationHandler {
         private static final Log LOG = LogFactory.getLog(ResourceComponentInvocationHandler.class);
 
         private final ResourceContainer container;
+        private final FacetLockType lockType;
         private final Lock lock;
+        private final long timeout;
         private final int timeoutInSeconds;
         private final boolean daemonThread;
         private final Class facetInterface;
@@ -609,6 +755,7 @@ public class ResourceContainer implements Serializable {
         public ResourceComponentInvocationHandler(ResourceContainer container, FacetLockType lockType, long timeout,
             boolean daemonThread, Class facetInterface, boolean transferInterrupt) {
             this.container = container;
+            this.lockType = lockType;
             switch (lockType) {
             case WRITE: {
                 this.lock = container.getWriteFacetLock();
@@ -626,14 +773,27 @@ public class ResourceContainer implements Serializable {
             if (timeout <= 0L) {
                 throw new IllegalArgumentException("timeout value is not positive.");
             }
+            this.timeout = timeout;
             this.timeoutInSeconds = (int) ((timeout + 999L) / 1000L); // round up, ensure 1sec minimum.
             this.daemonThread = daemonThread;
             this.facetInterface = facetInterface;
             this.transferInterrupt = transferInterrupt;
         }
 
+        boolean isFor(Class facetInterface, FacetLockType lockType, long timeout, boolean daemonThread,
+            boolean transferInterrupt) {
+            return this.facetInterface.equals(facetInterface) && this.lockType == lockType && this.timeout == timeout
+                && this.daemonThread == daemonThread && this.transferInterrupt == transferInterrupt;
+        }
+
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
             if (method.getDeclaringClass().equals(this.facetInterface)) {
+                INVOCATION_COUNT.incrementAndGet();
+                if (INLINE_INVOCATIONS && canInvokeInCurrentThread()) {
+                    ComponentInvocation componentInvocation = new ComponentInvocation(this.container, method, args,
+                        this.lock);
+                    return invokeInCurrentThreadWithLock(componentInvocation, method, args);
+                }
                 return invokeInNewThreadWithLock(method, args);
             } else {
                 // toString(), etc.
@@ -641,10 +801,37 @@ public class ResourceContainer implements Serializable {
             }
         }
 
+        /**
+         * The calling thread can stand in for a pooled thread if it is of the same kind, if its interrupts are meant
+         * to reach the component anyway and if it is not already running an invocation.
+         */
+        private boolean canInvokeInCurrentThread() {
+            return this.transferInterrupt && Thread.currentThread().isDaemon() == this.daemonThread
+                && CURRENT_INVOCATION.get() == null;
+        }
+
         private Object invokeInNewThreadWithLock(Method method, Object[] args) throws Throwable {
-            ExecutorService threadPool = this.daemonThread ? DAEMON_THREAD_POOL : NON_DAEMON_THREAD_POOL;
+            ThreadPoolExecutor threadPool = this.daemonThread ? DAEMON_THREAD_POOL : NON_DAEMON_THREAD_POOL;
             ComponentInvocation componentInvocation = new ComponentInvocation(this.container, method, args, this.lock);
-            Future<?> future = threadPool.submit(componentInvocation);
+            Future<?> future;
+            try {
+                future = threadPool.submit(componentInvocation);
+            } catch (RejectedExecutionException e) {
+                if (threadPool.isShutdown()) {
+                    throw e;
+                }
+                // all pooled threads are busy, most likely with invocations that hang
+                if (canInvokeInCurrentThread()) {
+                    OVERFLOW_INVOCATION_COUNT.incrementAndGet();
+                    return invokeInCurrentThreadWithLock(componentInvocation, method, args);
+                }
+                // the calling thread cannot be interrupted on behalf of the component, so don't risk hanging it
+                TIMED_OUT_INVOCATION_COUNT.incrementAndGet();
+                String msg = invokedMethodString(method, args, "was not invoked - all "
+                    + threadPool.getMaximumPoolSize() + " invocation threads are busy.");
+                LOG.debug(msg);
+                throw new TimeoutException(msg, e);
+            }
             try {
                 return future.get(this.timeoutInSeconds, TimeUnit.SECONDS);
             } catch (InterruptedException e) {
@@ -661,6 +848,7 @@ public class ResourceContainer implements Serializable {
                 }
                 throw e.getCause();
             } catch (java.util.concurrent.TimeoutException e) {
+                TIMED_OUT_INVOCATION_COUNT.incrementAndGet();
                 String msg = invokedMethodString(method, args, "timed out after " + timeoutInSeconds
                     + " seconds - invocation thread will be interrupted.");
                 LOG.debug(msg);
@@ -675,6 +863,43 @@ public class ResourceContainer implements Serializable {
             }
         }
 
+        private Object invokeInCurrentThreadWithLock(final ComponentInvocation componentInvocation, Method method,
+            Object[] args) throws Throwable {
+            INLINE_INVOCATION_COUNT.incrementAndGet();
+            InvocationWatchdog.Watch watch = INVOCATION_WATCHDOG.watch(this.timeout, new Runnable() {
+                public void run() {
+                    componentInvocation.timedOut();
+                }
+            });
+            Object result = null;
+            Throwable failure = null;
+            try {
+                result = componentInvocation.call();
+            } catch (Throwable t) {
+                failure = t;
+            }
+
+            if (!watch.done()) {
+                TIMED_OUT_INVOCATION_COUNT.incrementAndGet();
+                String msg = invokedMethodString(method, args, "timed out after " + timeoutInSeconds
+                    + " seconds - invocation thread was interrupted.");
+                LOG.debug(msg);
+                Throwable cause = new Throwable();
+                cause.setStackTrace(componentInvocation.getTimeoutStackTrace());
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(this.container.getFacetLockStatus());
+                }
+                throw new TimeoutException(msg).initCause(cause);
+            }
+            if (failure != null) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(invokedMethodString(method, args, "failed."), failure);
+                }
+                throw failure;
+            }
+            return result;
+        }
+
         private String invokedMethodString(Method method, Object[] methodArgs, String extraMsg) {
             String name = this.container.getResourceComponent().getClass().getName() + '.' + method.getName() + "()";
             String args = ((methodArgs != null) ? Arrays.asList(methodArgs).toString() : "");
@@ -710,6 +935,7 @@ public class ResourceContainer implements Serializable {
         private final ComponentInvocationContextImpl componentInvocationContext;
         private final LocalContext localContext;
         private volatile Thread thread;
+        private volatile StackTraceElement[] timeoutStackTrace;
 
         ComponentInvocation(ResourceContainer resourceContainer, Method method, Object[] args, Lock lock) {
             this.resourceContainer = resourceContainer;
@@ -743,6 +969,8 @@ public class ResourceContainer implements Serializable {
                 // If we made it here, we have acquired the lock.
             }
 
+            ComponentInvocation outerInvocation = CURRENT_INVOCATION.get();
+            CURRENT_INVOCATION.set(this);
             componentInvocationContext.setLocalContext(localContext);
             ClassLoader originalContextClassLoader = thread.getContextClassLoader();
 
@@ -770,9 +998,34 @@ public class ResourceContainer implements Serializable {
                 }
                 this.thread.setContextClassLoader(originalContextClassLoader);
                 this.thread = null;
+                // the thread may be a caller that stood in for a pooled thread, leave it as it was
+                if (outerInvocation != null) {
+                    componentInvocationContext.setLocalContext(outerInvocation.localContext);
+                    CURRENT_INVOCATION.set(outerInvocation);
+                } else {
+                    componentInvocationContext.setLocalContext(new LocalContext());
+                    CURRENT_INVOCATION.remove();
+                }
             }
         }
 
+        /**
+         * Called by the {@link InvocationWatchdog} before it interrupts an invocation that runs on the calling thread.
+         */
+        void timedOut() {
+            try {
+                this.timeoutStackTrace = getStackTrace();
+            } catch (Exception e) {
+                this.timeoutStackTrace = new StackTraceElement[0];
+            }
+            markContextInterrupted();
+        }
+
+        StackTraceElement[] getTimeoutStackTrace() {
+            StackTraceElement[] stackTrace = this.timeoutStackTrace;
+            return (stackTrace != null) ? stackTrace : new StackTraceElement[0];
+        }
+
         public void markContextInterrupted() {
             localContext.markInterrupted();
             LOG.warn(getContextInterruptedWarningMessage(LOG.isDebugEnabled()));
@@ -0,0 +1,220 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.measurement;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs measurement collections in parallel on the collector threads, while limiting the number of collections that
+ * run concurrently for any one plugin. Each plugin has its own queue of waiting collections, so a plugin whose
+ * resources are slow to answer fills up its own limit but does not hold up the collections of other plugins.
+ * <p>
+ * The time each collection takes is recorded in a latency histogram per plugin.
+ */
+class MeasurementCollectionEngine {
+    private static final Log LOG = LogFactory.getLog(MeasurementCollectionEngine.class);
+
+    private final Executor executor;
+    private final int pluginConcurrency;
+    private final ConcurrentHashMap<String, PluginLane> lanes = new ConcurrentHashMap<String, PluginLane>();
+
+    /**
+     * @param executor the executor that runs the collections
+     * @param pluginConcurrency the maximum number of collections that run concurrently for a single plugin
+     */
+    MeasurementCollectionEngine(Executor executor, int pluginConcurrency) {
+        if (pluginConcurrency < 1) {
+            throw new IllegalArgumentException("pluginConcurrency must be at least 1: " + pluginConcurrency);
+        }
+        this.executor = executor;
+        this.pluginConcurrency = pluginConcurrency;
+    }
+
+    /**
+     * Queues the collection to be run as soon as the plugin is below its concurrency limit and a collector thread is
+     * available.
+     *
+     * @param pluginName the plugin of the resource whose measurements are collected
+     * @param collection the collection
+     */
+    void submit(String pluginName, Runnable collection) {
+        PluginLane lane = lanes.get(pluginName);
+        if (lane == null) {
+            lane = new PluginLane(pluginName);
+            PluginLane existing = lanes.putIfAbsent(pluginName, lane);
+            if (existing != null) {
+                lane = existing;
+            }
+        }
+        lane.waiting.offer(collection);
+        dispatch(lane);
+    }
+
+    /**
+     * Hands waiting collections of the plugin to the executor until the plugin reaches its concurrency limit. This is
+     * called whenever a collection is queued and whenever one finishes, so a collection that is queued while the lane
+     * is full is picked up by the next collection of that plugin that finishes.
+     */
+    private void dispatch(PluginLane lane) {
+        while (true) {
+            int running = lane.running.get();
+            if (running >= pluginConcurrency || lane.waiting.isEmpty()) {
+                return;
+            }
+            if (!lane.running.compareAndSet(running, running + 1)) {
+                continue;
+            }
+            Runnable collection = lane.waiting.poll();
+            if (collection == null) {
+                lane.running.decrementAndGet();
+                continue;
+            }
+            try {
+                executor.execute(new LaneTask(lane, collection));
+            } catch (RejectedExecutionException e) {
+                // the collector threads are shutting down
+                lane.running.decrementAndGet();
+                lane.waiting.clear();
+                LOG.debug("Measurement collection rejected for plugin [" + lane.pluginName + "]: " + e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of collections that are waiting for their plugin to be below its concurrency limit or for a
+     *         collector thread
+     */
+    int getWaitingCollections() {
+        int waiting = 0;
+        for (PluginLane lane : lanes.values()) {
+            waiting += lane.waiting.size();
+        }
+        return waiting;
+    }
+
+    /**
+     * @return the latency histogram of each plugin, formatted as a count per latency bucket
+     */
+    Map<String, String> getLatencyHistograms() {
+        Map<String, String> histograms = new TreeMap<String, String>();
+        for (PluginLane lane : lanes.values()) {
+            histograms.put(lane.pluginName, lane.latency.toString());
+        }
+        return histograms;
+    }
+
+    LatencyHistogram getLatencyHistogram(String pluginName) {
+        PluginLane lane = lanes.get(pluginName);
+        return (lane != null) ? lane.latency : null;
+    }
+
+    private class LaneTask implements Runnable {
+        private final PluginLane lane;
+        private final Runnable collection;
+
+        LaneTask(PluginLane lane, Runnable collection) {
+            this.lane = lane;
+            this.collection = collection;
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            try {
+                collection.run();
+            } catch (Throwable t) {
+                LOG.error("Measurement collection failed for plugin [" + lane.pluginName + "]", t);
+            } finally {
+                lane.latency.record(System.currentTimeMillis() - start);
+                lane.running.decrementAndGet();
+                dispatch(lane);
+            }
+        }
+    }
+
+    private static class PluginLane {
+        private final String pluginName;
+        private final ConcurrentLinkedQueue<Runnable> waiting = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicInteger running = new AtomicInteger();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        PluginLane(String pluginName) {
+            this.pluginName = pluginName;
+        }
+    }
+
+    /**
+     * Counts durations in buckets of increasing width. The counts are updated without locking, so a snapshot taken
+     * while collections finish may be off by the collections that finish while it is taken.
+     */
+    static class LatencyHistogram {
+        static final long[] BOUNDS = { 10L, 50L, 100L, 250L, 500L, 1000L, 2500L, 5000L, 10000L, 30000L };
+
+        private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+
+        void record(long millis) {
+            int bucket = 0;
+            while (bucket < BOUNDS.length && millis >= BOUNDS[bucket]) {
+                bucket++;
+            }
+            counts.incrementAndGet(bucket);
+        }
+
+        /**
+         * @return the number of durations in each bucket; the bucket at index i counts durations below
+         *         {@link #BOUNDS}[i] and the last bucket the ones of at least the last bound
+         */
+        long[] getCounts() {
+            long[] snapshot = new long[counts.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = counts.get(i);
+            }
+            return snapshot;
+        }
+
+        @Override
+        public String toString() {
+            long[] snapshot = getCounts();
+            StringBuilder str = new StringBuilder();
+            for (int i = 0; i < snapshot.length; i++) {
+                if (i > 0) {
+                    str.append(", ");
+                }
+                if (i < BOUNDS.length) {
+                    str.append('<').append(BOUNDS[i]);
+                } else {
+                    str.append(">=").append(BOUNDS[BOUNDS.length - 1]);
+                }
+                str.append("ms=").append(snapshot[i]);
+            }
+            return str.toString();
+        }
+    }
+}
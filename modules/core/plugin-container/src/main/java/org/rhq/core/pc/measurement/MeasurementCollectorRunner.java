@@ -43,11 +43,20 @@ import org.rhq.core.util.exception.ThrowableUtil;
 * Executes the collection of measurements. Every call results in one new batch of measurements collected. Each batch is
 * limited to a single resource and the measurements that are due to be collected at that time.
 *
+* <p>Batches are collected in parallel by the collector threads, so each collection fills its own report which is
+* then handed to the {@link MeasurementManager} to be sent with the next measurement report.</p>
+*
 * @author Greg Hinkle
 */
 public class MeasurementCollectorRunner implements Callable<MeasurementReport>, Runnable {
     private static final Log log = LogFactory.getLog(MeasurementCollectorRunner.class);
 
+    // a batch is late if it is collected later than this after its collection time
+    static final long LATE_COLLECTION_THRESHOLD = 30000L;
+
+    // the least time a collection is given, even if it starts just before the batch would be late
+    private static final long MIN_COLLECTION_TIMEOUT = 1000L;
+
     private final MeasurementManager measurementManager;
 
     // this is only kept when in debug mode to help figure out which metrics are slowing things down.
@@ -57,73 +66,107 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
         this.measurementManager = measurementManager;
     }
 
+    /**
+     * Collects the next batch of measurements that is due, if any.
+     *
+     * @return the report with the collected measurements or <code>null</code> if nothing was collected
+     */
     public MeasurementReport call() {
+        Set<ScheduledMeasurementInfo> requests = this.measurementManager.getNextScheduledSet();
+        return (requests != null) ? collect(requests) : null;
+    }
+
+    /**
+     * Collects a batch of measurements of a single resource and reschedules them. If the batch is already late it is
+     * not collected but rescheduled as a late collection. Otherwise the time the plugin is given to collect is
+     * limited to the time until the batch would be late.
+     *
+     * @param requests the due measurements of a single resource
+     *
+     * @return the report with the collected measurements or <code>null</code> if nothing was collected
+     */
+    MeasurementReport collect(Set<ScheduledMeasurementInfo> requests) {
         MeasurementReport report = null;
         try {
-            this.measurementManager.getLock().readLock().lock();
-
-            report = this.measurementManager.getActiveReport();
             long start = System.currentTimeMillis();
 
             InventoryManager im = this.measurementManager.getInventoryManager();
 
-            Set<ScheduledMeasurementInfo> requests = this.measurementManager.getNextScheduledSet();
-
-            if (requests != null) {
-                ScheduledMeasurementInfo next = requests.iterator().next();
+            ScheduledMeasurementInfo next = requests.iterator().next();
+            long deadline = getEarliestCollection(requests) + LATE_COLLECTION_THRESHOLD;
 
-                if ((System.currentTimeMillis() - 30000L) > next.getNextCollection()) {
-                    this.measurementManager.incrementLateCollections(requests.size());
-                    if (log.isDebugEnabled()) {
-                        log.debug("Measurement collection is falling behind... Missed requested time by ["
-                            + (System.currentTimeMillis() - requests.iterator().next().getNextCollection()) + "ms]");
+            if (start > deadline) {
+                this.measurementManager.incrementLateCollections(requests.size());
+                if (log.isDebugEnabled()) {
+                    log.debug("Measurement collection is falling behind... Missed requested time by ["
+                        + (start - (deadline - LATE_COLLECTION_THRESHOLD)) + "ms]");
 
+                    synchronized (scheduleHistory) {
                         if (!scheduleHistory.isEmpty()) {
                             log.debug("The most recent measurement requests prior to this detected delay: "
                                 + scheduleHistory);
                         }
                     }
+                }
+
+                // BZ 834019 - reschedule these requests for the future, and away from the set of requests on this schedule
+                this.measurementManager.rescheduleLateCollections(requests);
+                return null;
+            }
 
-                    // BZ 834019 - reschedule these requests for the future, and away from the set of requests on this schedule
-                    this.measurementManager.rescheduleLateCollections(requests);
-                    return report;
+            int resourceId = next.getResourceId();
+            ResourceContainer container = im.getResourceContainer(resourceId);
+            if (container == null) {
+                // the resource was removed from inventory since its measurements were scheduled
+                if (log.isDebugEnabled()) {
+                    log.debug("Measurements not collected for resource [" + resourceId + "] no longer in inventory");
                 }
+                return null;
+            }
 
-                Integer resourceId = next.getResourceId();
-                ResourceContainer container = im.getResourceContainer(resourceId);
-                if (container.getResourceComponentState() != ResourceContainer.ResourceComponentState.STARTED
-                    || container.getAvailability() == null
-                    || container.getAvailability().getAvailabilityType() == AvailabilityType.DOWN) {
-                    // Don't collect metrics for resources that are down
-                    if (log.isDebugEnabled()) {
-                        log.debug("Measurements not collected for inactive resource component: "
-                            + container.getResource());
-                    }
-                } else {
-                    MeasurementFacet measurementComponent = ComponentUtil
-                        .getComponent(resourceId, MeasurementFacet.class, FacetLockType.READ,
-                            MeasurementManager.FACET_METHOD_TIMEOUT, true, true, true);
+            report = new MeasurementReport();
+            if (container.getResourceComponentState() != ResourceContainer.ResourceComponentState.STARTED
+                || container.getAvailability() == null
+                || container.getAvailability().getAvailabilityType() == AvailabilityType.DOWN) {
+                // Don't collect metrics for resources that are down
+                if (log.isDebugEnabled()) {
+                    log.debug("Measurements not collected for inactive resource component: "
+                        + container.getResource());
+                }
+            } else {
+                long timeout = Math.min(MeasurementManager.FACET_METHOD_TIMEOUT,
+                    Math.max(deadline - start, MIN_COLLECTION_TIMEOUT));
+                MeasurementFacet measurementComponent = ComponentUtil.getComponent(resourceId,
+                    MeasurementFacet.class, FacetLockType.READ, timeout, true, true, true);
 
-                    if (log.isDebugEnabled()) {
+                if (log.isDebugEnabled()) {
+                    synchronized (scheduleHistory) {
                         scheduleHistory.addRequests(requests);
                     }
-
-                    getValues(measurementComponent, report, requests, container.getResource());
                 }
 
-                this.measurementManager.reschedule(requests);
-
-                report.incrementCollectionTime(System.currentTimeMillis() - start);
+                getValues(measurementComponent, report, requests, container.getResource());
             }
+
+            this.measurementManager.reschedule(requests);
+
+            report.incrementCollectionTime(System.currentTimeMillis() - start);
+            this.measurementManager.addCollectedReport(report);
         } catch (Throwable t) {
             log.error("Failed to run measurement collection", t);
-        } finally {
-            this.measurementManager.getLock().readLock().unlock();
         }
 
         return report;
     }
 
+    private static long getEarliestCollection(Set<ScheduledMeasurementInfo> requests) {
+        long earliest = Long.MAX_VALUE;
+        for (ScheduledMeasurementInfo request : requests) {
+            earliest = Math.min(earliest, request.getNextCollection());
+        }
+        return earliest;
+    }
+
     private void getValues(MeasurementFacet measurementComponent, MeasurementReport report,
         Set<? extends MeasurementScheduleRequest> requests, Resource resource) {
         try {
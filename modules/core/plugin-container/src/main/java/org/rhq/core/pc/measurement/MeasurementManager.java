@@ -26,13 +26,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.management.JMException;
 import javax.management.MBeanServer;
@@ -45,11 +44,13 @@ import org.rhq.core.clientapi.agent.measurement.MeasurementAgentService;
 import org.rhq.core.domain.measurement.DataType;
 import org.rhq.core.domain.measurement.MeasurementData;
 import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.core.domain.measurement.MeasurementDataTrait;
 import org.rhq.core.domain.measurement.MeasurementReport;
 import org.rhq.core.domain.measurement.MeasurementSchedule;
 import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.domain.measurement.NumericType;
 import org.rhq.core.domain.measurement.ResourceMeasurementScheduleRequest;
+import org.rhq.core.domain.measurement.calltime.CallTimeData;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.domain.resource.ResourceType;
 import org.rhq.core.pc.ContainerService;
@@ -85,18 +86,25 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
     static final int FACET_METHOD_TIMEOUT = 30 * 1000; // 30 seconds
 
+    // the granularity of the collection schedule; collections are at most this late
+    static final long SCHEDULE_TICK_MILLIS = 1000L;
+
     static final Log LOG = LogFactory.getLog(MeasurementManager.class);
 
+    // the collection engine lane of resources whose plugin can not be determined
+    private static final String UNKNOWN_PLUGIN = "";
+
     private final ScheduledThreadPoolExecutor collectorThreadPool;
     private final ScheduledThreadPoolExecutor senderThreadPool;
 
     private final MeasurementSenderRunner measurementSenderRunner;
     MeasurementCollectorRunner measurementCollectorRunner;
+    private final MeasurementCollectionEngine collectionEngine;
 
     private final PluginContainerConfiguration configuration;
 
-    private final PriorityQueue<ScheduledMeasurementInfo> scheduledRequests = new PriorityQueue<ScheduledMeasurementInfo>(
-        10000);
+    private final MeasurementScheduleWheel scheduledRequests = new MeasurementScheduleWheel(SCHEDULE_TICK_MILLIS,
+        System.currentTimeMillis());
 
     private final InventoryManager inventoryManager;
 
@@ -104,9 +112,8 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
     private final Map<Integer, CachedValue> perMinuteCache = new HashMap<Integer, CachedValue>();
 
-    private volatile MeasurementReport activeReport = new MeasurementReport();
-
-    private final ReentrantReadWriteLock measurementLock = new ReentrantReadWriteLock(true);
+    // the reports of the collections since the last report was sent
+    private final ConcurrentLinkedQueue<MeasurementReport> collectedReports = new ConcurrentLinkedQueue<MeasurementReport>();
 
     // -- monitoring information
     private final AtomicLong collectedMeasurements = new AtomicLong(0);
@@ -137,8 +144,11 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         long collectionInitialDelaySecs = configuration.getMeasurementCollectionInitialDelay();
 
         if (configuration.isInsideAgent()) {
-            this.collectorThreadPool = new ScheduledThreadPoolExecutor(threadPoolSize, new LoggingThreadFactory(
+            // one thread runs the collection requester, the others collect
+            this.collectorThreadPool = new ScheduledThreadPoolExecutor(threadPoolSize + 1, new LoggingThreadFactory(
                 COLLECTOR_THREAD_POOL_NAME, true));
+            this.collectionEngine = new MeasurementCollectionEngine(this.collectorThreadPool,
+                configuration.getMeasurementCollectionPluginConcurrency());
 
             this.senderThreadPool = new ScheduledThreadPoolExecutor(2, new LoggingThreadFactory(
                 SENDER_THREAD_POOL_NAME, true));
@@ -147,8 +157,8 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             this.measurementCollectorRunner = new MeasurementCollectorRunner(this);
 
             // Schedule the measurement sender to send measurement reports periodically.
-            this.senderThreadPool.scheduleAtFixedRate(measurementSenderRunner, collectionInitialDelaySecs, 30,
-                TimeUnit.SECONDS);
+            this.senderThreadPool.scheduleAtFixedRate(measurementSenderRunner, collectionInitialDelaySecs,
+                configuration.getMeasurementReportPeriod(), TimeUnit.SECONDS);
             // Schedule the measurement collector to collect metrics periodically, whenever there are one or more
             // metrics due to be collected.
             this.collectorThreadPool.schedule(new MeasurementCollectionRequester(), collectionInitialDelaySecs,
@@ -164,6 +174,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             collectorThreadPool = null;
             measurementSenderRunner = null;
             measurementCollectorRunner = null;
+            collectionEngine = null;
         }
 
 
@@ -181,8 +192,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
                     } else {
                         long delay = next - System.currentTimeMillis();
                         if (delay <= 0) {
-                            //                  collectorThreadPool.execute(measurementCollectorRunner);
-                            measurementCollectorRunner.call();
+                            submitDueCollections();
                         } else {
                             if (!collectorThreadPool.isShutdown()) {
                                 Thread.sleep(delay);
@@ -201,6 +211,31 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         }
     }
 
+    /**
+     * Hands all due measurement schedules, batched per resource, to the collection engine.
+     */
+    private void submitDueCollections() {
+        Set<ScheduledMeasurementInfo> requests;
+        while ((requests = getNextScheduledSet()) != null) {
+            final Set<ScheduledMeasurementInfo> batch = requests;
+            collectionEngine.submit(getPluginName(batch.iterator().next().getResourceId()), new Runnable() {
+                @Override
+                public void run() {
+                    measurementCollectorRunner.collect(batch);
+                }
+            });
+        }
+    }
+
+    private String getPluginName(int resourceId) {
+        ResourceContainer container = this.inventoryManager.getResourceContainer(resourceId);
+        if (container == null || container.getResource().getResourceType() == null) {
+            return UNKNOWN_PLUGIN;
+        }
+        String pluginName = container.getResource().getResourceType().getPlugin();
+        return (pluginName != null) ? pluginName : UNKNOWN_PLUGIN;
+    }
+
     private void reschedule(Resource resource) {
         if (LOG.isDebugEnabled()) {
             LOG.debug("In Reschedule for: " + resource);
@@ -226,12 +261,13 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         }
     }
 
-    public MeasurementReport getActiveReport() {
-        return activeReport;
-    }
-
-    ReentrantReadWriteLock getLock() {
-        return measurementLock;
+    /**
+     * Adds the report of a collection to the measurements to be sent with the next report.
+     *
+     * @param report the measurements of a single collection
+     */
+    void addCollectedReport(MeasurementReport report) {
+        this.collectedReports.offer(report);
     }
 
     /**
@@ -347,8 +383,6 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         // TODO GH: Should I kick the pool or should I just go with the 30 second granularity on collections?
         // If I get much more granular then the server could end up with too many small reports from many agents
         // This may be another reason to have a separate sending mechanism from the collection mechanism.
-        clearDuplicateSchedules();
-
     }
 
     /**
@@ -384,7 +418,6 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         // TODO GH: Should I kick the pool or should I just go with the 30 second granularity on collections?
         // If I get much more granular then the server could end up with too many small reports from many agents
         // This may be another reason to have a separate sending mechanism from the collection mechanism.
-        clearDuplicateSchedules();
     }
 
     /**
@@ -393,7 +426,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
      * @param resourceId The resource to collect on
      * @param requests   The measurements to collect
      */
-    public synchronized void scheduleCollection(int resourceId, Set<MeasurementScheduleRequest> requests) {
+    public void scheduleCollection(int resourceId, Set<MeasurementScheduleRequest> requests) {
         // This ensures that all the schedules for a single resource start at the same time
         // This will enable them to be collected at the same time
         long firstCollection = System.currentTimeMillis();
@@ -409,38 +442,19 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
             info.setNextCollection(firstCollection);
 
-            this.scheduledRequests.remove(info);
-
-            // Don't add it if collection is disabled for this resource
+            // This replaces any existing schedule with the same id. Don't add it if collection is disabled for this
+            // resource.
             if (info.isEnabled()) {
-                this.scheduledRequests.offer(info);
+                this.scheduledRequests.schedule(info);
+            } else {
+                this.scheduledRequests.unschedule(info.getScheduleId());
             }
         }
     }
 
     @Override
-    public synchronized void unscheduleCollection(Set<Integer> resourceIds) {
-        Iterator<ScheduledMeasurementInfo> itr = this.scheduledRequests.iterator();
-        while (itr.hasNext()) {
-            ScheduledMeasurementInfo info = itr.next();
-            if (resourceIds.contains(info.getResourceId())) {
-                itr.remove();
-            }
-        }
-    }
-
-    private void clearDuplicateSchedules() {
-        HashSet<Integer> set = new HashSet<Integer>(this.scheduledRequests.size());
-        Iterator<ScheduledMeasurementInfo> iter = this.scheduledRequests.iterator();
-        while (iter.hasNext()) {
-            ScheduledMeasurementInfo info = iter.next();
-            if (set.contains(info.getScheduleId())) {
-                LOG.debug("Found duplicate schedule - will remove it: " + info);
-                iter.remove();
-            } else {
-                set.add(info.getScheduleId());
-            }
-        }
+    public void unscheduleCollection(Set<Integer> resourceIds) {
+        this.scheduledRequests.unscheduleResources(resourceIds);
     }
 
     // spinder 12/16/11. BZ 760139. Modified to return empty sets instead of 'null' even for erroneous conditions.
@@ -503,35 +517,17 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
     @Override
     public long getNextExpectedCollectionTime() {
-        ScheduledMeasurementInfo nextScheduledMeasurement = this.scheduledRequests.peek();
-        if (nextScheduledMeasurement == null) {
-            return Long.MIN_VALUE;
-        } else {
-            return nextScheduledMeasurement.getNextCollection();
-        }
+        return this.scheduledRequests.getNextCollectionTime();
     }
 
     /**
-     * Returns the complete set of scheduled measurement collections.
+     * Returns the scheduled measurement collections of a single resource that are due. The returned schedules are
+     * no longer scheduled until they are passed to {@link #reschedule(Set)} or {@link #rescheduleLateCollections(Set)}.
      *
-     * @return all measurement schedules
+     * @return the due measurement schedules of a resource or <code>null</code> if none are due
      */
-    public synchronized Set<ScheduledMeasurementInfo> getNextScheduledSet() {
-        ScheduledMeasurementInfo first = this.scheduledRequests.peek();
-        if ((first == null) || (first.getNextCollection() > System.currentTimeMillis())) {
-            return null;
-        }
-
-        Set<ScheduledMeasurementInfo> nextScheduledSet = new HashSet<ScheduledMeasurementInfo>();
-
-        ScheduledMeasurementInfo next = this.scheduledRequests.peek();
-        while ((next != null) && (next.getResourceId() == first.getResourceId())
-            && (next.getNextCollection() == first.getNextCollection())) {
-            nextScheduledSet.add(this.scheduledRequests.poll());
-            next = this.scheduledRequests.peek();
-        }
-
-        return nextScheduledSet;
+    public Set<ScheduledMeasurementInfo> getNextScheduledSet() {
+        return this.scheduledRequests.poll(System.currentTimeMillis());
     }
 
     /**
@@ -541,12 +537,12 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
      *
      * @param scheduledMeasurementInfos the schedules to reschedule
      */
-    public synchronized void reschedule(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
+    public void reschedule(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
 
         for (ScheduledMeasurementInfo scheduledMeasurement : scheduledMeasurementInfos) {
             long interval = scheduledMeasurement.getInterval();
             scheduledMeasurement.setNextCollection(scheduledMeasurement.getNextCollection() + interval);
-            this.scheduledRequests.offer(scheduledMeasurement);
+            this.scheduledRequests.reschedule(scheduledMeasurement);
         }
     }
 
@@ -563,7 +559,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
      *
      * @param scheduledMeasurementInfos the late schedules to reschedule
      */
-    synchronized void rescheduleLateCollections(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
+    void rescheduleLateCollections(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Rescheduling [" + scheduledMeasurementInfos.size() + "] late collections: "
@@ -589,7 +585,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             }
 
             scheduledMeasurement.setNextCollection(nextCollection);
-            this.scheduledRequests.offer(scheduledMeasurement);
+            this.scheduledRequests.reschedule(scheduledMeasurement);
         }
     }
 
@@ -605,6 +601,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         this.totalTimeCollecting.addAndGet(report.getCollectionTime());
         if (configuration.getServerServices() != null) {
             try {
+                report.setDeltaEncoded(configuration.isMeasurementReportDeltaEncoding());
                 configuration.getServerServices().getMeasurementServerService().mergeMeasurementReport(report);
             } catch (Exception e) {
                 LOG.warn("Failure to report measurements to server", e);
@@ -637,7 +634,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     public Map<String, Object> getMeasurementScheduleInfoForResource(int resourceId) {
         Map<String, Object> results = null;
 
-        for (ScheduledMeasurementInfo info : new PriorityQueue<ScheduledMeasurementInfo>(scheduledRequests)) {
+        for (ScheduledMeasurementInfo info : this.scheduledRequests.getSchedules()) {
             if (info.getResourceId() == resourceId) {
                 if (results == null) {
                     results = new HashMap<String, Object>();
@@ -740,17 +737,28 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         return lateCollections.get();
     }
 
+    /**
+     * Merges the reports of the collections since the last call into a single report. Collections that finish while
+     * the reports are merged are left for the next call.
+     *
+     * @return the measurements collected since the last call
+     */
     public MeasurementReport swapReport() {
-        try {
-            this.measurementLock.writeLock().lock();
-            MeasurementReport previousReport = this.activeReport;
-
-            this.activeReport = new MeasurementReport();
-
-            return previousReport;
-        } finally {
-            this.measurementLock.writeLock().unlock();
+        MeasurementReport report = new MeasurementReport();
+        MeasurementReport collected;
+        while ((collected = this.collectedReports.poll()) != null) {
+            for (MeasurementDataNumeric numeric : collected.getNumericData()) {
+                report.addData(numeric);
+            }
+            for (MeasurementDataTrait trait : collected.getTraitData()) {
+                report.addData(trait);
+            }
+            for (CallTimeData callTime : collected.getCallTimeData()) {
+                report.addData(callTime);
+            }
+            report.incrementCollectionTime(collected.getCollectionTime());
         }
+        return report;
     }
 
     void incrementLateCollections(int count) {
@@ -766,6 +774,19 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         return failedCollection.get();
     }
 
+    @Override
+    public long getWaitingCollections() {
+        return (collectionEngine != null) ? collectionEngine.getWaitingCollections() : 0;
+    }
+
+    @Override
+    public Map<String, String> getCollectionLatencyHistograms() {
+        if (collectionEngine == null) {
+            return Collections.emptyMap();
+        }
+        return collectionEngine.getLatencyHistograms();
+    }
+
     private static class CachedValue {
         CachedValue(long timestamp, double value) {
             this.timestamp = timestamp;
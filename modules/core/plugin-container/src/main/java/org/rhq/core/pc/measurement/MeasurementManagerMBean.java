@@ -22,6 +22,8 @@
   */
 package org.rhq.core.pc.measurement;
 
+import java.util.Map;
+
 /**
  * @author Greg Hinkle
  */
@@ -39,4 +41,15 @@ public interface MeasurementManagerMBean {
     long getLateCollections();
 
     long getFailedCollections();
+
+    /**
+     * @return the number of due collections that wait for a collector thread or for their plugin to be below its
+     *         concurrency limit
+     */
+    long getWaitingCollections();
+
+    /**
+     * @return per plugin, the number of collections by how long they took
+     */
+    Map<String, String> getCollectionLatencyHistograms();
 }
\ No newline at end of file
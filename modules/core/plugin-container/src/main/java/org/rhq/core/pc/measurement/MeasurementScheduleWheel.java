@@ -0,0 +1,318 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.measurement;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A hierarchical timing wheel holding the measurement schedules of the plugin container, ordered by their next
+ * collection time.
+ * <p>
+ * Time is divided into ticks. The first level has one bucket per tick for the next {@link #WHEEL_SIZE} ticks, and
+ * each further level has buckets that are {@link #WHEEL_SIZE} times as wide as the ones of the level below. When the
+ * wheel reaches the start of a bucket of an upper level, the schedules of that bucket are cascaded down into the
+ * level below, so that every schedule is moved at most once per level.
+ * <p>
+ * Scheduling and rescheduling only append the schedule to a lock-free queue and therefore never wait for a thread
+ * that is collecting. The queue is moved into the buckets by the thread that polls the wheel, which holds the wheel
+ * lock while doing so. A schedule is due once the tick containing its next collection time has ended, so a collection
+ * is never early and at most one tick late. Due schedules are handed out batched per resource.
+ * <p>
+ * The wheel keeps an index from schedule id to the current schedule. Replacing or unscheduling a schedule only
+ * updates the index; a replaced schedule that is still in a bucket is dropped when its bucket is reached.
+ */
+final class MeasurementScheduleWheel {
+
+    static final int WHEEL_BITS = 8;
+    static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    static final int LEVELS = 4;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final long MAX_DELTA = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private final long tickMillis;
+
+    // schedule id -> the schedule that is currently valid for that id
+    private final ConcurrentHashMap<Integer, ScheduledMeasurementInfo> schedules = new ConcurrentHashMap<Integer, ScheduledMeasurementInfo>();
+
+    // schedules added or rescheduled since the last time the wheel was polled
+    private final ConcurrentLinkedQueue<ScheduledMeasurementInfo> pending = new ConcurrentLinkedQueue<ScheduledMeasurementInfo>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // the fields below are guarded by the lock
+
+    private final List<List<ScheduledMeasurementInfo>> buckets;
+
+    // resource id -> due schedules of that resource, in the order they became due
+    private final LinkedHashMap<Integer, Set<ScheduledMeasurementInfo>> due = new LinkedHashMap<Integer, Set<ScheduledMeasurementInfo>>();
+
+    // the next tick to be processed; all earlier ticks have been moved to the due schedules
+    private long currentTick;
+
+    // the number of schedules in the buckets, including replaced ones that have not been dropped yet
+    private int bucketCount;
+
+    MeasurementScheduleWheel(long tickMillis, long now) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive: " + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = tickOf(now);
+        this.buckets = new ArrayList<List<ScheduledMeasurementInfo>>(WHEEL_SIZE * LEVELS);
+        for (int i = 0; i < WHEEL_SIZE * LEVELS; i++) {
+            this.buckets.add(new ArrayList<ScheduledMeasurementInfo>(0));
+        }
+    }
+
+    /**
+     * Adds the schedule, replacing the schedule with the same schedule id if there is one.
+     */
+    void schedule(ScheduledMeasurementInfo info) {
+        schedules.put(info.getScheduleId(), info);
+        pending.offer(info);
+    }
+
+    /**
+     * Puts a schedule that was handed out by {@link #poll(long)} back into the wheel at its next collection time. This
+     * is a no-op if the schedule was replaced or unscheduled since it was handed out.
+     */
+    void reschedule(ScheduledMeasurementInfo info) {
+        if (schedules.get(info.getScheduleId()) == info) {
+            pending.offer(info);
+        }
+    }
+
+    /**
+     * Removes the schedule with the given schedule id.
+     */
+    void unschedule(int scheduleId) {
+        schedules.remove(scheduleId);
+    }
+
+    /**
+     * Removes all schedules of the given resources.
+     */
+    void unscheduleResources(Set<Integer> resourceIds) {
+        for (Iterator<ScheduledMeasurementInfo> iter = schedules.values().iterator(); iter.hasNext();) {
+            if (resourceIds.contains(iter.next().getResourceId())) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the current schedules, including the ones that are being collected
+     */
+    Iterable<ScheduledMeasurementInfo> getSchedules() {
+        return schedules.values();
+    }
+
+    int size() {
+        return schedules.size();
+    }
+
+    /**
+     * Returns the due schedules of the resource that became due first and removes them from the wheel.
+     *
+     * @param now the current time
+     *
+     * @return the due schedules of a single resource or <code>null</code> if no schedule is due
+     */
+    Set<ScheduledMeasurementInfo> poll(long now) {
+        lock.lock();
+        try {
+            drainPending();
+            advance(now);
+
+            Iterator<Set<ScheduledMeasurementInfo>> iter = due.values().iterator();
+            while (iter.hasNext()) {
+                Set<ScheduledMeasurementInfo> batch = iter.next();
+                iter.remove();
+                for (Iterator<ScheduledMeasurementInfo> batchIter = batch.iterator(); batchIter.hasNext();) {
+                    if (!isCurrent(batchIter.next())) {
+                        batchIter.remove();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    return batch;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the time at which {@link #poll(long)} will next return a batch, or the time at which the wheel needs to
+     * cascade its next upper level bucket if that is earlier. Replaced schedules that have not been dropped yet can
+     * make this time too early, but never too late.
+     *
+     * @return the time in epoch millis or {@link Long#MIN_VALUE} if there are no schedules
+     */
+    long getNextCollectionTime() {
+        lock.lock();
+        try {
+            drainPending();
+
+            for (Set<ScheduledMeasurementInfo> batch : due.values()) {
+                for (ScheduledMeasurementInfo info : batch) {
+                    if (isCurrent(info)) {
+                        return info.getNextCollection();
+                    }
+                }
+            }
+            if (bucketCount == 0) {
+                return Long.MIN_VALUE;
+            }
+
+            // the first non-empty bucket of the first level before the next cascade
+            long cascadeTick = (currentTick | WHEEL_MASK) + 1;
+            for (long tick = currentTick; tick < cascadeTick; tick++) {
+                if (!buckets.get((int) (tick & WHEEL_MASK)).isEmpty()) {
+                    return tick * tickMillis;
+                }
+            }
+            return cascadeTick * tickMillis;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isCurrent(ScheduledMeasurementInfo info) {
+        return schedules.get(info.getScheduleId()) == info;
+    }
+
+    private void drainPending() {
+        ScheduledMeasurementInfo info;
+        while ((info = pending.poll()) != null) {
+            insert(info);
+        }
+    }
+
+    private void advance(long now) {
+        if (bucketCount == 0) {
+            // nothing to move, so jump straight to the present
+            currentTick = Math.max(currentTick, tickOf(now) + 1);
+            return;
+        }
+        while (currentTick * tickMillis <= now) {
+            int index = (int) (currentTick & WHEEL_MASK);
+            if (index == 0) {
+                cascade(1);
+            }
+            List<ScheduledMeasurementInfo> bucket = buckets.get(index);
+            currentTick++;
+            if (!bucket.isEmpty()) {
+                buckets.set(index, new ArrayList<ScheduledMeasurementInfo>(0));
+                bucketCount -= bucket.size();
+                for (ScheduledMeasurementInfo info : bucket) {
+                    addDue(info);
+                }
+            }
+            if (bucketCount == 0) {
+                currentTick = Math.max(currentTick, tickOf(now) + 1);
+                return;
+            }
+        }
+    }
+
+    /*
+     * Moves the bucket of the given level that starts at the current tick down into the lower levels, after first
+     * doing the same for the next level if the current tick is also the start of one of its buckets.
+     */
+    private void cascade(int level) {
+        if (level >= LEVELS) {
+            return;
+        }
+        int index = (int) ((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        if (index == 0) {
+            cascade(level + 1);
+        }
+        int slot = (level * WHEEL_SIZE) + index;
+        List<ScheduledMeasurementInfo> bucket = buckets.get(slot);
+        if (!bucket.isEmpty()) {
+            buckets.set(slot, new ArrayList<ScheduledMeasurementInfo>(0));
+            bucketCount -= bucket.size();
+            for (ScheduledMeasurementInfo info : bucket) {
+                insert(info);
+            }
+        }
+    }
+
+    private void insert(ScheduledMeasurementInfo info) {
+        if (!isCurrent(info)) {
+            return;
+        }
+        long tick = deadlineTickOf(info.getNextCollection());
+        long delta = tick - currentTick;
+        if (delta < 0) {
+            addDue(info);
+            return;
+        }
+        if (delta > MAX_DELTA) {
+            delta = MAX_DELTA;
+            tick = currentTick + delta;
+        }
+        int level = 0;
+        while (delta >= WHEEL_SIZE) {
+            delta >>>= WHEEL_BITS;
+            level++;
+        }
+        int index = (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        buckets.get((level * WHEEL_SIZE) + index).add(info);
+        bucketCount++;
+    }
+
+    private void addDue(ScheduledMeasurementInfo info) {
+        if (!isCurrent(info)) {
+            return;
+        }
+        Integer resourceId = info.getResourceId();
+        Set<ScheduledMeasurementInfo> batch = due.get(resourceId);
+        if (batch == null) {
+            batch = new LinkedHashSet<ScheduledMeasurementInfo>();
+            due.put(resourceId, batch);
+        }
+        batch.add(info);
+    }
+
+    private long tickOf(long time) {
+        return time / tickMillis;
+    }
+
+    /*
+     * The tick at whose start the collection time has passed, i.e. the collection time rounded up to a whole tick.
+     */
+    private long deadlineTickOf(long time) {
+        long tick = time / tickMillis;
+        return (tick * tickMillis < time) ? tick + 1 : tick;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.event;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.event.Event;
+import org.rhq.core.domain.event.EventDefinition;
+import org.rhq.core.domain.event.EventSeverity;
+import org.rhq.core.domain.event.EventSource;
+import org.rhq.core.domain.event.transfer.EventReport;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+
+@Test
+public class EventBufferTest {
+
+    private final EventDefinition eventDefinition = new EventDefinition(new ResourceType("foo", "foo",
+        ResourceCategory.PLATFORM, null), "foo");
+    private final Resource resource = new Resource(1);
+
+    public void testDrainKeepsOrder() {
+        EventBuffer buffer = new EventBuffer(10, 100);
+        EventSource source = new EventSource("foo", eventDefinition, resource);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(buffer.offer(event(source, i), source));
+        }
+        assertEquals(buffer.size(), 5);
+
+        EventReport report = new EventReport(10, 100);
+        assertEquals(buffer.drainTo(report), 5);
+        assertEquals(buffer.size(), 0);
+        assertFalse(report.addLimitWarningEvents());
+
+        Iterator<Event> events = report.getEvents().get(source).iterator();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(events.next().getTimestamp(), i);
+        }
+        assertFalse(events.hasNext());
+    }
+
+    public void testPerSourceLimit() {
+        EventBuffer buffer = new EventBuffer(3, 100);
+        EventSource source = new EventSource("foo", eventDefinition, resource);
+        EventSource otherSource = new EventSource("bar", eventDefinition, resource);
+        for (int i = 0; i < 5; i++) {
+            buffer.offer(event(source, i), source);
+        }
+        assertFalse(buffer.hasCapacity(source));
+        assertTrue(buffer.hasCapacity(otherSource));
+        assertTrue(buffer.offer(event(otherSource, 0), otherSource));
+
+        EventReport report = new EventReport(3, 100);
+        assertEquals(buffer.drainTo(report), 4);
+        assertTrue(report.addLimitWarningEvents());
+        assertEquals(report.getDroppedEvents().get(source), Integer.valueOf(2));
+        assertEquals(report.getDroppedEvents().get(otherSource), null);
+        // three buffered events plus the limit warning
+        assertEquals(report.getEvents().get(source).size(), 4);
+
+        // the ring wraps around once it has been drained
+        assertTrue(buffer.hasCapacity(source));
+        for (int i = 5; i < 8; i++) {
+            assertTrue(buffer.offer(event(source, i), source));
+        }
+        report = new EventReport(3, 100);
+        assertEquals(buffer.drainTo(report), 3);
+        assertFalse(report.addLimitWarningEvents());
+    }
+
+    public void testTotalLimit() {
+        EventBuffer buffer = new EventBuffer(10, 4);
+        EventSource source = new EventSource("foo", eventDefinition, resource);
+        EventSource otherSource = new EventSource("bar", eventDefinition, resource);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(buffer.offer(event(source, i), source));
+        }
+        assertTrue(buffer.offer(event(otherSource, 0), otherSource));
+        assertFalse(buffer.offer(event(otherSource, 1), otherSource));
+        assertFalse(buffer.hasCapacity(null));
+
+        EventReport report = new EventReport(10, 4);
+        assertEquals(buffer.drainTo(report), 4);
+        assertEquals(report.getDroppedEvents().get(otherSource), Integer.valueOf(1));
+        assertTrue(buffer.hasCapacity(null));
+    }
+
+    public void testIdleSourcesAreRemoved() {
+        EventBuffer buffer = new EventBuffer(10, 100);
+        EventSource source = new EventSource("foo", eventDefinition, resource);
+        buffer.offer(event(source, 0), source);
+
+        buffer.drainTo(new EventReport(10, 100));
+        buffer.drainTo(new EventReport(10, 100));
+        buffer.drainTo(new EventReport(10, 100));
+
+        // the retired ring is replaced transparently
+        assertTrue(buffer.offer(event(source, 1), source));
+        EventReport report = new EventReport(10, 100);
+        assertEquals(buffer.drainTo(report), 1);
+        assertEquals(report.getEvents().get(source).iterator().next().getTimestamp(), 1);
+    }
+
+    public void testConcurrentPublishers() throws Exception {
+        final int threads = 4;
+        final int eventsPerThread = 10000;
+        final EventBuffer buffer = new EventBuffer(100, 1000);
+        final EventSource source = new EventSource("foo", eventDefinition, resource);
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < eventsPerThread; i++) {
+                            buffer.offer(event(source, (long) thread * eventsPerThread + i), source);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        int received = 0;
+        int dropped = 0;
+        boolean finished = false;
+        while (!finished) {
+            finished = done.getCount() == 0;
+            EventReport report = new EventReport(100, 1000);
+            int drained = buffer.drainTo(report);
+            Set<Event> events = report.getEvents().get(source);
+            assertEquals(events == null ? 0 : events.size(), drained);
+            received += drained;
+            if (report.addLimitWarningEvents()) {
+                dropped += report.getDroppedEvents().get(source);
+            }
+        }
+
+        assertEquals(buffer.size(), 0);
+        assertEquals(received + dropped, threads * eventsPerThread);
+    }
+
+    private static Event event(EventSource source, long timestamp) {
+        return new Event("foo", source.getLocation(), timestamp, EventSeverity.INFO, "event-" + timestamp, source);
+    }
+}
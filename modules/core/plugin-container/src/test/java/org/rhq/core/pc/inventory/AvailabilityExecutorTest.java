@@ -0,0 +1,294 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.inventory;
+
+import static org.rhq.core.domain.measurement.AvailabilityType.UP;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.discovery.AvailabilityReport;
+import org.rhq.core.domain.measurement.AvailabilityType;
+import org.rhq.core.domain.resource.Agent;
+import org.rhq.core.domain.resource.InventoryStatus;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.pc.util.LoggingThreadFactory;
+import org.rhq.core.pluginapi.availability.AvailabilityFacet;
+
+@Test
+public class AvailabilityExecutorTest {
+
+    // resources of a platform type have no availability schedule, so every scan checks all of them
+    private static final ResourceType RESOURCE_TYPE = new ResourceType("TestType", "test", ResourceCategory.PLATFORM,
+        null);
+
+    private InventoryManager inventoryManager;
+    private ExecutorService scanThreadPool;
+    private Map<Integer, ResourceContainer> containers;
+    private Map<Integer, Set<Resource>> children;
+    private Resource platform;
+
+    // the resources whose availability was checked, in the order of the checks
+    private List<Resource> checked;
+    private Set<String> checkingThreads;
+    private volatile long checkMillis;
+    private Map<Integer, Long> slowChecks;
+
+    @BeforeMethod
+    public void setUp() {
+        containers = new HashMap<Integer, ResourceContainer>();
+        children = new HashMap<Integer, Set<Resource>>();
+        checked = Collections.synchronizedList(new ArrayList<Resource>());
+        checkingThreads = Collections.synchronizedSet(new HashSet<String>());
+        checkMillis = 0L;
+        slowChecks = new ConcurrentHashMap<Integer, Long>();
+
+        inventoryManager = Mockito.mock(InventoryManager.class);
+        Agent agent = Mockito.mock(Agent.class);
+        Mockito.when(agent.getName()).thenReturn("test-agent");
+        Mockito.when(inventoryManager.getAgent()).thenReturn(agent);
+        Mockito.when(inventoryManager.getResourceContainer(Mockito.anyInt())).thenAnswer(
+            new Answer<ResourceContainer>() {
+                public ResourceContainer answer(InvocationOnMock invocation) throws Throwable {
+                    return containers.get(invocation.getArguments()[0]);
+                }
+            });
+        Mockito.when(
+            inventoryManager.getContainerChildren(Mockito.any(Resource.class), Mockito.any(ResourceContainer.class)))
+            .thenAnswer(new Answer<Set<Resource>>() {
+                public Set<Resource> answer(InvocationOnMock invocation) throws Throwable {
+                    return children.get(((Resource) invocation.getArguments()[0]).getId());
+                }
+            });
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if (scanThreadPool != null) {
+            scanThreadPool.shutdownNow();
+            scanThreadPool = null;
+        }
+    }
+
+    public void testForkedChecksAreMerged() throws Exception {
+        createInventory(6, 2);
+        configureScan(4, 0L);
+        checkMillis = 10L;
+
+        AvailabilityExecutor executor = new AvailabilityExecutor(inventoryManager);
+        AvailabilityReport report = executor.call();
+
+        assertNotNull(report);
+        assertFalse(report.isChangesOnlyReport(), "first report should be a full report");
+        assertReportsAll(report);
+        assertTrue(checkingThreads.size() > 1, "subtrees should have been checked by scan pool threads: "
+            + checkingThreads);
+
+        AvailabilityExecutor.Scan scan = executor.getMostRecentScanHistory();
+        assertFalse(scan.isPartial());
+        assertEquals(scan.getNumResources(), 19, "forked scan statistics should have been merged");
+        assertEquals(scan.getNumGetAvailabilityCalls(), 19);
+        assertEquals(scan.getNumAvailabilityChanges(), 19);
+    }
+
+    public void testScanWithoutConcurrencyStaysOnScanThread() throws Exception {
+        createInventory(6, 2);
+        configureScan(1, 0L);
+
+        AvailabilityExecutor executor = new AvailabilityExecutor(inventoryManager);
+        AvailabilityReport report = executor.call();
+
+        assertReportsAll(report);
+        assertEquals(checkingThreads, Collections.singleton(Thread.currentThread().getName()));
+        assertEquals(executor.getMostRecentScanHistory().getNumResources(), 19);
+    }
+
+    public void testTimedOutScanIsPartial() throws Exception {
+        createInventory(5, 0);
+        configureScan(1, 150L);
+        checkMillis = 50L;
+
+        AvailabilityExecutor executor = new AvailabilityExecutor(inventoryManager);
+        AvailabilityReport report = executor.call();
+
+        AvailabilityExecutor.Scan scan = executor.getMostRecentScanHistory();
+        assertTrue(scan.isPartial(), "scan should have run out of time");
+        assertTrue(report.getResourceAvailability().size() < 6, "not all resources should have been checked");
+        assertEquals(report.getResourceAvailability().size(), checked.size(),
+            "the resources checked in time should have been reported");
+
+        checkMillis = 0L;
+        report = executor.call();
+        assertFalse(report.isChangesOnlyReport(), "the report following a partial scan should be a full report");
+        assertReportsAll(report);
+        assertFalse(executor.getMostRecentScanHistory().isPartial());
+    }
+
+    public void testForkedCheckPastDeadlineIsGivenUp() throws Exception {
+        createInventory(3, 0);
+        configureScan(4, 200L);
+        Resource slowServer = children.get(platform.getId()).iterator().next();
+        slowChecks.put(slowServer.getId(), 5000L);
+
+        AvailabilityExecutor executor = new AvailabilityExecutor(inventoryManager);
+        long start = System.currentTimeMillis();
+        AvailabilityReport report = executor.call();
+        assertTrue(System.currentTimeMillis() - start < 5000L, "scan should not have waited for the slow check");
+
+        AvailabilityExecutor.Scan scan = executor.getMostRecentScanHistory();
+        assertTrue(scan.isPartial());
+        Set<Integer> reported = new HashSet<Integer>();
+        for (AvailabilityReport.Datum datum : report.getResourceAvailability()) {
+            reported.add(datum.getResourceId());
+        }
+        assertFalse(reported.contains(slowServer.getId()), "the slow check should have been given up on");
+        assertEquals(reported.size(), 3, "the checks of the platform and the other servers should have been merged");
+    }
+
+    public void testNextScanResumesWhereTimedOutScanStopped() throws Exception {
+        createInventory(5, 0);
+        configureScan(1, 150L);
+        checkMillis = 50L;
+
+        AvailabilityExecutor executor = new AvailabilityExecutor(inventoryManager);
+        executor.call();
+        assertTrue(executor.getMostRecentScanHistory().isPartial(), "scan should have run out of time");
+
+        Resource firstSkipped = null;
+        for (Resource server : children.get(platform.getId())) {
+            if (!checked.contains(server)) {
+                firstSkipped = server;
+                break;
+            }
+        }
+        assertNotNull(firstSkipped, "some server should have been skipped");
+
+        checked.clear();
+        executor.call();
+        assertEquals(checked.get(0), platform);
+        assertEquals(checked.get(1), firstSkipped, "scan should have started with the first resource skipped before");
+
+        // once a scan completes, the next one goes back to the usual order
+        configureScan(1, 0L);
+        executor.call();
+        assertFalse(executor.getMostRecentScanHistory().isPartial());
+        checked.clear();
+        executor.call();
+        assertEquals(checked.get(1), children.get(platform.getId()).iterator().next());
+    }
+
+    private void assertReportsAll(AvailabilityReport report) {
+        Set<Integer> reported = new HashSet<Integer>();
+        for (AvailabilityReport.Datum datum : report.getResourceAvailability()) {
+            assertEquals(datum.getAvailabilityType(), UP);
+            assertTrue(reported.add(datum.getResourceId()), "resource reported twice: " + datum.getResourceId());
+        }
+        assertEquals(reported, containers.keySet());
+    }
+
+    private void configureScan(int concurrency, long timeout) {
+        tearDown();
+        if (concurrency > 1) {
+            scanThreadPool = Executors.newFixedThreadPool(concurrency - 1, new LoggingThreadFactory(
+                "AvailabilityExecutorTest.scan", true));
+        }
+        Mockito.when(inventoryManager.getAvailabilityScanThreadPoolExecutor()).thenReturn(scanThreadPool);
+        Mockito.when(inventoryManager.getAvailabilityScanConcurrency()).thenReturn(concurrency);
+        Mockito.when(inventoryManager.getAvailabilityScanTimeout()).thenReturn(timeout);
+    }
+
+    /**
+     * Creates a platform with the given number of servers, each with the given number of services.
+     */
+    private void createInventory(int servers, int servicesPerServer) {
+        int id = 1;
+        platform = createResource(id++, null);
+        Mockito.when(inventoryManager.getPlatform()).thenReturn(platform);
+        for (int i = 0; i < servers; ++i) {
+            Resource server = createResource(id++, platform);
+            for (int j = 0; j < servicesPerServer; ++j) {
+                createResource(id++, server);
+            }
+        }
+    }
+
+    private Resource createResource(int id, Resource parent) {
+        final Resource resource = new Resource(id);
+        resource.setUuid("uuid-" + id);
+        resource.setResourceType(RESOURCE_TYPE);
+        resource.setInventoryStatus(InventoryStatus.COMMITTED);
+        if (parent != null) {
+            resource.setParentResourceWithoutAncestry(parent);
+            children.get(parent.getId()).add(resource);
+        }
+        children.put(id, new LinkedHashSet<Resource>());
+
+        ResourceContainer container = new ResourceContainer(resource, getClass().getClassLoader()) {
+            @Override
+            public AvailabilityFacet getAvailabilityProxy() {
+                return new AvailabilityFacet() {
+                    public AvailabilityType getAvailability() {
+                        return check(resource);
+                    }
+                };
+            }
+        };
+        container.setSynchronizationState(ResourceContainer.SynchronizationState.SYNCHRONIZED);
+        container.setResourceComponentState(ResourceContainer.ResourceComponentState.STARTED);
+        containers.put(id, container);
+        return resource;
+    }
+
+    private AvailabilityType check(Resource resource) {
+        checkingThreads.add(Thread.currentThread().getName());
+        checked.add(resource);
+        Long slow = slowChecks.get(resource.getId());
+        long millis = (slow == null) ? checkMillis : slow.longValue();
+        if (millis > 0L) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return UP;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.inventory;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.AvailabilityType;
+
+@Test
+public class AvailabilityStateTableTest {
+
+    private static final long NOW = 1400000000000L;
+
+    public void testNewSlotIsUnknown() {
+        AvailabilityStateTable table = new AvailabilityStateTable();
+        long handle = table.allocate();
+
+        assertTrue(handle != 0);
+        long state = table.get(handle);
+        assertEquals(AvailabilityStateTable.getType(state), AvailabilityType.UNKNOWN);
+        assertEquals(AvailabilityStateTable.getStartTime(state), 0L);
+        assertEquals(table.size(), 1L);
+    }
+
+    public void testSetAndGetEveryType() {
+        AvailabilityStateTable table = new AvailabilityStateTable();
+        long handle = table.allocate();
+
+        for (AvailabilityType type : AvailabilityType.values()) {
+            assertTrue(table.set(handle, type, NOW));
+            long state = table.get(handle);
+            assertEquals(AvailabilityStateTable.getType(state), type);
+            assertEquals(AvailabilityStateTable.getStartTime(state), NOW);
+        }
+
+        assertTrue(table.set(handle, null, NOW + 1));
+        assertNull(AvailabilityStateTable.getType(table.get(handle)));
+        assertEquals(AvailabilityStateTable.getStartTime(table.get(handle)), NOW + 1);
+    }
+
+    public void testCompareAndSetFailsOnChangedState() {
+        AvailabilityStateTable table = new AvailabilityStateTable();
+        long handle = table.allocate();
+        long read = table.get(handle);
+
+        assertTrue(table.compareAndSet(handle, read, AvailabilityType.UP, NOW));
+        assertFalse(table.compareAndSet(handle, read, AvailabilityType.DOWN, NOW + 1));
+        assertEquals(AvailabilityStateTable.getType(table.get(handle)), AvailabilityType.UP);
+    }
+
+    public void testReleasedHandleIsInertAfterReuse() {
+        AvailabilityStateTable table = new AvailabilityStateTable();
+        long released = table.allocate();
+        table.set(released, AvailabilityType.DOWN, NOW);
+        long stale = table.get(released);
+        table.release(released);
+        assertEquals(table.size(), 0L);
+
+        long reused = table.allocate();
+        assertTrue(reused != released);
+        assertEquals(AvailabilityStateTable.getType(table.get(reused)), AvailabilityType.UNKNOWN);
+
+        // updates through the old handle must not leak into the new owner of the slot
+        assertFalse(table.set(released, AvailabilityType.UP, NOW));
+        assertFalse(table.compareAndSet(released, stale, AvailabilityType.UP, NOW));
+        assertEquals(AvailabilityStateTable.getType(table.get(released)), AvailabilityType.UNKNOWN);
+        assertEquals(AvailabilityStateTable.getType(table.get(reused)), AvailabilityType.UNKNOWN);
+
+        table.release(released); // no effect
+        assertEquals(table.size(), 1L);
+    }
+
+    public void testGrowsAcrossSegments() {
+        AvailabilityStateTable table = new AvailabilityStateTable();
+        int count = AvailabilityStateTable.SEGMENT_SIZE * 3 + 5;
+        long[] handles = new long[count];
+        for (int i = 0; i < count; i++) {
+            handles[i] = table.allocate();
+            table.set(handles[i], (i % 2 == 0) ? AvailabilityType.UP : AvailabilityType.DOWN, NOW + i);
+        }
+
+        for (int i = 0; i < count; i++) {
+            long state = table.get(handles[i]);
+            assertEquals(AvailabilityStateTable.getType(state), (i % 2 == 0) ? AvailabilityType.UP
+                : AvailabilityType.DOWN);
+            assertEquals(AvailabilityStateTable.getStartTime(state), NOW + i);
+        }
+        assertEquals(table.size(), count);
+    }
+
+    public void testOnlyOneConcurrentChangeWins() throws Exception {
+        final AvailabilityStateTable table = new AvailabilityStateTable();
+        final long handle = table.allocate();
+        final long read = table.get(handle);
+        final AtomicInteger winners = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (table.compareAndSet(handle, read, AvailabilityType.DOWN, NOW)) {
+                        winners.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(winners.get(), 1L);
+        assertEquals(AvailabilityStateTable.getType(table.get(handle)), AvailabilityType.DOWN);
+    }
+}
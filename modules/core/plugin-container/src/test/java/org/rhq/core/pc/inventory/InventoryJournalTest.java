@@ -0,0 +1,225 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.inventory;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+@Test
+public class InventoryJournalTest {
+
+    public void testSnapshotRoundTrip() throws Exception {
+        File file = newFile();
+        InventoryJournal journal = new InventoryJournal(file);
+        writeSnapshot(journal, "platform", entry("platform", null, "p"), entry("child", "platform", "c"));
+        assertTrue(InventoryJournal.isJournaled(file));
+
+        Recorder recorder = new Recorder();
+        InventoryJournal loaded = new InventoryJournal(file);
+        assertEquals(loaded.load(recorder), "platform");
+        assertEquals(recorder.payloads.size(), 2);
+        assertEquals(new String(recorder.payloads.get("child"), "UTF-8"), "c");
+        assertEquals(recorder.parents.get("child"), "platform");
+        assertNull(recorder.parents.get("platform"));
+        assertTrue(loaded.isStored("child", bytes("c")));
+        assertFalse(loaded.isStored("child", bytes("changed")));
+        assertFalse(loaded.isStored("unknown", bytes("c")));
+    }
+
+    public void testPayloadWithSameChecksumButDifferentLengthIsNotStored() throws Exception {
+        // these payloads have the same CRC32
+        byte[] stored = toBytes(194, 21, 184, 178, 10, 84, 105, 80);
+        byte[] changed = toBytes(252, 51, 30, 238, 234, 96, 124, 21, 129);
+
+        InventoryJournal journal = new InventoryJournal(newFile());
+        InventoryJournal.SnapshotWriter writer = journal.writeSnapshot("platform");
+        writer.add(new InventoryJournal.Entry("platform", null, stored));
+        writer.commit();
+
+        assertTrue(journal.isStored("platform", stored));
+        assertFalse(journal.isStored("platform", changed));
+    }
+
+    public void testAppendedChangesAreReplayed() throws Exception {
+        File file = newFile();
+        InventoryJournal journal = new InventoryJournal(file);
+        writeSnapshot(journal, "platform", entry("platform", null, "p"), entry("a", "platform", "a"),
+            entry("b", "platform", "b"));
+        journal.append("platform", Arrays.asList(entry("a", "platform", "a2"), entry("c", "a", "c")),
+            Collections.singleton("b"));
+        journal.append("platform", Collections.<InventoryJournal.Entry> emptyList(), Collections.singleton("c"));
+
+        Recorder recorder = new Recorder();
+        InventoryJournal loaded = new InventoryJournal(file);
+        assertEquals(loaded.load(recorder), "platform");
+        assertEquals(recorder.payloads.keySet(), set("platform", "a"));
+        assertEquals(new String(recorder.payloads.get("a"), "UTF-8"), "a2");
+        assertEquals(loaded.getStoredUuids(), set("platform", "a"));
+        assertTrue(loaded.isStored("a", bytes("a2")));
+    }
+
+    public void testTornTailIsDroppedAndOverwritten() throws Exception {
+        File file = newFile();
+        InventoryJournal journal = new InventoryJournal(file);
+        writeSnapshot(journal, "platform", entry("platform", null, "p"));
+        journal.append("platform", Collections.singleton(entry("a", "platform", "a")),
+            Collections.<String> emptySet());
+        long goodLength = journal.getJournalFile().length();
+        journal.append("platform", Collections.singleton(entry("b", "platform", "b")),
+            Collections.<String> emptySet());
+
+        // simulate a crash in the middle of the last append
+        RandomAccessFile raf = new RandomAccessFile(journal.getJournalFile(), "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        } finally {
+            raf.close();
+        }
+
+        Recorder recorder = new Recorder();
+        InventoryJournal loaded = new InventoryJournal(file);
+        loaded.load(recorder);
+        assertEquals(recorder.payloads.keySet(), set("platform", "a"));
+
+        loaded.append("platform", Collections.singleton(entry("c", "platform", "c")),
+            Collections.<String> emptySet());
+        assertTrue(journal.getJournalFile().length() > goodLength);
+
+        recorder = new Recorder();
+        new InventoryJournal(file).load(recorder);
+        assertEquals(recorder.payloads.keySet(), set("platform", "a", "c"));
+    }
+
+    public void testJournalOfPreviousSnapshotIsIgnored() throws Exception {
+        File file = newFile();
+        InventoryJournal journal = new InventoryJournal(file);
+        writeSnapshot(journal, "platform", entry("platform", null, "p"));
+        journal.append("platform", Collections.singleton(entry("a", "platform", "a")),
+            Collections.<String> emptySet());
+        File staleJournal = new File(file.getParentFile(), "stale");
+        assertTrue(journal.getJournalFile().renameTo(staleJournal));
+
+        writeSnapshot(journal, "platform", entry("platform", null, "p2"));
+        assertTrue(staleJournal.renameTo(journal.getJournalFile()));
+
+        Recorder recorder = new Recorder();
+        new InventoryJournal(file).load(recorder);
+        assertEquals(recorder.payloads.keySet(), set("platform"));
+        assertEquals(new String(recorder.payloads.get("platform"), "UTF-8"), "p2");
+    }
+
+    public void testIncompleteSnapshotIsRejected() throws Exception {
+        File file = newFile();
+        InventoryJournal journal = new InventoryJournal(file);
+        writeSnapshot(journal, "platform", entry("platform", null, "p"));
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 1);
+        } finally {
+            raf.close();
+        }
+
+        try {
+            new InventoryJournal(file).load(new Recorder());
+            throw new AssertionError("an incomplete snapshot must not be loaded");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    public void testCompactionIsDueOnceJournalGrows() throws Exception {
+        File file = newFile();
+        InventoryJournal journal = new InventoryJournal(file);
+        assertTrue(journal.isCompactionDue(0), "nothing has been written yet");
+
+        writeSnapshot(journal, "platform", entry("platform", null, "p"));
+        assertFalse(journal.isCompactionDue(InventoryJournal.MIN_COMPACTION_RECORDS));
+        assertTrue(journal.isCompactionDue(InventoryJournal.MIN_COMPACTION_RECORDS + 1));
+    }
+
+    private static void writeSnapshot(InventoryJournal journal, String platform, InventoryJournal.Entry... entries)
+        throws IOException {
+        InventoryJournal.SnapshotWriter writer = journal.writeSnapshot(platform);
+        for (InventoryJournal.Entry entry : entries) {
+            writer.add(entry);
+        }
+        writer.commit();
+    }
+
+    private static InventoryJournal.Entry entry(String uuid, String parentUuid, String payload) throws IOException {
+        return new InventoryJournal.Entry(uuid, parentUuid, bytes(payload));
+    }
+
+    private static byte[] bytes(String value) throws IOException {
+        return value.getBytes("UTF-8");
+    }
+
+    private static byte[] toBytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+
+    private static File newFile() throws IOException {
+        File dir = File.createTempFile("inventory-journal", "");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        File file = new File(dir, "inventory.dat");
+        file.deleteOnExit();
+        new File(dir, "inventory.dat.journal").deleteOnExit();
+        return file;
+    }
+
+    private static class Recorder implements InventoryJournal.Replay {
+        private final Map<String, byte[]> payloads = new HashMap<String, byte[]>();
+        private final Map<String, String> parents = new HashMap<String, String>();
+
+        public void container(String uuid, String parentUuid, byte[] payload) {
+            payloads.put(uuid, payload);
+            parents.put(uuid, parentUuid);
+        }
+
+        public void removed(String uuid) {
+            payloads.remove(uuid);
+            parents.remove(uuid);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.inventory;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.pc.util.LoggingThreadFactory;
+
+@Test
+public class InvocationWatchdogTest {
+
+    public void testInvocationFinishedInTime() {
+        InvocationWatchdog watchdog = newWatchdog();
+        try {
+            AtomicInteger timeouts = new AtomicInteger();
+            InvocationWatchdog.Watch watch = watchdog.watch(60000L, counter(timeouts));
+            assertEquals(watchdog.size(), 1);
+            assertTrue(watch.done());
+            assertEquals(watchdog.size(), 0);
+
+            watchdog.check(System.currentTimeMillis() + 120000L);
+            assertEquals(timeouts.get(), 0);
+            assertFalse(Thread.currentThread().isInterrupted());
+        } finally {
+            watchdog.shutdown();
+        }
+    }
+
+    public void testInvocationPastDeadlineIsInterrupted() {
+        InvocationWatchdog watchdog = newWatchdog();
+        try {
+            AtomicInteger timeouts = new AtomicInteger();
+            InvocationWatchdog.Watch watch = watchdog.watch(60000L, counter(timeouts));
+
+            watchdog.check(System.currentTimeMillis());
+            assertEquals(timeouts.get(), 0, "not yet past the deadline");
+            assertFalse(Thread.currentThread().isInterrupted());
+
+            watchdog.check(System.currentTimeMillis() + 60000L);
+            watchdog.check(System.currentTimeMillis() + 60000L);
+            assertEquals(timeouts.get(), 1, "an invocation times out only once");
+            assertTrue(Thread.currentThread().isInterrupted());
+
+            assertFalse(watch.done());
+            assertFalse(Thread.currentThread().isInterrupted(), "the interrupt of the watchdog must be cleared");
+            assertEquals(watchdog.size(), 0);
+        } finally {
+            Thread.interrupted();
+            watchdog.shutdown();
+        }
+    }
+
+    public void testBlockedInvocationIsInterruptedByTimer() throws Exception {
+        InvocationWatchdog watchdog = newWatchdog();
+        try {
+            AtomicInteger timeouts = new AtomicInteger();
+            InvocationWatchdog.Watch watch = watchdog.watch(200L, counter(timeouts));
+            boolean interrupted = false;
+            try {
+                Thread.sleep(30000L);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            assertTrue(interrupted);
+            assertFalse(watch.done());
+            assertEquals(timeouts.get(), 1);
+        } finally {
+            watchdog.shutdown();
+        }
+    }
+
+    private static InvocationWatchdog newWatchdog() {
+        return new InvocationWatchdog(new LoggingThreadFactory("InvocationWatchdogTest", true));
+    }
+
+    private static Runnable counter(final AtomicInteger count) {
+        return new Runnable() {
+            public void run() {
+                count.incrementAndGet();
+            }
+        };
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.pc.measurement.MeasurementCollectionEngine.LatencyHistogram;
+
+@Test
+public class MeasurementCollectionEngineTest {
+
+    public void testSlowPluginDoesNotHoldUpOthers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            MeasurementCollectionEngine engine = new MeasurementCollectionEngine(executor, 2);
+
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch slowStarted = new CountDownLatch(2);
+            final CountDownLatch slowDone = new CountDownLatch(5);
+            final AtomicInteger slowRunning = new AtomicInteger();
+            final AtomicInteger slowMaxRunning = new AtomicInteger();
+            for (int i = 0; i < 5; i++) {
+                engine.submit("slow", new Runnable() {
+                    public void run() {
+                        int running = slowRunning.incrementAndGet();
+                        synchronized (slowMaxRunning) {
+                            slowMaxRunning.set(Math.max(slowMaxRunning.get(), running));
+                        }
+                        slowStarted.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            slowRunning.decrementAndGet();
+                            slowDone.countDown();
+                        }
+                    }
+                });
+            }
+
+            final CountDownLatch fastDone = new CountDownLatch(10);
+            for (int i = 0; i < 10; i++) {
+                engine.submit("fast", new Runnable() {
+                    public void run() {
+                        fastDone.countDown();
+                    }
+                });
+            }
+
+            assertTrue(fastDone.await(10, TimeUnit.SECONDS), "collections of the fast plugin were held up");
+            assertTrue(slowStarted.await(10, TimeUnit.SECONDS), "collections of the slow plugin did not start");
+            assertEquals(engine.getWaitingCollections(), 3);
+            assertEquals(slowRunning.get(), 2);
+
+            release.countDown();
+            assertTrue(slowDone.await(10, TimeUnit.SECONDS), "collections of the slow plugin did not finish");
+            assertEquals(slowMaxRunning.get(), 2);
+            assertEquals(engine.getWaitingCollections(), 0);
+
+            // the latency is recorded after the collection finishes
+            long deadline = System.currentTimeMillis() + 10000L;
+            while (count(engine.getLatencyHistogram("slow")) < 5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(count(engine.getLatencyHistogram("slow")), 5);
+            assertEquals(count(engine.getLatencyHistogram("fast")), 10);
+            assertEquals(engine.getLatencyHistograms().keySet(), new TreeSet<String>(Arrays.asList("fast", "slow")));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testFailedCollectionReleasesLane() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            MeasurementCollectionEngine engine = new MeasurementCollectionEngine(executor, 1);
+            engine.submit("plugin", new Runnable() {
+                public void run() {
+                    throw new IllegalStateException("test failure");
+                }
+            });
+            final CountDownLatch done = new CountDownLatch(1);
+            engine.submit("plugin", new Runnable() {
+                public void run() {
+                    done.countDown();
+                }
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS), "lane was not released by the failed collection");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0L);
+        histogram.record(9L);
+        histogram.record(10L);
+        histogram.record(999L);
+        histogram.record(30000L);
+        histogram.record(120000L);
+
+        long[] counts = histogram.getCounts();
+        assertEquals(counts.length, LatencyHistogram.BOUNDS.length + 1);
+        assertEquals(counts[0], 2L);
+        assertEquals(counts[1], 1L);
+        assertEquals(counts[5], 1L);
+        assertEquals(counts[counts.length - 1], 2L);
+        assertTrue(histogram.toString().startsWith("<10ms=2, <50ms=1, "), histogram.toString());
+        assertTrue(histogram.toString().endsWith(", >=30000ms=2"), histogram.toString());
+    }
+
+    private static long count(LatencyHistogram histogram) {
+        long count = 0;
+        for (long bucketCount : histogram.getCounts()) {
+            count += bucketCount;
+        }
+        return count;
+    }
+}
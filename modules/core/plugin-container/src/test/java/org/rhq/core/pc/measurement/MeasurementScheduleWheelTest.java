@@ -0,0 +1,182 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+
+@Test
+public class MeasurementScheduleWheelTest {
+
+    private static final long TICK = 1000L;
+    private static final long START = 1000000000000L;
+
+    public void testNotDueBeforeCollectionTime() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(TICK, START);
+        wheel.schedule(info(1, 10, 60000L, START + 30500L));
+
+        assertNull(wheel.poll(START + 30500L));
+        assertEquals(wheel.getNextCollectionTime(), START + 31000L);
+        assertNull(wheel.poll(START + 30999L));
+
+        Set<ScheduledMeasurementInfo> batch = wheel.poll(START + 31000L);
+        assertEquals(batch.size(), 1);
+        assertEquals(batch.iterator().next().getScheduleId(), 1);
+        assertNull(wheel.poll(START + 31000L));
+    }
+
+    public void testBatchesPerResource() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(TICK, START);
+        wheel.schedule(info(1, 10, 60000L, START + 5000L));
+        wheel.schedule(info(2, 20, 60000L, START + 5000L));
+        wheel.schedule(info(3, 10, 60000L, START + 5000L));
+        wheel.schedule(info(4, 10, 60000L, START + 7000L));
+
+        Set<ScheduledMeasurementInfo> first = wheel.poll(START + 10000L);
+        Set<ScheduledMeasurementInfo> second = wheel.poll(START + 10000L);
+        assertNull(wheel.poll(START + 10000L));
+
+        assertEquals(scheduleIds(first), new HashSet<Integer>(Arrays.asList(1, 3, 4)));
+        assertEquals(scheduleIds(second), Collections.singleton(2));
+    }
+
+    public void testRescheduleAndReplace() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(TICK, START);
+        ScheduledMeasurementInfo info = info(1, 10, 60000L, START + 1000L);
+        wheel.schedule(info);
+
+        Set<ScheduledMeasurementInfo> batch = wheel.poll(START + 1000L);
+        assertEquals(batch.size(), 1);
+
+        // replaced while being collected, so the reschedule of the old schedule is ignored
+        ScheduledMeasurementInfo replacement = info(1, 10, 30000L, START + 30000L);
+        wheel.schedule(replacement);
+        info.setNextCollection(info.getNextCollection() + info.getInterval());
+        wheel.reschedule(info);
+        assertEquals(wheel.size(), 1);
+
+        batch = wheel.poll(START + 120000L);
+        assertEquals(batch.size(), 1);
+        assertTrue(batch.iterator().next() == replacement);
+        assertNull(wheel.poll(START + 120000L));
+    }
+
+    public void testUnschedule() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(TICK, START);
+        wheel.schedule(info(1, 10, 60000L, START + 1000L));
+        wheel.schedule(info(2, 20, 60000L, START + 1000L));
+        wheel.schedule(info(3, 30, 60000L, START + 1000L));
+
+        wheel.unscheduleResources(Collections.singleton(20));
+        wheel.unschedule(3);
+        assertEquals(wheel.size(), 1);
+
+        assertEquals(scheduleIds(wheel.poll(START + 1000L)), Collections.singleton(1));
+        assertNull(wheel.poll(START + 1000L));
+        assertEquals(wheel.getNextCollectionTime(), Long.MIN_VALUE);
+    }
+
+    public void testLongIntervalsCascade() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(TICK, START);
+        long day = 24L * 60L * 60L * 1000L;
+        ScheduledMeasurementInfo info = info(1, 10, day, START + day);
+        wheel.schedule(info);
+
+        long now = START;
+        for (int i = 0; i < 3; i++) {
+            long due = info.getNextCollection();
+            Set<ScheduledMeasurementInfo> batch = null;
+            while (batch == null) {
+                long next = wheel.getNextCollectionTime();
+                assertTrue(next > now, "next collection time must move forward");
+                assertTrue(next <= due, "next collection time must not be after the collection is due");
+                now = next;
+                batch = wheel.poll(now);
+            }
+            assertEquals(now, due);
+            info.setNextCollection(info.getNextCollection() + info.getInterval());
+            wheel.reschedule(info);
+        }
+    }
+
+    public void testMatchesNaiveSchedule() {
+        Random random = new Random(12345L);
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(TICK, START);
+        Map<Integer, Long> expected = new HashMap<Integer, Long>();
+        for (int i = 1; i <= 2000; i++) {
+            long interval = (30 + random.nextInt(4000)) * 1000L + random.nextInt(1000);
+            long first = START + random.nextInt(600000);
+            wheel.schedule(info(i, i % 100, interval, first));
+            expected.put(i, first);
+        }
+
+        long end = START + (6L * 60L * 60L * 1000L);
+        int collections = 0;
+        for (long now = START; now < end; now += 250L) {
+            Set<ScheduledMeasurementInfo> batch;
+            while ((batch = wheel.poll(now)) != null) {
+                for (ScheduledMeasurementInfo info : batch) {
+                    long due = expected.get(info.getScheduleId());
+                    assertEquals(info.getNextCollection(), due);
+                    assertTrue(due <= now, "collected early: " + info);
+                    assertTrue(now - due < TICK + 250L, "collected late: " + info);
+                    info.setNextCollection(due + info.getInterval());
+                    expected.put(info.getScheduleId(), info.getNextCollection());
+                    wheel.reschedule(info);
+                    collections++;
+                }
+            }
+        }
+
+        for (Map.Entry<Integer, Long> entry : expected.entrySet()) {
+            assertTrue(entry.getValue() > end - 250L - TICK, "missed collection of schedule " + entry.getKey());
+        }
+        assertTrue(collections > 2000);
+        assertEquals(wheel.size(), 2000);
+    }
+
+    private static Set<Integer> scheduleIds(Set<ScheduledMeasurementInfo> batch) {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (ScheduledMeasurementInfo info : batch) {
+            ids.add(info.getScheduleId());
+        }
+        return ids;
+    }
+
+    private static ScheduledMeasurementInfo info(int scheduleId, int resourceId, long interval, long nextCollection) {
+        ScheduledMeasurementInfo info = new ScheduledMeasurementInfo(new MeasurementScheduleRequest(scheduleId, "metric"
+            + scheduleId, interval, true, DataType.MEASUREMENT), resourceId);
+        info.setNextCollection(nextCollection);
+        return info;
+    }
+}
@@ -740,6 +740,19 @@ public class AgentConfiguration {
         return flag;
     }
 
+    /**
+     * Returns the minimum size, in serialized bytes, of the commands that are compressed before they are sent to the
+     * server. The server compresses its responses to compressed commands using the same threshold.
+     *
+     * @return the compression threshold; a negative value means commands are not compressed
+     */
+    public int getClientSenderCommandCompressionThreshold() {
+        int value = m_preferences.getInt(AgentConfigurationConstants.CLIENT_SENDER_COMMAND_COMPRESSION_THRESHOLD,
+            AgentConfigurationConstants.DEFAULT_CLIENT_SENDER_COMMAND_COMPRESSION_THRESHOLD);
+
+        return value;
+    }
+
     /**
      * Returns an array of send throttling parameters or <code>null</code> if send throttling is to be disabled. The
      * first element of the array is the maximum number of commands that can be sent before the quiet period must start.
@@ -905,6 +918,7 @@ public class AgentConfiguration {
         config.dataDirectory = getDataDirectory();
         config.serverPollingIntervalMillis = getClientSenderServerPollingInterval();
         config.commandSpoolFileCompressData = isClientSenderCommandSpoolFileCompressed();
+        config.commandCompressionThreshold = getClientSenderCommandCompressionThreshold();
         config.retryInterval = getClientSenderRetryInterval();
         config.maxRetries = getClientSenderMaxRetries();
         config.commandSpoolFileName = getClientSenderCommandSpoolFileName();
@@ -1148,6 +1162,21 @@ public class AgentConfiguration {
             AgentConfigurationConstants.PLUGINS_AVAILABILITY_SCAN_THREADPOOL_SIZE,
             AgentConfigurationConstants.DEFAULT_PLUGINS_AVAILABILITY_SCAN_THREADPOOL_SIZE);
 
+        // get how many subtrees an avail scan checks at the same time and how long it may take
+        int avail_scan_concurrency = m_preferences.getInt(
+            AgentConfigurationConstants.PLUGINS_AVAILABILITY_SCAN_CONCURRENCY,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_AVAILABILITY_SCAN_CONCURRENCY);
+        long avail_scan_timeout = m_preferences.getLong(AgentConfigurationConstants.PLUGINS_AVAILABILITY_SCAN_TIMEOUT,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_AVAILABILITY_SCAN_TIMEOUT);
+
+        // get how resource components are invoked
+        int component_invoker_threadpool_size = m_preferences.getInt(
+            AgentConfigurationConstants.PLUGINS_COMPONENT_INVOKER_THREADPOOL_SIZE,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_COMPONENT_INVOKER_THREADPOOL_SIZE);
+        boolean component_invocation_inline = m_preferences.getBoolean(
+            AgentConfigurationConstants.PLUGINS_COMPONENT_INVOCATION_INLINE,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_COMPONENT_INVOCATION_INLINE);
+
         // get the initial delay before measurement collections begin
         long meas_scan_initial_delay = m_preferences.getLong(
             AgentConfigurationConstants.PLUGINS_MEASUREMENT_COLLECTION_INITIAL_DELAY,
@@ -1161,6 +1190,19 @@ public class AgentConfiguration {
             AgentConfigurationConstants.PLUGINS_MEASUREMENT_COLL_THREADPOOL_SIZE,
             AgentConfigurationConstants.DEFAULT_PLUGINS_MEASUREMENT_COLL_THREADPOOL_SIZE);
 
+        // determine how many of those threads may collect measurements of a single plugin at the same time
+        int meas_plugin_concurrency = m_preferences.getInt(
+            AgentConfigurationConstants.PLUGINS_MEASUREMENT_COLL_PLUGIN_CONCURRENCY,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_MEASUREMENT_COLL_PLUGIN_CONCURRENCY);
+
+        // get the measurement report settings
+        long meas_report_period = m_preferences.getLong(
+            AgentConfigurationConstants.PLUGINS_MEASUREMENT_REPORT_PERIOD,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_MEASUREMENT_REPORT_PERIOD);
+        boolean meas_report_delta_encoding = m_preferences.getBoolean(
+            AgentConfigurationConstants.PLUGINS_MEASUREMENT_REPORT_DELTA_ENCODING,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_MEASUREMENT_REPORT_DELTA_ENCODING);
+
         // get the drift settings
         long drift_period = m_preferences.getLong(AgentConfigurationConstants.PLUGINS_DRIFT_DETECTION_PERIOD,
             AgentConfigurationConstants.DEFAULT_PLUGINS_DRIFT_DETECTION_PERIOD);
@@ -1265,7 +1307,14 @@ public class AgentConfiguration {
         config.setAvailabilityScanInitialDelay(avail_scan_initial_delay);
         config.setAvailabilityScanPeriod(avail_scan_period);
         config.setAvailabilityScanThreadPoolSize(avail_scan_threadpool_size);
+        config.setAvailabilityScanConcurrency(avail_scan_concurrency);
+        config.setAvailabilityScanTimeout(avail_scan_timeout);
+        config.setComponentInvokerThreadPoolSize(component_invoker_threadpool_size);
+        config.setComponentInvocationInline(component_invocation_inline);
         config.setMeasurementCollectionThreadPoolSize(meas_threadpool_size);
+        config.setMeasurementCollectionPluginConcurrency(meas_plugin_concurrency);
+        config.setMeasurementReportPeriod(meas_report_period);
+        config.setMeasurementReportDeltaEncoding(meas_report_delta_encoding);
         config.setMeasurementCollectionInitialDelay(meas_scan_initial_delay);
         config.setDriftDetectionInitialDelay(drift_initial_delay);
         config.setDriftDetectionPeriod(drift_period);
@@ -337,6 +337,17 @@ public interface AgentConfigurationConstants {
      */
     boolean DEFAULT_CLIENT_SENDER_COMMAND_SPOOL_FILE_COMPRESSED = false;
 
+    /**
+     * Property that defines the minimum size, in serialized bytes, of the commands that are compressed before they are
+     * sent to the server. A negative value disables compression.
+     */
+    String CLIENT_SENDER_COMMAND_COMPRESSION_THRESHOLD = PROPERTY_NAME_PREFIX + "client.command-compression-threshold";
+
+    /**
+     * If the client sender command compression threshold is not specified, this is the default.
+     */
+    int DEFAULT_CLIENT_SENDER_COMMAND_COMPRESSION_THRESHOLD = -1;
+
     /**
      * Property that provides the amount of time, in milliseconds, that the sender will pause before attempting to retry
      * a failed command whose delivery is to be guaranteed.
@@ -655,6 +666,48 @@ public interface AgentConfigurationConstants {
      */
     int DEFAULT_PLUGINS_AVAILABILITY_SCAN_THREADPOOL_SIZE = PluginContainerConfiguration.AVAILABILITY_SCAN_THREADPOOL_SIZE_DEFAULT;
 
+    /**
+     * Defines how many subtrees of the inventory a single availability scan can check at the same time.
+     */
+    String PLUGINS_AVAILABILITY_SCAN_CONCURRENCY = PROPERTY_NAME_PREFIX + "plugins.availability-scan.concurrency";
+
+    /**
+     * The default number of subtrees an availability scan checks at the same time.
+     */
+    int DEFAULT_PLUGINS_AVAILABILITY_SCAN_CONCURRENCY = PluginContainerConfiguration.AVAILABILITY_SCAN_CONCURRENCY_DEFAULT;
+
+    /**
+     * Defines, in seconds, how long an availability scan may take before it reports partial results.
+     */
+    String PLUGINS_AVAILABILITY_SCAN_TIMEOUT = PROPERTY_NAME_PREFIX + "plugins.availability-scan.timeout-secs";
+
+    /**
+     * The default availability scan timeout, in seconds. 0 means the scan period.
+     */
+    long DEFAULT_PLUGINS_AVAILABILITY_SCAN_TIMEOUT = PluginContainerConfiguration.AVAILABILITY_SCAN_TIMEOUT_DEFAULT;
+
+    /**
+     * Defines the maximum number of threads in each of the pools that invoke resource components.
+     */
+    String PLUGINS_COMPONENT_INVOKER_THREADPOOL_SIZE = PROPERTY_NAME_PREFIX
+        + "plugins.component-invoker.threadpool-size";
+
+    /**
+     * The default maximum number of threads in each component invoker thread pool.
+     */
+    int DEFAULT_PLUGINS_COMPONENT_INVOKER_THREADPOOL_SIZE = PluginContainerConfiguration.COMPONENT_INVOKER_THREADPOOL_SIZE_DEFAULT;
+
+    /**
+     * If true, resource component invocations may run on the calling thread with their timeout enforced by a
+     * watchdog.
+     */
+    String PLUGINS_COMPONENT_INVOCATION_INLINE = PROPERTY_NAME_PREFIX + "plugins.component-invoker.inline";
+
+    /**
+     * The default for running resource component invocations on the calling thread.
+     */
+    boolean DEFAULT_PLUGINS_COMPONENT_INVOCATION_INLINE = PluginContainerConfiguration.COMPONENT_INVOCATION_INLINE_DEFAULT;
+
     /**
      * If defined, this is to be the size of the measurement collection thread pool. If not defined, the plugin
      * container should default to something it considers appropriate.
@@ -667,6 +720,40 @@ public interface AgentConfigurationConstants {
      */
     int DEFAULT_PLUGINS_MEASUREMENT_COLL_THREADPOOL_SIZE = PluginContainerConfiguration.MEASUREMENT_COLLECTION_THREADCOUNT_DEFAULT;
 
+    /**
+     * If defined, this is the maximum number of measurement collections that can run concurrently for the resources
+     * of a single plugin.
+     */
+    String PLUGINS_MEASUREMENT_COLL_PLUGIN_CONCURRENCY = PROPERTY_NAME_PREFIX
+        + "plugins.measurement-collection.plugin-concurrency";
+
+    /**
+     * The default number of measurement collections that can run concurrently for a single plugin.
+     */
+    int DEFAULT_PLUGINS_MEASUREMENT_COLL_PLUGIN_CONCURRENCY = PluginContainerConfiguration.MEASUREMENT_COLLECTION_PLUGIN_CONCURRENCY_DEFAULT;
+
+    /**
+     * Defines, in seconds, how often collected measurements are sent to the server.
+     */
+    String PLUGINS_MEASUREMENT_REPORT_PERIOD = PROPERTY_NAME_PREFIX + "plugins.measurement-report.period-secs";
+
+    /**
+     * The default measurement report period, in seconds.
+     */
+    long DEFAULT_PLUGINS_MEASUREMENT_REPORT_PERIOD = PluginContainerConfiguration.MEASUREMENT_REPORT_PERIOD_DEFAULT;
+
+    /**
+     * If true, the numeric data of measurement reports are sent as runs per schedule that only carry the changes
+     * from one collection to the next.
+     */
+    String PLUGINS_MEASUREMENT_REPORT_DELTA_ENCODING = PROPERTY_NAME_PREFIX
+        + "plugins.measurement-report.delta-encoding";
+
+    /**
+     * By default, measurement reports are not delta encoded.
+     */
+    boolean DEFAULT_PLUGINS_MEASUREMENT_REPORT_DELTA_ENCODING = PluginContainerConfiguration.MEASUREMENT_REPORT_DELTA_ENCODING_DEFAULT;
+
     /**
      * Defines, in seconds, the initial delay before the first measurement collection is run.
      */
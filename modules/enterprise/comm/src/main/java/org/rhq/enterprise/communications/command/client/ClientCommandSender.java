@@ -187,7 +187,7 @@ public class ClientCommandSender {
      * {@link #isDeliveryGuaranteed(Command) guaranteed commands}. The actual objects that will be stored in this object
      * will be {@link CommandAndCallback} objects.
      */
-    private PersistentFifo m_commandStore;
+    private SpoolJournal m_commandStore;
 
     /**
      * The configuration for this sender.
@@ -244,6 +244,7 @@ public class ClientCommandSender {
         m_isSending = false;
         m_shuttingDownTasks = false;
         m_remoteCommunicator = remote_communicator;
+        configureCompression(remote_communicator);
         m_executor = null;
         m_timerThreadPool = null;
         m_queue = new CommandQueue(config);
@@ -255,8 +256,14 @@ public class ClientCommandSender {
             File cmd_spool_file = new File(config.dataDirectory, config.commandSpoolFileName);
 
             try {
-                m_commandStore = new PersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
-                    config.commandSpoolFilePurgePercentage, config.commandSpoolFileCompressData);
+                m_commandStore = new SpoolJournal(SpoolJournal.getJournalDirectory(cmd_spool_file),
+                    config.commandSpoolFileMaxSize, config.commandSpoolFilePurgePercentage,
+                    config.commandSpoolFileCompressData);
+
+                // commands spooled by an older version are in the single spool file, move them over to the journal
+                if (cmd_spool_file.isFile()) {
+                    m_commandStore.importFifo(cmd_spool_file);
+                }
             } catch (Exception e) {
                 m_commandStore = null;
                 LOG.warn(CommI18NResourceKeys.CLIENT_COMMAND_SENDER_COMMAND_SPOOL_ACCESS_ERROR, cmd_spool_file,
@@ -394,11 +401,25 @@ public class ClientCommandSender {
 
         // we don't need to synchronize on this.  As per JLS, section 17.7:
         // "Writes to and reads of references are always atomic, regardless of whether they are implemented as 32 or 64 bit values."
+        configureCompression(remote_communicator);
         m_remoteCommunicator = remote_communicator;
 
         return;
     }
 
+    /**
+     * Tells the remote communicator to compress commands as configured by
+     * {@link ClientCommandSenderConfiguration#commandCompressionThreshold}, if it supports compression.
+     *
+     * @param remote_communicator the communicator that will send the commands
+     */
+    private void configureCompression(RemoteCommunicator remote_communicator) {
+        if (remote_communicator instanceof JBossRemotingRemoteCommunicator) {
+            ((JBossRemotingRemoteCommunicator) remote_communicator)
+                .setCompressionThreshold(m_configuration.commandCompressionThreshold);
+        }
+    }
+
     /**
      * Returns the list of command preprocessors that are currently assigned to this sender. These are the objects that
      * manipulate the command prior to being queued and sent.
@@ -951,6 +972,11 @@ public class ClientCommandSender {
                     LOG.debug(CommI18NResourceKeys.CLIENT_COMMAND_SENDER_NO_LONGER_SENDING, m_remoteCommunicator);
                 }
 
+                // don't hold on to the spool files while stopped, the journal is opened again when it is next used
+                if (m_commandStore != null) {
+                    m_commandStore.close();
+                }
+
                 m_metrics.sendingMode.set(false);
                 m_metrics.setThreadPool(null);
             } finally {
@@ -1296,7 +1322,8 @@ public class ClientCommandSender {
                             timeout = getCommandTimeout(cnc.getCommand());
                             task = new ClientCommandSenderTask(this, cnc, timeout, true, null);
                             m_executor.execute(task);
-                            num_commands_persisted--;
+                            // unreadable commands that were dropped on the way count as unspooled too
+                            num_commands_persisted = Math.min(num_commands_persisted - 1, m_commandStore.count());
                         } else {
                             // this else should never have occurred since the count should have matched what is in the store
                             // unless someone else is unspooling from the store too (which should never happen, but, just in case...)
@@ -1396,7 +1423,9 @@ public class ClientCommandSender {
     }
 
     /**
-     * This will take the next avaialable command/callback pair from the spool file and return it.
+     * This will take the next avaialable command/callback pair from the spool file and return it. Spooled commands that
+     * cannot be deserialized, such as those spooled by an older agent whose commands were serialized differently, are
+     * dropped with a warning and the next one is taken instead.
      *
      * @return the next command/callback found in the local spool file; or <code>null</code> if the spool file is empty
      */
@@ -1405,7 +1434,15 @@ public class ClientCommandSender {
 
         if (m_commandStore != null) {
             try {
-                next = (CommandAndCallback) m_commandStore.takeObject();
+                byte[] serialized_bytes;
+                while ((next == null) && ((serialized_bytes = m_commandStore.take()) != null)) {
+                    try {
+                        next = (CommandAndCallback) StreamUtil.deserialize(serialized_bytes);
+                    } catch (RuntimeException e) {
+                        LOG.warn(e, CommI18NResourceKeys.CLIENT_COMMAND_SENDER_UNREADABLE_SPOOLED_COMMAND,
+                            m_remoteCommunicator);
+                    }
+                }
             } catch (Exception e) {
                 LOG.error(e, CommI18NResourceKeys.CLIENT_COMMAND_SENDER_COMMAND_STORE_TAKE_FAILURE,
                     m_remoteCommunicator);
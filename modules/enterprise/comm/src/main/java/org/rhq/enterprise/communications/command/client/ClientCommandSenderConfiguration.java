@@ -130,7 +130,8 @@ public class ClientCommandSenderConfiguration implements Serializable {
     /**
      * The name of the command spool file (to be located in the {@link #dataDirectory }}. If this value is <code>
      * null</code>, it will be assumed that commands should not be persisted (this means guaranteed delivery will be
-     * implicitly unsupported).
+     * implicitly unsupported). The commands are spooled to a {@link SpoolJournal} in a directory named after this
+     * file; see {@link SpoolJournal#getJournalDirectory(java.io.File)}.
      */
     public String commandSpoolFileName;
 
@@ -143,7 +144,7 @@ public class ClientCommandSenderConfiguration implements Serializable {
     /**
      * If the command spool file crosses its max size threshold and a purge is initiated, this is the percentage of
      * bytes the command spool file will be allowed to be after the purge completes. This is a percentage of
-     * {@link #commandSpoolFileMaxSize}. See {@link PersistentFifo} for more info on this parameter.
+     * {@link #commandSpoolFileMaxSize}. See {@link SpoolJournal} for more info on this parameter.
      */
     public int commandSpoolFilePurgePercentage = 75;
 
@@ -158,6 +159,14 @@ public class ClientCommandSenderConfiguration implements Serializable {
      */
     public boolean commandSpoolFileCompressData = false;
 
+    /**
+     * Commands whose serialized form is at least this many bytes will be compressed before they are sent. Once a
+     * command is sent compressed, the remote endpoint will also compress its response if the response is at least
+     * this large. If this is negative, commands are sent uncompressed. The remote endpoint must be of a version that
+     * understands compressed commands. See {@link org.rhq.enterprise.communications.util.CompressedPayload}.
+     */
+    public int commandCompressionThreshold = -1;
+
     /**
      * A fully qualified class name of a {@link CommandPreprocessor} implementation that will be used to preprocess all
      * commands that are to be queued and sent by the client command sender. May be <code>null</code> or empty string in
@@ -253,6 +262,7 @@ public class ClientCommandSenderConfiguration implements Serializable {
         config_copy.commandSpoolFileMaxSize = this.commandSpoolFileMaxSize;
         config_copy.commandSpoolFilePurgePercentage = this.commandSpoolFilePurgePercentage;
         config_copy.commandSpoolFileCompressData = this.commandSpoolFileCompressData;
+        config_copy.commandCompressionThreshold = this.commandCompressionThreshold;
         config_copy.commandPreprocessors = this.commandPreprocessors;
         config_copy.securityServerAuthMode = this.securityServerAuthMode;
         config_copy.securityKeystoreFile = this.securityKeystoreFile;
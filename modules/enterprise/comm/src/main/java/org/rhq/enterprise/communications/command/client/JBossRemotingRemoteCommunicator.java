@@ -37,6 +37,7 @@ import org.rhq.enterprise.communications.command.CommandResponse;
 import org.rhq.enterprise.communications.command.impl.generic.GenericCommandResponse;
 import org.rhq.enterprise.communications.i18n.CommI18NFactory;
 import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
+import org.rhq.enterprise.communications.util.CompressedPayload;
 import org.rhq.enterprise.communications.util.NotPermittedException;
 
 /**
@@ -113,6 +114,11 @@ public class JBossRemotingRemoteCommunicator implements RemoteCommunicator {
      */
     private final long m_initializeCallbackLockAcquisitionTimeoutMins;
 
+    /**
+     * Commands whose serialized form is at least this many bytes are compressed; if negative, commands are sent as-is.
+     */
+    private volatile int m_compressionThreshold = -1;
+
     /**
      * Constructor for {@link JBossRemotingRemoteCommunicator} that allows you to indicate the
      * {@link InvokerLocator invoker locator} to use by specifying the locator's URI. The subsystem will be set to the
@@ -240,6 +246,30 @@ public class JBossRemotingRemoteCommunicator implements RemoteCommunicator {
         return (m_invokerLocator != null) ? m_invokerLocator.getLocatorURI() : "<null>";
     }
 
+    /**
+     * Returns the minimum size, in serialized bytes, of the commands this communicator compresses. A negative value
+     * means compression is disabled.
+     *
+     * @return the compression threshold
+     *
+     * @see    CompressedPayload
+     */
+    public int getCompressionThreshold() {
+        return m_compressionThreshold;
+    }
+
+    /**
+     * Sets the minimum size, in serialized bytes, of the commands this communicator compresses. If not negative, all
+     * commands are sent {@link CompressedPayload wrapped}, which also allows the remote endpoint to compress its
+     * responses. The remote endpoint must understand wrapped commands, so only enable this when talking to endpoints
+     * of the same version.
+     *
+     * @param threshold the compression threshold; a negative value disables compression
+     */
+    public void setCompressionThreshold(int threshold) {
+        m_compressionThreshold = threshold;
+    }
+
     /**
      * Returns the map of name/value pairs of client configuration settings used when creating the client. The returned
      * map is a copy - changing its contents has no effect on the clients that already have been or will be created by
@@ -470,12 +500,29 @@ public class JBossRemotingRemoteCommunicator implements RemoteCommunicator {
     }
 
     /**
-     * Invokes JBoss Remoting using the given command.
-     * Attempts to cache the client if sending the message was successful.
+     * Invokes JBoss Remoting using the given command, compressing it and uncompressing the response if compression is
+     * enabled.
      *
      * @return object as a result of this call
      */
     private Object invoke(Command command) throws Throwable {
+        int threshold = m_compressionThreshold;
+        Object response = invokeRemote((threshold < 0) ? command : CompressedPayload.wrap(command, threshold));
+
+        if (response instanceof CompressedPayload) {
+            response = ((CompressedPayload) response).unwrap();
+        }
+
+        return response;
+    }
+
+    /**
+     * Invokes JBoss Remoting using the given payload.
+     * Attempts to cache the client if sending the message was successful.
+     *
+     * @return object as a result of this call
+     */
+    private Object invokeRemote(Object payload) throws Throwable {
         InvokerLocator locator = m_invokerLocator;
         if (locator == null) {
             throw new IllegalStateException("m_invokerLocator is null");
@@ -489,7 +536,7 @@ public class JBossRemotingRemoteCommunicator implements RemoteCommunicator {
             client = new Client(locator, getSubsystem(), m_clientConfiguration);
             client.connect();
             try {
-                return client.invoke(command);
+                return client.invoke(payload);
             } finally {
                 cacheClient(client);
             }
@@ -498,7 +545,7 @@ public class JBossRemotingRemoteCommunicator implements RemoteCommunicator {
         // Note: Despite all the checks above, the client might have been
         // disconnected before invoke is reached. Let's hope that doesn't happen.
 
-        return client.invoke(command);
+        return client.invoke(payload);
     }
 
     /**
@@ -171,52 +171,65 @@ public class PersistentFifo {
             raf.readFully(entry);
 
             if (fifo.m_compress) {
-                entry = fifo.decompress(entry);
+                entry = decompress(entry);
             }
 
-            String entry_string;
+            dumpEntry(out, entry_num++, entry, raw_byte_base);
+        }
 
-            out.print("[" + entry_num++ + "] ");
+        out.flush();
 
-            if (raw_byte_base == 0) {
-                Object obj = StreamUtil.deserialize(entry);
-                entry_string = obj.toString();
-            } else {
-                out.println();
-
-                switch (raw_byte_base) {
-                case DumpBytes.BASE_HEX: {
-                    entry_string = DumpBytes.dumpHexData(entry);
-                    break;
-                }
-
-                case DumpBytes.BASE_DEC: {
-                    entry_string = DumpBytes.dumpDecData(entry);
-                    break;
-                }
-
-                case DumpBytes.BASE_OCT: {
-                    entry_string = DumpBytes.dumpOctData(entry);
-                    break;
-                }
-
-                case DumpBytes.BASE_BIN: {
-                    entry_string = DumpBytes.dumpBinData(entry);
-                    break;
-                }
-
-                default: {
-                    entry_string = DumpBytes.dumpData(entry, 7, raw_byte_base);
-                }
-                }
+        return;
+    }
+
+    /**
+     * Dumps a single entry to the given stream. See {@link #dumpContents(PrintWriter, File, boolean, int)} for the
+     * meaning of <code>raw_byte_base</code>, which must be 0 or larger here.
+     *
+     * @param out           the stream to dump the output
+     * @param entry_num     the number of the entry in the queue
+     * @param entry         the uncompressed entry data
+     * @param raw_byte_base 0 to dump the entry as an object, otherwise the base to dump the raw bytes in
+     */
+    static void dumpEntry(PrintWriter out, long entry_num, byte[] entry, int raw_byte_base) {
+        String entry_string;
+
+        out.print("[" + entry_num + "] ");
+
+        if (raw_byte_base == 0) {
+            Object obj = StreamUtil.deserialize(entry);
+            entry_string = obj.toString();
+        } else {
+            out.println();
+
+            switch (raw_byte_base) {
+            case DumpBytes.BASE_HEX: {
+                entry_string = DumpBytes.dumpHexData(entry);
+                break;
             }
 
-            out.println(entry_string);
-        }
+            case DumpBytes.BASE_DEC: {
+                entry_string = DumpBytes.dumpDecData(entry);
+                break;
+            }
 
-        out.flush();
+            case DumpBytes.BASE_OCT: {
+                entry_string = DumpBytes.dumpOctData(entry);
+                break;
+            }
 
-        return;
+            case DumpBytes.BASE_BIN: {
+                entry_string = DumpBytes.dumpBinData(entry);
+                break;
+            }
+
+            default: {
+                entry_string = DumpBytes.dumpData(entry, 7, raw_byte_base);
+            }
+            }
+        }
+
+        out.println(entry_string);
     }
 
     /**
@@ -473,6 +486,22 @@ public class PersistentFifo {
         return;
     }
 
+    /**
+     * Closes the file. The FIFO must not be used after this is called.
+     *
+     * @throws IOException if failed to close the file
+     */
+    public void close() throws IOException {
+        synchronized (m_fileLock) {
+            if (m_randomAccessFile != null) {
+                m_randomAccessFile.close();
+                m_randomAccessFile = null;
+            }
+        }
+
+        return;
+    }
+
     /**
      * This purges the file by compressing the old entries that have already been taken and, if that isn't possible,
      * will remove head entries (i.e. the oldest entries) and moves all items down in the file, thus shrinking the file.
@@ -659,7 +688,7 @@ public class PersistentFifo {
      *
      * @throws IOException if failed to compress the bytes
      */
-    private byte[] compress(byte[] bytes) throws IOException {
+    static byte[] compress(byte[] bytes) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length);
         GZIPOutputStream gzip = new GZIPOutputStream(baos);
 
@@ -680,7 +709,7 @@ public class PersistentFifo {
      *
      * @throws IOException if failed to decompress the bytes
      */
-    private byte[] decompress(byte[] entry) throws IOException {
+    static byte[] decompress(byte[] entry) throws IOException {
         ByteArrayOutputStream decompressed = new ByteArrayOutputStream(entry.length);
         ByteArrayInputStream in = new ByteArrayInputStream(entry);
         GZIPInputStream gzip_in = new GZIPInputStream(in);
@@ -0,0 +1,814 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.command.client;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import mazz.i18n.Logger;
+
+import org.rhq.core.util.stream.StreamUtil;
+import org.rhq.enterprise.communications.i18n.CommI18NFactory;
+import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
+
+/**
+ * Persists byte arrays in a FIFO queue that is stored as an append-only journal of segment files in a directory. This
+ * is the command spool used by {@link ClientCommandSender} to persist guaranteed commands and replaces the single
+ * {@link PersistentFifo} file it used before.
+ *
+ * <p>Each segment file starts with a header that holds the number of entries in the segment and the position at which
+ * the next entry will be written, followed by the entries. Each entry consists of its length, a CRC32 checksum and the
+ * entry's data. Segments are memory-mapped, so putting an entry is a memory copy. The mapped segment is forced to disk
+ * after each put, but a single force covers all of the puts made before it, so concurrent senders share the cost of a
+ * sync (group commit).</p>
+ *
+ * <p>Entries are always appended to the last segment. When it is full, a new segment is started. A small head file
+ * holds the position of the next entry to be taken. When all the entries of a segment have been taken, the segment
+ * file is deleted. When the journal grows beyond its maximum size, whole segments holding the oldest entries are
+ * deleted until the journal is under the purge percentage of the maximum size again - nothing is ever moved or
+ * compacted.</p>
+ *
+ * <p>Opening a journal only reads the head file and the segment headers, so it does not take longer the more entries
+ * are spooled. The directory and its files are not created until the first entry is put, so a sender that never
+ * spools anything leaves nothing on disk. {@link #close()} releases the mapped files; the journal is opened again
+ * when it is next used.</p>
+ *
+ * <pre>
+ * directory/head                    segment sequence number | position | number of entries taken
+ * directory/0000000000000000007.seg magic | count | write position | length | crc | data | length | crc | data ...
+ * directory/0000000000000000008.seg ...
+ * </pre>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public class SpoolJournal {
+    /**
+     * Logger
+     */
+    private static final Logger LOG = CommI18NFactory.getLogger(SpoolJournal.class);
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String HEAD_FILE_NAME = "head";
+    private static final int SEGMENT_MAGIC = 0x52485153;
+    private static final int SEGMENT_HEADER_SIZE = 16; // magic, count, write position, reserved
+    private static final int ENTRY_HEADER_SIZE = 8; // length, crc
+    private static final int HEAD_SIZE = 16; // segment, position, taken
+    private static final int MIN_SEGMENT_SIZE = 4096;
+    private static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final File m_directory;
+    private final long m_maxSizeBytes; // size of the journal that, when reached, triggers a purge
+    private final long m_purgeResultMaxBytes; // the number of bytes the journal must be less than after a purge
+    private final boolean m_compress; // will be true if we are to compress the data before persisting
+    private final int m_segmentSize;
+
+    // the following are guarded by this
+    private final LinkedList<Segment> m_segments = new LinkedList<Segment>(); // oldest first, entries are appended to the last
+    private final List<File> m_undeletedFiles = new ArrayList<File>();
+    private boolean m_open; // true if the journal files are mapped
+    private MappedByteBuffer m_headBuffer;
+    private int m_headPosition; // position of the next entry to take in the first segment
+    private int m_headTaken; // the number of entries already taken from the first segment
+    private long m_count; // the current count of entries in the journal
+    private long m_sizeBytes; // the total size of all segment files
+    private long m_appended; // the number of entries appended since the journal was opened
+
+    // guarded by m_syncLock
+    private final Object m_syncLock = new Object();
+    private long m_synced; // the number of appended entries that are known to be on disk
+
+    /**
+     * Returns the directory of the journal that takes the place of the given command spool file.
+     *
+     * @param  spool_file the command spool file name as configured for the sender
+     *
+     * @return the journal directory
+     */
+    public static File getJournalDirectory(File spool_file) {
+        return new File(spool_file.getParentFile(), spool_file.getName() + ".journal");
+    }
+
+    /**
+     * Dumps the entries of the journal found in the given directory without modifying the journal. See
+     * {@link PersistentFifo#dumpContents(PrintWriter, File, boolean, int)} for the meaning of the parameters.
+     *
+     * @param  out           the stream to dump the output
+     * @param  directory     the journal directory
+     * @param  compressed    if <code>true</code>, the entries will be assumed to be compressed
+     * @param  raw_byte_base 0 means dump entries as objects, -1 means only dump the number of entries, any other
+     *                       number is the base in which the raw entry data is dumped
+     *
+     * @throws IOException
+     */
+    public static void dumpContents(PrintWriter out, File directory, boolean compressed, int raw_byte_base)
+        throws IOException {
+        long head_seq = -1L;
+        int head_position = SEGMENT_HEADER_SIZE;
+        int head_taken = 0;
+
+        File head_file = new File(directory, HEAD_FILE_NAME);
+        if (head_file.length() >= HEAD_SIZE) {
+            RandomAccessFile raf = new RandomAccessFile(head_file, "r");
+            try {
+                head_seq = raf.readLong();
+                head_position = raf.readInt();
+                head_taken = raf.readInt();
+            } finally {
+                raf.close();
+            }
+        }
+
+        List<Segment> segments = new ArrayList<Segment>();
+        long count = 0L;
+        for (File file : listSegmentFiles(directory)) {
+            Segment segment = Segment.read(file);
+            if (segment != null && segment.seq >= head_seq) {
+                segments.add(segment);
+                count += segment.count;
+            }
+        }
+        if (!segments.isEmpty() && segments.get(0).seq == head_seq) {
+            count -= head_taken;
+        } else {
+            head_position = SEGMENT_HEADER_SIZE;
+        }
+
+        out.println(directory);
+        out.println(count);
+        out.flush();
+
+        if (raw_byte_base < 0) {
+            return;
+        }
+
+        long entry_num = 0L;
+        for (Segment segment : segments) {
+            RandomAccessFile raf = new RandomAccessFile(segment.file, "r");
+            try {
+                long position = (segment.seq == head_seq) ? head_position : SEGMENT_HEADER_SIZE;
+                while (position + ENTRY_HEADER_SIZE <= segment.writePosition) {
+                    raf.seek(position);
+                    int length = raf.readInt();
+                    raf.readInt(); // the crc
+                    if (length < 0 || position + ENTRY_HEADER_SIZE + length > segment.writePosition) {
+                        break;
+                    }
+                    byte[] entry = new byte[length];
+                    raf.readFully(entry);
+                    if (compressed) {
+                        entry = PersistentFifo.decompress(entry);
+                    }
+                    PersistentFifo.dumpEntry(out, entry_num++, entry, raw_byte_base);
+                    position += ENTRY_HEADER_SIZE + length;
+                }
+            } finally {
+                raf.close();
+            }
+        }
+
+        out.flush();
+
+        return;
+    }
+
+    /**
+     * Opens the journal in the given directory, creating it if it does not exist yet. The <code>max_size_bytes</code>
+     * and <code>purge_percentage</code> have the same meaning as they do for {@link PersistentFifo}, except that the
+     * oldest entries are discarded a segment at a time.
+     *
+     * @param  directory        the directory containing the journal files
+     * @param  max_size_bytes   the maximum size, in bytes, the journal is allowed to grow before a purge is triggered
+     * @param  purge_percentage when a purge is triggered, it will free up enough space to lower the amount of used
+     *                          space down to this percentage of the total max space
+     * @param  compress         if <code>true</code>, the data spooled to the journal should be compressed
+     *
+     * @throws IOException              if the journal cannot be opened or created
+     * @throws IllegalArgumentException if purge_percentage is not between 0 and 99 or max_size_bytes is less than 1000
+     */
+    public SpoolJournal(File directory, long max_size_bytes, int purge_percentage, boolean compress)
+        throws IOException {
+        if ((purge_percentage < 0) || (purge_percentage > 99)) {
+            throw new IllegalArgumentException(LOG.getMsgString(CommI18NResourceKeys.INVALID_PURGE_PERCENTAGE,
+                purge_percentage));
+        }
+
+        if (max_size_bytes < 1000L) {
+            throw new IllegalArgumentException(LOG.getMsgString(CommI18NResourceKeys.INVALID_MAX_SIZE, max_size_bytes,
+                1000));
+        }
+
+        m_directory = directory;
+        m_maxSizeBytes = max_size_bytes;
+        m_purgeResultMaxBytes = (long) (max_size_bytes * (purge_percentage / 100.0f));
+        m_compress = compress;
+        m_segmentSize = (int) Math.min(MAX_SEGMENT_SIZE, Math.max(MIN_SEGMENT_SIZE, max_size_bytes / 8));
+
+        if (m_directory.isDirectory()) {
+            open();
+        }
+    }
+
+    /**
+     * Puts the given Object in the journal. This method will attempt to serialize the object and store the
+     * serialized bytes via {@link #put(byte[])}. An exception will occur if the serialization fails.
+     *
+     * @param  o the object to serialize and put in the journal
+     *
+     * @throws IOException      if failed to put the data in the journal
+     * @throws RuntimeException if failed to serialize the data
+     */
+    public void putObject(Serializable o) throws IOException, RuntimeException {
+        byte[] serialized_bytes = StreamUtil.serialize(o);
+        put(serialized_bytes);
+        return;
+    }
+
+    /**
+     * Takes an object from the journal, deserializes it and returns it.
+     *
+     * @return the object that was taken from the journal and deserialized
+     *
+     * @throws IOException      if failed to access the journal
+     * @throws RuntimeException if failed to deserialize the object after taking its serialized bytes off the journal
+     */
+    public Object takeObject() throws IOException, RuntimeException {
+        Object o = null;
+
+        byte[] serialized_bytes = take();
+        if (serialized_bytes != null) {
+            o = StreamUtil.deserialize(serialized_bytes);
+        }
+
+        return o;
+    }
+
+    /**
+     * Puts an array of bytes in the journal. When this returns, the entry is on disk.
+     *
+     * @param  bytes the data to put in the journal
+     *
+     * @throws IOException if failed to access the journal
+     */
+    public void put(byte[] bytes) throws IOException {
+        sync(append(bytes));
+        return;
+    }
+
+    /**
+     * Takes the next entry from the journal and returns it.
+     *
+     * @return the next entry from the journal, or <code>null</code> if the journal is empty
+     *
+     * @throws IOException if failed to access the journal
+     */
+    public byte[] take() throws IOException {
+        byte[] entry = null;
+
+        synchronized (this) {
+            if (!ensureOpen(false)) {
+                return null;
+            }
+
+            while (entry == null) {
+                Segment head = m_segments.getFirst();
+
+                if (m_headPosition >= head.writePosition) {
+                    if (head == m_segments.getLast()) {
+                        if (head.count > 0) {
+                            // the journal is empty, start over at the beginning of the segment rather than growing it
+                            // the emptied segment must be on disk before the head moves back to its beginning,
+                            // otherwise a crash in between leaves the old entries in front of the head again
+                            head.reset();
+                            head.force();
+                            writeHead(head.seq, SEGMENT_HEADER_SIZE, 0);
+                        }
+                        return null;
+                    }
+
+                    removeHeadSegment();
+                    continue;
+                }
+
+                ByteBuffer buffer = head.getBuffer();
+                int length = buffer.getInt(m_headPosition);
+                int crc = buffer.getInt(m_headPosition + 4);
+                int data_position = m_headPosition + ENTRY_HEADER_SIZE;
+
+                if (length >= 0 && data_position + length <= head.writePosition) {
+                    entry = new byte[length];
+                    ByteBuffer data = buffer.duplicate();
+                    data.position(data_position);
+                    data.get(entry);
+                    if (crc(entry) != crc) {
+                        entry = null;
+                    }
+                }
+
+                if (entry == null) {
+                    // the rest of the segment cannot be trusted, discard it
+                    int discarded = head.count - m_headTaken;
+                    LOG.warn(CommI18NResourceKeys.SPOOL_JOURNAL_CORRUPT_ENTRY, head.file, m_headPosition, discarded);
+                    m_count -= discarded;
+                    writeHead(head.seq, head.writePosition, head.count);
+                    continue;
+                }
+
+                m_count--;
+                writeHead(head.seq, data_position + length, m_headTaken + 1);
+            }
+        }
+
+        if (m_compress) {
+            entry = PersistentFifo.decompress(entry);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Returns <code>true</code> if the journal does not contain any entries.
+     *
+     * @return <code>true</code> if the journal is empty, <code>false</code> if at least one entry can be taken
+     *
+     * @throws IOException if failed to access the journal
+     */
+    public synchronized boolean isEmpty() throws IOException {
+        return !ensureOpen(false) || (m_count == 0L);
+    }
+
+    /**
+     * Returns the number of entries currently in the journal.
+     *
+     * @return the number of entries
+     *
+     * @throws IOException if failed to access the journal
+     */
+    public synchronized long count() throws IOException {
+        return ensureOpen(false) ? m_count : 0L;
+    }
+
+    /**
+     * Forces the journal to disk and releases its mapped files, so that nothing is held open while the journal is not
+     * in use and its directory can be deleted. The journal is opened again the next time it is used.
+     */
+    public void close() {
+        synchronized (m_syncLock) {
+            synchronized (this) {
+                if (!m_open) {
+                    return;
+                }
+
+                for (Segment segment : m_segments) {
+                    segment.force();
+                    segment.unmap();
+                }
+                m_headBuffer.force();
+                unmap(m_headBuffer);
+
+                m_headBuffer = null;
+                m_segments.clear();
+                m_count = 0L;
+                m_sizeBytes = 0L;
+                m_synced = m_appended; // everything appended so far was just forced
+                m_open = false;
+            }
+        }
+
+        return;
+    }
+
+    /**
+     * Moves all the entries of an old command spool file into this journal and then deletes the file. This is done
+     * once, when the sender first starts using the journal.
+     *
+     * @param  fifo_file the {@link PersistentFifo} file
+     *
+     * @return the number of entries moved into the journal
+     *
+     * @throws IOException if failed to read the file or to write the journal
+     */
+    public long importFifo(File fifo_file) throws IOException {
+        PersistentFifo fifo = new PersistentFifo(fifo_file, Long.MAX_VALUE, 99, m_compress);
+        long imported = 0L;
+        long last = 0L;
+
+        try {
+            byte[] entry;
+            while ((entry = fifo.take()) != null) {
+                last = append(entry);
+                imported++;
+            }
+        } finally {
+            fifo.close();
+        }
+
+        if (imported > 0L) {
+            sync(last);
+            LOG.info(CommI18NResourceKeys.SPOOL_JOURNAL_IMPORTED, imported, fifo_file, m_directory);
+        }
+
+        fifo_file.delete();
+
+        return imported;
+    }
+
+    /**
+     * Appends an entry to the last segment.
+     *
+     * @return the sequence number of the appended entry to {@link #sync(long)} on
+     */
+    private long append(byte[] bytes) throws IOException {
+        if (m_compress) {
+            bytes = PersistentFifo.compress(bytes);
+        }
+
+        int crc = crc(bytes);
+        int entry_size = ENTRY_HEADER_SIZE + bytes.length;
+
+        synchronized (this) {
+            ensureOpen(true);
+
+            Segment tail = m_segments.getLast();
+
+            if (tail.writePosition + entry_size > tail.capacity) {
+                // everything up to here is in the tail segment, make sure it is on disk before moving to the next one
+                tail.force();
+                tail = createSegment(tail.seq + 1, SEGMENT_HEADER_SIZE + entry_size);
+                m_segments.add(tail);
+
+                if (m_sizeBytes > m_maxSizeBytes) {
+                    purge();
+                }
+            }
+
+            ByteBuffer buffer = tail.getBuffer();
+            buffer.putInt(tail.writePosition, bytes.length);
+            buffer.putInt(tail.writePosition + 4, crc);
+            ByteBuffer data = buffer.duplicate();
+            data.position(tail.writePosition + ENTRY_HEADER_SIZE);
+            data.put(bytes);
+
+            tail.count++;
+            tail.writePosition += entry_size;
+            tail.writeHeader();
+
+            m_count++;
+
+            return ++m_appended;
+        }
+    }
+
+    /**
+     * Makes sure that the entry with the given sequence number is on disk. If another thread already forced the
+     * segment after the entry was appended, this returns right away.
+     */
+    private void sync(long appended) {
+        synchronized (m_syncLock) {
+            if (m_synced >= appended) {
+                return;
+            }
+
+            long target;
+            Segment tail;
+            synchronized (this) {
+                target = m_appended;
+                tail = m_segments.getLast();
+            }
+
+            tail.force(); // earlier segments were forced when the tail rolled over
+            m_synced = target;
+        }
+
+        return;
+    }
+
+    /**
+     * Opens the journal if it is not open yet.
+     *
+     * @param  create if <code>false</code>, a journal that does not exist on disk yet is left alone
+     *
+     * @return <code>true</code> if the journal is open
+     */
+    private boolean ensureOpen(boolean create) throws IOException {
+        if (!m_open) {
+            if (!create && !m_directory.isDirectory()) {
+                return false;
+            }
+            open();
+        }
+        return true;
+    }
+
+    private void open() throws IOException {
+        if (!m_directory.isDirectory() && !m_directory.mkdirs()) {
+            throw new IOException("Cannot create the command spool directory [" + m_directory + "]");
+        }
+
+        recover();
+        m_open = true;
+    }
+
+    /**
+     * Deletes the oldest segments until the journal is down to its purge size. The segment being appended to is
+     * never deleted.
+     */
+    private void purge() throws IOException {
+        long discarded = 0L;
+
+        while ((m_sizeBytes > m_purgeResultMaxBytes) && (m_segments.size() > 1)) {
+            Segment head = m_segments.getFirst();
+            discarded += head.count - m_headTaken;
+            m_count -= head.count - m_headTaken;
+            removeHeadSegment();
+        }
+
+        if (discarded > 0L) {
+            LOG.warn(CommI18NResourceKeys.SPOOL_JOURNAL_PURGED, m_directory, discarded);
+        }
+
+        return;
+    }
+
+    /**
+     * Moves the head to the next segment and deletes the first segment. The head is moved first so that the journal
+     * is still consistent if the delete fails.
+     */
+    private void removeHeadSegment() throws IOException {
+        Segment removed = m_segments.removeFirst();
+        writeHead(m_segments.getFirst().seq, SEGMENT_HEADER_SIZE, 0);
+        m_sizeBytes -= removed.capacity;
+        removed.release();
+
+        m_undeletedFiles.add(removed.file);
+        for (Iterator<File> i = m_undeletedFiles.iterator(); i.hasNext();) {
+            File file = i.next();
+            if (file.delete() || !file.exists()) {
+                i.remove();
+            } else {
+                // on some platforms a file cannot be deleted while it is still mapped
+                LOG.debug(CommI18NResourceKeys.SPOOL_JOURNAL_DELETE_FAILED, file);
+            }
+        }
+
+        return;
+    }
+
+    /**
+     * Reads the head file and the segment headers to restore the state of the journal.
+     */
+    private void recover() throws IOException {
+        long head_seq = -1L;
+        int head_position = SEGMENT_HEADER_SIZE;
+        int head_taken = 0;
+
+        RandomAccessFile head_raf = new RandomAccessFile(new File(m_directory, HEAD_FILE_NAME), "rw");
+        try {
+            if (head_raf.length() >= HEAD_SIZE) {
+                head_seq = head_raf.readLong();
+                head_position = head_raf.readInt();
+                head_taken = head_raf.readInt();
+            } else {
+                head_raf.setLength(HEAD_SIZE);
+            }
+            m_headBuffer = head_raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEAD_SIZE);
+        } finally {
+            head_raf.close();
+        }
+
+        for (File file : listSegmentFiles(m_directory)) {
+            Segment segment = Segment.read(file);
+
+            if (segment == null) {
+                LOG.warn(CommI18NResourceKeys.SPOOL_JOURNAL_INVALID_SEGMENT, file);
+                file.delete();
+            } else if (segment.seq < head_seq) {
+                file.delete(); // all its entries were taken but it was not deleted yet
+            } else {
+                m_segments.add(segment);
+                m_count += segment.count;
+                m_sizeBytes += segment.capacity;
+            }
+        }
+
+        if (m_segments.isEmpty()) {
+            Segment segment = createSegment(head_seq + 1, 0);
+            m_segments.add(segment);
+        }
+
+        Segment head = m_segments.getFirst();
+        if (head.seq != head_seq) {
+            head_position = SEGMENT_HEADER_SIZE;
+            head_taken = 0;
+        } else if ((head_position > head.writePosition) || (head_taken > head.count)) {
+            // the segment was reset after it was emptied but the head was not updated
+            head_position = head.writePosition;
+            head_taken = head.count;
+        } else if (head_position < SEGMENT_HEADER_SIZE) {
+            head_position = SEGMENT_HEADER_SIZE;
+            head_taken = 0;
+        }
+
+        m_count -= head_taken;
+        writeHead(head.seq, head_position, head_taken);
+
+        return;
+    }
+
+    /**
+     * Creates a new, empty segment file that can hold at least the given number of bytes.
+     */
+    private Segment createSegment(long seq, int min_size) throws IOException {
+        File file = new File(m_directory, String.format("%019d", seq) + SEGMENT_SUFFIX);
+        Segment segment = new Segment(seq, file, Math.max(m_segmentSize, min_size));
+        segment.reset();
+        m_sizeBytes += segment.capacity;
+        return segment;
+    }
+
+    /**
+     * Moves the head. The head is forced to disk before this returns, so that an entry that was taken, or a segment
+     * that is deleted afterwards, is not delivered again after a crash.
+     */
+    private void writeHead(long seq, int position, int taken) {
+        m_headBuffer.putLong(0, seq);
+        m_headBuffer.putInt(8, position);
+        m_headBuffer.putInt(12, taken);
+        m_headBuffer.force();
+        m_headPosition = position;
+        m_headTaken = taken;
+    }
+
+    /**
+     * Unmaps the buffer right away instead of when it is garbage collected, which on some platforms must happen before
+     * the file can be deleted. This is only attempted where the VM allows it; the buffer must not be used afterwards.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Method cleaner_method = buffer.getClass().getMethod("cleaner");
+            cleaner_method.setAccessible(true);
+            Object cleaner = cleaner_method.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Throwable t) {
+            // not supported by this VM, the mapping goes away when the buffer is garbage collected
+        }
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static List<File> listSegmentFiles(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+
+        // the sequence numbers are zero-padded so the names sort in sequence order
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * A segment file. Its entries are accessed through a mapping of the whole file which is created when first
+     * needed. The count and write position are mirrored in the segment header.
+     */
+    private static class Segment {
+        private final long seq;
+        private final File file;
+        private final int capacity;
+        private int count;
+        private int writePosition;
+        private MappedByteBuffer buffer;
+
+        private Segment(long seq, File file, int capacity) {
+            this.seq = seq;
+            this.file = file;
+            this.capacity = capacity;
+        }
+
+        /**
+         * Reads the header of an existing segment file.
+         *
+         * @return the segment, or <code>null</code> if the file is not a valid segment
+         */
+        private static Segment read(File file) throws IOException {
+            String name = file.getName();
+            long seq;
+            try {
+                seq = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                long length = raf.length();
+                if (length < SEGMENT_HEADER_SIZE || length > Integer.MAX_VALUE || raf.readInt() != SEGMENT_MAGIC) {
+                    return null;
+                }
+
+                Segment segment = new Segment(seq, file, (int) length);
+                segment.count = raf.readInt();
+                segment.writePosition = raf.readInt();
+                if (segment.count < 0 || segment.writePosition < SEGMENT_HEADER_SIZE
+                    || segment.writePosition > length) {
+                    return null;
+                }
+                return segment;
+            } finally {
+                raf.close();
+            }
+        }
+
+        private MappedByteBuffer getBuffer() throws IOException {
+            if (buffer == null) {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(capacity);
+                    buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                } finally {
+                    raf.close(); // the mapping stays valid after the channel is closed
+                }
+            }
+            return buffer;
+        }
+
+        /**
+         * Empties the segment.
+         */
+        private void reset() throws IOException {
+            count = 0;
+            writePosition = SEGMENT_HEADER_SIZE;
+            getBuffer().putInt(0, SEGMENT_MAGIC);
+            writeHeader();
+        }
+
+        private void writeHeader() throws IOException {
+            MappedByteBuffer mapped = getBuffer();
+            mapped.putInt(4, count);
+            mapped.putInt(8, writePosition);
+        }
+
+        private void force() {
+            MappedByteBuffer mapped = buffer;
+            if (mapped != null) {
+                mapped.force();
+            }
+        }
+
+        private void release() {
+            buffer = null;
+        }
+
+        /**
+         * Releases the mapping right away. Only done when the journal is closed, since a sync may still be forcing a
+         * segment that was just released by a take.
+         */
+        private void unmap() {
+            MappedByteBuffer mapped = buffer;
+            buffer = null;
+            if (mapped != null) {
+                SpoolJournal.unmap(mapped);
+            }
+        }
+    }
+}
@@ -185,19 +185,27 @@ public class RemotePojoInvocationCommandService extends CommandService implement
 
             response = new RemotePojoInvocationCommandResponse(remote_pojo_command, response_object);
         } catch (InvocationTargetException e) {
-            // we want to make sure we keep the exception as intact as possible
-            // so we still want to put the invocation target exception in the response,
-            // but that is a java.* exception, so we need to drill down into the cause and wrap that if need be
-            Throwable response_exception;
-
-            if (e.getCause() != null) {
-                response_exception = new InvocationTargetException(getWrappedException(e.getCause(), pojo_method), e
-                    .getMessage());
+            if (e.getCause() instanceof NotPermittedException) {
+                // the POJO itself is asking the client to back off - send the exception as-is so the client retries
+                NotPermittedException npe = (NotPermittedException) e.getCause();
+                LOG.debug(CommI18NResourceKeys.COMMAND_NOT_PERMITTED, target_interface_name + '.' + method_name, npe
+                    .getSleepBeforeRetry());
+                response = new RemotePojoInvocationCommandResponse(remote_pojo_command, npe);
             } else {
-                response_exception = getWrappedException(e, pojo_method);
-            }
+                // we want to make sure we keep the exception as intact as possible
+                // so we still want to put the invocation target exception in the response,
+                // but that is a java.* exception, so we need to drill down into the cause and wrap that if need be
+                Throwable response_exception;
+
+                if (e.getCause() != null) {
+                    response_exception = new InvocationTargetException(getWrappedException(e.getCause(), pojo_method),
+                        e.getMessage());
+                } else {
+                    response_exception = getWrappedException(e, pojo_method);
+                }
 
-            response = new RemotePojoInvocationCommandResponse(remote_pojo_command, response_exception);
+                response = new RemotePojoInvocationCommandResponse(remote_pojo_command, response_exception);
+            }
         } catch (NotPermittedException npe) {
             LOG.debug(CommI18NResourceKeys.COMMAND_NOT_PERMITTED, target_interface_name + '.' + method_name, npe
                 .getSleepBeforeRetry());
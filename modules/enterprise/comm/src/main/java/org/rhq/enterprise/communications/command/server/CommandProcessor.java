@@ -45,6 +45,7 @@ import org.rhq.enterprise.communications.command.impl.remotepojo.RemotePojoInvoc
 import org.rhq.enterprise.communications.command.server.CommandProcessorMetrics.UnsuccessfulReason;
 import org.rhq.enterprise.communications.i18n.CommI18NFactory;
 import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
+import org.rhq.enterprise.communications.util.CompressedPayload;
 import org.rhq.enterprise.communications.util.NotPermittedException;
 import org.rhq.enterprise.communications.util.NotProcessedException;
 
@@ -229,13 +230,19 @@ public class CommandProcessor implements StreamInvocationHandler {
         CommandResponse ret_response = null;
 
         long elapsed = 0L; // will be the time in ms that it took to invoked the command service if we did invoke it
+        int replyThreshold = -1; // if not negative, the client sent a compressed payload and accepts one in return
 
         try {
             // get the subsystem - find the command service in this subsystem that will execute our command
             String subsystem = invocation.getSubsystem();
 
             // get the Command the client wants to execute
-            cmd = (Command) invocation.getParameter();
+            Object param = invocation.getParameter();
+            if (param instanceof CompressedPayload) {
+                replyThreshold = ((CompressedPayload) param).getThreshold();
+                param = ((CompressedPayload) param).unwrap();
+            }
+            cmd = (Command) param;
             IncomingCommandTrace.start(cmd);
 
             if (cmd != null) {
@@ -260,7 +267,7 @@ public class CommandProcessor implements StreamInvocationHandler {
 
                         notifyListenersOfProcessedCommand(cmd, ret_response);
 
-                        return ret_response;
+                        return reply(cmd, ret_response, replyThreshold);
                     }
                 }
 
@@ -329,7 +336,29 @@ public class CommandProcessor implements StreamInvocationHandler {
             LOG.warn(t, CommI18NResourceKeys.COMMAND_PROCESSOR_POST_PROCESSING_FAILURE, cmd);
         }
 
-        return ret_response;
+        return reply(cmd, ret_response, replyThreshold);
+    }
+
+    /**
+     * Compresses the response if the client sent its command compressed, otherwise returns the response as-is.
+     *
+     * @param  cmd       the command that was executed (might be null in error conditions)
+     * @param  response  the response to the command
+     * @param  threshold the compression threshold the client sent; if negative, the client did not compress
+     *
+     * @return the response or the compressed response
+     */
+    private Object reply(Command cmd, CommandResponse response, int threshold) {
+        if (threshold < 0) {
+            return response;
+        }
+
+        try {
+            return CompressedPayload.wrap(response, threshold);
+        } catch (Throwable t) {
+            LOG.warn(t, CommI18NResourceKeys.COMMAND_PROCESSOR_RESPONSE_NOT_COMPRESSED, cmd);
+            return response;
+        }
     }
 
     /**
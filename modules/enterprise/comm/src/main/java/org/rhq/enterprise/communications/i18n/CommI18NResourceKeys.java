@@ -237,6 +237,21 @@ public interface CommI18NResourceKeys {
         @I18NMessage(value = "Die Maximalgrüße [{0}] muss größer oder gleich [{1}] sein", locale = "de") })
     String INVALID_MAX_SIZE = "PersistentFifo.invalid-max-size";
 
+    @I18NMessages( { @I18NMessage("The command spool [{0}] grew beyond its maximum size - [{1}] of the oldest commands were discarded") })
+    String SPOOL_JOURNAL_PURGED = "SpoolJournal.purged";
+
+    @I18NMessages( { @I18NMessage("Found a corrupt entry in command spool segment [{0}] at position [{1}] - [{2}] commands in the rest of the segment were discarded") })
+    String SPOOL_JOURNAL_CORRUPT_ENTRY = "SpoolJournal.corrupt-entry";
+
+    @I18NMessages( { @I18NMessage("The command spool segment [{0}] is not valid and will be deleted") })
+    String SPOOL_JOURNAL_INVALID_SEGMENT = "SpoolJournal.invalid-segment";
+
+    @I18NMessages( { @I18NMessage("Could not delete the command spool segment [{0}] - will try again later") })
+    String SPOOL_JOURNAL_DELETE_FAILED = "SpoolJournal.delete-failed";
+
+    @I18NMessages( { @I18NMessage("Moved [{0}] commands from the old command spool file [{1}] to the command spool [{2}]") })
+    String SPOOL_JOURNAL_IMPORTED = "SpoolJournal.imported";
+
     @I18NMessages( { @I18NMessage("Failed to execute remote POJO method [{0}]. Cause: {1}") })
     String CLIENT_REMOTE_POJO_INVOKER_EXECUTION_FAILURE = "ClientRemotePojoFactory.execution-failure";
 
@@ -420,6 +435,9 @@ public interface CommI18NResourceKeys {
     @I18NMessages( { @I18NMessage("Failed to take a command/callback pair from the spool file for [{0}].") })
     String CLIENT_COMMAND_SENDER_COMMAND_STORE_TAKE_FAILURE = "ClientCommandSender.command-store-take-failure";
 
+    @I18NMessages( { @I18NMessage("Dropped a command from the spool file for [{0}] because it could not be read. Commands spooled by an agent of an older version cannot be read after the agent is upgraded.") })
+    String CLIENT_COMMAND_SENDER_UNREADABLE_SPOOLED_COMMAND = "ClientCommandSender.unreadable-spooled-command";
+
     @I18NMessages( { @I18NMessage("Command sender is starting - queuing the startup command [{0}].") })
     String CLIENT_COMMAND_SENDER_QUEUING_STARTUP_COMMAND = "ClientCommandSender.queuing-startup-cmd";
 
@@ -585,6 +603,9 @@ public interface CommI18NResourceKeys {
     @I18NMessages( { @I18NMessage("Failed to post-process command [{0}] - returning response anyway") })
     String COMMAND_PROCESSOR_POST_PROCESSING_FAILURE = "CommandProcessor.post-processing-failure";
 
+    @I18NMessages( { @I18NMessage("Failed to compress the response to command [{0}] - returning it uncompressed") })
+    String COMMAND_PROCESSOR_RESPONSE_NOT_COMPRESSED = "CommandProcessor.response-not-compressed";
+
     @I18NMessages( { @I18NMessage("Executed command - response is [{0}]"),
         @I18NMessage(value = "Kommando ausgeführt. Die Anwort ist [{0}]", locale = "de") })
     String COMMAND_PROCESSOR_EXECUTED = "CommandProcessor.executed";
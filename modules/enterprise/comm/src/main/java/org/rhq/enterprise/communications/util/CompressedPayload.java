@@ -0,0 +1,173 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Wraps the serialized form of a command or command response so it can be compressed before it goes over the wire.
+ *
+ * <p>A client that wants compression {@link #wrap(Serializable, int) wraps} the commands it sends; the bytes are only
+ * deflated when the serialized command is at least as large as the client's threshold, smaller commands are carried
+ * as-is so they are not serialized twice. The threshold travels with the payload. A command processor that receives
+ * a payload therefore knows that the client understands payloads and wraps its response using that same threshold;
+ * it never wraps responses to clients that sent plain commands. Thus compression is negotiated per request and clients
+ * that do not compress keep working unchanged.</p>
+ *
+ * <p>Deflate is used at its fastest level - the serialized reports that make up most of the traffic compress well
+ * even then, and the CPU cost stays small compared to the cost of (de)serializing them.</p>
+ */
+public class CompressedPayload implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] m_data;
+    private final boolean m_compressed;
+    private final int m_uncompressedLength;
+    private final int m_threshold;
+
+    private CompressedPayload(byte[] data, boolean compressed, int uncompressedLength, int threshold) {
+        m_data = data;
+        m_compressed = compressed;
+        m_uncompressedLength = uncompressedLength;
+        m_threshold = threshold;
+    }
+
+    /**
+     * Serializes the given object into a new payload, compressing the serialized bytes if there are at least
+     * <code>threshold</code> of them.
+     *
+     * @param  object    the command or response to wrap
+     * @param  threshold the minimum number of serialized bytes worth compressing, also used when replying to the
+     *                   payload (must not be negative)
+     *
+     * @return the payload
+     *
+     * @throws IOException if the object could not be serialized
+     */
+    public static CompressedPayload wrap(Serializable object, int threshold) throws IOException {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold=" + threshold);
+        }
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream(1024);
+        ObjectOutputStream oos = new ObjectOutputStream(serialized);
+        oos.writeObject(object);
+        oos.close();
+
+        int length = serialized.size();
+        if (length < threshold) {
+            return new CompressedPayload(serialized.toByteArray(), false, length, threshold);
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, length / 4));
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream dos = new DeflaterOutputStream(compressed, deflater, 8192);
+            serialized.writeTo(dos);
+            dos.finish();
+        } finally {
+            deflater.end();
+        }
+
+        if (compressed.size() >= length) {
+            return new CompressedPayload(serialized.toByteArray(), false, length, threshold);
+        }
+
+        return new CompressedPayload(compressed.toByteArray(), true, length, threshold);
+    }
+
+    /**
+     * Deserializes the wrapped object. Classes are loaded by the thread's context class loader if it can find them.
+     *
+     * @return the wrapped object
+     *
+     * @throws IOException            if the payload is corrupt
+     * @throws ClassNotFoundException if a class of the wrapped object could not be found
+     */
+    public Object unwrap() throws IOException, ClassNotFoundException {
+        InputStream in = new ByteArrayInputStream(m_data);
+        if (m_compressed) {
+            in = new InflaterInputStream(in);
+        }
+
+        ObjectInputStream ois = new ContextClassLoaderObjectInputStream(in);
+        try {
+            return ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+    /**
+     * @return the threshold the sender used, to be used when replying to this payload
+     */
+    public int getThreshold() {
+        return m_threshold;
+    }
+
+    public boolean isCompressed() {
+        return m_compressed;
+    }
+
+    /**
+     * @return the number of bytes this payload carries over the wire, not counting its own small overhead
+     */
+    public int getLength() {
+        return m_data.length;
+    }
+
+    public int getUncompressedLength() {
+        return m_uncompressedLength;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressedPayload[compressed=" + m_compressed + ", length=" + m_data.length + ", uncompressed-length="
+            + m_uncompressedLength + "]";
+    }
+
+    private static class ContextClassLoaderObjectInputStream extends ObjectInputStream {
+        ContextClassLoaderObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            ClassLoader cl = Thread.currentThread().getContextClassLoader();
+            if (cl != null) {
+                try {
+                    return Class.forName(desc.getName(), false, cl);
+                } catch (ClassNotFoundException e) {
+                    // fall back to the default class resolution
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
@@ -92,10 +92,8 @@ public class ClientCommandSenderTest {
         config.commandSpoolFileMaxSize = 2000000L;
         config.maxConcurrent = 10;
 
-        File cmd_spool_file = getPersistentFifoFile(true);
+        getPersistentFifoFile(true);
         ClientCommandSender sender = new ClientCommandSender(comm, config);
-        PersistentFifo fifo = new PersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
-            config.commandSpoolFilePurgePercentage, false);
 
         // sent 500 guaranteed and 500 volatile commands, ensure we send all of them
         try {
@@ -114,7 +112,8 @@ public class ClientCommandSenderTest {
             // only volatile commands are returned - guaranteed commands are spooled (why did I do this? I lost the FIFO order of the commands now)
             // after drained, the only messages this sender will send are the spooled/guaranteed commands
             LinkedList<Runnable> drained_commands = sender.drainQueuedCommands();
-            assert fifo.count() == 500 : "did not persist enough: " + fifo.count();
+            long spooled = sender.getMetrics().getNumberCommandsSpooled();
+            assert spooled == 500 : "did not persist enough: " + spooled;
             assert drained_commands.size() == 500 : "missing some volatile commands: " + drained_commands.size();
 
             // create a new sender and reconsitute the queue with our old volatile commands, persisted file has the rest
@@ -131,8 +130,7 @@ public class ClientCommandSenderTest {
             assert comm.getSentCount() == 1000 : "should have been able to send all commands with two senders: "
                 + comm.getSentCount();
             assert comm.getSentSuccessfulCount() == 1000;
-            assert fifo.isEmpty();
-            assert fifo.count() == 0; // just checking - making sure isEmpty was right
+            assert sender.getMetrics().getNumberCommandsSpooled() == 0;
         } finally {
             sender.stopSending(false);
             getPersistentFifoFile(true);
@@ -156,10 +154,8 @@ public class ClientCommandSenderTest {
         config.defaultTimeoutMillis = 500L; // default will be less than the time the comm.send will return
         comm.setSleepPeriod(1000L); // simulate the server taking 1sec to process the request
 
-        File cmd_spool_file = getPersistentFifoFile(true);
+        getPersistentFifoFile(true);
         ClientCommandSender sender = new ClientCommandSender(comm, config);
-        PersistentFifo fifo = new PersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
-            config.commandSpoolFilePurgePercentage, false);
 
         try {
             sender.startSending();
@@ -177,7 +173,7 @@ public class ClientCommandSenderTest {
             assert comm.getSentSuccessfulCount() == 0 : "should not have been able to send the command successfully: "
                 + comm.getSentSuccessfulCount();
 
-            assert fifo.count() == 1 : "not sending so we should have spooled that guaranteed command to disk";
+            assert sender.getMetrics().getNumberCommandsSpooled() == 1 : "not sending so we should have spooled that guaranteed command to disk";
         } finally {
             sender.stopSending(false);
             getPersistentFifoFile(true);
@@ -271,7 +267,7 @@ public class ClientCommandSenderTest {
         DummyRemoteCommunicator comm = new DummyRemoteCommunicator();
         GenericCommand command = createGenericCommand();
         ClientCommandSenderConfiguration config = createConfig();
-        File cmd_spool_file = getPersistentFifoFile(true);
+        getPersistentFifoFile(true);
         ClientCommandSender sender = new ClientCommandSender(comm, config);
 
         try {
@@ -283,13 +279,12 @@ public class ClientCommandSenderTest {
 
             sender.sendAsynchGuaranteed(command, null);
 
-            PersistentFifo fifo = new PersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
-                config.commandSpoolFilePurgePercentage, false);
-            assert fifo.count() == 1 : "not sending so we should have spooled that guaranteed command to disk";
+            ClientCommandSenderMetrics metrics = sender.getMetrics();
+            assert metrics.getNumberCommandsSpooled() == 1 : "not sending so we should have spooled that guaranteed command to disk";
             assert comm.getSentCount() == 0 : "should not have sent any command yet";
             sender.startSending();
             Thread.sleep(1000L); // give it time to dequeue and send; there is no throttling enabled so the sending should happen fast
-            assert fifo.count() == 0 : "the command should have been unspooled after the sender was started";
+            assert metrics.getNumberCommandsSpooled() == 0 : "the command should have been unspooled after the sender was started";
             assert comm.getSentCount() == 1 : "should have sent the command by now";
             assert comm.getSentSuccessfulCount() == 1 : "should have sent the command by now";
         } finally {
@@ -310,7 +305,7 @@ public class ClientCommandSenderTest {
         DummyRemoteCommunicator comm = new DummyRemoteCommunicator();
         GenericCommand command = createGenericCommand();
         ClientCommandSenderConfiguration config = createConfig();
-        File cmd_spool_file = getPersistentFifoFile(true);
+        getPersistentFifoFile(true);
         ClientCommandSender sender = new ClientCommandSender(comm, config);
 
         try {
@@ -329,13 +324,12 @@ public class ClientCommandSenderTest {
                 }
             });
 
-            PersistentFifo fifo = new PersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
-                config.commandSpoolFilePurgePercentage, false);
-            assert fifo.count() == 1 : "not sending so we should have spooled that guaranteed command to disk";
+            ClientCommandSenderMetrics metrics = sender.getMetrics();
+            assert metrics.getNumberCommandsSpooled() == 1 : "not sending so we should have spooled that guaranteed command to disk";
             assert comm.getSentCount() == 0 : "should not have sent any command yet";
             sender.startSending();
             Thread.sleep(1000L); // give it time to dequeue and send; there is no throttling enabled so the sending should happen fast
-            assert fifo.count() == 0 : "the command should have been unspooled after the sender was started";
+            assert metrics.getNumberCommandsSpooled() == 0 : "the command should have been unspooled after the sender was started";
             assert comm.getSentCount() == 1 : "should have sent the command by now";
             assert comm.getSentSuccessfulCount() == 1 : "should have sent the command by now";
         } finally {
@@ -409,6 +403,16 @@ public class ClientCommandSenderTest {
 
             // now try to delete it
             ret_file.delete();
+
+            // the sender spools to a journal in a directory next to the file
+            File journal_dir = SpoolJournal.getJournalDirectory(ret_file);
+            File[] journal_files = journal_dir.listFiles();
+            if (journal_files != null) {
+                for (File journal_file : journal_files) {
+                    journal_file.delete();
+                }
+            }
+            journal_dir.delete();
         }
 
         return ret_file;
@@ -0,0 +1,285 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.command.client;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the spool journal.
+ */
+@Test(groups = "comm.client")
+public class SpoolJournalTest {
+    public void testJournal() throws Exception {
+        doJournalTests(false);
+    }
+
+    public void testJournalCompressed() throws Exception {
+        doJournalTests(true);
+    }
+
+    public void testRecovery() throws Exception {
+        File dir = createEmptyDirectory("TEST-recovery.journal");
+
+        SpoolJournal journal = new SpoolJournal(dir, 100000L, 75, false);
+        for (int i = 0; i < 1000; i++) {
+            journal.put(("entry " + i).getBytes());
+        }
+        for (int i = 0; i < 400; i++) {
+            assert ("entry " + i).equals(new String(journal.take()));
+        }
+
+        journal = new SpoolJournal(dir, 100000L, 75, false);
+        assert journal.count() == 600 : "count should be 600 after reopening: " + journal.count();
+        for (int i = 400; i < 1000; i++) {
+            assert ("entry " + i).equals(new String(journal.take()));
+        }
+        assert journal.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+
+        journal = new SpoolJournal(dir, 100000L, 75, false);
+        assert journal.isEmpty() : "SHOULD BE EMPTY after reopening";
+    }
+
+    public void testRecoveryAfterDrain() throws Exception {
+        File dir = createEmptyDirectory("TEST-drain.journal");
+
+        SpoolJournal journal = new SpoolJournal(dir, 100000L, 75, false);
+        for (int i = 0; i < 10; i++) {
+            journal.put(("entry " + i).getBytes());
+        }
+        for (int i = 0; i < 10; i++) {
+            assert ("entry " + i).equals(new String(journal.take()));
+        }
+        assert journal.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+
+        // the drained segment was emptied on disk, not only the head moved back
+        assert countSegments(dir) == 1 : "a drained journal should keep its segment";
+        for (File file : dir.listFiles()) {
+            if (file.getName().endsWith(".seg")) {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                raf.seek(4);
+                assert raf.readInt() == 0 : "the drained segment should be empty";
+                raf.close();
+            }
+        }
+
+        // reopen without closing, as after a crash; nothing taken may be delivered again
+        journal = new SpoolJournal(dir, 100000L, 75, false);
+        assert journal.isEmpty() : "SHOULD BE EMPTY after reopening: " + journal.count();
+        assert journal.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+
+        journal.put("entry 10".getBytes());
+        journal = new SpoolJournal(dir, 100000L, 75, false);
+        assert journal.count() == 1 : "count should be 1 after reopening: " + journal.count();
+        assert "entry 10".equals(new String(journal.take()));
+        assert journal.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+    }
+
+    public void testNothingIsCreatedUntilPut() throws Exception {
+        File dir = createEmptyDirectory("TEST-lazy.journal");
+
+        SpoolJournal journal = new SpoolJournal(dir, 100000L, 75, false);
+        assert journal.isEmpty() : "SHOULD BE EMPTY";
+        assert journal.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+        assert !dir.exists() : "the journal should not be created until something is put in it";
+
+        journal.put("entry".getBytes());
+        assert dir.isDirectory() : "the journal should have been created";
+        assert "entry".equals(new String(journal.take()));
+    }
+
+    public void testClose() throws Exception {
+        File dir = createEmptyDirectory("TEST-close.journal");
+
+        SpoolJournal journal = new SpoolJournal(dir, 100000L, 75, false);
+        for (int i = 0; i < 10; i++) {
+            journal.put(("entry " + i).getBytes());
+        }
+        assert "entry 0".equals(new String(journal.take()));
+        journal.close();
+        journal.close();
+
+        // the journal opens again when it is used
+        assert journal.count() == 9 : "count should be 9 after closing: " + journal.count();
+        assert "entry 1".equals(new String(journal.take()));
+        journal.put("entry 10".getBytes());
+        journal.close();
+
+        journal = new SpoolJournal(dir, 100000L, 75, false);
+        for (int i = 2; i <= 10; i++) {
+            assert ("entry " + i).equals(new String(journal.take()));
+        }
+        assert journal.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+        journal.close();
+
+        createEmptyDirectory("TEST-close.journal");
+        assert !dir.exists() : "a closed journal should be deletable";
+    }
+
+    public void testSegmentsAreDeletedWhenTaken() throws Exception {
+        File dir = createEmptyDirectory("TEST-segments.journal");
+
+        SpoolJournal journal = new SpoolJournal(dir, 40000L, 75, false); // 5000 byte segments
+        byte[] entry = new byte[1000];
+        for (int i = 0; i < 20; i++) {
+            journal.put(entry);
+        }
+        assert countSegments(dir) > 1 : "entries should have been spread over multiple segments";
+
+        while (journal.take() != null) {
+        }
+        assert countSegments(dir) == 1 : "only the segment being appended to should remain: " + countSegments(dir);
+    }
+
+    public void testPurge() throws Exception {
+        File dir = createEmptyDirectory("TEST-purge.journal");
+
+        SpoolJournal journal = new SpoolJournal(dir, 40000L, 50, false); // 5000 byte segments
+        for (int i = 0; i < 200; i++) {
+            byte[] entry = new byte[1000];
+            entry[0] = (byte) i;
+            journal.put(entry);
+        }
+
+        assert journal.count() < 200 : "the oldest entries should have been purged";
+        assert countSegments(dir) <= 5 : "too many segments left after purge: " + countSegments(dir);
+
+        long count = journal.count();
+        byte[] last = null;
+        for (long i = 0; i < count; i++) {
+            last = journal.take();
+            assert last != null : "count did not match the number of entries";
+        }
+        assert journal.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+        assert last[0] == (byte) 199 : "the newest entry should have been kept";
+    }
+
+    public void testCorruptEntryIsSkipped() throws Exception {
+        File dir = createEmptyDirectory("TEST-corrupt.journal");
+
+        SpoolJournal journal = new SpoolJournal(dir, 40000L, 75, false); // 5000 byte segments
+        for (int i = 0; i < 10; i++) {
+            journal.put(new byte[1000]);
+        }
+
+        // flip a byte in the data of the first entry of the first segment
+        File first = null;
+        for (File file : dir.listFiles()) {
+            if (file.getName().endsWith(".seg") && (first == null || file.getName().compareTo(first.getName()) < 0)) {
+                first = file;
+            }
+        }
+        RandomAccessFile raf = new RandomAccessFile(first, "rw");
+        raf.seek(16 + 8 + 10);
+        raf.write(1);
+        raf.close();
+
+        journal = new SpoolJournal(dir, 40000L, 75, false);
+        long count = journal.count();
+        long taken = 0;
+        while (journal.take() != null) {
+            taken++;
+        }
+        assert taken > 0 && taken < count : "the rest of the corrupt segment should have been skipped: " + taken;
+        assert journal.isEmpty() : "SHOULD BE EMPTY";
+    }
+
+    public void testImportFifo() throws Exception {
+        File dir = createEmptyDirectory("TEST-import.journal");
+        File fifoFile = new File(System.getProperty("java.io.tmpdir"), "TEST-import.data");
+        fifoFile.delete();
+
+        PersistentFifo fifo = new PersistentFifo(fifoFile, 100000L, 75, true);
+        for (int i = 0; i < 10; i++) {
+            fifo.put(("old " + i).getBytes());
+        }
+        fifo.close();
+
+        SpoolJournal journal = new SpoolJournal(dir, 100000L, 75, true);
+        journal.put("new".getBytes());
+        assert journal.importFifo(fifoFile) == 10;
+        assert !fifoFile.exists() : "the old spool file should have been deleted";
+        assert journal.count() == 11 : "count should be 11";
+
+        assert "new".equals(new String(journal.take()));
+        for (int i = 0; i < 10; i++) {
+            assert ("old " + i).equals(new String(journal.take()));
+        }
+    }
+
+    private void doJournalTests(boolean compress) throws Exception {
+        File dir = createEmptyDirectory("TEST" + (compress ? "-compressed" : "") + ".journal");
+        SpoolJournal journal = new SpoolJournal(dir, 1000L, 0, compress);
+
+        assert journal.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+        assert journal.isEmpty() : "SHOULD BE EMPTY";
+        assert journal.count() == 0 : "SHOULD BE EMPTY - count should be 0";
+
+        journal.put("Mazz Was Here 1".getBytes());
+
+        assert !journal.isEmpty() : "SHOULD NOT BE EMPTY";
+        assert journal.count() == 1 : "count should be 1";
+        assert "Mazz Was Here 1".equals(new String(journal.take()));
+
+        assert journal.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+        assert journal.isEmpty() : "SHOULD BE EMPTY";
+
+        journal.put("Mazz Was Here 2!".getBytes());
+        journal.put("Mazz Was Here 3!!".getBytes());
+        journal.put("Mazz Was Here 4!!!".getBytes());
+
+        assert journal.count() == 3 : "count should be 3";
+        assert "Mazz Was Here 2!".equals(new String(journal.take()));
+        journal.put("Mazz Was Here 5!!!!".getBytes());
+        assert "Mazz Was Here 3!!".equals(new String(journal.take()));
+        assert "Mazz Was Here 4!!!".equals(new String(journal.take()));
+        assert "Mazz Was Here 5!!!!".equals(new String(journal.take()));
+
+        assert journal.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+        assert journal.count() == 0 : "count should be 0";
+
+        journal.putObject("Mazz Was Here 6");
+        assert "Mazz Was Here 6".equals(journal.takeObject());
+        assert journal.isEmpty() : "SHOULD BE EMPTY";
+    }
+
+    private File createEmptyDirectory(String name) {
+        File dir = new File(System.getProperty("java.io.tmpdir"), name);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+        return dir;
+    }
+
+    private int countSegments(File dir) {
+        int count = 0;
+        for (File file : dir.listFiles()) {
+            if (file.getName().endsWith(".seg")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
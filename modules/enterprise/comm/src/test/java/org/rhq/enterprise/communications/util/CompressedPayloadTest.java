@@ -0,0 +1,94 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import org.rhq.enterprise.communications.command.impl.generic.GenericCommand;
+
+/**
+ * Tests {@link CompressedPayload}.
+ */
+@Test
+public class CompressedPayloadTest {
+    public void testSmallObjectIsNotCompressed() throws Exception {
+        GenericCommand command = new GenericCommand();
+        command.setParameterValue("hello", "world");
+
+        CompressedPayload payload = CompressedPayload.wrap(command, Integer.MAX_VALUE);
+        assert !payload.isCompressed();
+        assert payload.getThreshold() == Integer.MAX_VALUE;
+        assert payload.getLength() == payload.getUncompressedLength();
+
+        GenericCommand copy = (GenericCommand) serializeDeserialize(payload).unwrap();
+        assert copy.getParameterValue("hello").equals("world");
+    }
+
+    public void testLargeObjectIsCompressed() throws Exception {
+        GenericCommand command = new GenericCommand();
+        char[] chars = new char[100000];
+        Arrays.fill(chars, 'x');
+        command.setParameterValue("big", new String(chars));
+
+        CompressedPayload payload = CompressedPayload.wrap(command, 0);
+        assert payload.isCompressed();
+        assert payload.getLength() < payload.getUncompressedLength() / 10 : payload;
+
+        GenericCommand copy = (GenericCommand) serializeDeserialize(payload).unwrap();
+        assert copy.getParameterValue("big").equals(new String(chars));
+    }
+
+    public void testIncompressibleObjectIsNotCompressed() throws Exception {
+        byte[] random = new byte[10000];
+        new Random(12345L).nextBytes(random);
+
+        CompressedPayload payload = CompressedPayload.wrap(random, 0);
+        assert !payload.isCompressed() : payload;
+        assert Arrays.equals((byte[]) payload.unwrap(), random);
+    }
+
+    public void testNegativeThreshold() throws Exception {
+        try {
+            CompressedPayload.wrap("foo", -1);
+            assert false : "Negative thresholds mean no compression and cannot be used to wrap";
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private CompressedPayload serializeDeserialize(CompressedPayload payload) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(payload);
+        oos.close();
+
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        try {
+            return (CompressedPayload) ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+}
@@ -55,57 +55,106 @@ abstract class AbstractConditionCache {
         int errors = 0;
 
         for (T cacheElement : cacheElements) {
-            boolean matched = cacheElement.process(providedValue, extraParams);
+            if (!processCacheElement(cacheElement, providedValue, timestamp, stats, extraParams)) {
+                errors++;
+            }
+        }
+
+        logErrors(errors);
+    }
+
+    /**
+     * Same as {@link #processCacheElements(List, Object, long, AlertConditionCacheStats, Object...)} for caches that
+     * hold their elements in arrays, such as the {@link IntKeyedCacheMap} snapshots of the agent caches.
+     */
+    <T extends AbstractCacheElement<S>, S> void processCacheElements(T[] cacheElements, S providedValue,
+        long timestamp, AlertConditionCacheStats stats, Object... extraParams) {
+        if (cacheElements == null) {
+            return; // nothing to do
+        }
+
+        int errors = 0;
+
+        for (T cacheElement : cacheElements) {
+            if (!processCacheElement(cacheElement, providedValue, timestamp, stats, extraParams)) {
+                errors++;
+            }
+        }
+
+        logErrors(errors);
+    }
+
+    /**
+     * @return false if a message for the element could not be sent
+     */
+    private <T extends AbstractCacheElement<S>, S> boolean processCacheElement(T cacheElement, S providedValue,
+        long timestamp, AlertConditionCacheStats stats, Object... extraParams) {
+        boolean matched = cacheElement.process(providedValue, extraParams);
+
+        return fireCacheElement(cacheElement, matched, providedValue, timestamp, stats, extraParams);
+    }
+
+    /**
+     * Sends the activation message for an element that matched the provided value, or the deactivation message for
+     * a stateful element that is active but no longer matches. This is for callers that have already determined
+     * whether the element matched without going through {@link AbstractCacheElement#process(Object, Object...)}.
+     *
+     * @return false if a message for the element could not be sent
+     */
+    <T extends AbstractCacheElement<S>, S> boolean fireCacheElement(T cacheElement, boolean matched, S providedValue,
+        long timestamp, AlertConditionCacheStats stats, Object... extraParams) {
+        if (matched) // send positive event in case of a match
+        {
+            try {
+                /*
+                 * Set the active property for alertCondition-based cache elements, and send it on its way;
+                 * Thus, even if the element is already active, we're going to send another message with the new
+                 * value
+                 */
+                cacheElement.setActivity(CacheElementActivity.ACTIVE); // no harm to always set active (though, technically, STATELESS operators don't need it)
+                cachedConditionProducer.sendActivateAlertConditionMessage(
+                    cacheElement.getAlertConditionTriggerId(), timestamp,
+                    cacheElement.convertValueToString(providedValue), extraParams);
+
+                stats.matched++;
+            } catch (Exception e) {
+                log.error("Error processing matched cache element '" + cacheElement + "': " + e.getMessage());
+                return false;
+            }
+        } else // no match, negative event
+        {
+            /*
+             * but only send negative events if we're, 1) a type of operator that supports STATEFUL events, and
+             * 2) currently active
+             */
+            if (cacheElement.isType(AlertConditionOperator.Type.STATEFUL) && cacheElement.getActivity().maybeActive()) {
+                cacheElement.setActivity(CacheElementActivity.INACTIVE);
 
-            if (matched) // send positive event in case of a match
-            {
                 try {
-                    /*
-                     * Set the active property for alertCondition-based cache elements, and send it on its way;
-                     * Thus, even if the element is already active, we're going to send another message with the new
-                     * value
-                     */
-                    cacheElement.setActivity(CacheElementActivity.ACTIVE); // no harm to always set active (though, technically, STATELESS operators don't need it)
-                    cachedConditionProducer.sendActivateAlertConditionMessage(
-                        cacheElement.getAlertConditionTriggerId(), timestamp,
-                        cacheElement.convertValueToString(providedValue), extraParams);
-
-                    stats.matched++;
+                    // send negative message
+                    cachedConditionProducer.sendDeactivateAlertConditionMessage(
+                        cacheElement.getAlertConditionTriggerId(), timestamp);
                 } catch (Exception e) {
-                    log.error("Error processing matched cache element '" + cacheElement + "': " + e.getMessage());
-                    errors++;
+                    log.error("Error sending deactivation message for cache element '" + cacheElement + "': "
+                        + e.getMessage());
+                    return false;
                 }
-            } else // no match, negative event
-            {
+            } else {
                 /*
-                 * but only send negative events if we're, 1) a type of operator that supports STATEFUL events, and
-                 * 2) currently active
+                 * negative message, but nothing was active...so do nothing.
+                 *
+                 * this will occur in the overwhelming majority of cases.  in theory, since most of the time
+                 * conditions exist to alert people of non-ideal system state, it will not fire in the POSITIVE very
+                 * often.  thus, we suppress the firing of negative events unless we know we've already sent a
+                 * POSITIVE event that we need to compensate for.
                  */
-                if (cacheElement.isType(AlertConditionOperator.Type.STATEFUL) && cacheElement.getActivity().maybeActive()) {
-                    cacheElement.setActivity(CacheElementActivity.INACTIVE);
-
-                    try {
-                        // send negative message
-                        cachedConditionProducer.sendDeactivateAlertConditionMessage(
-                            cacheElement.getAlertConditionTriggerId(), timestamp);
-                    } catch (Exception e) {
-                        log.error("Error sending deactivation message for cache element '" + cacheElement + "': "
-                            + e.getMessage());
-                        errors++;
-                    }
-                } else {
-                    /*
-                     * negative message, but nothing was active...so do nothing.
-                     *
-                     * this will occur in the overwhelming majority of cases.  in theory, since most of the time
-                     * conditions exist to alert people of non-ideal system state, it will not fire in the POSITIVE very
-                     * often.  thus, we suppress the firing of negative events unless we know we've already sent a
-                     * POSITIVE event that we need to compensate for.
-                     */
-                }
             }
         }
 
+        return true;
+    }
+
+    void logErrors(int errors) {
         if (errors != 0) {
             log.error("There were " + errors + " alert conditions that did not fire. "
                 + "Please check the configuration of the JMS subsystem and try again. ");
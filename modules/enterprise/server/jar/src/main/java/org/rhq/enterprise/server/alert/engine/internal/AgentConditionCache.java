@@ -76,12 +76,24 @@ import org.rhq.enterprise.server.util.LookupUtil;
  */
 class AgentConditionCache extends AbstractConditionCache {
 
+    /*
+     * The caches are loaded into these maps and then copied into the immutable snapshots below, which are what the
+     * checkConditions methods read; the numeric measurement conditions are compiled into a table instead. The maps
+     * are released once the snapshots and the table have been created. A cache is never modified after it has been
+     * loaded; a reload replaces the whole AgentConditionCache instead.
+     */
     private Map<Integer, List<NumericDoubleCacheElement>> measurementDataCache; // key: schedule ID
     private Map<Integer, List<MeasurementTraitCacheElement>> measurementTraitCache; // key: schedule ID
     private Map<Integer, List<CallTimeDataCacheElement>> callTimeCache; // key: schedule ID
     private Map<Integer, List<EventCacheElement>> eventsCache; // key: resource ID
     private Map<Integer, List<DriftCacheElement>> driftCache; // key: resource ID
 
+    private final NumericConditionTable measurementDataTable;
+    private final IntKeyedCacheMap<MeasurementTraitCacheElement> measurementTraitSnapshot;
+    private final IntKeyedCacheMap<CallTimeDataCacheElement> callTimeSnapshot;
+    private final IntKeyedCacheMap<EventCacheElement> eventsSnapshot;
+    private final IntKeyedCacheMap<DriftCacheElement> driftSnapshot;
+
     private AlertConditionManagerLocal alertConditionManager;
     private MeasurementDataManagerLocal measurementDataManager;
     private SubjectManagerLocal subjectManager;
@@ -104,6 +116,18 @@ class AgentConditionCache extends AbstractConditionCache {
         subjectManager = LookupUtil.getSubjectManager();
 
         loadCachesForAgent(agentId);
+
+        measurementDataTable = NumericConditionTable.compile(measurementDataCache);
+        measurementTraitSnapshot = IntKeyedCacheMap.copyOf(measurementTraitCache, MeasurementTraitCacheElement.class);
+        callTimeSnapshot = IntKeyedCacheMap.copyOf(callTimeCache, CallTimeDataCacheElement.class);
+        eventsSnapshot = IntKeyedCacheMap.copyOf(eventsCache, EventCacheElement.class);
+        driftSnapshot = IntKeyedCacheMap.copyOf(driftCache, DriftCacheElement.class);
+
+        measurementDataCache = null;
+        measurementTraitCache = null;
+        callTimeCache = null;
+        eventsCache = null;
+        driftCache = null;
     }
 
     /**
@@ -380,17 +404,24 @@ class AgentConditionCache extends AbstractConditionCache {
 
         AlertConditionCacheStats stats = new AlertConditionCacheStats();
         try {
+            // lay the numeric values out in columns and check them against the compiled conditions in one pass
+            int[] scheduleIds = new int[measurementData.length];
+            double[] values = new double[measurementData.length];
+            long[] timestamps = new long[measurementData.length];
+            int count = 0;
+
             for (MeasurementData datum : measurementData) {
                 int scheduleId = datum.getScheduleId();
 
                 if (datum instanceof MeasurementDataNumeric) {
-                    List<? extends NumericDoubleCacheElement> conditionCacheElements = lookupMeasurementDataCacheElements(scheduleId);
-
                     Double providedValue = ((MeasurementDataNumeric) datum).getValue();
 
-                    processCacheElements(conditionCacheElements, providedValue, datum.getTimestamp(), stats);
+                    scheduleIds[count] = scheduleId;
+                    values[count] = (providedValue == null) ? Double.NaN : providedValue;
+                    timestamps[count] = datum.getTimestamp();
+                    count++;
                 } else if (datum instanceof MeasurementDataTrait) {
-                    List<MeasurementTraitCacheElement> cacheElements = lookupMeasurementTraitCacheElements(scheduleId);
+                    MeasurementTraitCacheElement[] cacheElements = lookupMeasurementTraitCacheElements(scheduleId);
 
                     processCacheElements(cacheElements, ((MeasurementDataTrait) datum).getValue(),
                         datum.getTimestamp(), stats);
@@ -400,6 +431,10 @@ class AgentConditionCache extends AbstractConditionCache {
                 }
             }
 
+            if (count > 0) {
+                checkNumericConditions(scheduleIds, values, timestamps, count, stats);
+            }
+
             AlertConditionCacheMonitor.getMBean().incrementMeasurementCacheElementMatches(stats.matched);
             AlertConditionCacheMonitor.getMBean().incrementMeasurementProcessingTime(stats.getAge());
             if (log.isDebugEnabled())
@@ -411,6 +446,29 @@ class AgentConditionCache extends AbstractConditionCache {
         return stats;
     }
 
+    private void checkNumericConditions(int[] scheduleIds, double[] values, long[] timestamps, int count,
+        AlertConditionCacheStats stats) {
+        NumericConditionTable.Hits hits = new NumericConditionTable.Hits(count);
+        measurementDataTable.evaluate(scheduleIds, values, count, hits);
+
+        // only the elements that matched or need to be deactivated are turned into messages; the hits are fired in
+        // the order of the values, so a later value of the same schedule can deactivate what an earlier one activated
+        int errors = 0;
+        for (int i = 0; i < hits.size(); i++) {
+            int valueIndex = hits.getValueIndex(i);
+            int elementIndex = hits.getElementIndex(i);
+            NumericDoubleCacheElement cacheElement = measurementDataTable.getElement(elementIndex);
+            Double providedValue = values[valueIndex];
+            boolean matched = measurementDataTable.isDelegated(elementIndex) ? cacheElement.process(providedValue)
+                : hits.isMatched(i);
+
+            if (!fireCacheElement(cacheElement, matched, providedValue, timestamps[valueIndex], stats)) {
+                errors++;
+            }
+        }
+        logErrors(errors);
+    }
+
     public AlertConditionCacheStats checkConditions(CallTimeData... callTime) {
         if ((callTime == null) || (callTime.length == 0)) {
             return new AlertConditionCacheStats();
@@ -420,7 +478,7 @@ class AgentConditionCache extends AbstractConditionCache {
         try {
             HashMap<Integer, HashMap<String, ArrayList<CallTimeDataValue>>> order = produceOrderedCallTimeDataStructure(callTime);
             for (Integer scheduleId : order.keySet()) {
-                List<? extends CallTimeDataCacheElement> conditionCacheElements = lookupCallTimeDataCacheElements(scheduleId);
+                CallTimeDataCacheElement[] conditionCacheElements = lookupCallTimeDataCacheElements(scheduleId);
                 for (String callDest : order.get(scheduleId).keySet()) {
                     for (CallTimeDataValue provided : order.get(scheduleId).get(callDest)) {
                         processCacheElements(conditionCacheElements, provided, provided.getBeginTime(), stats, callDest);
@@ -521,7 +579,7 @@ class AgentConditionCache extends AbstractConditionCache {
         int initialSize = events.size();
         try {
             Resource resource = source.getResource();
-            List<EventCacheElement> cacheElements = lookupEventCacheElements(resource.getId());
+            EventCacheElement[] cacheElements = lookupEventCacheElements(resource.getId());
 
             for (Iterator<Event> i = events.iterator(); i.hasNext();) {
                 Event event = i.next();
@@ -549,7 +607,7 @@ class AgentConditionCache extends AbstractConditionCache {
         AlertConditionCacheStats stats = new AlertConditionCacheStats();
         try {
             int resourceId = driftChangeSetSummary.getResourceId();
-            List<DriftCacheElement> cacheElements = lookupDriftCacheElements(resourceId);
+            DriftCacheElement[] cacheElements = lookupDriftCacheElements(resourceId);
 
             processCacheElements(cacheElements, DriftCacheElement.UNUSED_CONDITION_VALUE,
                 driftChangeSetSummary.getCreatedTime(), stats, driftChangeSetSummary);
@@ -566,24 +624,20 @@ class AgentConditionCache extends AbstractConditionCache {
         return stats;
     }
 
-    private List<? extends NumericDoubleCacheElement> lookupMeasurementDataCacheElements(int scheduleId) {
-        return measurementDataCache.get(scheduleId); // yup, might be null
-    }
-
-    private List<? extends CallTimeDataCacheElement> lookupCallTimeDataCacheElements(int scheduleId) {
-        return callTimeCache.get(scheduleId); // yup, might be null
+    private CallTimeDataCacheElement[] lookupCallTimeDataCacheElements(int scheduleId) {
+        return callTimeSnapshot.get(scheduleId); // yup, might be null
     }
 
-    private List<MeasurementTraitCacheElement> lookupMeasurementTraitCacheElements(int scheduleId) {
-        return measurementTraitCache.get(scheduleId); // yup, might be null
+    private MeasurementTraitCacheElement[] lookupMeasurementTraitCacheElements(int scheduleId) {
+        return measurementTraitSnapshot.get(scheduleId); // yup, might be null
     }
 
-    private List<EventCacheElement> lookupEventCacheElements(int resourceId) {
-        return eventsCache.get(resourceId); // yup, might be null
+    private EventCacheElement[] lookupEventCacheElements(int resourceId) {
+        return eventsSnapshot.get(resourceId); // yup, might be null
     }
 
-    private List<DriftCacheElement> lookupDriftCacheElements(int resourceId) {
-        return driftCache.get(resourceId); // yup, might be null
+    private DriftCacheElement[] lookupDriftCacheElements(int resourceId) {
+        return driftSnapshot.get(resourceId); // yup, might be null
     }
 
     private Double getCalculatedBaselineValue(int conditionId, AlertConditionBaselineCategoryComposite composite,
@@ -624,15 +678,15 @@ class AgentConditionCache extends AbstractConditionCache {
     @Override
     public int getCacheSize(Cache cache) {
         if (cache == AlertConditionCacheCoordinator.Cache.MeasurementDataCache) {
-            return AlertConditionCacheUtils.getMapListCount(measurementDataCache);
+            return measurementDataTable.getElementCount();
         } else if (cache == AlertConditionCacheCoordinator.Cache.MeasurementTraitCache) {
-            return AlertConditionCacheUtils.getMapListCount(measurementTraitCache);
+            return measurementTraitSnapshot.getElementCount();
         } else if (cache == AlertConditionCacheCoordinator.Cache.CallTimeDataCache) {
-            return AlertConditionCacheUtils.getMapListCount(callTimeCache);
+            return callTimeSnapshot.getElementCount();
         } else if (cache == AlertConditionCacheCoordinator.Cache.EventsCache) {
-            return AlertConditionCacheUtils.getMapListCount(eventsCache);
+            return eventsSnapshot.getElementCount();
         } else if (cache == AlertConditionCacheCoordinator.Cache.DriftCache) {
-            return AlertConditionCacheUtils.getMapListCount(driftCache);
+            return driftSnapshot.getElementCount();
         } else {
             throw new IllegalArgumentException("The " + AgentConditionCache.class.getSimpleName()
                 + " either does not manage caches of type " + cache.type + ", or does not support obtaining their size");
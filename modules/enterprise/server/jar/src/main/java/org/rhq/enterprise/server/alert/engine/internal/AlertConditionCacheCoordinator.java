@@ -23,7 +23,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.persistence.EntityNotFoundException;
 
@@ -105,9 +106,12 @@ public final class AlertConditionCacheCoordinator {
     }
 
     private volatile GlobalConditionCache globalCache;
-    private Map<Integer, AgentConditionCache> agentCaches;
 
-    private ReentrantReadWriteLock agentReadWriteLock;
+    /*
+     * An AgentConditionCache is immutable once loaded. A reload builds a new cache and replaces the old one in this
+     * map, so checking conditions never waits on a reload and always sees either the old or the new cache in full.
+     */
+    private final ConcurrentMap<Integer, AgentConditionCache> agentCaches;
 
     private AgentManagerLocal agentManager;
     private StatusManagerLocal statusManager;
@@ -119,8 +123,7 @@ public final class AlertConditionCacheCoordinator {
         globalCache = new GlobalConditionCache();
 
         // create the collections ahead of time
-        agentCaches = new HashMap<Integer, AgentConditionCache>();
-        agentReadWriteLock = new ReentrantReadWriteLock();
+        agentCaches = new ConcurrentHashMap<Integer, AgentConditionCache>();
     }
 
     public static AlertConditionCacheCoordinator getInstance() {
@@ -192,16 +195,9 @@ public final class AlertConditionCacheCoordinator {
         }
 
         if (agentCache != null) {
-            agentReadWriteLock.writeLock().lock();
-            try {
-                // simply "forget" about the old cache, let the JVM release the memory in time
-                agentCaches.put(agentId, agentCache);
-                log.debug("Reloaded agent[id=" + agentId + "] cache");
-            } catch (Throwable t) {
-                log.error("Error reloading cache for agent[id=" + agentId + "]", t); // don't let any exceptions bubble up to the calling SLSB layer
-            } finally {
-                agentReadWriteLock.writeLock().unlock();
-            }
+            // simply "forget" about the old cache, let the JVM release the memory in time
+            agentCaches.put(agentId, agentCache);
+            log.debug("Reloaded agent[id=" + agentId + "] cache");
         }
     }
 
@@ -218,15 +214,7 @@ public final class AlertConditionCacheCoordinator {
         }
 
         AlertConditionCacheStats stats = null;
-        AgentConditionCache agentCache = null;
-        agentReadWriteLock.readLock().lock();
-        try {
-            agentCache = agentCaches.get(agentId);
-        } catch (Throwable t) {
-            log.error("Error during checkConditions", t); // don't let any exceptions bubble up to the calling SLSB layer
-        } finally {
-            agentReadWriteLock.readLock().unlock();
-        }
+        AgentConditionCache agentCache = agentCaches.get(agentId);
         if (agentCache != null) {
             stats = agentCache.checkConditions(measurementData);
         } else {
@@ -249,15 +237,7 @@ public final class AlertConditionCacheCoordinator {
         }
 
         AlertConditionCacheStats stats = null;
-        AgentConditionCache agentCache = null;
-        agentReadWriteLock.readLock().lock();
-        try {
-            agentCache = agentCaches.get(agentId);
-        } catch (Throwable t) {
-            log.error("Error during checkConditions", t); // don't let any exceptions bubble up to the calling SLSB layer
-        } finally {
-            agentReadWriteLock.readLock().unlock();
-        }
+        AgentConditionCache agentCache = agentCaches.get(agentId);
         if (agentCache != null) {
             stats = agentCache.checkConditions(callTimeData);
         } else {
@@ -307,15 +287,7 @@ public final class AlertConditionCacheCoordinator {
         AlertConditionCacheStats stats = new AlertConditionCacheStats();
         List<Event> unprocessedEvents = new ArrayList(Arrays.asList(events)); // need a List that supports iterator remove
         while (!unprocessedEvents.isEmpty()) {
-            AgentConditionCache agentCache = null;
-            agentReadWriteLock.readLock().lock();
-            try {
-                agentCache = agentCaches.get(agentId);
-            } catch (Throwable t) {
-                log.error("Error during checkConditions", t); // don't let any exceptions bubble up to the calling SLSB layer
-            } finally {
-                agentReadWriteLock.readLock().unlock();
-            }
+            AgentConditionCache agentCache = agentCaches.get(agentId);
             if (agentCache != null) {
                 stats.add(agentCache.checkConditions(source, unprocessedEvents));
                 if (!unprocessedEvents.isEmpty()) {
@@ -346,15 +318,7 @@ public final class AlertConditionCacheCoordinator {
         }
 
         AlertConditionCacheStats stats = null;
-        AgentConditionCache agentCache = null;
-        agentReadWriteLock.readLock().lock();
-        try {
-            agentCache = agentCaches.get(agentId);
-        } catch (Throwable t) {
-            log.error("Error during checkConditions", t); // don't let any exceptions bubble up to the calling SLSB layer
-        } finally {
-            agentReadWriteLock.readLock().unlock();
-        }
+        AgentConditionCache agentCache = agentCaches.get(agentId);
         if (agentCache != null) {
             stats = agentCache.checkConditions(driftChangeSetSummary);
         } else {
@@ -438,17 +402,7 @@ public final class AlertConditionCacheCoordinator {
         if (cache.type == Cache.Type.Global) {
             result += globalCache.getCacheSize(cache);
         } else if (cache.type == Cache.Type.Agent) {
-            List<AgentConditionCache> cachesCopy = null;
-            agentReadWriteLock.readLock().lock();
-            try {
-                cachesCopy = new ArrayList<AgentConditionCache>(agentCaches.values());
-            } catch (Throwable t) {
-                log.error("Error during getCacheSize", t); // don't let any exceptions bubble up to the calling SLSB layer
-            } finally {
-                agentReadWriteLock.readLock().unlock();
-            }
-
-            for (AgentConditionCache agentCache : cachesCopy) {
+            for (AgentConditionCache agentCache : agentCaches.values()) {
                 result += agentCache.getCacheSize(cache);
             }
         } else {
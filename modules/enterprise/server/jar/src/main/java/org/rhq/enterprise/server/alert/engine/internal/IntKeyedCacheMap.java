@@ -0,0 +1,106 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.lang.reflect.Array;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of a cache that maps int keys, i.e. schedule or resource ids, to the cache elements for that
+ * key. The keys are held in a primitive open addressing table and the elements for each key in an array, so a lookup
+ * neither boxes the key nor takes a lock. A cache is loaded into an ordinary map and then copied into a snapshot with
+ * {@link #copyOf(Map, Class)}; reloading a cache creates a new snapshot rather than modifying an existing one.
+ */
+final class IntKeyedCacheMap<T> {
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final int[] keys;
+
+    private final T[][] values;
+
+    private final int mask;
+
+    private final int elementCount;
+
+    private IntKeyedCacheMap(int[] keys, T[][] values, int elementCount) {
+        this.keys = keys;
+        this.values = values;
+        this.mask = keys.length - 1;
+        this.elementCount = elementCount;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> IntKeyedCacheMap<T> copyOf(Map<Integer, List<T>> cache, Class<T> elementType) {
+        int capacity = 2;
+        while (capacity < cache.size() * 2 && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        int[] keys = new int[capacity];
+        T[][] values = (T[][]) Array.newInstance(Array.newInstance(elementType, 0).getClass(), capacity);
+        int mask = capacity - 1;
+        int elementCount = 0;
+
+        for (Map.Entry<Integer, List<T>> entry : cache.entrySet()) {
+            List<T> elements = entry.getValue();
+            if (elements == null || elements.isEmpty()) {
+                continue;
+            }
+            int key = entry.getKey();
+            int slot = hash(key) & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = elements.toArray((T[]) Array.newInstance(elementType, elements.size()));
+            elementCount += elements.size();
+        }
+
+        return new IntKeyedCacheMap<T>(keys, values, elementCount);
+    }
+
+    /**
+     * @return The cache elements for the key or null if there are none. The array must not be modified.
+     */
+    T[] get(int key) {
+        int slot = hash(key) & mask;
+        T[] elements;
+        while ((elements = values[slot]) != null) {
+            if (keys[slot] == key) {
+                return elements;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return The total number of cache elements across all keys
+     */
+    int getElementCount() {
+        return elementCount;
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
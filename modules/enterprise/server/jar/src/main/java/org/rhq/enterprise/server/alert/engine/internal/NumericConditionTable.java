@@ -0,0 +1,307 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.List;
+import java.util.Map;
+
+import org.rhq.core.domain.alert.AlertConditionOperator;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementBaselineCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementNumericCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementRangeNumericCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.NumericDoubleCacheElement;
+
+/**
+ * The numeric measurement conditions of an agent, compiled into flat primitive arrays so that a batch of numeric
+ * values can be checked without boxing the values and without a virtual call per cache element.
+ * <p>
+ * Threshold, baseline and range conditions have fixed bounds once the cache is loaded, so their operator and bounds
+ * are copied into the table and evaluated here. Conditions whose element keeps state between values, such as
+ * {@link AlertConditionOperator#CHANGES}, and elements of any other type are marked to be delegated to
+ * {@link NumericDoubleCacheElement#process(Double, Object...)}.
+ * <p>
+ * The table itself is immutable. {@link #evaluate(int[], double[], int, Hits)} reports only the elements that need
+ * attention: the ones that matched, the stateful ones that did not match but may be active and therefore need to be
+ * deactivated, and the delegated ones. A stateful element that matches a value also needs attention for the values of
+ * its schedule that follow in the same batch, because the element is only activated once its hits are fired.
+ */
+final class NumericConditionTable {
+
+    static final byte NEVER = 0;
+    static final byte GREATER_THAN = 1;
+    static final byte LESS_THAN = 2;
+    static final byte EQUALS = 3;
+    static final byte INSIDE_EXCLUSIVE = 4;
+    static final byte OUTSIDE_EXCLUSIVE = 5;
+    static final byte INSIDE_INCLUSIVE = 6;
+    static final byte OUTSIDE_INCLUSIVE = 7;
+    static final byte DELEGATE = 8;
+
+    // open addressing table from schedule id to the range of elements [start, end) for that schedule
+    private final int[] keys;
+    private final int[] starts;
+    private final int[] ends;
+    private final int mask;
+
+    // the compiled elements, grouped by schedule id
+    private final NumericDoubleCacheElement[] elements;
+    private final byte[] operators;
+    private final double[] lows;
+    private final double[] highs;
+    private final boolean[] stateful;
+
+    private NumericConditionTable(int capacity, int elementCount) {
+        keys = new int[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+        mask = capacity - 1;
+
+        elements = new NumericDoubleCacheElement[elementCount];
+        operators = new byte[elementCount];
+        lows = new double[elementCount];
+        highs = new double[elementCount];
+        stateful = new boolean[elementCount];
+    }
+
+    static NumericConditionTable compile(Map<Integer, List<NumericDoubleCacheElement>> cache) {
+        int capacity = 2;
+        while (capacity < cache.size() * 2 && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        int elementCount = 0;
+        for (List<NumericDoubleCacheElement> cacheElements : cache.values()) {
+            if (cacheElements != null) {
+                elementCount += cacheElements.size();
+            }
+        }
+
+        NumericConditionTable table = new NumericConditionTable(capacity, elementCount);
+        int next = 0;
+        for (Map.Entry<Integer, List<NumericDoubleCacheElement>> entry : cache.entrySet()) {
+            List<NumericDoubleCacheElement> cacheElements = entry.getValue();
+            if (cacheElements == null || cacheElements.isEmpty()) {
+                continue;
+            }
+            int key = entry.getKey();
+            int slot = IntKeyedCacheMap.hash(key) & table.mask;
+            while (table.ends[slot] != 0) {
+                slot = (slot + 1) & table.mask;
+            }
+            table.keys[slot] = key;
+            table.starts[slot] = next;
+            for (NumericDoubleCacheElement cacheElement : cacheElements) {
+                table.add(next++, cacheElement);
+            }
+            table.ends[slot] = next;
+        }
+
+        return table;
+    }
+
+    private void add(int index, NumericDoubleCacheElement cacheElement) {
+        elements[index] = cacheElement;
+        stateful[index] = cacheElement.isType(AlertConditionOperator.Type.STATEFUL);
+
+        AlertConditionOperator operator = cacheElement.getAlertConditionOperator();
+        Double low = cacheElement.getAlertConditionValue();
+        double high = Double.NaN;
+        byte compiled;
+
+        if (cacheElement.getClass() == MeasurementRangeNumericCacheElement.class) {
+            Object option = cacheElement.getAlertConditionOperatorOption();
+            if (!(option instanceof Double)) {
+                compiled = NEVER;
+            } else if (operator == AlertConditionOperator.LESS_THAN) {
+                compiled = INSIDE_EXCLUSIVE;
+            } else if (operator == AlertConditionOperator.GREATER_THAN) {
+                compiled = OUTSIDE_EXCLUSIVE;
+            } else if (operator == AlertConditionOperator.LESS_THAN_OR_EQUAL_TO) {
+                compiled = INSIDE_INCLUSIVE;
+            } else if (operator == AlertConditionOperator.GREATER_THAN_OR_EQUAL_TO) {
+                compiled = OUTSIDE_INCLUSIVE;
+            } else {
+                compiled = NEVER;
+            }
+            if (compiled != NEVER) {
+                high = (Double) option;
+            }
+        } else if (cacheElement.getClass() == MeasurementNumericCacheElement.class
+            || cacheElement.getClass() == MeasurementBaselineCacheElement.class) {
+            if (operator == AlertConditionOperator.GREATER_THAN) {
+                compiled = GREATER_THAN;
+            } else if (operator == AlertConditionOperator.LESS_THAN) {
+                compiled = LESS_THAN;
+            } else if (operator == AlertConditionOperator.EQUALS) {
+                compiled = EQUALS;
+            } else {
+                compiled = DELEGATE;
+            }
+        } else {
+            compiled = DELEGATE;
+        }
+
+        if (compiled != DELEGATE && (low == null || !isValid(low))) {
+            compiled = NEVER;
+        }
+
+        operators[index] = compiled;
+        lows[index] = (low == null) ? Double.NaN : low;
+        highs[index] = high;
+    }
+
+    /**
+     * Checks the values against the conditions of their schedules and adds the elements that need attention to the
+     * hits, in the order of the values. A NaN value stands for a missing value and never matches.
+     *
+     * @param scheduleIds The schedule ids of the values
+     * @param values The values
+     * @param count The number of values in the arrays
+     * @param hits The hits to add to
+     */
+    void evaluate(int[] scheduleIds, double[] values, int count, Hits hits) {
+        // the stateful elements that matched an earlier value of this batch, allocated on the first such match
+        boolean[] matchedBefore = null;
+        for (int i = 0; i < count; i++) {
+            int slot = IntKeyedCacheMap.hash(scheduleIds[i]) & mask;
+            int end;
+            while ((end = ends[slot]) != 0 && keys[slot] != scheduleIds[i]) {
+                slot = (slot + 1) & mask;
+            }
+            if (end == 0) {
+                continue; // no conditions for this schedule
+            }
+
+            double value = values[i];
+            boolean valid = isValid(value);
+            for (int e = starts[slot]; e < end; e++) {
+                byte operator = operators[e];
+                if (operator == DELEGATE) {
+                    hits.add(i, e, false);
+                    continue;
+                }
+                if (valid && matches(operator, value, lows[e], highs[e])) {
+                    hits.add(i, e, true);
+                    if (stateful[e]) {
+                        if (matchedBefore == null) {
+                            matchedBefore = new boolean[elements.length];
+                        }
+                        matchedBefore[e] = true;
+                    }
+                } else if (stateful[e]
+                    && ((matchedBefore != null && matchedBefore[e]) || elements[e].getActivity().maybeActive())) {
+                    hits.add(i, e, false);
+                }
+            }
+        }
+    }
+
+    /*
+     * Double.compare keeps these consistent with the Double.compareTo calls of the cache elements.
+     */
+    private static boolean matches(byte operator, double value, double low, double high) {
+        switch (operator) {
+        case GREATER_THAN:
+            return Double.compare(value, low) > 0;
+        case LESS_THAN:
+            return Double.compare(value, low) < 0;
+        case EQUALS:
+            return Double.compare(value, low) == 0;
+        case INSIDE_EXCLUSIVE:
+            return Double.compare(value, low) > 0 && Double.compare(value, high) < 0;
+        case OUTSIDE_EXCLUSIVE:
+            return !(Double.compare(value, low) > 0 && Double.compare(value, high) < 0);
+        case INSIDE_INCLUSIVE:
+            return Double.compare(value, low) >= 0 && Double.compare(value, high) <= 0;
+        case OUTSIDE_INCLUSIVE:
+            return !(Double.compare(value, low) >= 0 && Double.compare(value, high) <= 0);
+        default:
+            return false;
+        }
+    }
+
+    private static boolean isValid(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+
+    NumericDoubleCacheElement getElement(int index) {
+        return elements[index];
+    }
+
+    boolean isDelegated(int index) {
+        return operators[index] == DELEGATE;
+    }
+
+    int getElementCount() {
+        return elements.length;
+    }
+
+    /**
+     * The result of an evaluation. For each hit it holds the index of the value, the index of the element and whether
+     * the element matched, in the order in which the values and elements were evaluated.
+     */
+    static final class Hits {
+        private int[] valueIndexes;
+        private int[] elementIndexes;
+        private boolean[] matched;
+        private int size;
+
+        Hits(int initialCapacity) {
+            int capacity = Math.max(initialCapacity, 4);
+            valueIndexes = new int[capacity];
+            elementIndexes = new int[capacity];
+            matched = new boolean[capacity];
+        }
+
+        void add(int valueIndex, int elementIndex, boolean match) {
+            if (size == valueIndexes.length) {
+                int capacity = size * 2;
+                int[] newValueIndexes = new int[capacity];
+                int[] newElementIndexes = new int[capacity];
+                boolean[] newMatched = new boolean[capacity];
+                System.arraycopy(valueIndexes, 0, newValueIndexes, 0, size);
+                System.arraycopy(elementIndexes, 0, newElementIndexes, 0, size);
+                System.arraycopy(matched, 0, newMatched, 0, size);
+                valueIndexes = newValueIndexes;
+                elementIndexes = newElementIndexes;
+                matched = newMatched;
+            }
+            valueIndexes[size] = valueIndex;
+            elementIndexes[size] = elementIndex;
+            matched[size] = match;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int getValueIndex(int hit) {
+            return valueIndexes[hit];
+        }
+
+        int getElementIndex(int hit) {
+            return elementIndexes[hit];
+        }
+
+        boolean isMatched(int hit) {
+            return matched[hit];
+        }
+    }
+
+}
@@ -313,6 +313,9 @@ public class ServerManagerBean implements ServerManagerLocal {
         // Handles server mode state changes 
         // note: this call should be fast. if not we need to break the heart beat into its own job
         establishCurrentServerMode();
+
+        // the metrics server only caches and incrementally aggregates data while this is the only server
+        storageClientManager.updateServerCount(topologyManager.getServerCount());
     }
 
     /**
@@ -60,6 +60,7 @@ import org.rhq.core.domain.cloud.Server;
 import org.rhq.core.domain.resource.Agent;
 import org.rhq.core.util.PropertiesFileUpdate;
 import org.rhq.core.util.exception.ThrowableUtil;
+import org.rhq.core.util.file.FileUtil;
 import org.rhq.enterprise.communications.GlobalConcurrencyLimitCommandListener;
 import org.rhq.enterprise.communications.Ping;
 import org.rhq.enterprise.communications.ServiceContainer;
@@ -69,6 +70,7 @@ import org.rhq.enterprise.communications.ServiceContainerMetricsMBean;
 import org.rhq.enterprise.communications.command.client.ClientCommandSender;
 import org.rhq.enterprise.communications.command.client.ClientCommandSenderConfiguration;
 import org.rhq.enterprise.communications.command.client.ClientRemotePojoFactory;
+import org.rhq.enterprise.communications.command.client.SpoolJournal;
 import org.rhq.enterprise.communications.command.server.CommandProcessorMetrics.Calltime;
 import org.rhq.enterprise.communications.command.server.discovery.AutoDiscoveryListener;
 import org.rhq.enterprise.communications.util.ConcurrencyManager;
@@ -429,10 +431,10 @@ public class ServerCommunicationsService implements ServerCommunicationsServiceM
             agent_client = m_knownAgentClients.remove(getEndpointKey(agent_address, agent_port));
 
             if (agent_client != null) {
-                agent_client.stopSending();
+                agent_client.stopSending(); // this also closes the sender's spool journal
             }
 
-            // purge the spool file, if it exists
+            // purge the spool file and journal, if they exist
             File spool_file = null;
 
             try {
@@ -444,6 +446,13 @@ public class ServerCommunicationsService implements ServerCommunicationsServiceM
                         new FileOutputStream(spool_file, false).close();
                         spool_file.delete();
                     }
+
+                    File journal_dir = SpoolJournal.getJournalDirectory(spool_file);
+                    FileUtil.purge(journal_dir, true);
+                    if (journal_dir.exists()) {
+                        LOG.warn("Failed to delete spool journal for deleted agent [" + agent + "]"
+                            + " please manually remove the directory: " + journal_dir);
+                    }
                 }
             } catch (Exception e) {
                 LOG.warn("Failed to truncate/delete spool for deleted agent [" + agent + "]"
@@ -143,8 +143,13 @@ public class DiscoveryServerServiceImpl implements DiscoveryServerService {
     }
 
     @Override
-    public boolean mergeAvailabilityReport(AvailabilityReport availabilityReport) {
-        AvailabilityReportSerializer.getSingleton().lock(availabilityReport.getAgentName());
+    public boolean mergeAvailabilityReport(AvailabilityReport report) {
+        AvailabilityReport availabilityReport = AvailabilityReportSerializer.getSingleton().lock(report);
+        if (availabilityReport == null) {
+            // coalesced into an older report of the same agent that is waiting to be processed
+            return true;
+        }
+
         try {
             String reportToString = availabilityReport.toString(false);
             if (log.isDebugEnabled())
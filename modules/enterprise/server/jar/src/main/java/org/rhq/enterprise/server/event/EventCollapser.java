@@ -0,0 +1,128 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.rhq.core.domain.event.Event;
+import org.rhq.core.domain.event.EventSeverity;
+import org.rhq.core.domain.event.EventSource;
+
+/**
+ * Collapses repeated {@link Event}s of a single {@link EventSource} before they are stored. Events with the same
+ * severity and detail that occur within a time window of the first one are stored as that first Event, with the
+ * number of repeats appended to its detail. This keeps log storms, which tend to produce thousands of identical
+ * Events per minute, from flooding the RHQ_EVENT table.
+ */
+final class EventCollapser {
+
+    private static final Comparator<Event> TIMESTAMP_ORDER = new Comparator<Event>() {
+        public int compare(Event e1, Event e2) {
+            return (e1.getTimestamp() < e2.getTimestamp()) ? -1 : ((e1.getTimestamp() == e2.getTimestamp()) ? 0 : 1);
+        }
+    };
+
+    private final long windowMillis;
+
+    /**
+     * @param windowMillis the maximum time between the first and the last Event of a collapsed run; zero or less
+     *                     disables collapsing
+     */
+    EventCollapser(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    boolean isEnabled() {
+        return this.windowMillis > 0;
+    }
+
+    /**
+     * Collapses the given Events, which must all belong to <code>eventSource</code>.
+     *
+     * @return the Events to store, ordered by timestamp
+     */
+    List<Event> collapse(EventSource eventSource, Collection<Event> events) {
+        List<Event> sorted = new ArrayList<Event>(events);
+        Collections.sort(sorted, TIMESTAMP_ORDER);
+        if (!isEnabled() || sorted.size() < 2) {
+            return sorted;
+        }
+
+        List<Run> runs = new ArrayList<Run>();
+        Map<EventSeverity, Map<String, Run>> openRuns = new EnumMap<EventSeverity, Map<String, Run>>(
+            EventSeverity.class);
+        for (Event event : sorted) {
+            Map<String, Run> runsByDetail = openRuns.get(event.getSeverity());
+            if (runsByDetail == null) {
+                runsByDetail = new HashMap<String, Run>();
+                openRuns.put(event.getSeverity(), runsByDetail);
+            }
+            Run run = runsByDetail.get(event.getDetail());
+            if (run != null && event.getTimestamp() - run.first.getTimestamp() <= this.windowMillis) {
+                run.repeats++;
+                run.lastTimestamp = event.getTimestamp();
+            } else {
+                run = new Run(event);
+                runs.add(run);
+                runsByDetail.put(event.getDetail(), run);
+            }
+        }
+
+        if (runs.size() == sorted.size()) {
+            return sorted;
+        }
+
+        List<Event> collapsed = new ArrayList<Event>(runs.size());
+        for (Run run : runs) {
+            collapsed.add(run.toEvent(eventSource));
+        }
+        return collapsed;
+    }
+
+    private static final class Run {
+        final Event first;
+        long lastTimestamp;
+        int repeats;
+
+        Run(Event first) {
+            this.first = first;
+            this.lastTimestamp = first.getTimestamp();
+        }
+
+        Event toEvent(EventSource eventSource) {
+            if (this.repeats == 0) {
+                return this.first;
+            }
+            String suffix = " [repeated " + this.repeats + " more time" + ((this.repeats == 1) ? "" : "s")
+                + " within " + (this.lastTimestamp - this.first.getTimestamp()) + " ms]";
+            String detail = this.first.getDetail();
+            if (detail.length() + suffix.length() > Event.DETAIL_MAX_LENGTH) {
+                detail = detail.substring(0, Math.max(0, Event.DETAIL_MAX_LENGTH - suffix.length()));
+            }
+            return new Event(this.first.getTimestamp(), this.first.getSeverity(), eventSource, detail + suffix);
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.rhq.enterprise.server.event;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
@@ -29,6 +30,7 @@ import java.util.Map;
 import java.util.Set;
 
 import javax.ejb.EJB;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
@@ -89,11 +91,52 @@ public class EventManagerBean implements EventManagerLocal, EventManagerRemote {
         + "SELECT (SELECT id FROM RHQ_Event_Def WHERE name = ? AND resource_type_id = (SELECT id FROM RHQ_Resource_Type WHERE name = ? AND plugin = ?)), ?, ? FROM RHQ_Numbers WHERE i = 42 "
         + "AND NOT EXISTS (SELECT * FROM RHQ_Event_Source WHERE event_def_id = (SELECT id FROM RHQ_Event_Def WHERE name = ? AND resource_type_id = (SELECT id FROM RHQ_Resource_Type WHERE name = ? AND plugin = ?)) AND resource_id = ? AND location = ?)";
 
+    private static final String EVENT_SOURCE_ID_QUERY = "SELECT id FROM RHQ_Event_Source "
+        + "WHERE event_def_id = (SELECT id FROM RHQ_Event_Def WHERE name = ? AND resource_type_id = (SELECT id FROM RHQ_Resource_Type WHERE name = ? AND plugin = ?)) AND resource_id = ? AND location = ?";
+
     private static final String EVENT_INSERT_STMT = "INSERT INTO RHQ_Event (id, event_source_id, timestamp, severity, detail) "
-        + "VALUES (%s, (SELECT id FROM RHQ_Event_Source WHERE event_def_id = (SELECT id FROM RHQ_Event_Def WHERE name = ? AND resource_type_id = (SELECT id FROM RHQ_Resource_Type WHERE name = ? AND plugin = ?)) AND resource_id = ? AND location = ?), ?, ?, ?)";
+        + "VALUES (%s, ?, ?, ?, ?)";
 
     private static final String EVENT_INSERT_STMT_AUTOINC = "INSERT INTO RHQ_Event (event_source_id, timestamp, severity, detail) "
-        + "VALUES ((SELECT id FROM RHQ_Event_Source WHERE event_def_id = (SELECT id FROM RHQ_Event_Def WHERE name = ? AND resource_type_id = (SELECT id FROM RHQ_Resource_Type WHERE name = ? AND plugin = ?)) AND resource_id = ? AND location = ?), ?, ?, ?)";
+        + "VALUES (?, ?, ?, ?)";
+
+    private static final String EVENT_INSERT_MULTI_ROW_STMT = "INSERT INTO RHQ_Event (id, event_source_id, timestamp, severity, detail) "
+        + "VALUES ";
+
+    private static final String EVENT_INSERT_MULTI_ROW_VALUES = "(%s, ?, ?, ?, ?)";
+
+    /**
+     * The number of rows inserted per statement on databases that support multi-row INSERT ... VALUES.
+     */
+    private static final int EVENT_INSERT_ROWS_PER_STMT = 100;
+
+    /**
+     * Repeated events (same source, severity and detail) within this many milliseconds of each other are stored as a
+     * single event. Set to 0 to store every event.
+     */
+    private static final long EVENT_COLLAPSE_WINDOW_MILLIS;
+
+    private static final int EVENT_SOURCE_ID_CACHE_SIZE;
+
+    static {
+        long collapseWindow = 60000L;
+        try {
+            collapseWindow = Long.parseLong(System.getProperty("rhq.server.event.collapse-window-ms", "60000"));
+        } catch (Throwable t) {
+            //
+        }
+        EVENT_COLLAPSE_WINDOW_MILLIS = collapseWindow;
+
+        int cacheSize = 10000;
+        try {
+            cacheSize = Integer.parseInt(System.getProperty("rhq.server.event.source-id-cache.size", "10000"));
+        } catch (Throwable t) {
+            //
+        }
+        EVENT_SOURCE_ID_CACHE_SIZE = cacheSize;
+    }
+
+    private static final EventSourceIdCache eventSourceIdCache = new EventSourceIdCache(EVENT_SOURCE_ID_CACHE_SIZE);
 
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
@@ -101,95 +144,87 @@ public class EventManagerBean implements EventManagerLocal, EventManagerRemote {
     @javax.annotation.Resource(name = "RHQ_DS")
     private DataSource rhqDs;
 
+    @javax.annotation.Resource
+    private SessionContext sessionContext;
+
     @EJB
     private AlertConditionCacheManagerLocal alertConditionCacheManager;
 
     @EJB
     private AuthorizationManagerLocal authorizationManager;
 
+    @EJB
+    private EventManagerLocal eventManager;
+
     Log log = LogFactory.getLog(EventManagerBean.class);
 
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public void addEventData(Map<EventSource, Set<Event>> events) {
 
         if (events == null || events.size() == 0)
             return;
 
-        String statementSql;
+        long startTime = System.currentTimeMillis();
+        Set<EventSource> storedEventSources = eventManager.insertEventData(events);
+        if (storedEventSources == null) {
+            // A cached event source id may have gone stale (e.g. its resource was deleted), which fails the whole
+            // insert. Start over with the ids as they are now, once.
+            eventSourceIdCache.clear();
+            storedEventSources = eventManager.insertEventData(events);
+        }
+        MeasurementMonitor.getMBean().incrementEventInsertTime(System.currentTimeMillis() - startTime);
+
+        // alert conditions see every stored Event, collapsed or not
+        if (storedEventSources != null) {
+            for (EventSource eventSource : storedEventSources) {
+                Set<Event> eventData = events.get(eventSource);
+                notifyAlertConditionCacheManager("addEventData", eventSource, eventData.toArray(new Event[eventData
+                    .size()]));
+            }
+        }
+    }
+
+    /*
+     * internal method, do not expose to the remote API
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public Set<EventSource> insertEventData(Map<EventSource, Set<Event>> events) {
         Connection conn = null;
-        PreparedStatement ps = null;
         try {
             conn = rhqDs.getConnection();
             DatabaseType dbType = DatabaseTypeFactory.getDatabaseType(conn);
 
-            if (dbType instanceof PostgresqlDatabaseType || dbType instanceof OracleDatabaseType
-                || dbType instanceof H2DatabaseType) {
-                String nextvalSql = JDBCUtil.getNextValSql(conn, EventSource.TABLE_NAME);
-                statementSql = String.format(EVENT_SOURCE_INSERT_STMT, nextvalSql);
-            } else if (dbType instanceof SQLServerDatabaseType) {
-                statementSql = EVENT_SOURCE_INSERT_STMT_AUTOINC;
-            } else {
-                throw new IllegalArgumentException("Unknown database type, can't continue: " + dbType);
-            }
-
-            // First insert the "keys" (i.e. the EventSources).
-            ps = conn.prepareStatement(statementSql);
-            try {
-                for (EventSource eventSource : events.keySet()) {
-                    int paramIndex = 1;
-                    ps.setString(paramIndex++, eventSource.getEventDefinition().getName());
-                    ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getName());
-                    ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getPlugin());
-                    ps.setInt(paramIndex++, eventSource.getResource().getId());
-                    ps.setString(paramIndex++, eventSource.getLocation());
-                    ps.setString(paramIndex++, eventSource.getEventDefinition().getName());
-                    ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getName());
-                    ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getPlugin());
-                    ps.setInt(paramIndex++, eventSource.getResource().getId());
-                    ps.setString(paramIndex++, eventSource.getLocation());
-
-                    ps.addBatch();
+            // First make sure the "keys" (i.e. the EventSources) exist and look up their ids.
+            Map<EventSource, Integer> eventSourceIds = getEventSourceIds(conn, dbType, events.keySet());
+
+            // Then collapse repeated Events, so log storms don't turn into thousands of identical rows.
+            EventCollapser collapser = new EventCollapser(EVENT_COLLAPSE_WINDOW_MILLIS);
+            List<Integer> rowSourceIds = new ArrayList<Integer>();
+            List<Event> rowEvents = new ArrayList<Event>();
+            int collapsed = 0;
+            for (Map.Entry<EventSource, Set<Event>> entry : events.entrySet()) {
+                EventSource eventSource = entry.getKey();
+                Set<Event> eventData = entry.getValue();
+                Integer eventSourceId = eventSourceIds.get(eventSource);
+                if (eventSourceId == null) {
+                    log.warn("addEventData: Dropping " + eventData.size() + " events of unknown event source "
+                        + eventSource);
+                    continue;
                 }
-                ps.executeBatch();
-            } finally {
-                JDBCUtil.safeClose(ps);
-            }
-
-            if (dbType instanceof PostgresqlDatabaseType || dbType instanceof OracleDatabaseType
-                || dbType instanceof H2DatabaseType) {
-                String nextvalSql = JDBCUtil.getNextValSql(conn, Event.TABLE_NAME);
-                statementSql = String.format(EVENT_INSERT_STMT, nextvalSql);
-            } else if (dbType instanceof SQLServerDatabaseType) {
-                statementSql = EVENT_INSERT_STMT_AUTOINC;
-            } else {
-                throw new IllegalArgumentException("Unknown database type, can't continue: " + dbType);
-            }
-
-            // Then insert the "values" (i.e. the Events).
-            ps = conn.prepareStatement(statementSql);
-            try {
-                for (EventSource eventSource : events.keySet()) {
-                    Set<Event> eventData = events.get(eventSource);
-                    for (Event event : eventData) {
-                        int paramIndex = 1;
-                        ps.setString(paramIndex++, eventSource.getEventDefinition().getName());
-                        ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getName());
-                        ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getPlugin());
-                        ps.setInt(paramIndex++, eventSource.getResource().getId());
-                        ps.setString(paramIndex++, eventSource.getLocation());
-                        ps.setLong(paramIndex++, event.getTimestamp());
-                        ps.setString(paramIndex++, event.getSeverity().toString());
-                        ps.setString(paramIndex++, event.getDetail());
-                        ps.addBatch();
-                    }
-
-                    notifyAlertConditionCacheManager("addEventData", eventSource, eventData.toArray(new Event[eventData
-                        .size()]));
+                List<Event> rows = collapser.collapse(eventSource, eventData);
+                for (Event event : rows) {
+                    rowSourceIds.add(eventSourceId);
+                    rowEvents.add(event);
                 }
-                ps.executeBatch();
-            } finally {
-                JDBCUtil.safeClose(ps);
+                collapsed += eventData.size() - rows.size();
             }
 
+            // Finally insert the "values" (i.e. the Events).
+            insertEvents(conn, dbType, rowSourceIds, rowEvents);
+
+            MeasurementMonitor.getMBean().incrementEventsInserted(rowEvents.size());
+            MeasurementMonitor.getMBean().incrementEventsCollapsed(collapsed);
+            return eventSourceIds.keySet();
         } catch (Throwable t) {
             // TODO what do we want to do here ?
             log.warn("addEventData: Insert of events failed : " + t.getMessage());
@@ -204,6 +239,180 @@ public class EventManagerBean implements EventManagerLocal, EventManagerRemote {
         } finally {
             JDBCUtil.safeClose(conn);
         }
+
+        // nothing of the failed attempt may be committed, the caller retries it
+        sessionContext.setRollbackOnly();
+        return null;
+    }
+
+    /**
+     * Returns the ids of the given event sources, inserting the ones that do not exist yet. Ids are served from
+     * the shared {@link EventSourceIdCache} where possible, so only sources that are new to this server cost
+     * any round trips.
+     */
+    private Map<EventSource, Integer> getEventSourceIds(Connection conn, DatabaseType dbType,
+        Set<EventSource> eventSources) throws SQLException {
+
+        Map<EventSource, Integer> eventSourceIds = new HashMap<EventSource, Integer>(eventSources.size());
+        List<EventSource> uncachedEventSources = new ArrayList<EventSource>();
+        for (EventSource eventSource : eventSources) {
+            Integer eventSourceId = eventSourceIdCache.get(eventSource);
+            if (eventSourceId != null) {
+                eventSourceIds.put(eventSource, eventSourceId);
+            } else {
+                uncachedEventSources.add(eventSource);
+            }
+        }
+        if (uncachedEventSources.isEmpty()) {
+            return eventSourceIds;
+        }
+
+        String statementSql;
+        if (dbType instanceof PostgresqlDatabaseType || dbType instanceof OracleDatabaseType
+            || dbType instanceof H2DatabaseType) {
+            String nextvalSql = JDBCUtil.getNextValSql(conn, EventSource.TABLE_NAME);
+            statementSql = String.format(EVENT_SOURCE_INSERT_STMT, nextvalSql);
+        } else if (dbType instanceof SQLServerDatabaseType) {
+            statementSql = EVENT_SOURCE_INSERT_STMT_AUTOINC;
+        } else {
+            throw new IllegalArgumentException("Unknown database type, can't continue: " + dbType);
+        }
+
+        PreparedStatement ps = conn.prepareStatement(statementSql);
+        try {
+            for (EventSource eventSource : uncachedEventSources) {
+                int paramIndex = setEventSourceParameters(ps, 1, eventSource);
+                setEventSourceParameters(ps, paramIndex, eventSource);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } finally {
+            JDBCUtil.safeClose(ps);
+        }
+
+        ps = conn.prepareStatement(EVENT_SOURCE_ID_QUERY);
+        try {
+            for (EventSource eventSource : uncachedEventSources) {
+                setEventSourceParameters(ps, 1, eventSource);
+                ResultSet rs = ps.executeQuery();
+                try {
+                    if (rs.next()) {
+                        int eventSourceId = rs.getInt(1);
+                        eventSourceIds.put(eventSource, eventSourceId);
+                        eventSourceIdCache.put(eventSource, eventSourceId);
+                    }
+                } finally {
+                    JDBCUtil.safeClose(rs);
+                }
+            }
+        } finally {
+            JDBCUtil.safeClose(ps);
+        }
+
+        return eventSourceIds;
+    }
+
+    private int setEventSourceParameters(PreparedStatement ps, int paramIndex, EventSource eventSource)
+        throws SQLException {
+        ps.setString(paramIndex++, eventSource.getEventDefinition().getName());
+        ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getName());
+        ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getPlugin());
+        ps.setInt(paramIndex++, eventSource.getResource().getId());
+        ps.setString(paramIndex++, eventSource.getLocation());
+        return paramIndex;
+    }
+
+    /**
+     * Inserts the given Events. PostgreSQL and H2 get multi-row INSERT ... VALUES statements; other databases fall
+     * back to a JDBC batch of single-row inserts.
+     */
+    private void insertEvents(Connection conn, DatabaseType dbType, List<Integer> eventSourceIds, List<Event> events)
+        throws SQLException {
+
+        if (events.isEmpty()) {
+            return;
+        }
+
+        if (dbType instanceof PostgresqlDatabaseType || dbType instanceof H2DatabaseType) {
+            String nextvalSql = JDBCUtil.getNextValSql(conn, Event.TABLE_NAME);
+            int rowCount = events.size();
+            int fullStatements = rowCount / EVENT_INSERT_ROWS_PER_STMT;
+            int row = 0;
+
+            if (fullStatements > 0) {
+                PreparedStatement ps = conn.prepareStatement(getMultiRowEventInsertSql(nextvalSql,
+                    EVENT_INSERT_ROWS_PER_STMT));
+                try {
+                    for (int i = 0; i < fullStatements; i++) {
+                        int paramIndex = 1;
+                        for (int j = 0; j < EVENT_INSERT_ROWS_PER_STMT; j++, row++) {
+                            paramIndex = setEventParameters(ps, paramIndex, eventSourceIds.get(row), events.get(row));
+                        }
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                } finally {
+                    JDBCUtil.safeClose(ps);
+                }
+            }
+
+            if (row < rowCount) {
+                PreparedStatement ps = conn.prepareStatement(getMultiRowEventInsertSql(nextvalSql, rowCount - row));
+                try {
+                    int paramIndex = 1;
+                    for (; row < rowCount; row++) {
+                        paramIndex = setEventParameters(ps, paramIndex, eventSourceIds.get(row), events.get(row));
+                    }
+                    ps.executeUpdate();
+                } finally {
+                    JDBCUtil.safeClose(ps);
+                }
+            }
+            return;
+        }
+
+        String statementSql;
+        if (dbType instanceof OracleDatabaseType) {
+            String nextvalSql = JDBCUtil.getNextValSql(conn, Event.TABLE_NAME);
+            statementSql = String.format(EVENT_INSERT_STMT, nextvalSql);
+        } else if (dbType instanceof SQLServerDatabaseType) {
+            statementSql = EVENT_INSERT_STMT_AUTOINC;
+        } else {
+            throw new IllegalArgumentException("Unknown database type, can't continue: " + dbType);
+        }
+
+        PreparedStatement ps = conn.prepareStatement(statementSql);
+        try {
+            for (int row = 0; row < events.size(); row++) {
+                setEventParameters(ps, 1, eventSourceIds.get(row), events.get(row));
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } finally {
+            JDBCUtil.safeClose(ps);
+        }
+    }
+
+    private static String getMultiRowEventInsertSql(String nextvalSql, int rows) {
+        String values = String.format(EVENT_INSERT_MULTI_ROW_VALUES, nextvalSql);
+        StringBuilder sql = new StringBuilder(EVENT_INSERT_MULTI_ROW_STMT.length() + rows * (values.length() + 2));
+        sql.append(EVENT_INSERT_MULTI_ROW_STMT);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(values);
+        }
+        return sql.toString();
+    }
+
+    private int setEventParameters(PreparedStatement ps, int paramIndex, int eventSourceId, Event event)
+        throws SQLException {
+        ps.setInt(paramIndex++, eventSourceId);
+        ps.setLong(paramIndex++, event.getTimestamp());
+        ps.setString(paramIndex++, event.getSeverity().toString());
+        ps.setString(paramIndex++, event.getDetail());
+        return paramIndex;
     }
 
     private void notifyAlertConditionCacheManager(String callingMethod, EventSource source, Event... events) {
@@ -267,6 +476,7 @@ public class EventManagerBean implements EventManagerLocal, EventManagerRemote {
         for (EventSource source : sources) {
             entityManager.remove(source);
         }
+        eventSourceIdCache.clear();
     }
 
     public int deleteEventsForContext(Subject subject, EntityContext context, List<Integer> eventIds) {
@@ -53,6 +53,16 @@ public interface EventManagerLocal extends EventManagerRemote {
      */
     void addEventData(Map<EventSource, Set<Event>> events);
 
+    /**
+     * Inserts the passed events, and their event sources where needed, in a new transaction. This is an internal
+     * method that is exposed here so as to enable finer-grained manipulation of transactional boundaries.
+     *
+     * @param events a set of events.
+     * @return the event sources whose events were inserted, or null if the events could not be inserted, in which
+     *         case nothing was
+     */
+    Set<EventSource> insertEventData(Map<EventSource, Set<Event>> events);
+
     /**
      * Deletes event data older than the specified time.
      *
@@ -0,0 +1,115 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.event;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.rhq.core.domain.event.EventSource;
+
+/**
+ * A bounded, least-recently-used cache of RHQ_EVENT_SOURCE ids, shared by all requests on this server. Agents do not
+ * know the ids of event sources (nor of the event definitions they refer to), so without this cache every Event
+ * report has to look them up, or insert them, before its Events can be stored.
+ * <p/>
+ * An id is only cached once its row is known to exist. Ids are never reused, so the only thing that can make an entry
+ * stale is the deletion of its event source; callers must {@link #clear()} the cache when that happens or when an
+ * insert fails for a reason they cannot attribute.
+ */
+final class EventSourceIdCache {
+
+    private final Map<Key, Integer> ids;
+
+    EventSourceIdCache(final int maxSize) {
+        this.ids = new LinkedHashMap<Key, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the id of the given event source, or null if it is not cached
+     */
+    synchronized Integer get(EventSource eventSource) {
+        return this.ids.get(new Key(eventSource));
+    }
+
+    synchronized void put(EventSource eventSource, int id) {
+        this.ids.put(new Key(eventSource), Integer.valueOf(id));
+    }
+
+    synchronized void clear() {
+        this.ids.clear();
+    }
+
+    synchronized int size() {
+        return this.ids.size();
+    }
+
+    /**
+     * Identifies an event source the way the agent does: by event definition name, resource type name and plugin,
+     * resource id and location. Database ids of the definition and type are not filled in by the agent.
+     */
+    private static final class Key {
+        private final String eventDefinitionName;
+        private final String resourceTypeName;
+        private final String plugin;
+        private final int resourceId;
+        private final String location;
+        private final int hashCode;
+
+        Key(EventSource eventSource) {
+            this.eventDefinitionName = eventSource.getEventDefinition().getName();
+            this.resourceTypeName = eventSource.getEventDefinition().getResourceType().getName();
+            this.plugin = eventSource.getEventDefinition().getResourceType().getPlugin();
+            this.resourceId = eventSource.getResource().getId();
+            this.location = eventSource.getLocation();
+
+            int result = this.eventDefinitionName.hashCode();
+            result = 31 * result + this.resourceTypeName.hashCode();
+            result = 31 * result + this.plugin.hashCode();
+            result = 31 * result + this.resourceId;
+            result = 31 * result + this.location.hashCode();
+            this.hashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) obj;
+            return this.resourceId == that.resourceId && this.eventDefinitionName.equals(that.eventDefinitionName)
+                && this.resourceTypeName.equals(that.resourceTypeName) && this.plugin.equals(that.plugin)
+                && this.location.equals(that.location);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
+}
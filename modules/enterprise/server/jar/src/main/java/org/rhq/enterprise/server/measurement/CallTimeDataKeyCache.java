@@ -0,0 +1,92 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.measurement;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of RHQ_CALLTIME_DATA_KEY ids by (schedule id, call destination), shared by all
+ * requests on this server. The same call destinations are reported over and over for a schedule, so once a key is
+ * cached its call-time values can be inserted without first making sure the key row exists.
+ * <p/>
+ * Key rows are never purged while their schedule exists, so an entry can only go stale when its schedule is deleted;
+ * callers {@link #clear()} the cache when an insert fails for that or any other reason.
+ */
+final class CallTimeDataKeyCache {
+
+    private final Map<Key, Integer> ids;
+
+    CallTimeDataKeyCache(final int maxSize) {
+        this.ids = new LinkedHashMap<Key, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the id of the key row for the given schedule and call destination, or null if it is not cached
+     */
+    synchronized Integer get(int scheduleId, String callDestination) {
+        return this.ids.get(new Key(scheduleId, callDestination));
+    }
+
+    synchronized void put(int scheduleId, String callDestination, int id) {
+        this.ids.put(new Key(scheduleId, callDestination), Integer.valueOf(id));
+    }
+
+    synchronized void clear() {
+        this.ids.clear();
+    }
+
+    synchronized int size() {
+        return this.ids.size();
+    }
+
+    private static final class Key {
+        private final int scheduleId;
+        private final String callDestination;
+
+        Key(int scheduleId, String callDestination) {
+            this.scheduleId = scheduleId;
+            this.callDestination = callDestination;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) obj;
+            return this.scheduleId == that.scheduleId && this.callDestination.equals(that.callDestination);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.scheduleId + this.callDestination.hashCode();
+        }
+    }
+}
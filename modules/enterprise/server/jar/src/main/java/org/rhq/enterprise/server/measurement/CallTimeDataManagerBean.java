@@ -21,13 +21,19 @@ package org.rhq.enterprise.server.measurement;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.ejb.EJB;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
@@ -55,6 +61,8 @@ import org.rhq.core.domain.criteria.CallTimeDataCriteria;
 import org.rhq.core.domain.measurement.MeasurementSchedule;
 import org.rhq.core.domain.measurement.calltime.CallTimeData;
 import org.rhq.core.domain.measurement.calltime.CallTimeDataComposite;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataRanking;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataSketch;
 import org.rhq.core.domain.measurement.calltime.CallTimeDataValue;
 import org.rhq.core.domain.server.PersistenceUtility;
 import org.rhq.core.domain.util.PageControl;
@@ -89,18 +97,64 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
         + "(schedule_id, call_destination) " + "SELECT ?, ? FROM RHQ_numbers WHERE i = 42 "
         + "AND NOT EXISTS (SELECT * FROM " + DATA_KEY_TABLE_NAME + " WHERE schedule_id = ? AND call_destination = ?)";
 
-    private static final String CALLTIME_VALUE_INSERT_STATEMENT = "INSERT /*+ APPEND */ INTO " + DATA_VALUE_TABLE_NAME
-        + "(id, key_id, begin_time, end_time, minimum, maximum, total, count) "
-        + "SELECT %s, key.id, ?, ?, ?, ?, ?, ? FROM " + DATA_KEY_TABLE_NAME
-        + " key WHERE key.schedule_id = ? AND key.call_destination = ?";
+    private static final String CALLTIME_KEY_ID_QUERY = "SELECT call_destination, id FROM " + DATA_KEY_TABLE_NAME
+        + " WHERE schedule_id = ? AND call_destination IN (%s)";
+
+    /**
+     * The maximum number of call destinations looked up per key id query.
+     */
+    private static final int CALLTIME_KEY_ID_QUERY_MAX_DESTINATIONS = 100;
+
+    private static final String CALLTIME_VALUE_INSERT_STATEMENT = "INSERT INTO " + DATA_VALUE_TABLE_NAME
+        + "(id, key_id, begin_time, end_time, minimum, maximum, total, count, sketch) "
+        + "VALUES (%s, ?, ?, ?, ?, ?, ?, ?, ?)";
 
     private static final String CALLTIME_VALUE_INSERT_STATEMENT_AUTOINC = "INSERT INTO " + DATA_VALUE_TABLE_NAME
-        + "(key_id, begin_time, end_time, minimum, maximum, total, count) SELECT key.id, ?, ?, ?, ?, ?, ? FROM "
-        + DATA_KEY_TABLE_NAME + " key WHERE key.schedule_id = ? AND key.call_destination = ?";
+        + "(key_id, begin_time, end_time, minimum, maximum, total, count, sketch) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // NOTE: Like the composite queries, this only includes data chunks that are fully within the time interval. The
+    //       rows are ordered by destination so that they can be aggregated one destination at a time. The ordering
+    //       must keep equal destinations together, which a case or accent insensitive collation does not guarantee
+    //       for destinations that differ only in case or accents, so a binary ordering is used where the database
+    //       may default to something else.
+    private static final String CALLTIME_VALUE_TOP_N_QUERY = "SELECT k.call_destination, v.minimum, v.maximum, "
+        + "v.total, v.count, v.sketch FROM " + DATA_VALUE_TABLE_NAME + " v JOIN " + DATA_KEY_TABLE_NAME
+        + " k ON v.key_id = k.id JOIN RHQ_MEASUREMENT_SCHED s ON k.schedule_id = s.id WHERE %s "
+        + "AND v.count != 0 AND v.minimum != -1 AND v.begin_time >= ? AND v.end_time <= ? ORDER BY %s";
+
+    private static final String CALLTIME_VALUE_TOP_N_ORDER = "k.call_destination";
+
+    private static final String CALLTIME_VALUE_TOP_N_ORDER_ORACLE = "NLSSORT(k.call_destination, 'NLS_SORT=BINARY')";
+
+    private static final String CALLTIME_VALUE_TOP_N_ORDER_SQLSERVER = "k.call_destination COLLATE Latin1_General_BIN2";
+
+    private static final String CALLTIME_VALUE_TOP_N_RESOURCE_FILTER = "s.resource_id = ?";
+
+    private static final String CALLTIME_VALUE_TOP_N_GROUP_FILTER = "s.resource_id IN "
+        + "(SELECT resource_id FROM RHQ_RESOURCE_GROUP_RES_IMP_MAP WHERE resource_group_id = ?)";
+
+    private static final String CALLTIME_VALUE_TOP_N_AUTOGROUP_FILTER = "s.resource_id IN "
+        + "(SELECT id FROM RHQ_RESOURCE WHERE parent_resource_id = ? AND resource_type_id = ?)";
+
+    private static final int CALLTIME_VALUE_TOP_N_FETCH_SIZE = 1000;
 
     private static final String CALLTIME_VALUE_PURGE_STATEMENT = "DELETE FROM " + DATA_VALUE_TABLE_NAME
         + " WHERE end_time < ?";
 
+    private static final int CALLTIME_KEY_CACHE_SIZE;
+
+    static {
+        int cacheSize = 20000;
+        try {
+            cacheSize = Integer.parseInt(System.getProperty("rhq.server.calltime.key-cache.size", "20000"));
+        } catch (Throwable t) {
+            //
+        }
+        CALLTIME_KEY_CACHE_SIZE = cacheSize;
+    }
+
+    private static final CallTimeDataKeyCache keyCache = new CallTimeDataKeyCache(CALLTIME_KEY_CACHE_SIZE);
+
     private final Log log = LogFactory.getLog(CallTimeDataManagerBean.class);
 
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
@@ -109,6 +163,9 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
     @javax.annotation.Resource(name = "RHQ_DS")
     private DataSource rhqDs;
 
+    @javax.annotation.Resource
+    private SessionContext sessionContext;
+
     @EJB
     private AuthorizationManagerLocal authorizationManager;
 
@@ -127,15 +184,73 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
         log.debug("Persisting call-time data for " + callTimeDataSet.size() + " schedules...");
         long startTime = System.currentTimeMillis();
 
-        // First make sure a single row exists in the key table for each reported call destination.
-        callTimeDataManager.insertCallTimeDataKeys(callTimeDataSet);
+        // First find the key row for each reported call destination.
+        Map<Integer, Map<String, Integer>> keyIds = getCallTimeDataKeyIds(callTimeDataSet);
 
         // Finally, add the stats themselves to the value table.
-        callTimeDataManager.insertCallTimeDataValues(callTimeDataSet);
+        if (!callTimeDataManager.insertCallTimeDataValues(callTimeDataSet, keyIds)) {
+            // A cached key may have gone stale (e.g. its schedule was deleted), which fails the whole batch. Start over
+            // with the keys as they are now, once.
+            keyCache.clear();
+            callTimeDataManager.insertCallTimeDataValues(callTimeDataSet, getCallTimeDataKeyIds(callTimeDataSet));
+        }
         MeasurementMonitor.getMBean().incrementCallTimeInsertTime(System.currentTimeMillis() - startTime);
 
     }
 
+    /**
+     * Finds the key row for each reported call destination. Keys seen before come from the key cache; the others are
+     * inserted if necessary and looked up, after which they are cached too.
+     *
+     * @return the key row ids, by schedule id and call destination
+     */
+    private Map<Integer, Map<String, Integer>> getCallTimeDataKeyIds(Set<CallTimeData> callTimeDataSet) {
+        Map<Integer, Map<String, Integer>> keyIds = new HashMap<Integer, Map<String, Integer>>();
+        Map<Integer, Set<String>> uncachedCallDestinations = new HashMap<Integer, Set<String>>();
+        int cacheHits = 0;
+        int cacheMisses = 0;
+        for (CallTimeData callTimeData : callTimeDataSet) {
+            int scheduleId = callTimeData.getScheduleId();
+            Map<String, Integer> scheduleKeyIds = keyIds.get(scheduleId);
+            if (scheduleKeyIds == null) {
+                scheduleKeyIds = new HashMap<String, Integer>();
+                keyIds.put(scheduleId, scheduleKeyIds);
+            }
+            for (String callDestination : callTimeData.getValues().keySet()) {
+                Integer keyId = keyCache.get(scheduleId, callDestination);
+                if (keyId != null) {
+                    scheduleKeyIds.put(callDestination, keyId);
+                    cacheHits++;
+                } else {
+                    Set<String> callDestinations = uncachedCallDestinations.get(scheduleId);
+                    if (callDestinations == null) {
+                        callDestinations = new HashSet<String>();
+                        uncachedCallDestinations.put(scheduleId, callDestinations);
+                    }
+                    callDestinations.add(callDestination);
+                    cacheMisses++;
+                }
+            }
+        }
+        MeasurementMonitor.getMBean().incrementCallTimeKeyCacheHits(cacheHits);
+        MeasurementMonitor.getMBean().incrementCallTimeKeyCacheMisses(cacheMisses);
+
+        if (!uncachedCallDestinations.isEmpty()) {
+            // the keys are inserted in their own transaction, so they are committed by the time we cache them
+            Map<Integer, Map<String, Integer>> newKeyIds = callTimeDataManager
+                .insertCallTimeDataKeys(uncachedCallDestinations);
+            for (Map.Entry<Integer, Map<String, Integer>> entry : newKeyIds.entrySet()) {
+                int scheduleId = entry.getKey();
+                for (Map.Entry<String, Integer> keyId : entry.getValue().entrySet()) {
+                    keyCache.put(scheduleId, keyId.getKey(), keyId.getValue());
+                }
+                keyIds.get(scheduleId).putAll(entry.getValue());
+            }
+        }
+
+        return keyIds;
+    }
+
     @SuppressWarnings("unchecked")
     public PageList<CallTimeDataComposite> findCallTimeDataForResource(Subject subject, int scheduleId, long beginTime,
         long endTime, PageControl pageControl) {
@@ -245,6 +360,80 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
         return results;
     }
 
+    public List<CallTimeDataComposite> findTopCallTimeDataForContext(Subject subject, EntityContext context,
+        long beginTime, long endTime, CallTimeDataRanking ranking, int count) {
+
+        String filter;
+        if (context.type == EntityContext.Type.Resource) {
+            if (authorizationManager.canViewResource(subject, context.resourceId) == false) {
+                throw new PermissionException("User [" + subject.getName()
+                    + "] does not have permission to view call time data for resource[id=" + context.resourceId + "]");
+            }
+            filter = CALLTIME_VALUE_TOP_N_RESOURCE_FILTER;
+        } else if (context.type == EntityContext.Type.ResourceGroup) {
+            if (authorizationManager.canViewGroup(subject, context.groupId) == false) {
+                throw new PermissionException("User [" + subject.getName()
+                    + "] does not have permission to view call time data for resourceGroup[id=" + context.groupId
+                    + "]");
+            }
+            filter = CALLTIME_VALUE_TOP_N_GROUP_FILTER;
+        } else if (context.type == EntityContext.Type.AutoGroup) {
+            if (authorizationManager.canViewAutoGroup(subject, context.parentResourceId,
+                context.resourceTypeId) == false) {
+                throw new PermissionException("User [" + subject.getName()
+                    + "] does not have permission to view call time data for autoGroup[parentResourceId="
+                    + context.parentResourceId + ", resourceTypeId=" + context.resourceTypeId + "]");
+            }
+            filter = CALLTIME_VALUE_TOP_N_AUTOGROUP_FILTER;
+        } else {
+            throw new IllegalArgumentException(context.getUnknownContextMessage());
+        }
+
+        // Stream the value rows through a bounded heap rather than have the database group and sort all of the
+        // destinations, which for resources with tens of thousands of URLs is a lot of work to show a handful.
+        CallTimeDataTopN topN = new CallTimeDataTopN(ranking, count);
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            conn = rhqDs.getConnection();
+            DatabaseType dbType = DatabaseTypeFactory.getDatabaseType(conn);
+            String order;
+            if (dbType instanceof OracleDatabaseType) {
+                order = CALLTIME_VALUE_TOP_N_ORDER_ORACLE;
+            } else if (dbType instanceof SQLServerDatabaseType) {
+                order = CALLTIME_VALUE_TOP_N_ORDER_SQLSERVER;
+            } else {
+                order = CALLTIME_VALUE_TOP_N_ORDER;
+            }
+            ps = conn.prepareStatement(String.format(CALLTIME_VALUE_TOP_N_QUERY, filter, order));
+            ps.setFetchSize(CALLTIME_VALUE_TOP_N_FETCH_SIZE);
+            int paramIndex = 1;
+            if (context.type == EntityContext.Type.Resource) {
+                ps.setInt(paramIndex++, context.resourceId);
+            } else if (context.type == EntityContext.Type.ResourceGroup) {
+                ps.setInt(paramIndex++, context.groupId);
+            } else {
+                ps.setInt(paramIndex++, context.parentResourceId);
+                ps.setInt(paramIndex++, context.resourceTypeId);
+            }
+            ps.setLong(paramIndex++, beginTime);
+            ps.setLong(paramIndex++, endTime);
+
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                topN.add(rs.getString(1), rs.getDouble(2), rs.getDouble(3), rs.getDouble(4), rs.getLong(5), rs
+                    .getBytes(6));
+            }
+        } catch (Exception e) {
+            throw new MeasurementException("Failed to find the top " + count + " call destinations for " + context, e);
+        } finally {
+            JDBCUtil.safeClose(conn, ps, rs);
+        }
+
+        return topN.getResults();
+    }
+
     /**
      * Deletes call-time data older than the specified time.
      *
@@ -282,8 +471,9 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
      * internal method, do not expose to the remote API
      */
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public void insertCallTimeDataKeys(Set<CallTimeData> callTimeDataSet) {
+    public Map<Integer, Map<String, Integer>> insertCallTimeDataKeys(Map<Integer, Set<String>> callDestinations) {
 
+        Map<Integer, Map<String, Integer>> keyIds = new HashMap<Integer, Map<String, Integer>>();
         int[] results;
         String insertKeySql;
         PreparedStatement ps = null;
@@ -315,11 +505,10 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
             }
 
             ps = conn.prepareStatement(insertKeySql);
-            for (CallTimeData callTimeData : callTimeDataSet) {
-                ps.setInt(1, callTimeData.getScheduleId());
-                ps.setInt(3, callTimeData.getScheduleId());
-                Set<String> callDestinations = callTimeData.getValues().keySet();
-                for (String callDestination : callDestinations) {
+            for (Map.Entry<Integer, Set<String>> entry : callDestinations.entrySet()) {
+                ps.setInt(1, entry.getKey());
+                ps.setInt(3, entry.getKey());
+                for (String callDestination : entry.getValue()) {
                     ps.setString(2, callDestination);
                     ps.setString(4, callDestination);
                     ps.addBatch();
@@ -341,6 +530,21 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
 
             log.debug("Inserted new call-time data key rows for " + ((insertedRowCount >= 0) ? insertedRowCount : "?")
                 + " out of " + results.length + " reported key-value pairs.");
+
+            JDBCUtil.safeClose(ps);
+            ps = null;
+
+            // Now look up the ids of all of the keys, whether we just inserted them or they already existed.
+            for (Map.Entry<Integer, Set<String>> entry : callDestinations.entrySet()) {
+                Map<String, Integer> scheduleKeyIds = new HashMap<String, Integer>();
+                keyIds.put(entry.getKey(), scheduleKeyIds);
+                List<String> scheduleCallDestinations = new ArrayList<String>(entry.getValue());
+                for (int i = 0; i < scheduleCallDestinations.size(); i += CALLTIME_KEY_ID_QUERY_MAX_DESTINATIONS) {
+                    List<String> chunk = scheduleCallDestinations.subList(i,
+                        Math.min(i + CALLTIME_KEY_ID_QUERY_MAX_DESTINATIONS, scheduleCallDestinations.size()));
+                    findCallTimeDataKeyIds(conn, entry.getKey(), chunk, scheduleKeyIds);
+                }
+            }
         } catch (SQLException e) {
             logSQLException("Failed to persist call-time data keys", e);
         } catch (Throwable t) {
@@ -348,13 +552,42 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
         } finally {
             JDBCUtil.safeClose(conn, ps, null);
         }
+
+        return keyIds;
+    }
+
+    private void findCallTimeDataKeyIds(Connection conn, int scheduleId, List<String> callDestinations,
+        Map<String, Integer> keyIds) throws SQLException {
+
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < callDestinations.size(); i++) {
+            placeholders.append((i == 0) ? "?" : ", ?");
+        }
+
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = conn.prepareStatement(String.format(CALLTIME_KEY_ID_QUERY, placeholders));
+            int paramIndex = 1;
+            ps.setInt(paramIndex++, scheduleId);
+            for (String callDestination : callDestinations) {
+                ps.setString(paramIndex++, callDestination);
+            }
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                keyIds.put(rs.getString(1), rs.getInt(2));
+            }
+        } finally {
+            JDBCUtil.safeClose(ps, rs);
+        }
     }
 
     /*
      * internal method, do not expose to the remote API
      */
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public void insertCallTimeDataValues(Set<CallTimeData> callTimeDataSet) {
+    public boolean insertCallTimeDataValues(Set<CallTimeData> callTimeDataSet,
+        Map<Integer, Map<String, Integer>> keyIds) {
         int[] results;
         String insertValueSql;
         PreparedStatement ps = null;
@@ -385,23 +618,34 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
                 throw new IllegalArgumentException("Unknown database type, can't continue: " + dbType);
             }
 
+            int missingKeyCount = 0;
             ps = conn.prepareStatement(insertValueSql);
             for (CallTimeData callTimeData : callTimeDataSet) {
-                ps.setInt(7, callTimeData.getScheduleId());
-                Set<String> callDestinations = callTimeData.getValues().keySet();
-                for (String callDestination : callDestinations) {
-                    CallTimeDataValue callTimeDataValue = callTimeData.getValues().get(callDestination);
-                    ps.setLong(1, callTimeDataValue.getBeginTime());
-                    ps.setLong(2, callTimeDataValue.getEndTime());
-                    ps.setDouble(3, callTimeDataValue.getMinimum());
-                    ps.setDouble(4, callTimeDataValue.getMaximum());
-                    ps.setDouble(5, callTimeDataValue.getTotal());
-                    ps.setLong(6, callTimeDataValue.getCount());
-                    ps.setString(8, callDestination);
+                Map<String, Integer> scheduleKeyIds = keyIds.get(callTimeData.getScheduleId());
+                for (Map.Entry<String, CallTimeDataValue> entry : callTimeData.getValues().entrySet()) {
+                    Integer keyId = (scheduleKeyIds != null) ? scheduleKeyIds.get(entry.getKey()) : null;
+                    if (keyId == null) {
+                        missingKeyCount++;
+                        continue;
+                    }
+                    CallTimeDataValue callTimeDataValue = entry.getValue();
+                    ps.setInt(1, keyId);
+                    ps.setLong(2, callTimeDataValue.getBeginTime());
+                    ps.setLong(3, callTimeDataValue.getEndTime());
+                    ps.setDouble(4, callTimeDataValue.getMinimum());
+                    ps.setDouble(5, callTimeDataValue.getMaximum());
+                    ps.setDouble(6, callTimeDataValue.getTotal());
+                    ps.setLong(7, callTimeDataValue.getCount());
+                    CallTimeDataSketch sketch = callTimeDataValue.getSketch();
+                    ps.setBytes(8, (sketch != null) ? sketch.toBytes() : null);
                     ps.addBatch();
                 }
             }
 
+            if (missingKeyCount > 0) {
+                log.warn("Dropping " + missingKeyCount + " call-time data values whose key rows could not be found.");
+            }
+
             results = ps.executeBatch();
 
             int insertedRowCount = 0;
@@ -424,6 +668,7 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
                 log.debug("Inserted " + insertedRowCount + " call-time data value rows.");
             }
 
+            return true;
         } catch (SQLException e) {
             logSQLException("Failed to persist call-time data values", e);
         } catch (Throwable t) {
@@ -432,6 +677,9 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
             JDBCUtil.safeClose(conn, ps, null);
         }
 
+        // nothing of the failed attempt may be committed, the caller retries it
+        sessionContext.setRollbackOnly();
+        return false;
     }
 
     private void notifyAlertConditionCacheManager(String callingMethod, CallTimeData... data) {
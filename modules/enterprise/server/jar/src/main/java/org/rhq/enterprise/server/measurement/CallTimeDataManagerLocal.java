@@ -20,6 +20,8 @@ package org.rhq.enterprise.server.measurement;
 
 import java.sql.SQLException;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.ejb.Local;
@@ -29,6 +31,7 @@ import org.rhq.core.domain.common.EntityContext;
 import org.rhq.core.domain.criteria.CallTimeDataCriteria;
 import org.rhq.core.domain.measurement.calltime.CallTimeData;
 import org.rhq.core.domain.measurement.calltime.CallTimeDataComposite;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataRanking;
 import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 
@@ -51,12 +54,41 @@ public interface CallTimeDataManagerLocal extends CallTimeDataManagerRemote {
     PageList<CallTimeDataComposite> findCallTimeDataForContext(Subject subject, EntityContext context, long beginTime,
         long endTime, String destination, PageControl pageControl);
 
+    /**
+     * Finds the <code>count</code> call destinations of the given context that rank highest by the given measure,
+     * along with their estimated 95th and 99th percentile call times where the data allows. Unlike the paged queries,
+     * this streams the call-time data rather than having the database aggregate and sort all destinations.
+     *
+     * @param subject the user asking
+     * @param context a resource, compatible group or autogroup
+     * @param beginTime in millis
+     * @param endTime in millis
+     * @param ranking the measure to rank the call destinations by
+     * @param count the number of call destinations to return
+     *
+     * @return the top call destinations, best first
+     */
+    List<CallTimeDataComposite> findTopCallTimeDataForContext(Subject subject, EntityContext context, long beginTime,
+        long endTime, CallTimeDataRanking ranking, int count);
+
     int purgeCallTimeData(Date deleteUpToTime) throws SQLException;
 
     /*
      * internal methods that are exposed here so as to enable finer-grained manipulation of transactional boundaries
      */
-    void insertCallTimeDataKeys(Set<CallTimeData> callTimeDataSet);
+    /**
+     * Makes sure a key row exists for each of the given call destinations.
+     *
+     * @param callDestinations the call destinations, keyed by schedule id
+     *
+     * @return the ids of the key rows, by schedule id and call destination
+     */
+    Map<Integer, Map<String, Integer>> insertCallTimeDataKeys(Map<Integer, Set<String>> callDestinations);
 
-    void insertCallTimeDataValues(Set<CallTimeData> callTimeDataSet);
+    /**
+     * Inserts the given call-time values, using the given key row ids (by schedule id and call destination).
+     *
+     * @return false if the values could not be inserted
+     */
+    boolean insertCallTimeDataValues(Set<CallTimeData> callTimeDataSet, Map<Integer, Map<String, Integer>> keyIds);
 }
\ No newline at end of file
@@ -0,0 +1,170 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.measurement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.rhq.core.domain.measurement.calltime.CallTimeDataComposite;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataRanking;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataSketch;
+
+/**
+ * Finds the top N call destinations from a stream of call-time value rows, without holding on to more than N
+ * destinations at a time. The rows must arrive grouped by call destination (e.g. ordered by it in a binary
+ * collation, which unlike a case insensitive one cannot interleave destinations that differ only in case); the rows
+ * of each destination are aggregated as they arrive and the aggregate then competes for a place in a bounded min-heap.
+ * <p/>
+ * Percentiles are estimated from the merged {@link CallTimeDataSketch}es of a destination's rows. They are left out
+ * if any of the rows came without a sketch (e.g. data stored before sketches were collected, or reported already
+ * aggregated by the plugin), since they would then only describe part of the calls.
+ */
+final class CallTimeDataTopN {
+
+    private final CallTimeDataRanking ranking;
+    private final int size;
+    private final PriorityQueue<Aggregate> heap;
+    private final Comparator<Aggregate> order;
+
+    private Aggregate current;
+
+    CallTimeDataTopN(final CallTimeDataRanking ranking, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The number of call destinations to find must be at least 1: " + size);
+        }
+        this.ranking = ranking;
+        this.size = size;
+        this.order = new Comparator<Aggregate>() {
+            public int compare(Aggregate a1, Aggregate a2) {
+                int result = Double.compare(a1.rank(ranking), a2.rank(ranking));
+                // on ties, prefer the destination that sorts first
+                return (result != 0) ? result : a2.callDestination.compareTo(a1.callDestination);
+            }
+        };
+        this.heap = new PriorityQueue<Aggregate>(size + 1, this.order);
+    }
+
+    /**
+     * Adds a call-time value row.
+     *
+     * @param sketch the encoded {@link CallTimeDataSketch} of the row, or null if it has none
+     */
+    void add(String callDestination, double minimum, double maximum, double total, long count, byte[] sketch) {
+        if (this.current == null || !this.current.callDestination.equals(callDestination)) {
+            flush();
+            this.current = new Aggregate(callDestination);
+        }
+        this.current.add(minimum, maximum, total, count, sketch);
+    }
+
+    /**
+     * @return the top N call destinations, best first
+     */
+    List<CallTimeDataComposite> getResults() {
+        flush();
+        List<Aggregate> top = new ArrayList<Aggregate>(this.heap);
+        Collections.sort(top, Collections.reverseOrder(this.order));
+        List<CallTimeDataComposite> results = new ArrayList<CallTimeDataComposite>(top.size());
+        for (Aggregate aggregate : top) {
+            results.add(aggregate.toComposite());
+        }
+        return results;
+    }
+
+    private void flush() {
+        if (this.current == null) {
+            return;
+        }
+        if (this.heap.size() < this.size) {
+            this.heap.add(this.current);
+        } else if (this.order.compare(this.current, this.heap.peek()) > 0) {
+            this.heap.poll();
+            this.heap.add(this.current);
+        }
+        this.current = null;
+    }
+
+    private static final class Aggregate {
+        final String callDestination;
+        double minimum = Double.NaN;
+        double maximum = Double.NaN;
+        double total;
+        long count;
+        CallTimeDataSketch sketch;
+        boolean sketchComplete = true;
+
+        Aggregate(String callDestination) {
+            this.callDestination = callDestination;
+        }
+
+        void add(double minimum, double maximum, double total, long count, byte[] encodedSketch) {
+            this.minimum = Double.isNaN(this.minimum) ? minimum : Math.min(this.minimum, minimum);
+            this.maximum = Double.isNaN(this.maximum) ? maximum : Math.max(this.maximum, maximum);
+            this.total += total;
+            this.count += count;
+
+            if (!this.sketchComplete) {
+                return;
+            }
+            if (encodedSketch == null) {
+                this.sketchComplete = false;
+                this.sketch = null;
+                return;
+            }
+            CallTimeDataSketch rowSketch;
+            try {
+                rowSketch = CallTimeDataSketch.fromBytes(encodedSketch);
+            } catch (IllegalArgumentException e) {
+                this.sketchComplete = false;
+                this.sketch = null;
+                return;
+            }
+            if (this.sketch == null) {
+                this.sketch = rowSketch;
+            } else {
+                this.sketch.merge(rowSketch);
+            }
+        }
+
+        double rank(CallTimeDataRanking ranking) {
+            switch (ranking) {
+            case MAXIMUM:
+                return this.maximum;
+            case COUNT:
+                return this.count;
+            default:
+                return this.total;
+            }
+        }
+
+        CallTimeDataComposite toComposite() {
+            Double percentile95 = null;
+            Double percentile99 = null;
+            if (this.sketch != null && this.sketch.getCount() > 0) {
+                percentile95 = this.sketch.getQuantile(0.95);
+                percentile99 = this.sketch.getQuantile(0.99);
+            }
+            return new CallTimeDataComposite(this.callDestination, this.minimum, this.maximum, this.total, this.count,
+                (this.count == 0) ? 0.0 : this.total / this.count, percentile95, percentile99);
+        }
+    }
+}
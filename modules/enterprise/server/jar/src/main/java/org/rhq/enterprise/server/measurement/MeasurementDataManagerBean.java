@@ -204,6 +204,8 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
          * even if these methods check for null/empty collections, they cross the EJB boundary and so unnecessarily
          * start transactions.  by checking the null/emptiness of a collection here, by only create transactions
          * when real work will be done;
+         *
+         * a delta encoded report is expanded into its numeric data objects by the first getNumericData() call
          */
         if (report.getNumericData() != null && !report.getNumericData().isEmpty()) {
             this.measurementDataManager.addNumericData(report.getNumericData());
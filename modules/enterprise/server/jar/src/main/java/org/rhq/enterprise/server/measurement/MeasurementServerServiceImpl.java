@@ -28,6 +28,7 @@ import org.rhq.core.clientapi.server.measurement.MeasurementServerService;
 import org.rhq.core.domain.measurement.MeasurementReport;
 import org.rhq.core.domain.measurement.ResourceMeasurementScheduleRequest;
 import org.rhq.core.util.collection.ArrayUtils;
+import org.rhq.enterprise.communications.util.NotPermittedException;
 import org.rhq.enterprise.server.util.LookupUtil;
 
 /**
@@ -38,6 +39,17 @@ public class MeasurementServerServiceImpl implements MeasurementServerService {
     private Log log = LogFactory.getLog(MeasurementServerServiceImpl.class);
 
     public void mergeMeasurementReport(MeasurementReport report) {
+        // Push back on the agent while the storage cluster is congested. The agent waits the given time and then
+        // resends the report, so the data stays in its spool instead of piling up in server memory.
+        long sleepBeforeRetry = LookupUtil.getStorageClientManager().getStorageBackoffHint();
+        if (sleepBeforeRetry > 0) {
+            if (log.isDebugEnabled()) {
+                log.debug("Storage cluster is congested. Asking agent to resend measurement report ["
+                    + report.getDataCount() + "] in " + sleepBeforeRetry + " ms");
+            }
+            throw new NotPermittedException(sleepBeforeRetry);
+        }
+
         long start = System.currentTimeMillis();
         MeasurementDataManagerLocal dataManager = LookupUtil.getMeasurementDataManager();
         dataManager.mergeMeasurementReport(report);
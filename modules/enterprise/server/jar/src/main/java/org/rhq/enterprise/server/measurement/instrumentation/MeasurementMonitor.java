@@ -61,6 +61,16 @@ public class MeasurementMonitor implements MeasurementMonitorMBean {
 
     private AtomicLong calltimeValuesInserted = new AtomicLong();
 
+    private AtomicLong callTimeKeyCacheHits = new AtomicLong();
+
+    private AtomicLong callTimeKeyCacheMisses = new AtomicLong();
+
+    private AtomicLong eventInsertTime = new AtomicLong();
+
+    private AtomicLong eventsInserted = new AtomicLong();
+
+    private AtomicLong eventsCollapsed = new AtomicLong();
+
     private AtomicLong availabilityInsertTime = new AtomicLong();
 
     private AtomicLong availabilitiesInserted = new AtomicLong();
@@ -141,6 +151,52 @@ public class MeasurementMonitor implements MeasurementMonitorMBean {
         this.callTimeInsertTime.addAndGet(delta);
     }
 
+    public long getCallTimeKeyCacheHits() {
+        return callTimeKeyCacheHits.get();
+    }
+
+    public void incrementCallTimeKeyCacheHits(long delta) {
+        this.callTimeKeyCacheHits.addAndGet(delta);
+    }
+
+    public long getCallTimeKeyCacheMisses() {
+        return callTimeKeyCacheMisses.get();
+    }
+
+    public void incrementCallTimeKeyCacheMisses(long delta) {
+        this.callTimeKeyCacheMisses.addAndGet(delta);
+    }
+
+    public double getCallTimeKeyCacheHitRatio() {
+        long hits = getCallTimeKeyCacheHits();
+        long lookups = hits + getCallTimeKeyCacheMisses();
+        return (lookups == 0) ? 0.0 : (double) hits / lookups;
+    }
+
+    public long getEventInsertTime() {
+        return eventInsertTime.get();
+    }
+
+    public void incrementEventInsertTime(long delta) {
+        this.eventInsertTime.addAndGet(delta);
+    }
+
+    public long getEventsInserted() {
+        return eventsInserted.get();
+    }
+
+    public void incrementEventsInserted(long delta) {
+        this.eventsInserted.addAndGet(delta);
+    }
+
+    public long getEventsCollapsed() {
+        return eventsCollapsed.get();
+    }
+
+    public void incrementEventsCollapsed(long delta) {
+        this.eventsCollapsed.addAndGet(delta);
+    }
+
     public long getAvailabilityInsertTime() {
         return availabilityInsertTime.get();
     }
@@ -287,6 +343,26 @@ public class MeasurementMonitor implements MeasurementMonitorMBean {
         storageClientManager.setAggregationWorkers(numWorkers);
     }
 
+    @Override
+    public int getRawBatchSize() {
+        return storageClientManager.getRawBatchSize();
+    }
+
+    @Override
+    public void setRawBatchSize(int batchSize) {
+        storageClientManager.setRawBatchSize(batchSize);
+    }
+
+    @Override
+    public int getRawMaxInFlight() {
+        return storageClientManager.getRawMaxInFlight();
+    }
+
+    @Override
+    public void setRawMaxInFlight(int maxInFlight) {
+        storageClientManager.setRawMaxInFlight(maxInFlight);
+    }
+
     @PostConstruct
     private void init() {
         JMXUtil.registerMBean(this, OBJECT_NAME);
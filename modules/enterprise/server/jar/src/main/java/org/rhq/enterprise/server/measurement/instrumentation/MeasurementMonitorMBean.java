@@ -39,6 +39,28 @@ public interface MeasurementMonitorMBean {
 
     void incrementCalltimeValuesInserted(long delta);
 
+    long getCallTimeKeyCacheHits();
+
+    void incrementCallTimeKeyCacheHits(long delta);
+
+    long getCallTimeKeyCacheMisses();
+
+    void incrementCallTimeKeyCacheMisses(long delta);
+
+    double getCallTimeKeyCacheHitRatio();
+
+    long getEventInsertTime();
+
+    void incrementEventInsertTime(long delta);
+
+    long getEventsInserted();
+
+    void incrementEventsInserted(long delta);
+
+    long getEventsCollapsed();
+
+    void incrementEventsCollapsed(long delta);
+
     int getScheduledMeasurementsPerMinute();
 
     long getPurgeTime();
@@ -106,4 +128,12 @@ public interface MeasurementMonitorMBean {
     int getAggregationWorkers();
 
     void setAggregationWorkers(int numWorkers);
+
+    int getRawBatchSize();
+
+    void setRawBatchSize(int batchSize);
+
+    int getRawMaxInFlight();
+
+    void setRawMaxInFlight(int maxInFlight);
 }
\ No newline at end of file
@@ -21,6 +21,7 @@ package org.rhq.enterprise.server.scheduler.jobs;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Properties;
 
 import org.apache.commons.logging.Log;
@@ -45,11 +46,11 @@ import org.rhq.enterprise.server.measurement.MeasurementBaselineManagerLocal;
 import org.rhq.enterprise.server.measurement.MeasurementDataManagerLocal;
 import org.rhq.enterprise.server.measurement.MeasurementOOBManagerLocal;
 import org.rhq.enterprise.server.scheduler.SchedulerLocal;
-import org.rhq.enterprise.server.storage.StorageClientManager;
 import org.rhq.enterprise.server.system.SystemManagerLocal;
 import org.rhq.enterprise.server.util.LookupUtil;
 import org.rhq.enterprise.server.util.TimingVoodoo;
-import org.rhq.server.metrics.MetricsServer;
+import org.rhq.server.metrics.MetricsConstants;
+import org.rhq.server.metrics.aggregation.AggregateConsumer;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
 
 /**
@@ -61,6 +62,14 @@ public class DataPurgeJob extends AbstractStatefulJob {
 
     private static long HOUR = 60 * 60 * 1000L;
 
+    /**
+     * When true, OOBs are computed from chunks of 1 hour aggregates while metrics aggregation is running instead of
+     * from the full set of 1 hour aggregates afterwards. This keeps memory usage of the job flat regardless of the
+     * number of schedules. The trade-off is that OOBs are computed against the baselines that existed prior to this
+     * run of the job since baselines are recalculated after aggregation.
+     */
+    private static final boolean STREAM_AGGREGATES = Boolean.getBoolean(MetricsConstants.AGGREGATION_STREAMING);
+
     /**
      * Schedules a purge job to trigger right now. This will not block - it schedules the job to trigger but immediately
      * returns. This method will ensure that no two data purge jobs will execute at the same time (Quartz will ensure
@@ -89,11 +98,18 @@ public class DataPurgeJob extends AbstractStatefulJob {
         try {
             Properties systemConfig = LookupUtil.getSystemManager().getSystemConfiguration(
                 LookupUtil.getSubjectManager().getOverlord());
-            Iterable<AggregateNumericMetric> oneHourAggregates = compressMeasurementData();
-            purgeEverything(systemConfig);
-            performDatabaseMaintenance(LookupUtil.getSystemManager(), systemConfig);
-            calculateAutoBaselines(LookupUtil.getMeasurementBaselineManager());
-            calculateOOBs(oneHourAggregates);
+            if (STREAM_AGGREGATES) {
+                compressMeasurementDataAndCalculateOOBs();
+                purgeEverything(systemConfig);
+                performDatabaseMaintenance(LookupUtil.getSystemManager(), systemConfig);
+                calculateAutoBaselines(LookupUtil.getMeasurementBaselineManager());
+            } else {
+                Iterable<AggregateNumericMetric> oneHourAggregates = compressMeasurementData();
+                purgeEverything(systemConfig);
+                performDatabaseMaintenance(LookupUtil.getSystemManager(), systemConfig);
+                calculateAutoBaselines(LookupUtil.getMeasurementBaselineManager());
+                calculateOOBs(oneHourAggregates);
+            }
         } catch (Exception e) {
             LOG.error("Data Purge Job FAILED TO COMPLETE. Cause: " + e);
         } finally {
@@ -107,9 +123,7 @@ public class DataPurgeJob extends AbstractStatefulJob {
         LOG.info("Measurement data compression starting at " + new Date(timeStart));
 
         try {
-            StorageClientManager storageClientManager = LookupUtil.getStorageClientManager();
-            MetricsServer metricsServer = storageClientManager.getMetricsServer();
-            return metricsServer.calculateAggregates();
+            return LookupUtil.getStorageClientManager().getMetricsServer().calculateAggregates();
         } catch (Exception e) {
             LOG.error("Failed to compress measurement data. Cause: " + e, e);
             return Collections.emptyList();
@@ -119,6 +133,29 @@ public class DataPurgeJob extends AbstractStatefulJob {
         }
     }
 
+    private void compressMeasurementDataAndCalculateOOBs() {
+        long timeStart = System.currentTimeMillis();
+        LOG.info("Measurement data compression and auto-calculation of OOBs starting at " + new Date(timeStart));
+
+        try {
+            final Subject overlord = LookupUtil.getSubjectManager().getOverlord();
+            final MeasurementOOBManagerLocal manager = LookupUtil.getOOBManager();
+            removeOutdatedOOBs(overlord, manager);
+
+            LookupUtil.getStorageClientManager().getMetricsServer().streamAggregates(new AggregateConsumer() {
+                @Override
+                public void consume(List<AggregateNumericMetric> oneHourAggregates) {
+                    manager.computeOOBsForLastHour(overlord, oneHourAggregates);
+                }
+            });
+        } catch (Exception e) {
+            LOG.error("Failed to compress measurement data. Cause: " + e, e);
+        } finally {
+            long duration = System.currentTimeMillis() - timeStart;
+            LOG.info("Measurement data compression and auto-calculation of OOBs completed in [" + duration + "]ms");
+        }
+    }
+
     private void purgeEverything(Properties systemConfig) {
         purgeCallTimeData(LookupUtil.getCallTimeDataManager(), systemConfig);
         purgeEventData(LookupUtil.getEventManager(), systemConfig);
@@ -368,6 +405,16 @@ public class DataPurgeJob extends AbstractStatefulJob {
         LOG.info("Auto-calculation of OOBs starting");
         Subject overlord = LookupUtil.getSubjectManager().getOverlord();
         MeasurementOOBManagerLocal manager = LookupUtil.getOOBManager();
+        removeOutdatedOOBs(overlord, manager);
+
+        // Now caclulate the fresh OOBs
+        manager.computeOOBsForLastHour(overlord, oneHourAggregates);
+
+        long duration = System.currentTimeMillis() - timeStart;
+        LOG.info("Auto-calculation of OOBs completed in [" + duration + "]ms");
+    }
+
+    private void removeOutdatedOOBs(Subject overlord, MeasurementOOBManagerLocal manager) {
         // purge oobs whose baseline just got recalculated
         // For now just assume that our system is fast, so a cutoff of 30mins is ok,
         // as the calculate baseline job runs hourly
@@ -376,11 +423,5 @@ public class DataPurgeJob extends AbstractStatefulJob {
 
         // clean up
         LookupUtil.getSystemManager().vacuum(overlord, new String[] { "RHQ_MEASUREMENT_OOB" });
-
-        // Now caclulate the fresh OOBs
-        manager.computeOOBsForLastHour(overlord, oneHourAggregates);
-
-        long duration = System.currentTimeMillis() - timeStart;
-        LOG.info("Auto-calculation of OOBs completed in [" + duration + "]ms");
     }
-}
\ No newline at end of file
+}
@@ -26,6 +26,7 @@ import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LIMIT_MIN;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TIMEOUT_DAMPENING;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TIMEOUT_DELTA;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TOPOLOGY_CHANGE_DELTA;
+import static org.rhq.server.metrics.StorageClientConstants.TOKEN_AWARE;
 
 import java.io.File;
 import java.io.IOException;
@@ -58,6 +59,7 @@ import com.datastax.driver.core.policies.DefaultRetryPolicy;
 import com.datastax.driver.core.policies.LoadBalancingPolicy;
 import com.datastax.driver.core.policies.LoggingRetryPolicy;
 import com.datastax.driver.core.policies.RoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -72,6 +74,7 @@ import org.rhq.core.util.PropertiesFileUpdate;
 import org.rhq.core.util.exception.ThrowableUtil;
 import org.rhq.enterprise.server.auth.SubjectManagerLocal;
 import org.rhq.enterprise.server.cloud.StorageNodeManagerLocal;
+import org.rhq.enterprise.server.cloud.TopologyManagerLocal;
 import org.rhq.enterprise.server.core.CoreServer;
 import org.rhq.enterprise.server.system.SystemManagerLocal;
 import org.rhq.enterprise.server.util.JMXUtil;
@@ -104,6 +107,8 @@ public class StorageClientManager implements StorageClientManagerMBean{
     private SystemManagerLocal systemManager;
     @EJB
     private CoreServer coreServer;
+    @EJB
+    private TopologyManagerLocal topologyManager;
     @Resource
     private TimerService timerService;
 
@@ -313,6 +318,18 @@ public class StorageClientManager implements StorageClientManagerMBean{
         return metricsServer;
     }
 
+    /**
+     * Lets the metrics server know how many servers there are in the cloud. This is called on every server from its
+     * heartbeat, since the metrics server has to know whether other servers insert data into the storage cluster too.
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void updateServerCount(int serverCount) {
+        MetricsServer server = metricsServer;
+        if (server != null) {
+            server.setMultipleServers(serverCount > 1);
+        }
+    }
+
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public StorageSession getSession() {
         return session;
@@ -328,6 +345,15 @@ public class StorageClientManager implements StorageClientManagerMBean{
         return storageClusterMonitor != null && storageClusterMonitor.isClusterAvailable();
     }
 
+    /**
+     * @return The time in milliseconds that agents should wait before sending more measurement data because the
+     * storage cluster is congested, or zero if they can send right away
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getStorageBackoffHint() {
+        return storageClusterMonitor == null ? 0 : storageClusterMonitor.getBackoffHint();
+    }
+
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public int getAggregationBatchSize() {
         return metricsServer.getAggregationBatchSize();
@@ -360,6 +386,39 @@ public class StorageClientManager implements StorageClientManagerMBean{
         persistStorageProperty(MetricsConstants.AGGREGATION_WORKERS, Integer.toString(numWorkers));
     }
 
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getRawBatchSize() {
+        return metricsServer.getRawBatchSize();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void setRawBatchSize(int batchSize) {
+        metricsServer.setRawBatchSize(batchSize);
+        persistStorageProperty(MetricsConstants.RAW_BATCH_SIZE, Integer.toString(batchSize));
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getRawMaxInFlight() {
+        return metricsServer.getRawMaxInFlight();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void setRawMaxInFlight(int maxInFlight) {
+        metricsServer.setRawMaxInFlight(maxInFlight);
+        persistStorageProperty(MetricsConstants.RAW_MAX_IN_FLIGHT, Integer.toString(maxInFlight));
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public boolean isIncrementalAggregation() {
+        return metricsServer.isIncrementalAggregation();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void setIncrementalAggregation(boolean incrementalAggregation) {
+        metricsServer.setIncrementalAggregation(incrementalAggregation);
+        persistStorageProperty(MetricsConstants.AGGREGATION_INCREMENTAL, Boolean.toString(incrementalAggregation));
+    }
+
     @Override
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public double getRequestLimit() {
@@ -437,6 +496,54 @@ public class StorageClientManager implements StorageClientManagerMBean{
         return session.getTimeouts();
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getRequestConcurrencyLimit() {
+        return storageClusterMonitor.getRequestConcurrencyLimit();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getRequestsInFlight() {
+        return storageClusterMonitor.getRequestsInFlight();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getRequestsWaiting() {
+        return storageClusterMonitor.getRequestsWaiting();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getRequestLatencyP99() {
+        return storageClusterMonitor.getRequestLatencyP99();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getMetricsCacheHits() {
+        return metricsServer.getMetricsCache().getHits();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getMetricsCacheMisses() {
+        return metricsServer.getMetricsCache().getMisses();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getMetricsCacheEvictions() {
+        return metricsServer.getMetricsCache().getEvictions();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getMetricsCacheSize() {
+        return metricsServer.getMetricsCache().getSize();
+    }
+
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public void persistStorageProperty(String key, String value) {
         if (Boolean.getBoolean("running.itests-2")) {
@@ -517,7 +624,19 @@ public class StorageClientManager implements StorageClientManagerMBean{
         return cluster.connect(RHQ_KEYSPACE);
     }
 
+    /**
+     * Unless disabled, requests are routed to a replica of the partition they access. Together with the routing of
+     * aggregation batches by owning node, this spreads aggregation evenly over the storage nodes.
+     */
     private LoadBalancingPolicy getLoadBalancingPolicy() {
+        LoadBalancingPolicy policy = getChildLoadBalancingPolicy();
+        if (Boolean.valueOf(System.getProperty(TOKEN_AWARE, "true"))) {
+            return new TokenAwarePolicy(policy);
+        }
+        return policy;
+    }
+
+    private LoadBalancingPolicy getChildLoadBalancingPolicy() {
         String policy = System.getProperty(LOAD_BALANCING);
         if (policy == null || policy.equals("RoundRobin")) {
             return new RoundRobinPolicy();
@@ -548,6 +667,7 @@ public class StorageClientManager implements StorageClientManagerMBean{
         DateTimeService dateTimeService = new DateTimeService();
         dateTimeService.setConfiguration(metricsConfiguration);
         metricsServer.setDateTimeService(dateTimeService);
+        metricsServer.setMultipleServers(topologyManager.getServerCount() > 1);
         metricsServer.init();
     }
 }
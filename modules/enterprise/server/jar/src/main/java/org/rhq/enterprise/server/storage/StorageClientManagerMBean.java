@@ -29,4 +29,20 @@ public interface StorageClientManagerMBean {
 
     long getTotalRequests();
 
+    int getRequestConcurrencyLimit();
+
+    int getRequestsInFlight();
+
+    int getRequestsWaiting();
+
+    long getRequestLatencyP99();
+
+    long getMetricsCacheHits();
+
+    long getMetricsCacheMisses();
+
+    long getMetricsCacheEvictions();
+
+    int getMetricsCacheSize();
+
 }
@@ -32,6 +32,38 @@ public class StorageClusterMonitor implements StorageStateListener {
         return isClusterAvailable;
     }
 
+    /**
+     * @return True if requests are queuing up behind the adaptive concurrency limit because the storage cluster is
+     * not keeping up
+     */
+    public boolean isClusterCongested() {
+        return session.getConcurrencyLimiter().isCongested();
+    }
+
+    /**
+     * @return The time in milliseconds that agents should wait before sending more measurement data, or zero if the
+     * cluster is not congested
+     */
+    public long getBackoffHint() {
+        return session.getConcurrencyLimiter().getBackoffHint();
+    }
+
+    public int getRequestConcurrencyLimit() {
+        return session.getConcurrencyLimiter().getLimit();
+    }
+
+    public int getRequestsInFlight() {
+        return session.getConcurrencyLimiter().getInFlight();
+    }
+
+    public int getRequestsWaiting() {
+        return session.getConcurrencyLimiter().getWaiting();
+    }
+
+    public long getRequestLatencyP99() {
+        return session.getConcurrencyLimiter().getP99Latency();
+    }
+
     @Override
     public void onStorageNodeUp(InetAddress address) {
         log.info("Storage node at " + address.getHostAddress() + " is up");
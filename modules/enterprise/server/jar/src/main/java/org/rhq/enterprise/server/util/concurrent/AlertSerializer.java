@@ -18,19 +18,13 @@
  */
 package org.rhq.enterprise.server.util.concurrent;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 public class AlertSerializer {
     private final Log log = LogFactory.getLog(AlertSerializer.class);
 
-    private static Map<Integer, ReentrantReadWriteLock> locks = new HashMap<Integer, ReentrantReadWriteLock>();
-    private static Map<Integer, Long> lockTimes = Collections.synchronizedMap(new HashMap<Integer, Long>());
+    private static final KeyedLocks<Integer> locks = new KeyedLocks<Integer>();
     private static AlertSerializer singleton = new AlertSerializer();;
 
     // synchronize so only one thread creates our singleton
@@ -42,24 +36,10 @@ public class AlertSerializer {
         String msg = "tid= " + Thread.currentThread().getId() + ": alertDefinitionId=" + alertDefinitionId;
         boolean debug = this.log.isDebugEnabled();
 
-        ReentrantReadWriteLock lock = null;
-        logDebug(debug, msg, ": about to synchronize");
-        synchronized (this) {
-            logDebug(debug, msg, ": synchronized");
-            lock = AlertSerializer.locks.get(alertDefinitionId);
-            if (lock == null) {
-                logDebug(debug, msg, ": creating new lock");
-                lock = new ReentrantReadWriteLock();
-                AlertSerializer.locks.put(alertDefinitionId, lock);
-            }
-        }
-
         logDebug(debug, msg, ": acquiring write lock");
         long start = System.currentTimeMillis();
-        lock.writeLock().lock();
-        long end = System.currentTimeMillis();
-        long duration = end - start;
-        AlertSerializer.lockTimes.put(alertDefinitionId, Long.valueOf(end));
+        AlertSerializer.locks.lock(alertDefinitionId);
+        long duration = System.currentTimeMillis() - start;
         if (duration < 5000L) {
             logDebug(debug, msg, ": acquired write lock in millis=" + duration);
         } else {
@@ -73,11 +53,10 @@ public class AlertSerializer {
         String msg = "tid= " + Thread.currentThread().getId() + ": alertDefinitionId=" + alertDefinitionId;
         boolean debug = this.log.isDebugEnabled();
 
-        ReentrantReadWriteLock lock = AlertSerializer.locks.get(alertDefinitionId);
+        long lockedTime = AlertSerializer.locks.getLockedTime(alertDefinitionId);
 
-        if (lock != null) {
-            Long lockedTime = AlertSerializer.lockTimes.get(alertDefinitionId);
-            long duration = System.currentTimeMillis() - ((lockedTime != null) ? lockedTime : Long.MAX_VALUE);
+        if (lockedTime != 0L) {
+            long duration = System.currentTimeMillis() - lockedTime;
 
             if (duration < 5000L) {
                 logDebug(debug, msg, ": releasing write lock after being locked for millis=" + duration);
@@ -85,7 +64,7 @@ public class AlertSerializer {
                 this.log.info(msg + ": releasing write lock after being locked for millis=" + duration);
             }
 
-            lock.writeLock().unlock();
+            AlertSerializer.locks.unlock(alertDefinitionId);
             logDebug(debug, msg, ": released write lock");
         } else {
             this.log.warn(msg + ": cannot release write lock");
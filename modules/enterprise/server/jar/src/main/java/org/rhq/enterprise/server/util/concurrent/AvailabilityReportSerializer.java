@@ -18,47 +18,103 @@
  */
 package org.rhq.enterprise.server.util.concurrent;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import org.rhq.core.domain.discovery.AvailabilityReport;
+
 public class AvailabilityReportSerializer {
+    /**
+     * If true, availability reports from an agent that arrive while an older report from the same agent is still
+     * waiting for the lock are coalesced with the waiting report, see {@link #lock(AvailabilityReport)}.
+     */
+    public static final String COALESCE_PROPERTY = "rhq.server.availability-report.coalesce";
+
     private final Log log = LogFactory.getLog(AvailabilityReportSerializer.class);
 
-    private static Map<String, ReentrantReadWriteLock> locks = new HashMap<String, ReentrantReadWriteLock>();
-    private static Map<String, Long> lockTimes = Collections.synchronizedMap(new HashMap<String, Long>());
-    private static AvailabilityReportSerializer singleton = new AvailabilityReportSerializer();
+    private static final KeyedLocks<String> locks = new KeyedLocks<String>();
+    private static AvailabilityReportSerializer singleton = new AvailabilityReportSerializer(
+        Boolean.getBoolean(COALESCE_PROPERTY));
+
+    private final boolean coalesce;
+
+    // the agent reports that are waiting for the lock, at most one per agent
+    private final ConcurrentMap<String, WaitingReport> waitingReports = new ConcurrentHashMap<String, WaitingReport>();
+
+    AvailabilityReportSerializer(boolean coalesce) {
+        this.coalesce = coalesce;
+    }
 
     public static AvailabilityReportSerializer getSingleton() {
         return singleton;
     }
 
-    public void lock(String agentName) {
-        String msg = "tid=" + Thread.currentThread().getId() + "; agent=" + agentName;
-        boolean debug = this.log.isDebugEnabled();
+    /**
+     * Locks the agent that sent the report, like {@link #lock(String)}, unless the report can be coalesced with an
+     * older report of the same agent that is still waiting for the lock. In that case the report is merged into the
+     * waiting one and <code>null</code> is returned without locking; the thread that is waiting with the older report
+     * will process both. When the lock is acquired the returned report contains the availabilities of all the reports
+     * that were merged into it, and must be processed instead of the given report.
+     * <p>
+     * Coalescing is only done if enabled with the {@link #COALESCE_PROPERTY} system property and never for server
+     * side or enablement reports, since a merged report is a plain agent report and the UNKNOWN availabilities of an
+     * enablement report are only honored as long as it is flagged as one. A merged report holds the latest
+     * availability of each resource, so if a resource changed more than once while the reports were waiting only its
+     * latest change is recorded.
+     *
+     * @param  report the report sent by an agent
+     *
+     * @return the report to process after the agent has been locked, or <code>null</code> if the report has been
+     *         merged into a waiting report and the agent has not been locked
+     */
+    public AvailabilityReport lock(AvailabilityReport report) {
+        String agentName = report.getAgentName();
+        if (!coalesce || report.isServerSideReport() || report.isEnablementReport() || agentName == null) {
+            lock(agentName);
+            return report;
+        }
 
-        ReentrantReadWriteLock lock = null;
-        logDebug(debug, msg, ": about to synchronize");
-        synchronized (this) {
-            logDebug(debug, msg, ": synchronized");
-            lock = AvailabilityReportSerializer.locks.get(agentName);
-            if (lock == null) {
-                logDebug(debug, msg, ": creating new lock");
-                lock = new ReentrantReadWriteLock();
-                AvailabilityReportSerializer.locks.put(agentName, lock);
+        WaitingReport waiting = new WaitingReport(report);
+        while (true) {
+            WaitingReport existing = waitingReports.putIfAbsent(agentName, waiting);
+            if (existing == null) {
+                break;
             }
+            synchronized (existing) {
+                if (!existing.taken) {
+                    existing.report = merge(existing.report, report);
+                    if (this.log.isDebugEnabled()) {
+                        this.log.debug("agent=" + agentName + ": coalesced " + report + " into waiting report");
+                    }
+                    return null;
+                }
+            }
+            // the existing report has just been taken for processing, it no longer waits
+            waitingReports.remove(agentName, existing);
         }
 
+        lock(agentName);
+
+        synchronized (waiting) {
+            waiting.taken = true;
+            waitingReports.remove(agentName, waiting);
+            return waiting.report;
+        }
+    }
+
+    public void lock(String agentName) {
+        String msg = "tid=" + Thread.currentThread().getId() + "; agent=" + agentName;
+        boolean debug = this.log.isDebugEnabled();
+
         logDebug(debug, msg, ": acquiring write lock");
         long start = System.currentTimeMillis();
-        lock.writeLock().lock();
-        long end = System.currentTimeMillis();
-        long duration = end - start;
-        AvailabilityReportSerializer.lockTimes.put(agentName, Long.valueOf(end));
+        AvailabilityReportSerializer.locks.lock(agentName);
+        long duration = System.currentTimeMillis() - start;
         if (duration < 5000L) {
             logDebug(debug, msg, ": acquired write lock in millis=" + duration);
         } else {
@@ -72,11 +128,10 @@ public class AvailabilityReportSerializer {
         String msg = "tid=" + Thread.currentThread().getId() + "; agent=" + agentName;
         boolean debug = this.log.isDebugEnabled();
 
-        ReentrantReadWriteLock lock = AvailabilityReportSerializer.locks.get(agentName);
+        long lockedTime = AvailabilityReportSerializer.locks.getLockedTime(agentName);
 
-        if (lock != null) {
-            Long lockedTime = AvailabilityReportSerializer.lockTimes.get(agentName);
-            long duration = System.currentTimeMillis() - ((lockedTime != null) ? lockedTime : Long.MAX_VALUE);
+        if (lockedTime != 0L) {
+            long duration = System.currentTimeMillis() - lockedTime;
 
             if (duration < 5000L) {
                 logDebug(debug, msg, ": releasing write lock after being locked for millis=" + duration);
@@ -84,7 +139,7 @@ public class AvailabilityReportSerializer {
                 this.log.info(msg + ": releasing write lock after being locked for millis=" + duration);
             }
 
-            lock.writeLock().unlock();
+            AvailabilityReportSerializer.locks.unlock(agentName);
             logDebug(debug, msg, ": released write lock");
         } else {
             this.log.warn(msg + ": cannot release write lock");
@@ -98,4 +153,36 @@ public class AvailabilityReportSerializer {
             this.log.debug(arg1 + arg2);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Merges a newer report into an older one. A full report replaces the older report; the availabilities of a
+     * changes-only report replace those of the same resources in the older report. Neither report may be an
+     * enablement report.
+     */
+    static AvailabilityReport merge(AvailabilityReport older, AvailabilityReport newer) {
+        if (!newer.isChangesOnlyReport()) {
+            return newer;
+        }
+
+        Map<Integer, AvailabilityReport.Datum> latest = new LinkedHashMap<Integer, AvailabilityReport.Datum>();
+        for (AvailabilityReport.Datum datum : older.getResourceAvailability()) {
+            latest.put(datum.getResourceId(), datum);
+        }
+        for (AvailabilityReport.Datum datum : newer.getResourceAvailability()) {
+            latest.put(datum.getResourceId(), datum);
+        }
+
+        AvailabilityReport merged = new AvailabilityReport(older.isChangesOnlyReport(), older.getAgentName());
+        merged.getResourceAvailability().addAll(latest.values());
+        return merged;
+    }
+
+    private static class WaitingReport {
+        private AvailabilityReport report;
+        private boolean taken;
+
+        WaitingReport(AvailabilityReport report) {
+            this.report = report;
+        }
+    }
+}
@@ -18,19 +18,13 @@
  */
 package org.rhq.enterprise.server.util.concurrent;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 public class InventoryReportSerializer {
     private final Log log = LogFactory.getLog(InventoryReportSerializer.class);
 
-    private static Map<String, ReentrantReadWriteLock> locks = new HashMap<String, ReentrantReadWriteLock>();
-    private static Map<String, Long> lockTimes = Collections.synchronizedMap(new HashMap<String, Long>());
+    private static final KeyedLocks<String> locks = new KeyedLocks<String>();
     private static InventoryReportSerializer singleton = new InventoryReportSerializer();
 
     public static InventoryReportSerializer getSingleton() {
@@ -41,24 +35,10 @@ public class InventoryReportSerializer {
         String msg = "tid=" + Thread.currentThread().getId() + "; agent=" + agentName;
         boolean debug = this.log.isDebugEnabled();
 
-        ReentrantReadWriteLock lock = null;
-        logDebug(debug, msg, ": about to synchronize");
-        synchronized (this) {
-            logDebug(debug, msg, ": synchronized");
-            lock = InventoryReportSerializer.locks.get(agentName);
-            if (lock == null) {
-                logDebug(debug, msg, ": creating new lock");
-                lock = new ReentrantReadWriteLock();
-                InventoryReportSerializer.locks.put(agentName, lock);
-            }
-        }
-
         logDebug(debug, msg, ": acquiring write lock");
         long start = System.currentTimeMillis();
-        lock.writeLock().lock();
-        long end = System.currentTimeMillis();
-        long duration = end - start;
-        InventoryReportSerializer.lockTimes.put(agentName, Long.valueOf(end));
+        InventoryReportSerializer.locks.lock(agentName);
+        long duration = System.currentTimeMillis() - start;
         if (duration < 5000L) {
             logDebug(debug, msg, ": acquired write lock in millis=" + duration);
         } else {
@@ -72,11 +52,10 @@ public class InventoryReportSerializer {
         String msg = "tid=" + Thread.currentThread().getId() + "; agent=" + agentName;
         boolean debug = this.log.isDebugEnabled();
 
-        ReentrantReadWriteLock lock = InventoryReportSerializer.locks.get(agentName);
+        long lockedTime = InventoryReportSerializer.locks.getLockedTime(agentName);
 
-        if (lock != null) {
-            Long lockedTime = InventoryReportSerializer.lockTimes.get(agentName);
-            long duration = System.currentTimeMillis() - ((lockedTime != null) ? lockedTime : Long.MAX_VALUE);
+        if (lockedTime != 0L) {
+            long duration = System.currentTimeMillis() - lockedTime;
 
             if (duration < 5000L) {
                 logDebug(debug, msg, ": releasing write lock after being locked for millis=" + duration);
@@ -84,7 +63,7 @@ public class InventoryReportSerializer {
                 this.log.info(msg + ": releasing write lock after being locked for millis=" + duration);
             }
 
-            lock.writeLock().unlock();
+            InventoryReportSerializer.locks.unlock(agentName);
             logDebug(debug, msg, ": released write lock");
         } else {
             this.log.warn(msg + ": cannot release write lock");
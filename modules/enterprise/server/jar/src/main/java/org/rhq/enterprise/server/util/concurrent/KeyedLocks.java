@@ -0,0 +1,137 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.util.concurrent;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A registry of exclusive locks, one per key, for the serializers in this package. Looking up or creating a lock does
+ * not take a global monitor; the registry is a {@link ConcurrentHashMap} striped across several segments. Each lock
+ * counts the threads that hold or wait for it and is removed from the registry when the last of them releases it, so
+ * the registry only holds locks for keys that are in use.
+ *
+ * @param <K> the type of the keys, e.g. agent names or alert definition ids
+ */
+class KeyedLocks<K> {
+
+    private final ConcurrentMap<K, KeyedLock> locks = new ConcurrentHashMap<K, KeyedLock>(256, 0.75f, 64);
+
+    /**
+     * Blocks until the calling thread holds the lock for the key. The lock is reentrant.
+     *
+     * @param key the key to lock
+     */
+    void lock(K key) {
+        while (true) {
+            KeyedLock lock = locks.get(key);
+            if (lock == null) {
+                KeyedLock newLock = new KeyedLock();
+                lock = locks.putIfAbsent(key, newLock);
+                if (lock == null) {
+                    lock = newLock;
+                }
+            }
+
+            if (lock.retain()) {
+                lock.lock();
+                lock.lockedTime = System.currentTimeMillis();
+                return;
+            }
+
+            // the lock was just released by its last user and is being evicted, a new one will replace it
+            locks.remove(key, lock);
+        }
+    }
+
+    /**
+     * Releases the lock the calling thread holds for the key.
+     *
+     * @param  key the key to unlock
+     *
+     * @return <code>false</code> if there was no lock for the key
+     *
+     * @throws IllegalMonitorStateException if the calling thread does not hold the lock
+     */
+    boolean unlock(K key) {
+        KeyedLock lock = locks.get(key);
+        if (lock == null) {
+            return false;
+        }
+
+        lock.unlock();
+        if (lock.release()) {
+            locks.remove(key, lock);
+        }
+        return true;
+    }
+
+    /**
+     * @return the time the lock for the key was last acquired, or 0 if there is no lock for the key
+     */
+    long getLockedTime(K key) {
+        KeyedLock lock = locks.get(key);
+        return (lock != null) ? lock.lockedTime : 0L;
+    }
+
+    /**
+     * @return the number of keys that currently have a lock, i.e. that are locked or waited for
+     */
+    int size() {
+        return locks.size();
+    }
+
+    private static class KeyedLock extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        private static final int EVICTED = -1;
+
+        // the number of lock() calls that have not been matched by an unlock() call yet, or EVICTED
+        private final AtomicInteger users = new AtomicInteger();
+
+        private volatile long lockedTime;
+
+        boolean retain() {
+            while (true) {
+                int current = users.get();
+                if (current == EVICTED) {
+                    return false;
+                }
+                if (users.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return <code>true</code> if this was the last user and the lock must be evicted
+         */
+        boolean release() {
+            while (true) {
+                int current = users.get();
+                int next = (current == 1) ? EVICTED : current - 1;
+                if (users.compareAndSet(current, next)) {
+                    return next == EVICTED;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+@Test
+public class IntKeyedCacheMapTest {
+
+    public void testLookup() {
+        Map<Integer, List<String>> cache = new HashMap<Integer, List<String>>();
+        for (int i = -500; i < 500; i++) {
+            cache.put(i * 7, Arrays.asList("a" + i, "b" + i));
+        }
+        cache.put(Integer.MAX_VALUE, Arrays.asList("max"));
+        cache.put(Integer.MIN_VALUE, Arrays.asList("min"));
+
+        IntKeyedCacheMap<String> snapshot = IntKeyedCacheMap.copyOf(cache, String.class);
+
+        for (int i = -500; i < 500; i++) {
+            String[] elements = snapshot.get(i * 7);
+            assert elements != null : "Missing elements for key " + (i * 7);
+            assert Arrays.equals(elements, new String[] { "a" + i, "b" + i });
+            assert snapshot.get(i * 7 + 1) == null;
+        }
+        assert Arrays.equals(snapshot.get(Integer.MAX_VALUE), new String[] { "max" });
+        assert Arrays.equals(snapshot.get(Integer.MIN_VALUE), new String[] { "min" });
+        assert snapshot.getElementCount() == 2002;
+    }
+
+    public void testEmpty() {
+        Map<Integer, List<String>> cache = new HashMap<Integer, List<String>>();
+        cache.put(0, new ArrayList<String>());
+
+        IntKeyedCacheMap<String> snapshot = IntKeyedCacheMap.copyOf(cache, String.class);
+
+        assert snapshot.get(0) == null;
+        assert snapshot.get(1) == null;
+        assert snapshot.getElementCount() == 0;
+    }
+
+    public void testSnapshotIsNotAffectedByLaterChanges() {
+        Map<Integer, List<String>> cache = new HashMap<Integer, List<String>>();
+        List<String> elements = new ArrayList<String>();
+        elements.add("a");
+        cache.put(42, elements);
+
+        IntKeyedCacheMap<String> snapshot = IntKeyedCacheMap.copyOf(cache, String.class);
+        elements.add("b");
+        cache.put(43, elements);
+
+        assert Arrays.equals(snapshot.get(42), new String[] { "a" });
+        assert snapshot.get(43) == null;
+        assert snapshot.getElementCount() == 1;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.alert.AlertConditionOperator;
+import org.rhq.enterprise.server.alert.engine.model.CacheElementActivity;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementBaselineCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementNumericCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementRangeNumericCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.NumericDoubleCacheElement;
+
+@Test
+public class NumericConditionTableTest {
+
+    private static final double[] VALUES = { -1.0, 0.0, -0.0, 19.9, 20.0, 30.0, 50.0, 50.1, Double.NaN,
+        Double.POSITIVE_INFINITY };
+
+    public void testCompiledConditionsMatchCacheElements() {
+        List<NumericDoubleCacheElement> cacheElements = new ArrayList<NumericDoubleCacheElement>();
+        int id = 0;
+        for (AlertConditionOperator operator : Arrays.asList(AlertConditionOperator.GREATER_THAN,
+            AlertConditionOperator.LESS_THAN, AlertConditionOperator.EQUALS)) {
+            cacheElements.add(new MeasurementNumericCacheElement(operator, 20.0, id++));
+            cacheElements.add(new MeasurementNumericCacheElement(operator, 0.0, id++));
+            cacheElements.add(new MeasurementBaselineCacheElement(operator, 50.0, id++, "max"));
+        }
+        for (AlertConditionOperator operator : Arrays.asList(AlertConditionOperator.GREATER_THAN,
+            AlertConditionOperator.LESS_THAN, AlertConditionOperator.GREATER_THAN_OR_EQUAL_TO,
+            AlertConditionOperator.LESS_THAN_OR_EQUAL_TO)) {
+            cacheElements.add(new MeasurementRangeNumericCacheElement(operator, 20.0, 50.0, id++));
+        }
+
+        Map<Integer, List<NumericDoubleCacheElement>> cache = new HashMap<Integer, List<NumericDoubleCacheElement>>();
+        cache.put(7, cacheElements);
+        NumericConditionTable table = NumericConditionTable.compile(cache);
+        assert table.getElementCount() == cacheElements.size();
+
+        for (double value : VALUES) {
+            NumericConditionTable.Hits hits = new NumericConditionTable.Hits(1);
+            table.evaluate(new int[] { 7 }, new double[] { value }, 1, hits);
+
+            boolean[] matched = new boolean[cacheElements.size()];
+            for (int i = 0; i < hits.size(); i++) {
+                assert hits.getValueIndex(i) == 0;
+                assert !table.isDelegated(hits.getElementIndex(i));
+                matched[hits.getElementIndex(i)] = hits.isMatched(i);
+            }
+            for (int e = 0; e < cacheElements.size(); e++) {
+                NumericDoubleCacheElement cacheElement = table.getElement(e);
+                assert matched[e] == cacheElement.matches(value) : cacheElement + " did not evaluate " + value
+                    + " the same way";
+            }
+        }
+    }
+
+    public void testReportsOnlyHitsAndActiveStatefulElements() {
+        MeasurementNumericCacheElement inactive = new MeasurementNumericCacheElement(
+            AlertConditionOperator.GREATER_THAN, 10.0, 1);
+        inactive.setActivity(CacheElementActivity.INACTIVE);
+        MeasurementNumericCacheElement active = new MeasurementNumericCacheElement(
+            AlertConditionOperator.GREATER_THAN, 10.0, 2);
+        active.setActivity(CacheElementActivity.ACTIVE);
+        MeasurementNumericCacheElement changes = new MeasurementNumericCacheElement(AlertConditionOperator.CHANGES,
+            5.0, 3);
+
+        Map<Integer, List<NumericDoubleCacheElement>> cache = new HashMap<Integer, List<NumericDoubleCacheElement>>();
+        cache.put(1, Arrays.<NumericDoubleCacheElement> asList(inactive, active));
+        cache.put(2, Arrays.<NumericDoubleCacheElement> asList(changes));
+        NumericConditionTable table = NumericConditionTable.compile(cache);
+
+        NumericConditionTable.Hits hits = new NumericConditionTable.Hits(1);
+        table.evaluate(new int[] { 1, 2, 3 }, new double[] { 5.0, 6.0, 100.0 }, 3, hits);
+
+        assert hits.size() == 2;
+        assert table.getElement(hits.getElementIndex(0)) == active;
+        assert !hits.isMatched(0);
+        assert table.getElement(hits.getElementIndex(1)) == changes;
+        assert table.isDelegated(hits.getElementIndex(1));
+        assert hits.getValueIndex(1) == 1;
+
+        hits = new NumericConditionTable.Hits(1);
+        table.evaluate(new int[] { 1 }, new double[] { 11.0 }, 1, hits);
+        assert hits.size() == 2;
+        assert hits.isMatched(0) && hits.isMatched(1);
+    }
+
+    public void testMatchFollowedByMismatchInSameBatchIsReportedInOrder() {
+        MeasurementNumericCacheElement inactive = new MeasurementNumericCacheElement(
+            AlertConditionOperator.GREATER_THAN, 10.0, 1);
+        inactive.setActivity(CacheElementActivity.INACTIVE);
+
+        Map<Integer, List<NumericDoubleCacheElement>> cache = new HashMap<Integer, List<NumericDoubleCacheElement>>();
+        cache.put(1, Arrays.<NumericDoubleCacheElement> asList(inactive));
+        NumericConditionTable table = NumericConditionTable.compile(cache);
+
+        NumericConditionTable.Hits hits = new NumericConditionTable.Hits(1);
+        table.evaluate(new int[] { 1, 1, 1 }, new double[] { 5.0, 11.0, 6.0 }, 3, hits);
+
+        // the first value neither matches nor deactivates anything, the last one deactivates what the second activated
+        assert hits.size() == 2 : hits.size();
+        assert hits.getValueIndex(0) == 1 && hits.isMatched(0);
+        assert hits.getValueIndex(1) == 2 && !hits.isMatched(1);
+    }
+}
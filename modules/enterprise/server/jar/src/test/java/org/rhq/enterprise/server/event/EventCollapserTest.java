@@ -0,0 +1,105 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.event;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.event.Event;
+import org.rhq.core.domain.event.EventDefinition;
+import org.rhq.core.domain.event.EventSeverity;
+import org.rhq.core.domain.event.EventSource;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+
+@Test
+public class EventCollapserTest {
+
+    private final EventSource eventSource = new EventSource("server.log", new EventDefinition(new ResourceType("foo",
+        "foo", ResourceCategory.SERVER, null), "logEntry"), new Resource(1));
+
+    public void testRepeatsWithinWindowAreCollapsed() {
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 5; i++) {
+            events.add(event(1000 + i * 100, EventSeverity.ERROR, "Connection refused"));
+        }
+        events.add(event(1050, EventSeverity.WARN, "Connection refused"));
+        events.add(event(1250, EventSeverity.ERROR, "Something else"));
+
+        List<Event> collapsed = new EventCollapser(60000).collapse(eventSource, events);
+        assertEquals(collapsed.size(), 3);
+        assertEquals(collapsed.get(0).getTimestamp(), 1000);
+        assertEquals(collapsed.get(0).getSeverity(), EventSeverity.ERROR);
+        assertEquals(collapsed.get(0).getDetail(), "Connection refused [repeated 4 more times within 400 ms]");
+        assertSame(collapsed.get(0).getSource(), eventSource);
+        assertEquals(collapsed.get(1).getDetail(), "Connection refused");
+        assertEquals(collapsed.get(1).getSeverity(), EventSeverity.WARN);
+        assertEquals(collapsed.get(2).getDetail(), "Something else");
+    }
+
+    public void testRepeatsOutsideWindowStartNewRun() {
+        List<Event> events = new ArrayList<Event>();
+        events.add(event(0, EventSeverity.ERROR, "boom"));
+        events.add(event(500, EventSeverity.ERROR, "boom"));
+        events.add(event(1500, EventSeverity.ERROR, "boom"));
+
+        List<Event> collapsed = new EventCollapser(1000).collapse(eventSource, events);
+        assertEquals(collapsed.size(), 2);
+        assertEquals(collapsed.get(0).getDetail(), "boom [repeated 1 more time within 500 ms]");
+        assertEquals(collapsed.get(1).getTimestamp(), 1500);
+        assertEquals(collapsed.get(1).getDetail(), "boom");
+    }
+
+    public void testDisabled() {
+        List<Event> events = new ArrayList<Event>();
+        events.add(event(200, EventSeverity.INFO, "same"));
+        events.add(event(100, EventSeverity.INFO, "same"));
+
+        List<Event> collapsed = new EventCollapser(0).collapse(eventSource, events);
+        assertEquals(collapsed.size(), 2);
+        assertEquals(collapsed.get(0).getTimestamp(), 100);
+        assertEquals(collapsed.get(1).getTimestamp(), 200);
+    }
+
+    public void testLongDetailIsTruncatedToMakeRoomForRepeatCount() {
+        StringBuilder detail = new StringBuilder();
+        while (detail.length() < Event.DETAIL_MAX_LENGTH) {
+            detail.append("stack trace line\n");
+        }
+        List<Event> events = new ArrayList<Event>();
+        events.add(event(0, EventSeverity.FATAL, detail.toString()));
+        events.add(event(1, EventSeverity.FATAL, detail.toString()));
+
+        List<Event> collapsed = new EventCollapser(1000).collapse(eventSource, events);
+        assertEquals(collapsed.size(), 1);
+        assertEquals(collapsed.get(0).getDetail().length(), Event.DETAIL_MAX_LENGTH);
+        assertTrue(collapsed.get(0).getDetail().endsWith(" [repeated 1 more time within 1 ms]"));
+    }
+
+    private Event event(long timestamp, EventSeverity severity, String detail) {
+        return new Event("logEntry", eventSource.getLocation(), timestamp, severity, detail, eventSource);
+    }
+}
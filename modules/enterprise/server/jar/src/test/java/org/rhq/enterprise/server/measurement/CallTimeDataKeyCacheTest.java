@@ -0,0 +1,56 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.testng.annotations.Test;
+
+@Test
+public class CallTimeDataKeyCacheTest {
+
+    public void testLookup() {
+        CallTimeDataKeyCache cache = new CallTimeDataKeyCache(10);
+        cache.put(1, "/index.jsp", 100);
+        cache.put(2, "/index.jsp", 200);
+
+        assertEquals(cache.get(1, "/index.jsp"), Integer.valueOf(100));
+        assertEquals(cache.get(2, "/index.jsp"), Integer.valueOf(200));
+        assertNull(cache.get(1, "/login.jsp"));
+        assertNull(cache.get(3, "/index.jsp"));
+
+        cache.clear();
+        assertNull(cache.get(1, "/index.jsp"));
+        assertEquals(cache.size(), 0);
+    }
+
+    public void testLeastRecentlyUsedKeysAreEvicted() {
+        CallTimeDataKeyCache cache = new CallTimeDataKeyCache(2);
+        cache.put(1, "a", 1);
+        cache.put(1, "b", 2);
+        cache.get(1, "a");
+        cache.put(1, "c", 3);
+
+        assertEquals(cache.size(), 2);
+        assertEquals(cache.get(1, "a"), Integer.valueOf(1));
+        assertNull(cache.get(1, "b"));
+        assertEquals(cache.get(1, "c"), Integer.valueOf(3));
+    }
+}
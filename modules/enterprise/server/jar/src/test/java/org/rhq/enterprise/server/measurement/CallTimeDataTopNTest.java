@@ -0,0 +1,105 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.calltime.CallTimeDataComposite;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataRanking;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataSketch;
+
+@Test
+public class CallTimeDataTopNTest {
+
+    public void testRanking() {
+        List<CallTimeDataComposite> results = topN(CallTimeDataRanking.TOTAL, 2);
+        assertEquals(results.size(), 2);
+        assertEquals(results.get(0).getCallDestination(), "/c");
+        assertEquals(results.get(0).getTotal(), 600.0);
+        assertEquals(results.get(0).getCount(), 3L);
+        assertEquals(results.get(0).getMinimum(), 100.0);
+        assertEquals(results.get(0).getMaximum(), 300.0);
+        assertEquals(results.get(1).getCallDestination(), "/b");
+
+        results = topN(CallTimeDataRanking.MAXIMUM, 1);
+        assertEquals(results.size(), 1);
+        assertEquals(results.get(0).getCallDestination(), "/b");
+
+        results = topN(CallTimeDataRanking.COUNT, 10);
+        assertEquals(results.size(), 3);
+        assertEquals(results.get(0).getCallDestination(), "/c");
+    }
+
+    public void testTiesPreferTheDestinationSortingFirst() {
+        CallTimeDataTopN topN = new CallTimeDataTopN(CallTimeDataRanking.COUNT, 2);
+        topN.add("/a", 1, 1, 1, 5, null);
+        topN.add("/b", 1, 1, 1, 5, null);
+        topN.add("/c", 1, 1, 1, 5, null);
+
+        List<CallTimeDataComposite> results = topN.getResults();
+        assertEquals(results.size(), 2);
+        assertEquals(results.get(0).getCallDestination(), "/a");
+        assertEquals(results.get(1).getCallDestination(), "/b");
+    }
+
+    public void testPercentiles() {
+        CallTimeDataSketch first = new CallTimeDataSketch();
+        CallTimeDataSketch second = new CallTimeDataSketch();
+        for (int i = 1; i <= 100; i++) {
+            first.add(i);
+            second.add(100 + i);
+        }
+
+        CallTimeDataTopN topN = new CallTimeDataTopN(CallTimeDataRanking.TOTAL, 10);
+        topN.add("/sketched", 1, 100, 5050, 100, first.toBytes());
+        topN.add("/sketched", 101, 200, 15050, 100, second.toBytes());
+        topN.add("/partial", 1, 100, 5050, 100, first.toBytes());
+        topN.add("/partial", 1, 1, 1, 1, null);
+
+        List<CallTimeDataComposite> results = topN.getResults();
+        assertEquals(results.size(), 2);
+
+        CallTimeDataComposite sketched = results.get(0);
+        assertEquals(sketched.getCallDestination(), "/sketched");
+        assertNotNull(sketched.getPercentile95());
+        assertEquals(sketched.getPercentile95(), 190.0, 190 * CallTimeDataSketch.RELATIVE_ACCURACY);
+        assertEquals(sketched.getPercentile99(), 198.0, 198 * CallTimeDataSketch.RELATIVE_ACCURACY);
+
+        CallTimeDataComposite partial = results.get(1);
+        assertEquals(partial.getCallDestination(), "/partial");
+        assertNull(partial.getPercentile95());
+        assertNull(partial.getPercentile99());
+    }
+
+    private static List<CallTimeDataComposite> topN(CallTimeDataRanking ranking, int size) {
+        CallTimeDataTopN topN = new CallTimeDataTopN(ranking, size);
+        topN.add("/a", 100, 100, 100, 1, null);
+        topN.add("/a", 150, 150, 150, 1, null);
+        topN.add("/b", 10, 500, 510, 2, null);
+        topN.add("/c", 100, 200, 300, 2, null);
+        topN.add("/c", 300, 300, 300, 1, null);
+        return topN.getResults();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.util.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.discovery.AvailabilityReport;
+import org.rhq.core.domain.measurement.AvailabilityType;
+
+@Test
+public class AvailabilityReportSerializerTest {
+
+    public void testMergeChangesOnlyReports() {
+        AvailabilityReport older = report(true, 1, AvailabilityType.UP, 2, AvailabilityType.UP);
+        AvailabilityReport newer = report(true, 2, AvailabilityType.DOWN, 3, AvailabilityType.UP);
+
+        AvailabilityReport merged = AvailabilityReportSerializer.merge(older, newer);
+        assert merged.isChangesOnlyReport();
+        assert merged.getAgentName().equals("agent");
+        assert merged.getResourceAvailability().size() == 3;
+        assert merged.forResource(1) == AvailabilityType.UP;
+        assert merged.forResource(2) == AvailabilityType.DOWN;
+        assert merged.forResource(3) == AvailabilityType.UP;
+    }
+
+    public void testMergeIntoFullReport() {
+        AvailabilityReport older = report(false, 1, AvailabilityType.UP, 2, AvailabilityType.UP);
+        AvailabilityReport newer = report(true, 2, AvailabilityType.DOWN);
+
+        AvailabilityReport merged = AvailabilityReportSerializer.merge(older, newer);
+        assert !merged.isChangesOnlyReport();
+        assert merged.getResourceAvailability().size() == 2;
+        assert merged.forResource(2) == AvailabilityType.DOWN;
+    }
+
+    public void testFullReportReplacesWaitingReport() {
+        AvailabilityReport older = report(true, 1, AvailabilityType.DOWN);
+        AvailabilityReport newer = report(false, 1, AvailabilityType.UP, 2, AvailabilityType.UP);
+
+        assert AvailabilityReportSerializer.merge(older, newer) == newer;
+    }
+
+    public void testNoCoalescingWhenDisabled() {
+        AvailabilityReportSerializer serializer = new AvailabilityReportSerializer(false);
+        AvailabilityReport report = report(true, 1, AvailabilityType.UP);
+        assert serializer.lock(report) == report;
+        serializer.unlock("agent");
+    }
+
+    public void testWaitingReportsAreCoalesced() throws Exception {
+        final AvailabilityReportSerializer serializer = new AvailabilityReportSerializer(true);
+        String agentName = "coalescing-agent";
+
+        // hold the agent's lock so the next report has to wait
+        serializer.lock(agentName);
+
+        final AtomicReference<AvailabilityReport> processed = new AtomicReference<AvailabilityReport>();
+        final CountDownLatch done = new CountDownLatch(1);
+        AvailabilityReport waitingReport = new AvailabilityReport(true, agentName);
+        waitingReport.addAvailability(new AvailabilityReport.Datum(1, AvailabilityType.UP, 1000L));
+        lockInBackground(serializer, waitingReport, processed, done);
+
+        AvailabilityReport newer = new AvailabilityReport(true, agentName);
+        newer.addAvailability(new AvailabilityReport.Datum(1, AvailabilityType.DOWN, 2000L));
+        newer.addAvailability(new AvailabilityReport.Datum(2, AvailabilityType.UP, 2000L));
+        assert serializer.lock(newer) == null : "The newer report should have been coalesced";
+
+        serializer.unlock(agentName);
+        assert done.await(10, TimeUnit.SECONDS);
+
+        AvailabilityReport merged = processed.get();
+        assert merged.getResourceAvailability().size() == 2;
+        assert merged.forResource(1) == AvailabilityType.DOWN;
+        assert merged.forResource(2) == AvailabilityType.UP;
+
+        // nothing is waiting anymore, so the next report is processed on its own
+        AvailabilityReport next = new AvailabilityReport(true, agentName);
+        next.addAvailability(new AvailabilityReport.Datum(3, AvailabilityType.UP, 3000L));
+        assert serializer.lock(next) == next;
+        serializer.unlock(agentName);
+    }
+
+    public void testEnablementReportsAreNotCoalesced() throws Exception {
+        final AvailabilityReportSerializer serializer = new AvailabilityReportSerializer(true);
+        String agentName = "enabling-agent";
+
+        serializer.lock(agentName);
+
+        AtomicReference<AvailabilityReport> processedWaiting = new AtomicReference<AvailabilityReport>();
+        CountDownLatch waitingDone = new CountDownLatch(1);
+        AvailabilityReport waitingReport = new AvailabilityReport(true, agentName);
+        waitingReport.addAvailability(new AvailabilityReport.Datum(1, AvailabilityType.UP, 1000L));
+        lockInBackground(serializer, waitingReport, processedWaiting, waitingDone);
+
+        // an enablement report must neither be merged into the waiting report nor have it merged into itself
+        AtomicReference<AvailabilityReport> processedEnablement = new AtomicReference<AvailabilityReport>();
+        CountDownLatch enablementDone = new CountDownLatch(1);
+        AvailabilityReport enablementReport = new AvailabilityReport(true, agentName);
+        enablementReport.setEnablementReport(true);
+        enablementReport.addAvailability(new AvailabilityReport.Datum(2, AvailabilityType.UNKNOWN, 2000L));
+        lockInBackground(serializer, enablementReport, processedEnablement, enablementDone);
+
+        serializer.unlock(agentName);
+        assert waitingDone.await(10, TimeUnit.SECONDS);
+        assert enablementDone.await(10, TimeUnit.SECONDS);
+
+        assert processedWaiting.get() == waitingReport;
+        assert processedEnablement.get() == enablementReport;
+        assert processedEnablement.get().isEnablementReport();
+    }
+
+    /**
+     * Locks the agent of the report in a new thread, records the report returned for processing and unlocks the agent
+     * again. Returns once the thread waits for the lock.
+     */
+    private static void lockInBackground(final AvailabilityReportSerializer serializer,
+        final AvailabilityReport report, final AtomicReference<AvailabilityReport> processed, final CountDownLatch done)
+        throws InterruptedException {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                AvailabilityReport toProcess = serializer.lock(report);
+                if (toProcess != null) {
+                    processed.set(toProcess);
+                    serializer.unlock(toProcess.getAgentName());
+                }
+                done.countDown();
+            }
+        });
+        thread.start();
+
+        // wait until the report is waiting for the lock
+        long timeout = System.currentTimeMillis() + 10000L;
+        while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10L);
+        }
+    }
+
+    private static AvailabilityReport report(boolean changesOnly, Object... resourceAvailabilities) {
+        AvailabilityReport report = new AvailabilityReport(changesOnly, "agent");
+        for (int i = 0; i < resourceAvailabilities.length; i += 2) {
+            report.addAvailability(new AvailabilityReport.Datum((Integer) resourceAvailabilities[i],
+                (AvailabilityType) resourceAvailabilities[i + 1], 1000L));
+        }
+        return report;
+    }
+}
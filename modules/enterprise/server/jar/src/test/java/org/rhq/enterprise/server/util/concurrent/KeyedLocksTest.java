@@ -0,0 +1,110 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.util.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+@Test
+public class KeyedLocksTest {
+
+    public void testLocksAreEvictedWhenReleased() {
+        KeyedLocks<String> locks = new KeyedLocks<String>();
+        locks.lock("a");
+        locks.lock("a");
+        locks.lock("b");
+        assert locks.size() == 2;
+        assert locks.getLockedTime("a") > 0L;
+
+        assert locks.unlock("a");
+        assert locks.size() == 2 : "a is still held once";
+        assert locks.unlock("a");
+        assert locks.unlock("b");
+        assert locks.size() == 0;
+        assert locks.getLockedTime("a") == 0L;
+        assert !locks.unlock("a");
+    }
+
+    public void testUnlockByOtherThreadFails() throws Exception {
+        final KeyedLocks<Integer> locks = new KeyedLocks<Integer>();
+        locks.lock(1);
+
+        final AtomicInteger failures = new AtomicInteger();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    locks.unlock(1);
+                } catch (IllegalMonitorStateException expected) {
+                    failures.incrementAndGet();
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assert failures.get() == 1;
+        assert locks.unlock(1);
+        assert locks.size() == 0;
+    }
+
+    public void testMutualExclusion() throws Exception {
+        final KeyedLocks<String> locks = new KeyedLocks<String>();
+        final int threads = 8;
+        final int iterations = 2000;
+        final int[] counters = new int[2];
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final int key = t % 2;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < iterations; i++) {
+                            locks.lock("agent" + key);
+                            try {
+                                if (key == 0 && inside.incrementAndGet() > 1) {
+                                    overlaps.incrementAndGet();
+                                }
+                                counters[key]++;
+                                if (key == 0) {
+                                    inside.decrementAndGet();
+                                }
+                            } finally {
+                                locks.unlock("agent" + key);
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        assert done.await(60, TimeUnit.SECONDS);
+        assert overlaps.get() == 0;
+        assert counters[0] == threads / 2 * iterations : counters[0];
+        assert counters[1] == threads / 2 * iterations : counters[1];
+        assert locks.size() == 0 : "All locks should have been evicted: " + locks.size();
+    }
+}
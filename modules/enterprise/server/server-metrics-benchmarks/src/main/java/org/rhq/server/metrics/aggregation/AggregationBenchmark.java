@@ -0,0 +1,159 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics.aggregation;
+
+import static org.rhq.server.metrics.benchmark.SyntheticRows.AGGREGATE_COLUMNS;
+import static org.rhq.server.metrics.benchmark.SyntheticRows.RAW_COLUMNS;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ResultSet;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.rhq.server.metrics.benchmark.StubMetricsDAO;
+import org.rhq.server.metrics.benchmark.SyntheticRows;
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+
+/**
+ * Measures the functions that compute and store aggregates for a batch of schedules. Writes go to a
+ * {@link StubMetricsDAO} and complete immediately, so this covers computing the aggregates and issuing the writes but
+ * not waiting on the storage cluster. One operation aggregates one batch of <code>batchSize</code> schedules, with an
+ * hour of raw data per schedule for 1 hour data, six 1 hour aggregates for 6 hour data, and four 6 hour aggregates for
+ * 24 hour data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregationBenchmark {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    /**
+     * The default aggregation batch size is 5
+     */
+    @Param({"5", "50"})
+    public int batchSize;
+
+    private ColumnDefinitions rawColumns;
+
+    private ColumnDefinitions aggregateColumns;
+
+    private List<List<List<ByteBuffer>>> rawData;
+
+    private List<List<List<ByteBuffer>>> oneHourData;
+
+    private List<List<List<ByteBuffer>>> sixHourData;
+
+    private Compute1HourData compute1HourData;
+
+    private Compute6HourData compute6HourData;
+
+    private Compute24HourData compute24HourData;
+
+    private List<ResultSet> rawResultSets;
+
+    private List<ResultSet> oneHourResultSets;
+
+    private List<ResultSet> sixHourResultSets;
+
+    @Setup
+    public void createData() {
+        rawColumns = SyntheticRows.columns(RAW_COLUMNS);
+        aggregateColumns = SyntheticRows.columns(AGGREGATE_COLUMNS);
+        rawData = new ArrayList<List<List<ByteBuffer>>>(batchSize);
+        oneHourData = new ArrayList<List<List<ByteBuffer>>>(batchSize);
+        sixHourData = new ArrayList<List<List<ByteBuffer>>>(batchSize);
+        for (int scheduleId = 0; scheduleId < batchSize; ++scheduleId) {
+            rawData.add(SyntheticRows.rawData(scheduleId, 0, 60));
+            oneHourData.add(SyntheticRows.aggregateData(scheduleId, 0, HOUR, 6));
+            sixHourData.add(SyntheticRows.aggregateData(scheduleId, 0, 6 * HOUR, 4));
+        }
+
+        StubMetricsDAO dao = new StubMetricsDAO();
+        DateTime startTime = new DateTime(0);
+        compute1HourData = new Compute1HourData(startTime, startTime, dao, new AggregateConsumer() {
+            @Override
+            public void consume(List<AggregateNumericMetric> oneHourAggregates) {
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        compute6HourData = new Compute6HourData(startTime, startTime, dao);
+        compute24HourData = new Compute24HourData(startTime, dao);
+    }
+
+    /**
+     * Result sets can only be iterated once, so new ones are needed for every invocation. Creating them only wraps
+     * the already serialized rows.
+     */
+    @Setup(Level.Invocation)
+    public void createResultSets() {
+        rawResultSets = createResultSets(rawColumns, rawData);
+        oneHourResultSets = createResultSets(aggregateColumns, oneHourData);
+        sixHourResultSets = createResultSets(aggregateColumns, sixHourData);
+    }
+
+    private List<ResultSet> createResultSets(ColumnDefinitions columns, List<List<List<ByteBuffer>>> data) {
+        List<ResultSet> resultSets = new ArrayList<ResultSet>(data.size());
+        for (List<List<ByteBuffer>> rows : data) {
+            resultSets.add(SyntheticRows.resultSet(columns, rows));
+        }
+        return resultSets;
+    }
+
+    @Benchmark
+    public List<ResultSet> compute1HourData() throws Exception {
+        return compute1HourData.apply(rawResultSets).get();
+    }
+
+    @Benchmark
+    public List<ResultSet> compute6HourData() throws Exception {
+        return compute6HourData.apply(oneHourResultSets).get();
+    }
+
+    @Benchmark
+    public List<ResultSet> compute24HourData() throws Exception {
+        return compute24HourData.apply(sixHourResultSets).get();
+    }
+
+}
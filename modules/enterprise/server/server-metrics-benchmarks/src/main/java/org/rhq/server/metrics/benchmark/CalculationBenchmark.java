@@ -0,0 +1,126 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.rhq.core.domain.measurement.MeasurementBaseline;
+import org.rhq.server.metrics.ArithmeticMeanCalculator;
+import org.rhq.server.metrics.Buckets;
+import org.rhq.server.metrics.MetricsBaselineCalculator;
+import org.rhq.server.metrics.domain.AggregateSimpleNumericMetric;
+import org.rhq.server.metrics.domain.AggregateType;
+
+/**
+ * Measures the in-memory calculations that run over query results: the running mean used by all of the aggregation
+ * functions, distributing data points into graph {@link Buckets buckets}, and baseline calculation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalculationBenchmark {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    /**
+     * The number of data points. 1440 is a day of raw data collected every minute, and 168 is a week of 1 hour data,
+     * which is what a baseline is calculated from.
+     */
+    @Param({"168", "1440"})
+    public int dataPoints;
+
+    private long[] timestamps;
+
+    private double[] values;
+
+    private MetricsBaselineCalculator baselineCalculator;
+
+    private List<Integer> baselineSchedules;
+
+    @Setup
+    public void createData() {
+        Random random = new Random(42);
+        timestamps = new long[dataPoints];
+        values = new double[dataPoints];
+        List<AggregateSimpleNumericMetric> oneHourData = new ArrayList<AggregateSimpleNumericMetric>(dataPoints * 3);
+        for (int i = 0; i < dataPoints; ++i) {
+            timestamps[i] = i * HOUR;
+            values[i] = random.nextDouble() * 1000;
+            oneHourData.add(new AggregateSimpleNumericMetric(100, values[i] + 5, AggregateType.MAX));
+            oneHourData.add(new AggregateSimpleNumericMetric(100, values[i] - 5, AggregateType.MIN));
+            oneHourData.add(new AggregateSimpleNumericMetric(100, values[i], AggregateType.AVG));
+        }
+
+        StubMetricsDAO dao = new StubMetricsDAO();
+        dao.setOneHourData(oneHourData);
+        baselineCalculator = new MetricsBaselineCalculator(dao);
+        baselineSchedules = new ArrayList<Integer>();
+        baselineSchedules.add(100);
+    }
+
+    @Benchmark
+    public double arithmeticMean() {
+        ArithmeticMeanCalculator mean = new ArithmeticMeanCalculator();
+        for (double value : values) {
+            mean.add(value);
+        }
+        return mean.getArithmeticMean();
+    }
+
+    /**
+     * Distributes the data points into the default 60 buckets as done for a graph
+     */
+    @Benchmark
+    public Buckets buckets() {
+        Buckets buckets = new Buckets(0, dataPoints * HOUR);
+        for (int i = 0; i < dataPoints; ++i) {
+            buckets.insert(timestamps[i], values[i], values[i] - 5, values[i] + 5);
+        }
+        return buckets;
+    }
+
+    @Benchmark
+    public List<MeasurementBaseline> baseline() {
+        return baselineCalculator.calculateBaselines(baselineSchedules, 0, dataPoints * HOUR);
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics.benchmark;
+
+import static org.rhq.server.metrics.benchmark.SyntheticRows.AGGREGATE_COLUMNS;
+import static org.rhq.server.metrics.benchmark.SyntheticRows.RAW_COLUMNS;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ResultSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.AggregateNumericMetricMapper;
+import org.rhq.server.metrics.domain.RawNumericMetric;
+import org.rhq.server.metrics.domain.RawNumericMetricMapper;
+
+/**
+ * Measures mapping whole result sets of raw and aggregate data with
+ * {@link org.rhq.server.metrics.domain.ResultSetMapper#mapAll(ResultSet) mapAll}, which is how the DAO maps query
+ * results. Unlike {@link RowMappingBenchmark} this includes iterating the result set. Result sets can only be
+ * iterated once, so new ones are created before each invocation. That only wraps the already serialized rows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultSetMappingBenchmark {
+
+    /**
+     * 60 is an hour of raw data collected every minute. 1440 is a day of it.
+     */
+    @Param({"60", "1440"})
+    public int rows;
+
+    private final RawNumericMetricMapper rawMapper = new RawNumericMetricMapper();
+
+    private final AggregateNumericMetricMapper aggregateMapper = new AggregateNumericMetricMapper();
+
+    private ColumnDefinitions rawColumns;
+
+    private ColumnDefinitions aggregateColumns;
+
+    private List<List<ByteBuffer>> rawData;
+
+    private List<List<ByteBuffer>> aggregateData;
+
+    private ResultSet rawResultSet;
+
+    private ResultSet aggregateResultSet;
+
+    @Setup
+    public void createRows() {
+        rawColumns = SyntheticRows.columns(RAW_COLUMNS);
+        aggregateColumns = SyntheticRows.columns(AGGREGATE_COLUMNS);
+        rawData = SyntheticRows.rawData(100, 0, rows);
+        aggregateData = SyntheticRows.aggregateData(100, 0, 3600000, rows);
+    }
+
+    @Setup(Level.Invocation)
+    public void createResultSets() {
+        rawResultSet = SyntheticRows.resultSet(rawColumns, rawData);
+        aggregateResultSet = SyntheticRows.resultSet(aggregateColumns, aggregateData);
+    }
+
+    @Benchmark
+    public List<RawNumericMetric> mapAllRaw() {
+        return rawMapper.mapAll(rawResultSet);
+    }
+
+    @Benchmark
+    public List<AggregateNumericMetric> mapAllAggregates() {
+        return aggregateMapper.mapAll(aggregateResultSet);
+    }
+
+}
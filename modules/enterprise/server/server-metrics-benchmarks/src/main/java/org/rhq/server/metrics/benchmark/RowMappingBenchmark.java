@@ -0,0 +1,108 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics.benchmark;
+
+import static org.rhq.server.metrics.benchmark.SyntheticRows.AGGREGATE_COLUMNS;
+import static org.rhq.server.metrics.benchmark.SyntheticRows.RAW_COLUMNS;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.Row;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.AggregateNumericMetricMapper;
+import org.rhq.server.metrics.domain.RawNumericMetric;
+import org.rhq.server.metrics.domain.RawNumericMetricMapper;
+
+/**
+ * Measures mapping rows of raw and aggregate data to domain objects. One operation maps the data of a single
+ * schedule, i.e., <code>rows</code> raw data rows or <code>rows</code> aggregates of three rows each.
+ *
+ * @see ResultSetMappingBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMappingBenchmark {
+
+    /**
+     * 60 is an hour of raw data collected every minute. 1440 is a day of it.
+     */
+    @Param({"60", "1440"})
+    public int rows;
+
+    private final RawNumericMetricMapper rawMapper = new RawNumericMetricMapper();
+
+    private final AggregateNumericMetricMapper aggregateMapper = new AggregateNumericMetricMapper();
+
+    private Row[] rawRows;
+
+    private Row[] aggregateRows;
+
+    @Setup
+    public void createRows() {
+        ColumnDefinitions rawColumns = SyntheticRows.columns(RAW_COLUMNS);
+        ColumnDefinitions aggregateColumns = SyntheticRows.columns(AGGREGATE_COLUMNS);
+        List<List<ByteBuffer>> rawData = SyntheticRows.rawData(100, 0, rows);
+        List<List<ByteBuffer>> aggregateData = SyntheticRows.aggregateData(100, 0, 3600000, rows);
+
+        rawRows = new Row[rawData.size()];
+        for (int i = 0; i < rawRows.length; ++i) {
+            rawRows[i] = SyntheticRows.row(rawColumns, rawData.get(i));
+        }
+        aggregateRows = new Row[aggregateData.size()];
+        for (int i = 0; i < aggregateRows.length; ++i) {
+            aggregateRows[i] = SyntheticRows.row(aggregateColumns, aggregateData.get(i));
+        }
+    }
+
+    @Benchmark
+    public List<RawNumericMetric> mapRawRows() {
+        return rawMapper.map(rawRows);
+    }
+
+    @Benchmark
+    public List<AggregateNumericMetric> mapAggregateRows() {
+        return aggregateMapper.map(aggregateRows);
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics.benchmark;
+
+import java.util.Collections;
+
+import org.rhq.server.metrics.MetricsConfiguration;
+import org.rhq.server.metrics.MetricsDAO;
+import org.rhq.server.metrics.StorageResultSetFuture;
+import org.rhq.server.metrics.domain.AggregateSimpleNumericMetric;
+import org.rhq.server.metrics.domain.AggregateType;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+/**
+ * A {@link MetricsDAO} that does not talk to a storage cluster. Writes complete immediately and queries return data
+ * set up by the benchmark, so that only the CPU and allocation cost of the code under test is measured.
+ */
+public class StubMetricsDAO extends MetricsDAO {
+
+    private static final StorageResultSetFuture COMPLETED = new CompletedResultSetFuture(null);
+
+    private Iterable<AggregateSimpleNumericMetric> oneHourData = Collections.emptyList();
+
+    public StubMetricsDAO() {
+        super(null, new MetricsConfiguration());
+    }
+
+    public void setOneHourData(Iterable<AggregateSimpleNumericMetric> oneHourData) {
+        this.oneHourData = oneHourData;
+    }
+
+    @Override
+    public void initPreparedStatements() {
+    }
+
+    @Override
+    public StorageResultSetFuture insertOneHourDataAsync(int scheduleId, long timestamp, AggregateType type,
+        double value) {
+        return COMPLETED;
+    }
+
+    @Override
+    public StorageResultSetFuture insertSixHourDataAsync(int scheduleId, long timestamp, AggregateType type,
+        double value) {
+        return COMPLETED;
+    }
+
+    @Override
+    public StorageResultSetFuture insertTwentyFourHourDataAsync(int scheduleId, long timestamp, AggregateType type,
+        double value) {
+        return COMPLETED;
+    }
+
+    @Override
+    public StorageResultSetFuture updateMetricsIndex(MetricsTable table, int scheduleId, long timestamp) {
+        return COMPLETED;
+    }
+
+    @Override
+    public Iterable<AggregateSimpleNumericMetric> findAggregatedSimpleOneHourMetric(int scheduleId, long startTime,
+        long endTime) {
+        return oneHourData;
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics.benchmark;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+/**
+ * Builds driver {@link Row rows} and {@link ResultSet result sets} from in-memory values. The driver only creates
+ * them from protocol messages, so its non-public factories are invoked reflectively. Values are serialized the same
+ * way the native protocol does, so the benchmarks exercise the real deserialization code of the driver.
+ */
+public class SyntheticRows {
+
+    public static final DataType[] RAW_COLUMNS = {DataType.cint(), DataType.timestamp(), DataType.cdouble()};
+
+    public static final DataType[] AGGREGATE_COLUMNS = {DataType.cint(), DataType.timestamp(), DataType.cint(),
+        DataType.cdouble()};
+
+    private static final Constructor<?> COLUMN_DEFINITIONS;
+
+    private static final Constructor<?> DEFINITION;
+
+    private static final Method ROW_FROM_DATA;
+
+    private static final Constructor<?> RESULT_SET;
+
+    static {
+        try {
+            COLUMN_DEFINITIONS = findConstructor(ColumnDefinitions.class, ColumnDefinitions.Definition[].class);
+            DEFINITION = findConstructor(ColumnDefinitions.Definition.class, String.class, String.class,
+                String.class, DataType.class);
+            ROW_FROM_DATA = Row.class.getDeclaredMethod("fromData", ColumnDefinitions.class, List.class);
+            ROW_FROM_DATA.setAccessible(true);
+            RESULT_SET = findConstructor(ResultSet.class, ColumnDefinitions.class, Queue.class);
+        } catch (Exception e) {
+            throw new IllegalStateException("This version of the driver is not supported", e);
+        }
+    }
+
+    private SyntheticRows() {
+    }
+
+    public static ColumnDefinitions columns(DataType... types) {
+        try {
+            Object definitions = Array.newInstance(ColumnDefinitions.Definition.class, types.length);
+            for (int i = 0; i < types.length; ++i) {
+                Array.set(definitions, i, newInstance(DEFINITION, "rhq", "metrics", "column" + i, types[i]));
+            }
+            return (ColumnDefinitions) newInstance(COLUMN_DEFINITIONS, definitions);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to create column definitions", e);
+        }
+    }
+
+    /**
+     * Serializes values. Integers, longs, doubles, and dates map to the int, bigint, double, and timestamp types.
+     */
+    public static List<ByteBuffer> values(Object... values) {
+        List<ByteBuffer> data = new ArrayList<ByteBuffer>(values.length);
+        for (Object value : values) {
+            ByteBuffer buffer;
+            if (value instanceof Integer) {
+                buffer = ByteBuffer.allocate(4).putInt(0, (Integer) value);
+            } else if (value instanceof Long) {
+                buffer = ByteBuffer.allocate(8).putLong(0, (Long) value);
+            } else if (value instanceof Double) {
+                buffer = ByteBuffer.allocate(8).putDouble(0, (Double) value);
+            } else if (value instanceof Date) {
+                buffer = ByteBuffer.allocate(8).putLong(0, ((Date) value).getTime());
+            } else {
+                throw new IllegalArgumentException(value + " is not a supported value");
+            }
+            data.add(buffer);
+        }
+        return data;
+    }
+
+    public static Row row(ColumnDefinitions columns, List<ByteBuffer> data) {
+        try {
+            return (Row) ROW_FROM_DATA.invoke(null, columns, data);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to create row", e);
+        }
+    }
+
+    /**
+     * Result sets can only be iterated once, so a new one is needed for every use.
+     */
+    public static ResultSet resultSet(ColumnDefinitions columns, List<List<ByteBuffer>> rows) {
+        try {
+            return (ResultSet) newInstance(RESULT_SET, columns, new ArrayDeque<List<ByteBuffer>>(rows));
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to create result set", e);
+        }
+    }
+
+    /**
+     * @return The raw data rows of a schedule with one value per minute starting at <code>startTime</code>
+     */
+    public static List<List<ByteBuffer>> rawData(int scheduleId, long startTime, int count) {
+        List<List<ByteBuffer>> rows = new ArrayList<List<ByteBuffer>>(count);
+        for (int i = 0; i < count; ++i) {
+            rows.add(values(scheduleId, new Date(startTime + i * 60000L), 100.0 + (i % 7)));
+        }
+        return rows;
+    }
+
+    /**
+     * @return The rows of <code>count</code> aggregates of a schedule, each one consisting of a max, min, and avg row
+     * in that order, spaced <code>interval</code> ms apart
+     */
+    public static List<List<ByteBuffer>> aggregateData(int scheduleId, long startTime, long interval, int count) {
+        List<List<ByteBuffer>> rows = new ArrayList<List<ByteBuffer>>(count * 3);
+        for (int i = 0; i < count; ++i) {
+            Date time = new Date(startTime + i * interval);
+            double avg = 100.0 + (i % 7);
+            rows.add(values(scheduleId, time, 0, avg + 5));
+            rows.add(values(scheduleId, time, 1, avg - 5));
+            rows.add(values(scheduleId, time, 2, avg));
+        }
+        return rows;
+    }
+
+    private static Constructor<?> findConstructor(Class<?> type, Class<?>... leadingParameterTypes) {
+        for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+            Class<?>[] parameterTypes = constructor.getParameterTypes();
+            if (parameterTypes.length < leadingParameterTypes.length) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < leadingParameterTypes.length && matches; ++i) {
+                matches = parameterTypes[i].equals(leadingParameterTypes[i]);
+            }
+            for (int i = leadingParameterTypes.length; i < parameterTypes.length && matches; ++i) {
+                matches = !parameterTypes[i].isPrimitive();
+            }
+            if (matches) {
+                constructor.setAccessible(true);
+                return constructor;
+            }
+        }
+        throw new IllegalStateException("No suitable constructor found for " + type.getName());
+    }
+
+    private static Object newInstance(Constructor<?> constructor, Object... leadingArgs) throws Exception {
+        Object[] args = new Object[constructor.getParameterTypes().length];
+        System.arraycopy(leadingArgs, 0, args, 0, leadingArgs.length);
+        return constructor.newInstance(args);
+    }
+
+}
@@ -62,10 +62,13 @@ public class Buckets {
             if (count == 0) {
                 this.min = min;
                 this.max = max;
-            } else if (min < this.min) {
-                this.min = min;
-            } else if (max > this.max) {
-                this.max = max;
+            } else {
+                if (min < this.min) {
+                    this.min = min;
+                }
+                if (max > this.max) {
+                    this.max = max;
+                }
             }
             count++;
             return this;
@@ -98,6 +101,8 @@ public class Buckets {
 
     private Bucket[] buckets;
 
+    private long beginTime;
+
     private long interval;
 
     public Buckets(DateTime beginTime, DateTime endTime) {
@@ -109,6 +114,7 @@ public class Buckets {
             throw new IllegalArgumentException("Number of buckets must be > 0");
         }
         numDataPoints = numberOfDataPoints;
+        this.beginTime = beginTime;
         buckets = new Bucket[numDataPoints];
         interval = (endTime - beginTime) / numDataPoints;
         for (int i = 1; i <= numDataPoints; ++i) {
@@ -132,12 +138,17 @@ public class Buckets {
         return buckets[index];
     }
 
+    /**
+     * Adds the value to the bucket that contains the timestamp. Since all buckets have the same width, the bucket is
+     * located with a division rather than a search. Values that do not fall into any bucket are ignored.
+     */
     public void insert(long timestamp, double value, double min, double max) {
-        for (Bucket bucket : buckets) {
-            if (timestamp >= bucket.getStartTime() && timestamp < bucket.getEndTime()) {
-                bucket.insert(value, min, max);
-                return;
-            }
+        if (interval <= 0 || timestamp < beginTime) {
+            return;
+        }
+        long index = (timestamp - beginTime) / interval;
+        if (index < numDataPoints) {
+            buckets[(int) index].insert(value, min, max);
         }
     }
 }
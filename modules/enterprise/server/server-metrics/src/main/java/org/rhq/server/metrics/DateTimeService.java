@@ -36,6 +36,8 @@ import org.joda.time.Period;
 import org.joda.time.chrono.GregorianChronology;
 import org.joda.time.field.DividedDateTimeField;
 
+import org.rhq.server.metrics.domain.MetricsTable;
+
 /**
  * @author John Sanda
  */
@@ -112,6 +114,26 @@ public class DateTimeService {
         return dateTimeComparator.compare(now().minus(configuration.getTwentyFourHourRetention()), dateTime) < 0;
     }
 
+    /**
+     * @param table One of the raw or aggregate metrics tables
+     * @return The time before which data in the table has expired. The table can only return data for times that are
+     * strictly after this value.
+     */
+    public DateTime getRetentionStart(MetricsTable table) {
+        switch (table) {
+        case RAW:
+            return now().minus(configuration.getRawRetention());
+        case ONE_HOUR:
+            return now().minus(configuration.getOneHourRetention());
+        case SIX_HOUR:
+            return now().minus(configuration.getSixHourRetention());
+        case TWENTY_FOUR_HOUR:
+            return now().minus(configuration.getTwentyFourHourRetention());
+        default:
+            throw new IllegalArgumentException(table + " is not a metrics data table");
+        }
+    }
+
     public DateTime hour0() {
         DateTime rightNow = now();
         return rightNow.hourOfDay().roundFloorCopy().minusHours(
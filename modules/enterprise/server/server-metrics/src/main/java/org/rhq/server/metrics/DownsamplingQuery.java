@@ -0,0 +1,334 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+
+import org.joda.time.Duration;
+
+import org.rhq.core.domain.measurement.composite.MeasurementDataNumericHighLowComposite;
+import org.rhq.server.metrics.domain.AggregateType;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+/**
+ * Reads the data for one or more schedules into a fixed number of buckets for display in a chart.
+ * <p>
+ * The query reads from the coarsest table whose resolution is no larger than the bucket width and that still
+ * retains data for the begin time. That way the number of rows that are read is proportional to the number of buckets
+ * rather than to the length of the time range. Aggregates are only available for time slices that have already been
+ * aggregated, so for every schedule the time after the last aggregate that was found is read from the next finer
+ * table, down to the raw data. This fills the trailing buckets that would otherwise be empty.
+ * <p>
+ * Rows are added to the buckets as they are read from the result sets. No intermediate metric objects are created.
+ * The queries for the schedules are executed asynchronously, with at most {@link #MAX_IN_FLIGHT} outstanding at once.
+ * This bounds both the load on the storage cluster and the number of result sets held in memory.
+ * <p>
+ * Raw and 1 hour data is served from the {@link MetricsCache} when possible. On a cache miss the query reads all data
+ * from the start time onward instead of stopping at the end time, so that the cache can be filled from the same
+ * result set.
+ */
+class DownsamplingQuery {
+
+    static final int MAX_IN_FLIGHT = 50;
+
+    /**
+     * The data tables ordered from the coarsest to the finest resolution
+     */
+    private static final MetricsTable[] TABLES = {MetricsTable.TWENTY_FOUR_HOUR, MetricsTable.SIX_HOUR,
+        MetricsTable.ONE_HOUR, MetricsTable.RAW};
+
+    private MetricsDAO dao;
+
+    private DateTimeService dateTimeService;
+
+    private MetricsCache cache;
+
+    private long beginTime;
+
+    private long endTime;
+
+    private Buckets buckets;
+
+    public DownsamplingQuery(MetricsDAO dao, DateTimeService dateTimeService, MetricsCache cache, long beginTime,
+        long endTime, int numberOfBuckets) {
+        this.dao = dao;
+        this.dateTimeService = dateTimeService;
+        this.cache = cache;
+        this.beginTime = beginTime;
+        this.endTime = endTime;
+        buckets = new Buckets(beginTime, endTime, numberOfBuckets);
+    }
+
+    /**
+     * @return The table from which the bulk of the data is read
+     * @throws IllegalArgumentException if the begin time is older than the retention period of every table
+     */
+    MetricsTable selectTable() {
+        for (MetricsTable table : TABLES) {
+            if (getResolution(table) <= buckets.getInterval() && isInRange(table, beginTime)) {
+                return table;
+            }
+        }
+        // The buckets are narrower than the resolution of the tables that still have data for the begin time. Fall
+        // back to the finest of those tables.
+        for (int i = TABLES.length - 1; i >= 0; --i) {
+            if (isInRange(TABLES[i], beginTime)) {
+                return TABLES[i];
+            }
+        }
+        throw new IllegalArgumentException("beginTime[" + beginTime + "] is outside the accepted range.");
+    }
+
+    public List<MeasurementDataNumericHighLowComposite> execute(List<Integer> scheduleIds) {
+        MetricsTable table = selectTable();
+        long[] startTimes = new long[scheduleIds.size()];
+        for (int i = 0; i < startTimes.length; ++i) {
+            startTimes[i] = beginTime;
+        }
+
+        for (int i = indexOf(table); i < TABLES.length; ++i) {
+            read(TABLES[i], scheduleIds, startTimes);
+        }
+
+        List<MeasurementDataNumericHighLowComposite> data = new ArrayList<MeasurementDataNumericHighLowComposite>(
+            buckets.getNumDataPoints());
+        for (int i = 0; i < buckets.getNumDataPoints(); ++i) {
+            Buckets.Bucket bucket = buckets.get(i);
+            data.add(new MeasurementDataNumericHighLowComposite(bucket.getStartTime(), bucket.getAvg(),
+                bucket.getMax(), bucket.getMin()));
+        }
+        return data;
+    }
+
+    /**
+     * Reads the data for each schedule from its start time up to the end time. On return the start times are advanced
+     * past the last row read so that the next finer table picks up where this one left off.
+     */
+    private void read(MetricsTable table, List<Integer> scheduleIds, long[] startTimes) {
+        long retentionStart = dateTimeService.getRetentionStart(table).getMillis();
+        LinkedList<PendingQuery> pendingQueries = new LinkedList<PendingQuery>();
+
+        boolean cacheable = cache != null && cache.isEnabled() &&
+            (table == MetricsTable.RAW || table == MetricsTable.ONE_HOUR);
+
+        try {
+            for (int i = 0; i < startTimes.length; ++i) {
+                long startTime = Math.max(startTimes[i], retentionStart);
+                if (startTime >= endTime) {
+                    continue;
+                }
+                int scheduleId = scheduleIds.get(i);
+                MetricsCache.Load load = null;
+                if (cacheable) {
+                    long lastTimestamp = cache.insert(table, scheduleId, startTime, endTime, buckets);
+                    if (lastTimestamp != MetricsCache.MISS) {
+                        updateStartTime(table, i, startTime, lastTimestamp, startTimes);
+                        continue;
+                    }
+                }
+                if (pendingQueries.size() == MAX_IN_FLIGHT) {
+                    process(table, pendingQueries.removeFirst(), startTimes);
+                }
+                if (cacheable) {
+                    load = cache.beginLoad(table, scheduleId, startTime);
+                }
+                PendingQuery query = new PendingQuery(i, startTime, load);
+                try {
+                    query.future = findData(table, scheduleId, startTime, load == null ? endTime : Long.MAX_VALUE);
+                } catch (RuntimeException e) {
+                    abortLoad(query);
+                    throw e;
+                }
+                pendingQueries.add(query);
+            }
+            while (!pendingQueries.isEmpty()) {
+                process(table, pendingQueries.removeFirst(), startTimes);
+            }
+        } finally {
+            // only non-empty if a query failed
+            for (PendingQuery query : pendingQueries) {
+                abortLoad(query);
+            }
+        }
+    }
+
+    private void process(MetricsTable table, PendingQuery query, long[] startTimes) {
+        long lastTimestamp;
+        try {
+            ResultSet resultSet = query.future.get();
+            if (table == MetricsTable.RAW) {
+                lastTimestamp = insertRawData(resultSet, query.load);
+            } else {
+                lastTimestamp = insertAggregateData(resultSet, query.load);
+            }
+        } catch (NoHostAvailableException e) {
+            abortLoad(query);
+            throw new CQLException(e);
+        } catch (RuntimeException e) {
+            abortLoad(query);
+            throw e;
+        }
+        if (query.load != null) {
+            cache.completeLoad(query.load);
+        }
+        updateStartTime(table, query.index, query.startTime, lastTimestamp, startTimes);
+    }
+
+    private void abortLoad(PendingQuery query) {
+        if (query.load != null) {
+            cache.abortLoad(query.load);
+        }
+    }
+
+    private void updateStartTime(MetricsTable table, int index, long startTime, long lastTimestamp,
+        long[] startTimes) {
+        if (lastTimestamp == -1) {
+            startTimes[index] = startTime;
+        } else {
+            startTimes[index] = lastTimestamp + getResolution(table);
+        }
+    }
+
+    /**
+     * @param load The cache load to which all rows are added, or null
+     * @return The timestamp of the last row before the end time or -1 if there is no such row
+     */
+    private long insertRawData(ResultSet resultSet, MetricsCache.Load load) {
+        long lastTimestamp = -1;
+        for (Row row : resultSet) {
+            long timestamp = row.getDate(1).getTime();
+            double value = row.getDouble(2);
+            if (load != null) {
+                load.add(timestamp, value, value, value);
+            }
+            if (timestamp < endTime) {
+                buckets.insert(timestamp, value, value, value);
+                lastTimestamp = timestamp;
+            }
+        }
+        return lastTimestamp;
+    }
+
+    /**
+     * Aggregate rows are stored as max, min, avg triples that share a timestamp. The values are held in locals until
+     * the avg row completes the triple, and are reset after each triple so that they never carry over to the next one.
+     * If the max or min row of a triple is missing, the avg stands in for it.
+     *
+     * @param load The cache load to which all rows are added, or null
+     * @return The timestamp of the last row before the end time or -1 if there is no such row
+     */
+    long insertAggregateData(Iterable<Row> resultSet, MetricsCache.Load load) {
+        long lastTimestamp = -1;
+        double max = Double.NaN;
+        double min = Double.NaN;
+        for (Row row : resultSet) {
+            long timestamp = row.getDate(1).getTime();
+            double value = row.getDouble(3);
+            switch (AggregateType.valueOf(row.getInt(2))) {
+            case MAX:
+                max = value;
+                break;
+            case MIN:
+                min = value;
+                break;
+            default:
+                if (Double.isNaN(max)) {
+                    max = value;
+                }
+                if (Double.isNaN(min)) {
+                    min = value;
+                }
+                if (load != null) {
+                    load.add(timestamp, value, min, max);
+                }
+                if (timestamp < endTime) {
+                    buckets.insert(timestamp, value, min, max);
+                    lastTimestamp = timestamp;
+                }
+                max = Double.NaN;
+                min = Double.NaN;
+            }
+        }
+        return lastTimestamp;
+    }
+
+    private StorageResultSetFuture findData(MetricsTable table, int scheduleId, long startTime, long endTime) {
+        switch (table) {
+        case RAW:
+            return dao.findRawMetricsAsync(scheduleId, startTime, endTime);
+        case ONE_HOUR:
+            return dao.findOneHourMetricsAsync(scheduleId, startTime, endTime);
+        case SIX_HOUR:
+            return dao.findSixHourMetricsAsync(scheduleId, startTime, endTime);
+        default:
+            return dao.findTwentyFourHourMetricsAsync(scheduleId, startTime, endTime);
+        }
+    }
+
+    private boolean isInRange(MetricsTable table, long time) {
+        return dateTimeService.getRetentionStart(table).getMillis() < time;
+    }
+
+    static long getResolution(MetricsTable table) {
+        switch (table) {
+        case ONE_HOUR:
+            return Duration.standardHours(1).getMillis();
+        case SIX_HOUR:
+            return Duration.standardHours(6).getMillis();
+        case TWENTY_FOUR_HOUR:
+            return Duration.standardDays(1).getMillis();
+        default:
+            return 0;
+        }
+    }
+
+    private static int indexOf(MetricsTable table) {
+        for (int i = 0; i < TABLES.length; ++i) {
+            if (TABLES[i] == table) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(table + " is not a metrics data table");
+    }
+
+    private static class PendingQuery {
+        final int index;
+        final long startTime;
+        final MetricsCache.Load load;
+        StorageResultSetFuture future;
+
+        PendingQuery(int index, long startTime, MetricsCache.Load load) {
+            this.index = index;
+            this.startTime = startTime;
+            this.load = load;
+        }
+    }
+
+}
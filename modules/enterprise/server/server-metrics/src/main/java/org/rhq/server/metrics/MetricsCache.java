@@ -0,0 +1,502 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.Duration;
+
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+/**
+ * A size bounded cache of the most recent raw and 1 hour data of schedules. It sits in front of the raw and 1 hour
+ * queries done by {@link DownsamplingQuery}, which serves the same "last N hours" windows over and over again to
+ * dashboards and the REST interface.
+ * <p>
+ * For each schedule the cache holds a window of data that is known to be complete from a start time up to now. The
+ * data is stored in primitive arrays sorted by timestamp. A window is filled on a cache miss by reading everything
+ * from the requested start time onward. After that, raw data is written through to the cache as it is inserted. 1 hour
+ * windows are dropped each time aggregation runs since the aggregation adds rows to the 1 hour table. Windows slide
+ * with time. Data older than {@link #RAW_WINDOW} or {@link #ONE_HOUR_WINDOW} respectively is trimmed, both when the
+ * window is read and when raw data is written through, and queries that start before that are not cached at all.
+ * <p>
+ * The cache holds at most {@link #getMaxSchedules() maxSchedules} schedules and evicts the least recently read one
+ * when it is full. Writes do not count as use, so schedules that are written but never read age out. Schedules that
+ * have not been read for {@link #IDLE_TIMEOUT} are evicted when aggregation runs. A size of zero disables the cache.
+ * <p>
+ * The map of schedules is guarded by its own lock, which is only held to look up, add or remove an entry. The windows
+ * of a schedule are guarded by the lock of its entry, so that reads and writes of different schedules do not wait for
+ * each other. The map lock is never acquired while an entry lock is held.
+ * <p>
+ * Since only the raw data inserted through this server is written through, the cache cannot know about data that
+ * other servers insert into the same storage cluster. It has to be {@link #setSuspended(boolean) suspended} while
+ * there is more than one server.
+ */
+public class MetricsCache {
+
+    /**
+     * Returned by {@link #insert(MetricsTable, int, long, long, Buckets)} when the requested data is not cached
+     */
+    static final long MISS = Long.MIN_VALUE;
+
+    static final Duration RAW_WINDOW = Duration.standardDays(1);
+
+    static final Duration ONE_HOUR_WINDOW = Duration.standardDays(14);
+
+    static final Duration IDLE_TIMEOUT = Duration.standardHours(1);
+
+    private final DateTimeService dateTimeService;
+
+    private final int maxSchedules;
+
+    // Kept in insertion order rather than access order so that writes do not affect eviction. Reads move the entry
+    // to the end explicitly.
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+            if (size() > maxSchedules) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private volatile boolean suspended;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public MetricsCache(DateTimeService dateTimeService, int maxSchedules) {
+        if (maxSchedules < 0) {
+            throw new IllegalArgumentException("The maximum number of cached schedules cannot be negative");
+        }
+        this.dateTimeService = dateTimeService;
+        this.maxSchedules = maxSchedules;
+    }
+
+    public boolean isEnabled() {
+        return maxSchedules > 0 && !suspended;
+    }
+
+    public boolean isSuspended() {
+        return suspended;
+    }
+
+    /**
+     * Suspends or resumes the cache. A suspended cache is emptied and is neither read nor filled until it is resumed.
+     * Loads that are in progress when the cache is suspended are discarded.
+     */
+    public void setSuspended(boolean suspended) {
+        synchronized (entries) {
+            this.suspended = suspended;
+            if (suspended) {
+                entries.clear();
+            }
+        }
+    }
+
+    public int getMaxSchedules() {
+        return maxSchedules;
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Adds the cached data of the schedule that falls in the range [startTime, endTime) to the buckets.
+     *
+     * @return The timestamp of the last data point added, -1 if the cache has no data in the range, or {@link #MISS}
+     * if the cache does not hold the range
+     */
+    long insert(MetricsTable table, int scheduleId, long startTime, long endTime, Buckets buckets) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.remove(scheduleId);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return MISS;
+            }
+            entries.put(scheduleId, entry);
+        }
+
+        synchronized (entry) {
+            entry.lastRead = dateTimeService.nowInMillis();
+            Window window = entry.get(table);
+            if (window == null || window.loading || window.since > startTime) {
+                misses.incrementAndGet();
+                return MISS;
+            }
+            window.trim(getCutoff(table));
+            if (window.since > startTime) {
+                misses.incrementAndGet();
+                return MISS;
+            }
+            hits.incrementAndGet();
+            return window.insert(buckets, startTime, endTime);
+        }
+    }
+
+    /**
+     * Prepares the cache to be filled with the data of the schedule from startTime onward. The caller must read all of
+     * the data from startTime onward, add it to the returned load, and then call either
+     * {@link #completeLoad(Load)} or {@link #abortLoad(Load)}.
+     *
+     * @return The load to fill or null if the data should not be cached, either because startTime falls outside of
+     * the cached window or because the data is already being loaded
+     */
+    Load beginLoad(MetricsTable table, int scheduleId, long startTime) {
+        Entry entry;
+        synchronized (entries) {
+            if (!isEnabled() || startTime < getCutoff(table)) {
+                return null;
+            }
+            entry = entries.get(scheduleId);
+            if (entry == null) {
+                entry = new Entry(dateTimeService.nowInMillis());
+                entries.put(scheduleId, entry);
+            }
+        }
+
+        synchronized (entry) {
+            Window window = entry.get(table);
+            if (window == null) {
+                window = new Window(table != MetricsTable.RAW);
+                entry.set(table, window);
+            } else if (window.loading) {
+                return null;
+            }
+            window.loading = true;
+            return new Load(table, scheduleId, startTime, entry, window);
+        }
+    }
+
+    /**
+     * Installs the loaded data. Data written to the window while it was loading is merged in. If the window was
+     * evicted or invalidated in the meantime the loaded data is discarded.
+     */
+    void completeLoad(Load load) {
+        boolean cached;
+        synchronized (entries) {
+            cached = entries.get(load.scheduleId) == load.entry;
+        }
+
+        synchronized (load.entry) {
+            Window window = load.window;
+            window.loading = false;
+            if (!cached || load.entry.get(load.table) != window) {
+                return;
+            }
+            load.data.addAll(window);
+            window.replaceWith(load.data);
+            window.since = Math.min(window.since, load.startTime);
+        }
+    }
+
+    void abortLoad(Load load) {
+        synchronized (load.entry) {
+            load.window.loading = false;
+        }
+    }
+
+    /**
+     * Writes newly inserted raw data through to the window of the schedule, provided the schedule has a raw data
+     * window. Data that has slid out of the window is trimmed.
+     */
+    void addRawData(int scheduleId, List<MeasurementDataNumeric> data) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(scheduleId);
+        }
+        if (entry == null) {
+            return;
+        }
+
+        synchronized (entry) {
+            Window window = entry.raw;
+            if (window == null) {
+                return;
+            }
+            long cutoff = getCutoff(MetricsTable.RAW);
+            for (MeasurementDataNumeric datum : data) {
+                if (datum.getTimestamp() >= cutoff) {
+                    window.add(datum.getTimestamp(), datum.getValue(), datum.getValue(), datum.getValue());
+                }
+            }
+            window.trim(cutoff);
+        }
+    }
+
+    /**
+     * Drops all 1 hour windows and evicts the schedules that have not been read for {@link #IDLE_TIMEOUT}. This needs
+     * to be called after 1 hour aggregates are computed.
+     */
+    void invalidateOneHourData() {
+        long idleCutoff = dateTimeService.nowInMillis() - IDLE_TIMEOUT.getMillis();
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                synchronized (entry) {
+                    entry.oneHour = null;
+                    if (entry.raw == null) {
+                        iterator.remove();
+                    } else if (entry.lastRead < idleCutoff) {
+                        iterator.remove();
+                        evictions.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of raw data points cached for the schedule
+     */
+    int getRawDataSize(int scheduleId) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(scheduleId);
+        }
+        if (entry == null) {
+            return 0;
+        }
+        synchronized (entry) {
+            return entry.raw == null ? 0 : entry.raw.size;
+        }
+    }
+
+    private long getCutoff(MetricsTable table) {
+        if (table == MetricsTable.RAW) {
+            return dateTimeService.nowInMillis() - RAW_WINDOW.getMillis();
+        }
+        return dateTimeService.nowInMillis() - ONE_HOUR_WINDOW.getMillis();
+    }
+
+    private static class Entry {
+        Window raw;
+        Window oneHour;
+
+        // the time the schedule was last read or loaded
+        long lastRead;
+
+        Entry(long lastRead) {
+            this.lastRead = lastRead;
+        }
+
+        Window get(MetricsTable table) {
+            return table == MetricsTable.RAW ? raw : oneHour;
+        }
+
+        void set(MetricsTable table, Window window) {
+            if (table == MetricsTable.RAW) {
+                raw = window;
+            } else {
+                oneHour = window;
+            }
+        }
+    }
+
+    /**
+     * Data that is being read from the database to fill a window
+     */
+    static class Load {
+        private final MetricsTable table;
+        private final int scheduleId;
+        private final long startTime;
+        private final Entry entry;
+        private final Window window;
+        private final Window data;
+
+        private Load(MetricsTable table, int scheduleId, long startTime, Entry entry, Window window) {
+            this.table = table;
+            this.scheduleId = scheduleId;
+            this.startTime = startTime;
+            this.entry = entry;
+            this.window = window;
+            data = new Window(window.aggregate);
+        }
+
+        void add(long timestamp, double value, double min, double max) {
+            data.add(timestamp, value, min, max);
+        }
+    }
+
+    /**
+     * Data points sorted by timestamp in parallel arrays. For raw data only the values array is used.
+     */
+    private static class Window {
+        private static final int INITIAL_CAPACITY = 16;
+
+        final boolean aggregate;
+
+        // the window holds all data from this time onward
+        long since = Long.MAX_VALUE;
+
+        boolean loading;
+
+        private long[] timestamps = new long[INITIAL_CAPACITY];
+        private double[] values = new double[INITIAL_CAPACITY];
+        private double[] min;
+        private double[] max;
+        private int size;
+
+        Window(boolean aggregate) {
+            this.aggregate = aggregate;
+            if (aggregate) {
+                min = new double[INITIAL_CAPACITY];
+                max = new double[INITIAL_CAPACITY];
+            }
+        }
+
+        /**
+         * Inserts the data point in timestamp order. A data point with the same timestamp as an existing one replaces
+         * it, the same as an insert into the database does.
+         */
+        void add(long timestamp, double value, double min, double max) {
+            int index;
+            if (size == 0 || timestamps[size - 1] < timestamp) {
+                // the common case of data arriving in order
+                index = size;
+            } else {
+                index = Arrays.binarySearch(timestamps, 0, size, timestamp);
+                if (index >= 0) {
+                    set(index, timestamp, value, min, max);
+                    return;
+                }
+                index = -(index + 1);
+            }
+            ensureCapacity(size + 1);
+            if (index < size) {
+                shift(index, index + 1, size - index);
+            }
+            set(index, timestamp, value, min, max);
+            ++size;
+        }
+
+        void addAll(Window window) {
+            for (int i = 0; i < window.size; ++i) {
+                add(window.timestamps[i], window.values[i], aggregate ? window.min[i] : window.values[i],
+                    aggregate ? window.max[i] : window.values[i]);
+            }
+        }
+
+        void replaceWith(Window window) {
+            timestamps = window.timestamps;
+            values = window.values;
+            min = window.min;
+            max = window.max;
+            size = window.size;
+        }
+
+        /**
+         * Drops the data older than the cutoff
+         */
+        void trim(long cutoff) {
+            if (since >= cutoff) {
+                return;
+            }
+            since = cutoff;
+            int index = firstIndex(cutoff);
+            if (index > 0) {
+                shift(index, 0, size - index);
+                size -= index;
+            }
+        }
+
+        long insert(Buckets buckets, long startTime, long endTime) {
+            long lastTimestamp = -1;
+            for (int i = firstIndex(startTime); i < size && timestamps[i] < endTime; ++i) {
+                if (aggregate) {
+                    buckets.insert(timestamps[i], values[i], min[i], max[i]);
+                } else {
+                    buckets.insert(timestamps[i], values[i], values[i], values[i]);
+                }
+                lastTimestamp = timestamps[i];
+            }
+            return lastTimestamp;
+        }
+
+        private int firstIndex(long timestamp) {
+            int index = Arrays.binarySearch(timestamps, 0, size, timestamp);
+            return index >= 0 ? index : -(index + 1);
+        }
+
+        private void set(int index, long timestamp, double value, double min, double max) {
+            timestamps[index] = timestamp;
+            values[index] = value;
+            if (aggregate) {
+                this.min[index] = min;
+                this.max[index] = max;
+            }
+        }
+
+        private void shift(int from, int to, int length) {
+            System.arraycopy(timestamps, from, timestamps, to, length);
+            System.arraycopy(values, from, values, to, length);
+            if (aggregate) {
+                System.arraycopy(min, from, min, to, length);
+                System.arraycopy(max, from, max, to, length);
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= timestamps.length) {
+                return;
+            }
+            int newCapacity = Math.max(capacity, timestamps.length * 2);
+            timestamps = Arrays.copyOf(timestamps, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+            if (aggregate) {
+                min = Arrays.copyOf(min, newCapacity);
+                max = Arrays.copyOf(max, newCapacity);
+            }
+        }
+    }
+
+}
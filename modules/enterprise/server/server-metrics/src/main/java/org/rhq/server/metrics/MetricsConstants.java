@@ -11,6 +11,18 @@ public class MetricsConstants {
 
     public static final String AGGREGATION_PARALLELISM = "rhq.metrics.aggregation.parallelism";
 
+    public static final String AGGREGATION_CHUNK_SIZE = "rhq.metrics.aggregation.chunk-size";
+
+    public static final String AGGREGATION_STREAMING = "rhq.metrics.aggregation.streaming";
+
+    public static final String AGGREGATION_INCREMENTAL = "rhq.metrics.aggregation.incremental";
+
+    public static final String RAW_BATCH_SIZE = "rhq.metrics.raw.batch-size";
+
+    public static final String RAW_MAX_IN_FLIGHT = "rhq.metrics.raw.max-in-flight";
+
+    public static final String CACHE_SIZE = "rhq.metrics.cache.size";
+
     private MetricsConstants() {
     }
 }
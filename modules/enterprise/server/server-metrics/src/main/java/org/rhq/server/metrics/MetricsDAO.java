@@ -26,13 +26,20 @@
 package org.rhq.server.metrics;
 
 
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Host;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.exceptions.NoHostAvailableException;
 
 import org.apache.commons.logging.Log;
@@ -58,6 +65,18 @@ import org.rhq.server.metrics.domain.SimplePagedResult;
  */
 public class MetricsDAO {
 
+    /**
+     * The maximum number of entries returned by
+     * {@link #findMetricsIndexEntriesPageAsync(MetricsTable, long, int) a page of index entries}
+     */
+    public static final int INDEX_PAGE_SIZE = 1000;
+
+    /**
+     * Aggregation checkpoints are stored in the index table under the name of the table being aggregated into plus
+     * this suffix. They are kept apart from the index entries so that they are not mistaken for schedules.
+     */
+    static final String CHECKPOINT_SUFFIX = "_checkpoint";
+
     private final Log log = LogFactory.getLog(MetricsDAO.class);
 
     private StorageSession storageSession;
@@ -76,9 +95,17 @@ public class MetricsDAO {
     private PreparedStatement findSixHourMetricsByDateRange;
     private PreparedStatement findTwentyFourHourMetricsByDateRange;
     private PreparedStatement findIndexEntries;
+    private PreparedStatement findIndexEntriesPage;
+    private PreparedStatement findIndexCheckpoint;
+    private PreparedStatement updateIndexCheckpoint;
     private PreparedStatement findTimeSliceForIndex;
     private PreparedStatement deleteIndexEntries;
 
+    // Prepared raw data batches keyed by the number of rows in the batch. These are prepared lazily since the number
+    // of distinct sizes is bounded by the raw data batch size.
+    private ConcurrentMap<Integer, PreparedStatement> insertRawDataBatches =
+        new ConcurrentHashMap<Integer, PreparedStatement>();
+
     public MetricsDAO(StorageSession session, MetricsConfiguration configuration) {
         this.storageSession = session;
         this.configuration = configuration;
@@ -134,11 +161,23 @@ public class MetricsDAO {
         findIndexEntries = storageSession.prepare("SELECT time, schedule_id FROM " + MetricsTable.INDEX +
             " WHERE bucket = ? AND time = ?");
 
+        findIndexEntriesPage = storageSession.prepare("SELECT time, schedule_id FROM " + MetricsTable.INDEX +
+            " WHERE bucket = ? AND time = ? AND schedule_id > ? LIMIT " + INDEX_PAGE_SIZE);
+
+        findIndexCheckpoint = storageSession.prepare("SELECT schedule_id FROM " + MetricsTable.INDEX +
+            " WHERE bucket = ? AND time = ? ORDER BY schedule_id DESC LIMIT 1");
+
+        // Checkpoints expire with the raw data in case a late write lands after the checkpoint has been deleted
+        updateIndexCheckpoint = storageSession.prepare("INSERT INTO " + MetricsTable.INDEX + " (bucket, time, " +
+            "schedule_id) VALUES (?, ?, ?) USING TTL " + configuration.getRawTTL());
+
         findTimeSliceForIndex = storageSession.prepare("SELECT time FROM " + MetricsTable.INDEX +
             " WHERE bucket = ? AND time = ?");
 
         deleteIndexEntries = storageSession.prepare("DELETE FROM " + MetricsTable.INDEX + " WHERE bucket = ? AND time = ?");
 
+        insertRawDataBatches.clear();
+
         long endTime = System.currentTimeMillis();
         log.info("Finished initializing prepared statements in " + (endTime - startTime) + " ms");
     }
@@ -149,6 +188,46 @@ public class MetricsDAO {
         return storageSession.executeAsync(statement);
     }
 
+    /**
+     * Inserts the raw data as a single unlogged batch. Callers should group the data by schedule id so that the
+     * batch only touches a single partition; this method does not enforce that though.
+     *
+     * @param batch The raw data to insert. Must not be empty.
+     * @return A future for the batch write
+     */
+    public StorageResultSetFuture insertRawData(List<MeasurementDataNumeric> batch) {
+        if (batch.size() == 1) {
+            return insertRawData(batch.get(0));
+        }
+        Object[] values = new Object[batch.size() * 3];
+        int i = 0;
+        for (MeasurementDataNumeric data : batch) {
+            values[i++] = data.getScheduleId();
+            values[i++] = new Date(data.getTimestamp());
+            values[i++] = data.getValue();
+        }
+        BoundStatement statement = getInsertRawDataBatch(batch.size()).bind(values);
+        return storageSession.executeAsync(statement);
+    }
+
+    private PreparedStatement getInsertRawDataBatch(int size) {
+        PreparedStatement statement = insertRawDataBatches.get(size);
+        if (statement == null) {
+            StringBuilder cql = new StringBuilder("BEGIN UNLOGGED BATCH ");
+            for (int i = 0; i < size; ++i) {
+                cql.append("INSERT INTO ").append(MetricsTable.RAW).append(" (schedule_id, time, value) VALUES ")
+                    .append("(?, ?, ?) USING TTL ").append(configuration.getRawTTL()).append("; ");
+            }
+            cql.append("APPLY BATCH");
+            statement = storageSession.prepare(cql.toString());
+            PreparedStatement existing = insertRawDataBatches.putIfAbsent(size, statement);
+            if (existing != null) {
+                statement = existing;
+            }
+        }
+        return statement;
+    }
+
     public ResultSet insertOneHourData(int scheduleId, long timestamp, AggregateType type, double value) {
         BoundStatement statement = insertOneHourData.bind(scheduleId, new Date(timestamp), type.ordinal(), value);
         return storageSession.execute(statement);
@@ -288,6 +367,57 @@ public class MetricsDAO {
         return storageSession.executeAsync(statement);
     }
 
+    /**
+     * Reads the index entries of a time slice in pages of at most {@link #INDEX_PAGE_SIZE} entries ordered by
+     * schedule id.
+     *
+     * @param afterScheduleId Only entries with a greater schedule id are returned. This is the schedule id of the last
+     *                        entry of the previous page.
+     */
+    public StorageResultSetFuture findMetricsIndexEntriesPageAsync(MetricsTable table, long timestamp,
+        int afterScheduleId) {
+        BoundStatement statement = findIndexEntriesPage.bind(table.toString(), new Date(timestamp), afterScheduleId);
+        return storageSession.executeAsync(statement);
+    }
+
+    /**
+     * @return The schedule id up to which the index entries of the time slice have been aggregated, or
+     * {@link Integer#MIN_VALUE} if there is no checkpoint
+     */
+    public int findIndexCheckpoint(MetricsTable table, long timestamp) {
+        BoundStatement statement = findIndexCheckpoint.bind(table.getTableName() + CHECKPOINT_SUFFIX,
+            new Date(timestamp));
+        Row row = storageSession.execute(statement).one();
+        return row == null ? Integer.MIN_VALUE : row.getInt(0);
+    }
+
+    /**
+     * Records that the index entries of the time slice up to and including <code>scheduleId</code> have been
+     * aggregated. Checkpoints only ever move forward, so the greatest recorded schedule id is the current one.
+     */
+    public StorageResultSetFuture updateIndexCheckpoint(MetricsTable table, long timestamp, int scheduleId) {
+        BoundStatement statement = updateIndexCheckpoint.bind(table.getTableName() + CHECKPOINT_SUFFIX,
+            new Date(timestamp), scheduleId);
+        return storageSession.executeAsync(statement);
+    }
+
+    public StorageResultSetFuture deleteIndexCheckpointAsync(MetricsTable table, long timestamp) {
+        BoundStatement statement = deleteIndexEntries.bind(table.getTableName() + CHECKPOINT_SUFFIX,
+            new Date(timestamp));
+        return storageSession.executeAsync(statement);
+    }
+
+    /**
+     * @return The address of a storage node that owns the data of the schedule, or null if the driver does not know
+     * the token ownership of the cluster
+     */
+    public InetAddress findReplica(int scheduleId) {
+        ByteBuffer partitionKey = ByteBuffer.allocate(4);
+        partitionKey.putInt(0, scheduleId);
+        Set<Host> replicas = storageSession.getCluster().getMetadata().getReplicas(partitionKey);
+        return replicas.isEmpty() ? null : replicas.iterator().next().getAddress();
+    }
+
     public ResultSet setFindTimeSliceForIndex(MetricsTable table, long timestamp) {
         BoundStatement statement = findTimeSliceForIndex.bind(table.toString(), new Date(timestamp));
         return storageSession.execute(statement);
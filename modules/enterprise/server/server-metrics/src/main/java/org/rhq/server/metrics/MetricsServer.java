@@ -27,12 +27,14 @@ package org.rhq.server.metrics;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -54,6 +56,7 @@ import org.joda.time.Duration;
 
 import org.rhq.core.domain.measurement.MeasurementDataNumeric;
 import org.rhq.core.domain.measurement.composite.MeasurementDataNumericHighLowComposite;
+import org.rhq.server.metrics.aggregation.AggregateConsumer;
 import org.rhq.server.metrics.aggregation.Aggregator;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
 import org.rhq.server.metrics.domain.AggregateType;
@@ -66,6 +69,18 @@ import org.rhq.server.metrics.domain.RawNumericMetric;
  */
 public class MetricsServer {
 
+    private static final Comparator<MeasurementDataNumeric> RAW_DATA_COMPARATOR =
+        new Comparator<MeasurementDataNumeric>() {
+            @Override
+            public int compare(MeasurementDataNumeric left, MeasurementDataNumeric right) {
+                if (left.getScheduleId() != right.getScheduleId()) {
+                    return (left.getScheduleId() < right.getScheduleId()) ? -1 : 1;
+                }
+                return (left.getTimestamp() < right.getTimestamp()) ? -1 :
+                    ((left.getTimestamp() == right.getTimestamp()) ? 0 : 1);
+            }
+        };
+
     private final Log log = LogFactory.getLog(MetricsServer.class);
 
     private DateTimeService dateTimeService = new DateTimeService();
@@ -91,6 +106,25 @@ public class MetricsServer {
 
     private boolean useAsyncAggregation = Boolean.valueOf(System.getProperty("rhq.metrics.aggregation.async", "true"));
 
+    private int rawBatchSize = Integer.parseInt(System.getProperty(MetricsConstants.RAW_BATCH_SIZE, "25"));
+
+    private int rawMaxInFlight = Integer.parseInt(System.getProperty(MetricsConstants.RAW_MAX_IN_FLIGHT, "200"));
+
+    private volatile Semaphore rawInsertPermits = new Semaphore(rawMaxInFlight);
+
+    private int aggregationChunkSize = Integer.parseInt(System.getProperty(MetricsConstants.AGGREGATION_CHUNK_SIZE,
+        "500"));
+
+    private int cacheSize = Integer.parseInt(System.getProperty(MetricsConstants.CACHE_SIZE, "1000"));
+
+    private MetricsCache metricsCache;
+
+    private volatile boolean multipleServers;
+
+    private volatile OneHourDataAccumulator oneHourDataAccumulator;
+
+    private boolean incrementalAggregation = Boolean.getBoolean(MetricsConstants.AGGREGATION_INCREMENTAL);
+
     public void setDAO(MetricsDAO dao) {
         this.dao = dao;
     }
@@ -119,6 +153,18 @@ public class MetricsServer {
         this.parallelism = parallelism;
     }
 
+    /**
+     * @return The number of 1 hour aggregates handed to an {@link AggregateConsumer} per invocation when aggregates
+     * are streamed
+     */
+    public int getAggregationChunkSize() {
+        return aggregationChunkSize;
+    }
+
+    public void setAggregationChunkSize(int chunkSize) {
+        aggregationChunkSize = chunkSize;
+    }
+
     public int getNumAggregationWorkers() {
         return numAggregationWorkers;
     }
@@ -127,10 +173,122 @@ public class MetricsServer {
         this.useAsyncAggregation = useAsyncAggregation;
     }
 
+    /**
+     * @return The maximum number of raw data points for a single schedule and time slice that are written in one
+     * unlogged batch
+     */
+    public int getRawBatchSize() {
+        return rawBatchSize;
+    }
+
+    public void setRawBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The raw data batch size must be greater than zero");
+        }
+        rawBatchSize = batchSize;
+    }
+
+    /**
+     * @return The maximum number of raw data batch writes that can be in flight at any given time. Inserting raw data
+     * blocks once this limit has been reached until outstanding writes complete.
+     */
+    public int getRawMaxInFlight() {
+        return rawMaxInFlight;
+    }
+
+    public void setRawMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("The maximum number of in flight raw data writes must be greater " +
+                "than zero");
+        }
+        rawMaxInFlight = maxInFlight;
+        // Writes that are already in flight release their permits back to the semaphore from which they were
+        // acquired, so it is safe to just swap in a new one.
+        rawInsertPermits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * @return The cache of recent raw and 1 hour data. It is only available after {@link #init()} has been called.
+     */
+    public MetricsCache getMetricsCache() {
+        return metricsCache;
+    }
+
+    /**
+     * @return True if there are other servers that insert data into the same storage cluster
+     */
+    public boolean isMultipleServers() {
+        return multipleServers;
+    }
+
+    /**
+     * Tells the metrics server whether there are other servers that insert data into the same storage cluster. The
+     * metrics cache and incremental aggregation only see the raw data that is inserted through this server, so both
+     * are suspended while there are other servers. This needs to be called on every server whenever the number of
+     * servers changes.
+     */
+    public synchronized void setMultipleServers(boolean multipleServers) {
+        if (this.multipleServers != multipleServers) {
+            log.info((multipleServers ? "Suspending" : "Resuming") + " the metrics cache" +
+                (incrementalAggregation ? " and incremental aggregation" : "") + " since there " +
+                (multipleServers ? "are other servers" : "are no other servers anymore"));
+        }
+        this.multipleServers = multipleServers;
+        if (metricsCache != null) {
+            metricsCache.setSuspended(multipleServers);
+        }
+        updateOneHourDataAccumulator();
+    }
+
+    /**
+     * @return True if 1 hour aggregates are to be maintained as raw data is inserted so that aggregation does not have
+     * to read the raw data back. This is suspended while there are {@link #isMultipleServers() multiple servers}.
+     */
+    public boolean isIncrementalAggregation() {
+        return incrementalAggregation;
+    }
+
+    /**
+     * Turns incremental aggregation on or off. When it is turned on, only time slices that start afterwards are
+     * aggregated incrementally.
+     */
+    public synchronized void setIncrementalAggregation(boolean incrementalAggregation) {
+        this.incrementalAggregation = incrementalAggregation;
+        updateOneHourDataAccumulator();
+    }
+
+    /**
+     * Creates or drops the accumulator. A new accumulator only accumulates time slices that start after it was
+     * created, so nothing that was inserted while it was suspended is missed.
+     */
+    private void updateOneHourDataAccumulator() {
+        if (incrementalAggregation && !multipleServers) {
+            if (oneHourDataAccumulator == null) {
+                oneHourDataAccumulator = new OneHourDataAccumulator(dateTimeService.now().getMillis());
+            }
+        } else {
+            oneHourDataAccumulator = null;
+        }
+    }
+
+    /**
+     * @return The accumulator of 1 hour aggregates or null if {@link #isIncrementalAggregation() incremental
+     * aggregation} is disabled or suspended
+     */
+    public OneHourDataAccumulator getOneHourDataAccumulator() {
+        return oneHourDataAccumulator;
+    }
+
     public void init() {
         if (log.isDebugEnabled() && useAsyncAggregation) {
             log.debug("Async aggregation is enabled");
         }
+        metricsCache = new MetricsCache(dateTimeService, cacheSize);
+        metricsCache.setSuspended(multipleServers);
+        if (incrementalAggregation) {
+            log.info("Incremental aggregation is enabled");
+            setIncrementalAggregation(true);
+        }
         aggregationWorkers = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(numAggregationWorkers,
             new StorageClientThreadFactory()));
         determineMostRecentRawDataSinceLastShutdown();
@@ -202,29 +360,17 @@ public class MetricsServer {
         return totalAggregationTime.get();
     }
 
+    /**
+     * Finds the data for the schedule and distributes it into the requested number of buckets. See
+     * {@link DownsamplingQuery} for how the tables to read from are chosen.
+     */
     public Iterable<MeasurementDataNumericHighLowComposite> findDataForResource(int scheduleId, long beginTime,
         long endTime, int numberOfBuckets) {
         Stopwatch stopwatch = new Stopwatch().start();
         try {
-            DateTime begin = new DateTime(beginTime);
-
-            if (dateTimeService.isInRawDataRange(begin)) {
-                Iterable<RawNumericMetric> metrics = dao.findRawMetrics(scheduleId, beginTime, endTime);
-                return createRawComposites(metrics, beginTime, endTime, numberOfBuckets);
-            }
-
-            Iterable<AggregateNumericMetric> metrics = null;
-            if (dateTimeService.isIn1HourDataRange(begin)) {
-                metrics = dao.findOneHourMetrics(scheduleId, beginTime, endTime);
-            } else if (dateTimeService.isIn6HourDataRnage(begin)) {
-                metrics = dao.findSixHourMetrics(scheduleId, beginTime, endTime);
-            } else if (dateTimeService.isIn24HourDataRnage(begin)) {
-                metrics = dao.findTwentyFourHourMetrics(scheduleId, beginTime, endTime);
-            } else {
-                throw new IllegalArgumentException("beginTime[" + beginTime + "] is outside the accepted range.");
-            }
-
-            return createComposites(metrics, beginTime, endTime, numberOfBuckets);
+            DownsamplingQuery query = new DownsamplingQuery(dao, dateTimeService, metricsCache, beginTime, endTime,
+                numberOfBuckets);
+            return query.execute(Collections.singletonList(scheduleId));
         } finally {
             stopwatch.stop();
             if (log.isDebugEnabled()) {
@@ -234,29 +380,18 @@ public class MetricsServer {
         }
     }
 
+    /**
+     * Finds the data for the schedules and distributes it into the requested number of buckets. The data of all the
+     * schedules is combined into a single series. See {@link DownsamplingQuery} for how the tables to read from are
+     * chosen.
+     */
     public List<MeasurementDataNumericHighLowComposite> findDataForGroup(List<Integer> scheduleIds, long beginTime,
         long endTime, int numberOfBuckets) {
         Stopwatch stopwatch = new Stopwatch().start();
         try {
-            DateTime begin = new DateTime(beginTime);
-
-            if (dateTimeService.isInRawDataRange(begin)) {
-                Iterable<RawNumericMetric> metrics = dao.findRawMetrics(scheduleIds, beginTime, endTime);
-                return createRawComposites(metrics, beginTime, endTime, numberOfBuckets);
-            }
-
-            Iterable<AggregateNumericMetric> metrics = null;
-            if (dateTimeService.isIn1HourDataRange(begin)) {
-                metrics = dao.findOneHourMetrics(scheduleIds, beginTime, endTime);
-            } else if (dateTimeService.isIn6HourDataRnage(begin)) {
-                metrics = dao.findSixHourMetrics(scheduleIds, beginTime, endTime);
-            } else if (dateTimeService.isIn24HourDataRnage(begin)) {
-                metrics = dao.findTwentyFourHourMetrics(scheduleIds, beginTime, endTime);
-            } else {
-                throw new IllegalArgumentException("beginTime[" + beginTime + "] is outside the accepted range.");
-            }
-
-            return createComposites(metrics, beginTime, endTime, numberOfBuckets);
+            DownsamplingQuery query = new DownsamplingQuery(dao, dateTimeService, metricsCache, beginTime, endTime,
+                numberOfBuckets);
+            return query.execute(scheduleIds);
         } finally {
             stopwatch.stop();
             if (log.isDebugEnabled()) {
@@ -365,40 +500,18 @@ public class MetricsServer {
         }
     }
 
-    private List<MeasurementDataNumericHighLowComposite> createRawComposites(Iterable<RawNumericMetric> metrics,
-        long beginTime, long endTime, int numberOfBuckets) {
-        Buckets buckets = new Buckets(beginTime, endTime, numberOfBuckets);
-        for (RawNumericMetric metric : metrics) {
-            buckets.insert(metric.getTimestamp(), metric.getValue(), metric.getValue(), metric.getValue());
-        }
-
-        List<MeasurementDataNumericHighLowComposite> data = new ArrayList<MeasurementDataNumericHighLowComposite>();
-        for (int i = 0; i < buckets.getNumDataPoints(); ++i) {
-            Buckets.Bucket bucket = buckets.get(i);
-            data.add(new MeasurementDataNumericHighLowComposite(bucket.getStartTime(), bucket.getAvg(),
-                bucket.getMax(), bucket.getMin()));
-        }
-        return data;
-    }
-
-    private List<MeasurementDataNumericHighLowComposite> createComposites(Iterable<AggregateNumericMetric> metrics,
-        long beginTime, long endTime, int numberOfBuckets) {
-
-        Buckets buckets = new Buckets(beginTime, endTime, numberOfBuckets);
-        for (AggregateNumericMetric metric : metrics) {
-            buckets.insert(metric.getTimestamp(), metric.getAvg(), metric.getMin(), metric.getMax());
-        }
-
-        List<MeasurementDataNumericHighLowComposite> data = new ArrayList<MeasurementDataNumericHighLowComposite>();
-        for (int i = 0; i < buckets.getNumDataPoints(); ++i) {
-            Buckets.Bucket bucket = buckets.get(i);
-            data.add(new MeasurementDataNumericHighLowComposite(bucket.getStartTime(), bucket.getAvg(),
-                bucket.getMax(), bucket.getMin()));
-        }
-        return data;
-
-    }
-
+    /**
+     * Inserts raw data. The data is grouped by schedule id and time slice, and each group is written in unlogged
+     * batches of at most {@link #getRawBatchSize() rawBatchSize} rows. Since every row in a batch belongs to the same
+     * partition, a batch costs about as much as a single insert on the storage node. The index is updated once per
+     * batch rather than once per data point. The number of outstanding batches is capped by
+     * {@link #getRawMaxInFlight() rawMaxInFlight}; the calling thread blocks when the limit is reached.
+     *
+     * @param dataSet The raw data to insert
+     * @param callback {@link RawDataInsertedCallback#onSuccess(Object)} is invoked for each data point after both the
+     *                 data and its index entry have been written. {@link RawDataInsertedCallback#onFinish()} is
+     *                 invoked after all data points have been successfully written.
+     */
     public void addNumericData(final Set<MeasurementDataNumeric> dataSet,
         final RawDataInsertedCallback callback) {
         try {
@@ -408,34 +521,116 @@ public class MetricsServer {
 
             final long startTime = dateTimeService.now().getMillis();
             final AtomicInteger remainingInserts = new AtomicInteger(dataSet.size());
-
-            for (final MeasurementDataNumeric data : dataSet) {
-                StorageResultSetFuture resultSetFuture = dao.insertRawData(data);
+            final Semaphore permits = rawInsertPermits;
+
+            for (final RawDataBatch batch : createRawDataBatches(dataSet)) {
+                permits.acquire();
+                StorageResultSetFuture resultSetFuture;
+                try {
+                    resultSetFuture = dao.insertRawData(batch.data);
+                } catch (RuntimeException e) {
+                    // the callbacks below release the permit, but they are never registered if the insert fails here
+                    permits.release();
+                    throw e;
+                }
                 Futures.addCallback(resultSetFuture, new FutureCallback<ResultSet>() {
                     @Override
                     public void onSuccess(ResultSet rows) {
-                        updateMetricsIndex(data, dataSet.size(), remainingInserts, startTime, callback);
+                        updateMetricsIndex(batch, dataSet.size(), remainingInserts, startTime, permits, callback);
                     }
 
                     @Override
                     public void onFailure(Throwable throwable) {
+                        permits.release();
                         if (log.isDebugEnabled()) {
-                            log.error("An error occurred while inserting raw data " + data, throwable);
+                            log.error("An error occurred while inserting raw data " + batch, throwable);
                         } else {
                             log.error(
-                                "An error occurred while inserting raw data " + data + ": " +
+                                "An error occurred while inserting raw data " + batch + ": " +
                                     throwable.getClass().getName() + ": " + throwable.getMessage());
                         }
                         callback.onFailure(throwable);
                     }
                 }, aggregationWorkers);
             }
+        } catch (InterruptedException e) {
+            log.warn("There was an interrupt while waiting to insert raw numeric data. Remaining data will not be " +
+                "inserted.");
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         } catch (Exception e) {
             log.error("An error occurred while inserting raw numeric data ", e);
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Groups the data by schedule id and raw data time slice. Each group is then split into batches of at most
+     * {@link #getRawBatchSize() rawBatchSize} data points.
+     */
+    List<RawDataBatch> createRawDataBatches(Set<MeasurementDataNumeric> dataSet) {
+        List<MeasurementDataNumeric> sortedData = new ArrayList<MeasurementDataNumeric>(dataSet);
+        Collections.sort(sortedData, RAW_DATA_COMPARATOR);
+
+        int batchSize = rawBatchSize;
+        List<RawDataBatch> batches = new ArrayList<RawDataBatch>();
+        RawDataBatch batch = null;
+        for (MeasurementDataNumeric data : sortedData) {
+            long timeSlice = dateTimeService.getTimeSlice(data.getTimestamp(),
+                configuration.getRawTimeSliceDuration()).getMillis();
+            if (batch == null || batch.data.size() == batchSize || batch.scheduleId != data.getScheduleId() ||
+                batch.timeSlice != timeSlice) {
+                batch = new RawDataBatch(data.getScheduleId(), timeSlice, Math.min(batchSize, sortedData.size()));
+                batches.add(batch);
+            }
+            batch.data.add(data);
+        }
+        return batches;
+    }
+
+    private void updateMetricsIndex(final RawDataBatch batch, final int total, final AtomicInteger remainingInserts,
+        final long startTime, final Semaphore permits, final RawDataInsertedCallback callback) {
+
+        StorageResultSetFuture resultSetFuture;
+        try {
+            resultSetFuture = dao.updateMetricsIndex(MetricsTable.ONE_HOUR, batch.scheduleId, batch.timeSlice);
+        } catch (RuntimeException e) {
+            permits.release();
+            log.error("An error occurred while trying to update " + MetricsTable.INDEX + " for raw data " + batch, e);
+            callback.onFailure(e);
+            return;
+        }
+        Futures.addCallback(resultSetFuture, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet rows) {
+                permits.release();
+                metricsCache.addRawData(batch.scheduleId, batch.data);
+                OneHourDataAccumulator accumulator = oneHourDataAccumulator;
+                if (accumulator != null) {
+                    accumulator.add(batch.scheduleId, batch.timeSlice, batch.data);
+                }
+                for (MeasurementDataNumeric data : batch.data) {
+                    callback.onSuccess(data);
+                }
+                if (remainingInserts.addAndGet(-batch.data.size()) == 0) {
+                    long endTime = System.currentTimeMillis();
+                    if (log.isDebugEnabled()) {
+                        log.debug("Finished inserting " + total + " raw metrics in " + (endTime - startTime) + " ms");
+                    }
+                    callback.onFinish();
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                permits.release();
+                log.error("An error occurred while trying to update " + MetricsTable.INDEX + " for raw data " +
+                    batch);
+                callback.onFailure(throwable);
+            }
+        }, aggregationWorkers);
+    }
+
     void updateMetricsIndex(final MeasurementDataNumeric rawData, final int total,
         final AtomicInteger remainingInserts, final long startTime, final RawDataInsertedCallback callback) {
 
@@ -474,6 +669,25 @@ public class MetricsServer {
      * for subsequently computing baselines.
      */
     public Iterable<AggregateNumericMetric> calculateAggregates() {
+        return calculateAggregates(null);
+    }
+
+    /**
+     * Computes and stores aggregates for all buckets that are ready to be aggregated, streaming the one hour
+     * aggregates to <code>consumer</code> as they are computed rather than collecting them. Memory usage is bounded by
+     * the {@link #getAggregationChunkSize() chunk size} and the aggregation batch settings instead of by the number of
+     * schedules with raw data.
+     *
+     * @param consumer Receives the one hour aggregates in chunks. Invocations are serialized.
+     */
+    public void streamAggregates(AggregateConsumer consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("consumer is null");
+        }
+        calculateAggregates(consumer);
+    }
+
+    private Iterable<AggregateNumericMetric> calculateAggregates(AggregateConsumer consumer) {
         Stopwatch stopwatch = new Stopwatch().start();
         try {
             DateTime theHour = currentHour();
@@ -482,27 +696,58 @@ public class MetricsServer {
                 if (pastAggregationMissed) {
                     DateTime missedHour = roundDownToHour(mostRecentRawDataPriorToStartup);
                     new Aggregator(aggregationWorkers, dao, configuration, dateTimeService, missedHour,
-                        aggregationBatchSize, parallelism).run();
+                        aggregationBatchSize, parallelism, consumer, aggregationChunkSize).run();
                     pastAggregationMissed = false;
                 }
 
                 DateTime timeSlice = theHour.minus(configuration.getRawTimeSliceDuration());
-                return new Aggregator(aggregationWorkers, dao, configuration, dateTimeService, timeSlice,
-                    aggregationBatchSize, parallelism).run();
+                Aggregator aggregator = new Aggregator(aggregationWorkers, dao, configuration, dateTimeService,
+                    timeSlice, aggregationBatchSize, parallelism, consumer, aggregationChunkSize);
+                OneHourDataAccumulator accumulator = oneHourDataAccumulator;
+                if (accumulator != null) {
+                    Map<Integer, AggregateNumericMetric> accumulatedData = accumulator.flush(timeSlice.getMillis());
+                    log.info("Using " + accumulatedData.size() + " 1 hour aggregates that were accumulated while " +
+                        "inserting raw data for time slice " + timeSlice);
+                    aggregator.setAccumulatedOneHourData(accumulatedData);
+                }
+                return aggregator.run();
             } else {
+                OneHourDataAccumulator accumulator = oneHourDataAccumulator;
+                if (accumulator != null) {
+                    // The synchronous path always reads the raw data. This just frees the accumulated entries.
+                    accumulator.flush(theHour.minus(configuration.getRawTimeSliceDuration()).getMillis());
+                }
                 if (pastAggregationMissed) {
-                    calculateAggregates(roundDownToHour(mostRecentRawDataPriorToStartup).plusHours(1).getMillis());
+                    consume(calculateAggregates(roundDownToHour(mostRecentRawDataPriorToStartup).plusHours(1)
+                        .getMillis()), consumer);
                     pastAggregationMissed = false;
                 }
-                return calculateAggregates(theHour.getMillis());
+                return consume(calculateAggregates(theHour.getMillis()), consumer);
             }
         } finally {
+            metricsCache.invalidateOneHourData();
             stopwatch.stop();
             totalAggregationTime.addAndGet(stopwatch.elapsed(TimeUnit.MILLISECONDS));
             log.info("Finished metrics aggregation in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
         }
     }
 
+    /**
+     * The synchronous aggregation path already has all of the one hour aggregates in memory, so this just hands them
+     * to the consumer in chunks.
+     */
+    private List<AggregateNumericMetric> consume(List<AggregateNumericMetric> oneHourAggregates,
+        AggregateConsumer consumer) {
+        if (consumer == null) {
+            return oneHourAggregates;
+        }
+        for (int i = 0; i < oneHourAggregates.size(); i += aggregationChunkSize) {
+            consumer.consume(oneHourAggregates.subList(i, Math.min(i + aggregationChunkSize,
+                oneHourAggregates.size())));
+        }
+        return Collections.emptyList();
+    }
+
     private List<AggregateNumericMetric> calculateAggregates(long startTime) {
         DateTime dt = new DateTime(startTime);
         DateTime currentHour = dateTimeService.getTimeSlice(dt, configuration.getRawTimeSliceDuration());
@@ -750,4 +995,27 @@ public class MetricsServer {
         return new AggregateNumericMetric(0, mean.getArithmeticMean(), min, max, timestamp);
     }
 
+    /**
+     * Raw data for a single schedule and time slice that is written as one batch.
+     */
+    static class RawDataBatch {
+        final int scheduleId;
+
+        final long timeSlice;
+
+        final List<MeasurementDataNumeric> data;
+
+        RawDataBatch(int scheduleId, long timeSlice, int capacity) {
+            this.scheduleId = scheduleId;
+            this.timeSlice = timeSlice;
+            data = new ArrayList<MeasurementDataNumeric>(capacity);
+        }
+
+        @Override
+        public String toString() {
+            return "RawDataBatch[scheduleId: " + scheduleId + ", timeSlice: " + timeSlice + ", size: " + data.size() +
+                "]";
+        }
+    }
+
 }
@@ -0,0 +1,182 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+
+/**
+ * Maintains running min, max, sum, and count of raw data per schedule and raw data time slice as the data is
+ * inserted so that 1 hour aggregates can be stored without reading the raw data back from the storage cluster.
+ * Entries are spread over a fixed number of shards by schedule id, and each shard has its own lock, so concurrent
+ * inserts for different schedules rarely contend.
+ * <p>
+ * An entry is only trusted if it is known to have seen every data point of its time slice. Data for time slices that
+ * started before the accumulator was created could have been inserted before a restart, so those time slices are
+ * never served. An entry that receives a data point which is not newer than the last one it saw, which happens with
+ * duplicates and with late data from agent spools, is marked inexact. Aggregation falls back to reading the raw data
+ * of schedules without an exact entry.
+ * <p>
+ * This only sees data inserted through this server. It must not be used when multiple servers insert raw data since
+ * the aggregates would miss data inserted by the other servers; {@link MetricsServer} drops it on every server as
+ * soon as there is more than one.
+ */
+public class OneHourDataAccumulator {
+
+    static final int NUM_SHARDS = 32;
+
+    private final long startTime;
+
+    // entries keyed by time slice and then schedule id, each shard guarded by itself
+    private final Map<Long, Map<Integer, Entry>>[] shards;
+
+    private final AtomicLong flushed = new AtomicLong();
+
+    private final AtomicLong inexact = new AtomicLong();
+
+    /**
+     * @param startTime Data for time slices starting before this time will not be accumulated
+     */
+    @SuppressWarnings("unchecked")
+    public OneHourDataAccumulator(long startTime) {
+        this.startTime = startTime;
+        shards = new Map[NUM_SHARDS];
+        for (int i = 0; i < NUM_SHARDS; ++i) {
+            shards[i] = new HashMap<Long, Map<Integer, Entry>>();
+        }
+    }
+
+    /**
+     * @return The number of aggregates that have been handed out by {@link #flush(long)}
+     */
+    public long getFlushed() {
+        return flushed.get();
+    }
+
+    /**
+     * @return The number of entries that were discarded by {@link #flush(long)} because they were not exact
+     */
+    public long getInexact() {
+        return inexact.get();
+    }
+
+    /**
+     * Adds raw data that has been persisted. The data must belong to <code>scheduleId</code> and to the raw data time
+     * slice <code>timeSlice</code>.
+     */
+    void add(int scheduleId, long timeSlice, List<MeasurementDataNumeric> data) {
+        if (timeSlice < startTime || data.isEmpty()) {
+            return;
+        }
+        Map<Long, Map<Integer, Entry>> shard = getShard(scheduleId);
+        synchronized (shard) {
+            Map<Integer, Entry> entries = shard.get(timeSlice);
+            if (entries == null) {
+                entries = new HashMap<Integer, Entry>();
+                shard.put(timeSlice, entries);
+            }
+            Entry entry = entries.get(scheduleId);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(scheduleId, entry);
+            }
+            for (MeasurementDataNumeric datum : data) {
+                entry.add(datum.getTimestamp(), datum.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes the entries of <code>timeSlice</code> and of all earlier time slices.
+     *
+     * @return The 1 hour aggregates of <code>timeSlice</code> keyed by schedule id, limited to the schedules whose
+     * entries are exact. The map is empty if the time slice started before the accumulator was created.
+     */
+    public Map<Integer, AggregateNumericMetric> flush(long timeSlice) {
+        Map<Integer, AggregateNumericMetric> aggregates = new HashMap<Integer, AggregateNumericMetric>();
+        for (Map<Long, Map<Integer, Entry>> shard : shards) {
+            synchronized (shard) {
+                for (Iterator<Map.Entry<Long, Map<Integer, Entry>>> i = shard.entrySet().iterator(); i.hasNext();) {
+                    Map.Entry<Long, Map<Integer, Entry>> slice = i.next();
+                    if (slice.getKey() > timeSlice) {
+                        continue;
+                    }
+                    i.remove();
+                    if (slice.getKey() != timeSlice) {
+                        continue;
+                    }
+                    for (Map.Entry<Integer, Entry> entry : slice.getValue().entrySet()) {
+                        Entry stats = entry.getValue();
+                        if (stats.exact) {
+                            aggregates.put(entry.getKey(), new AggregateNumericMetric(entry.getKey(),
+                                stats.sum / stats.count, stats.min, stats.max, timeSlice));
+                        } else {
+                            inexact.incrementAndGet();
+                        }
+                    }
+                }
+            }
+        }
+        flushed.addAndGet(aggregates.size());
+        return aggregates;
+    }
+
+    private Map<Long, Map<Integer, Entry>> getShard(int scheduleId) {
+        return shards[(scheduleId & Integer.MAX_VALUE) % NUM_SHARDS];
+    }
+
+    private static class Entry {
+        double min = Double.NaN;
+        double max = Double.NaN;
+        double sum;
+        int count;
+        long lastTimestamp = Long.MIN_VALUE;
+        boolean exact = true;
+
+        void add(long timestamp, double value) {
+            if (timestamp <= lastTimestamp) {
+                // Either a duplicate, which must not be counted twice, or late data. There is no telling which from
+                // here, so the raw data has to be read back.
+                exact = false;
+                return;
+            }
+            lastTimestamp = timestamp;
+            if (count == 0 || value < min) {
+                min = value;
+            }
+            if (count == 0 || value > max) {
+                max = value;
+            }
+            sum += value;
+            ++count;
+        }
+    }
+
+}
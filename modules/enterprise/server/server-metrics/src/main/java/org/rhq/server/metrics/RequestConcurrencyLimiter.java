@@ -0,0 +1,305 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Limits the number of requests that are in flight to the storage cluster at any given time. The limit adapts to the
+ * latency of the cluster using additive increase, multiplicative decrease (AIMD).
+ * <p>
+ * Latencies are collected in windows of {@link #WINDOW_SIZE} completed requests. At the end of each window the 99th
+ * percentile latency of the window is compared to the latency threshold. If it is higher, the limit is multiplied by
+ * {@link #BACKOFF_RATIO}. If it is lower and callers had to wait for a permit during the window, which means the limit
+ * was actually holding back requests, the limit is increased by {@link #INCREMENT}. A request that times out decreases
+ * the limit right away and starts a new window. The limit always stays between the minimum and the maximum.
+ * <p>
+ * This complements the request rate limit of {@link StorageSession}. The rate limit bounds the number of requests
+ * issued per second. This class bounds how many of them the cluster has to deal with at once, so that requests queue
+ * up in the server instead of timing out on the storage nodes.
+ * <p>
+ * Callers wait at most the configured maximum wait for a permit. After that the request is let through anyway. Some
+ * requests are issued from within callbacks of other requests, and those must never block indefinitely on requests
+ * that are still outstanding.
+ */
+public class RequestConcurrencyLimiter {
+
+    static final int WINDOW_SIZE = 100;
+
+    static final double BACKOFF_RATIO = 0.75;
+
+    static final int INCREMENT = 4;
+
+    private static final long MIN_BACKOFF_HINT = 1000;
+
+    private static final long MAX_BACKOFF_HINT = 30000;
+
+    private final Log log = LogFactory.getLog(RequestConcurrencyLimiter.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition permitAvailable = lock.newCondition();
+
+    private int minLimit;
+
+    private int maxLimit;
+
+    private long latencyThreshold;
+
+    private long maxWait;
+
+    // the fields below are guarded by lock
+
+    private double limit;
+
+    private int inFlight;
+
+    private int waiting;
+
+    private long[] windowLatencies = new long[WINDOW_SIZE];
+
+    private int windowCount;
+
+    private boolean limitReachedInWindow;
+
+    private long p99Latency;
+
+    private long timeouts;
+
+    private long overflows;
+
+    /**
+     * @param minLimit The lowest value the limit can decrease to
+     * @param maxLimit The initial limit and the highest value it can increase to
+     * @param latencyThreshold The 99th percentile latency in milliseconds above which the limit decreases
+     * @param maxWait The maximum time in milliseconds to wait for a permit
+     */
+    public RequestConcurrencyLimiter(int minLimit, int maxLimit, long latencyThreshold, long maxWait) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("The concurrency limits must satisfy 1 <= minLimit <= maxLimit, " +
+                "but got minLimit = " + minLimit + " and maxLimit = " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThreshold = latencyThreshold;
+        this.maxWait = maxWait;
+        limit = maxLimit;
+    }
+
+    /**
+     * Waits until the number of requests in flight is below the limit or until the maximum wait has elapsed, and then
+     * counts the caller as in flight. Each call must be paired with a call to {@link #release(long, boolean)}.
+     */
+    public void acquire() {
+        lock.lock();
+        try {
+            if (inFlight >= (int) limit) {
+                limitReachedInWindow = true;
+                ++waiting;
+                try {
+                    long remaining = TimeUnit.MILLISECONDS.toNanos(maxWait);
+                    while (inFlight >= (int) limit && remaining > 0) {
+                        remaining = permitAvailable.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    --waiting;
+                }
+                if (inFlight >= (int) limit) {
+                    ++overflows;
+                }
+            }
+            ++inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param latency The time in milliseconds it took for the request to complete
+     * @param timedOut Whether or not the request failed due to a timeout
+     */
+    public void release(long latency, boolean timedOut) {
+        lock.lock();
+        try {
+            --inFlight;
+            if (timedOut) {
+                ++timeouts;
+                decreaseLimit("a request timed out");
+                resetWindow();
+            } else {
+                windowLatencies[windowCount++] = latency;
+                if (windowCount == WINDOW_SIZE) {
+                    adjustLimit();
+                    resetWindow();
+                }
+            }
+            if (waiting > 0) {
+                permitAvailable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjustLimit() {
+        long[] latencies = Arrays.copyOf(windowLatencies, windowCount);
+        Arrays.sort(latencies);
+        p99Latency = latencies[(int) Math.ceil(latencies.length * 0.99) - 1];
+
+        if (p99Latency > latencyThreshold) {
+            decreaseLimit("the 99th percentile latency of " + p99Latency + " ms exceeds the threshold of " +
+                latencyThreshold + " ms");
+        } else if (limitReachedInWindow && limit < maxLimit) {
+            limit = Math.min(maxLimit, limit + INCREMENT);
+            if (log.isDebugEnabled()) {
+                log.debug("Increased the storage request concurrency limit to " + (int) limit);
+            }
+        }
+    }
+
+    private void decreaseLimit(String reason) {
+        if (limit <= minLimit) {
+            return;
+        }
+        double oldLimit = limit;
+        limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        log.info("Decreasing the storage request concurrency limit from " + (int) oldLimit + " to " + (int) limit +
+            " because " + reason);
+    }
+
+    private void resetWindow() {
+        windowCount = 0;
+        limitReachedInWindow = false;
+    }
+
+    /**
+     * @return True if callers are waiting for permits while the limit is below its maximum. In other words, the
+     * storage cluster is not keeping up and load should be shed upstream where possible.
+     */
+    public boolean isCongested() {
+        lock.lock();
+        try {
+            return waiting > 0 && limit < maxLimit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The time in milliseconds that clients should wait before sending more data, or zero if the storage
+     * cluster is not {@link #isCongested() congested}
+     */
+    public long getBackoffHint() {
+        lock.lock();
+        try {
+            if (waiting == 0 || limit >= maxLimit) {
+                return 0;
+            }
+            return Math.min(MAX_BACKOFF_HINT, Math.max(MIN_BACKOFF_HINT, 2 * p99Latency));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public long getLatencyThreshold() {
+        return latencyThreshold;
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The 99th percentile latency in milliseconds of the most recently completed window of requests
+     */
+    public long getP99Latency() {
+        lock.lock();
+        try {
+            return p99Latency;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getTimeouts() {
+        lock.lock();
+        try {
+            return timeouts;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of requests that were let through after waiting the maximum time for a permit
+     */
+    public long getOverflows() {
+        lock.lock();
+        try {
+            return overflows;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -15,8 +15,18 @@ public class StorageClientConstants {
 
     public static final String REQUEST_TOPOLOGY_CHANGE_DELTA = "rhq.storage.request.limit.topology-delta";
 
+    public static final String REQUEST_CONCURRENCY_MIN = "rhq.storage.request.concurrency.min";
+
+    public static final String REQUEST_CONCURRENCY_MAX = "rhq.storage.request.concurrency.max";
+
+    public static final String REQUEST_LATENCY_THRESHOLD = "rhq.storage.request.concurrency.latency-threshold";
+
+    public static final String REQUEST_CONCURRENCY_MAX_WAIT = "rhq.storage.request.concurrency.max-wait";
+
     public static final String LOAD_BALANCING = "rhq.storage.client.load-balancing";
 
+    public static final String TOKEN_AWARE = "rhq.storage.client.token-aware";
+
     public static final String DATA_CENTER = "rhq.storage.dc";
 
     private StorageClientConstants() {
@@ -1,5 +1,9 @@
 package org.rhq.server.metrics;
 
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_CONCURRENCY_MAX;
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_CONCURRENCY_MAX_WAIT;
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_CONCURRENCY_MIN;
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LATENCY_THRESHOLD;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LIMIT;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LIMIT_MIN;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TIMEOUT_DAMPENING;
@@ -23,6 +27,8 @@ import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.QueryTimeoutException;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.RateLimiter;
 
 import org.apache.commons.logging.Log;
@@ -56,6 +62,12 @@ public class StorageSession implements Host.StateListener {
 
     private long timeouts;
 
+    private RequestConcurrencyLimiter concurrencyLimiter = new RequestConcurrencyLimiter(
+        Integer.parseInt(System.getProperty(REQUEST_CONCURRENCY_MIN, "32")),
+        Integer.parseInt(System.getProperty(REQUEST_CONCURRENCY_MAX, "1024")),
+        Long.parseLong(System.getProperty(REQUEST_LATENCY_THRESHOLD, "1000")),
+        Long.parseLong(System.getProperty(REQUEST_CONCURRENCY_MAX_WAIT, "5000")));
+
     private AtomicLong totalRequests = new AtomicLong();
 
     public StorageSession(Session wrappedSession) {
@@ -139,6 +151,13 @@ public class StorageSession implements Host.StateListener {
         return timeouts;
     }
 
+    /**
+     * @return The limiter that bounds the number of asynchronous requests in flight
+     */
+    public RequestConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
     public ResultSet execute(String query) {
         try {
             totalRequests.incrementAndGet();
@@ -164,15 +183,58 @@ public class StorageSession implements Host.StateListener {
     public StorageResultSetFuture executeAsync(String query) {
         totalRequests.incrementAndGet();
         permits.acquire();
-        ResultSetFuture future = wrappedSession.executeAsync(query);
-        return new StorageResultSetFuture(future, this);
+        concurrencyLimiter.acquire();
+        ResultSetFuture future;
+        try {
+            future = wrappedSession.executeAsync(query);
+        } catch (RuntimeException e) {
+            concurrencyLimiter.release(0, false);
+            throw e;
+        }
+        return new StorageResultSetFuture(trackCompletion(future), this);
     }
 
     public StorageResultSetFuture executeAsync(Query query) {
         totalRequests.incrementAndGet();
         permits.acquire();
-        ResultSetFuture future = wrappedSession.executeAsync(query);
-        return new StorageResultSetFuture(future, this);
+        concurrencyLimiter.acquire();
+        ResultSetFuture future;
+        try {
+            future = wrappedSession.executeAsync(query);
+        } catch (RuntimeException e) {
+            concurrencyLimiter.release(0, false);
+            throw e;
+        }
+        return new StorageResultSetFuture(trackCompletion(future), this);
+    }
+
+    /**
+     * Releases the concurrency permit of the request once it completes. The listener runs on the thread that completes
+     * the future, typically a driver I/O thread, so it only does bookkeeping.
+     */
+    private ResultSetFuture trackCompletion(final ResultSetFuture future) {
+        final long startTime = System.nanoTime();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                concurrencyLimiter.release(latency, isTimeout(future));
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return future;
+    }
+
+    private boolean isTimeout(ResultSetFuture future) {
+        try {
+            future.getUninterruptibly();
+            return false;
+        } catch (NoHostAvailableException e) {
+            return isClientTimeout(e);
+        } catch (QueryTimeoutException e) {
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
     }
 
     public PreparedStatement prepare(String query) {
@@ -0,0 +1,23 @@
+package org.rhq.server.metrics.aggregation;
+
+import java.util.List;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+
+/**
+ * Receives 1 hour aggregates while aggregation is still running. This allows callers like OOB calculation to process
+ * the aggregates in chunks instead of waiting for aggregation to finish and then holding every 1 hour aggregate in
+ * memory at once.
+ */
+public interface AggregateConsumer {
+
+    /**
+     * Invoked with each chunk of newly computed and stored 1 hour aggregates. Invocations are serialized, so
+     * implementations need not be thread safe. Aggregation of subsequent batches is held up while this method runs,
+     * which is what keeps the number of aggregates in memory bounded.
+     *
+     * @param oneHourAggregates The 1 hour aggregates. The list is not retained after this method returns.
+     */
+    void consume(List<AggregateNumericMetric> oneHourAggregates);
+
+}
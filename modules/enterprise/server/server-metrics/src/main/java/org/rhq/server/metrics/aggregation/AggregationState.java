@@ -1,6 +1,7 @@
 package org.rhq.server.metrics.aggregation;
 
-import java.util.concurrent.Semaphore;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -9,6 +10,7 @@ import org.joda.time.DateTime;
 
 import org.rhq.server.metrics.MetricsDAO;
 import org.rhq.server.metrics.SignalingCountDownLatch;
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
 
 /**
  * @author John Sanda
@@ -23,7 +25,7 @@ class AggregationState {
 
     private ListeningExecutorService aggregationTasks;
 
-    private Semaphore permits;
+    private HostPermits permits;
 
     private SignalingCountDownLatch rawAggregationDone;
 
@@ -59,6 +61,8 @@ class AggregationState {
 
     private Compute24HourData compute24HourData;
 
+    private Map<Integer, AggregateNumericMetric> accumulatedOneHourData = Collections.emptyMap();
+
     DateTime getStartTime() {
         return startTime;
     }
@@ -95,11 +99,11 @@ class AggregationState {
         return this;
     }
 
-    Semaphore getPermits() {
+    HostPermits getPermits() {
         return permits;
     }
 
-    AggregationState setPermits(Semaphore permits) {
+    AggregationState setPermits(HostPermits permits) {
         this.permits = permits;
         return this;
     }
@@ -266,4 +270,17 @@ class AggregationState {
         return this;
     }
 
+    /**
+     * @return 1 hour aggregates keyed by schedule id that were accumulated as the raw data was inserted. The raw data
+     * of these schedules does not need to be read.
+     */
+    public Map<Integer, AggregateNumericMetric> getAccumulatedOneHourData() {
+        return accumulatedOneHourData;
+    }
+
+    public AggregationState setAccumulatedOneHourData(Map<Integer, AggregateNumericMetric> accumulatedOneHourData) {
+        this.accumulatedOneHourData = accumulatedOneHourData;
+        return this;
+    }
+
 }
@@ -4,10 +4,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -29,7 +29,6 @@ import org.rhq.server.metrics.DateTimeService;
 import org.rhq.server.metrics.MetricsConfiguration;
 import org.rhq.server.metrics.MetricsDAO;
 import org.rhq.server.metrics.SignalingCountDownLatch;
-import org.rhq.server.metrics.StorageResultSetFuture;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
 import org.rhq.server.metrics.domain.MetricsTable;
 
@@ -61,13 +60,48 @@ public class Aggregator {
 
     private Set<AggregateNumericMetric> oneHourData;
 
+    private ChunkedAggregateConsumer streamingConsumer;
+
+    /**
+     * Creates an aggregator that collects all of the 1 hour aggregates it computes and returns them from
+     * {@link #run()}.
+     */
     public Aggregator(ListeningExecutorService aggregationTasks, MetricsDAO dao, MetricsConfiguration configuration,
         DateTimeService dtService, DateTime startTime, int batchSize, int parallelism) {
+        this(aggregationTasks, dao, configuration, dtService, startTime, batchSize, parallelism, null, 0);
+    }
+
+    /**
+     * Creates an aggregator that streams 1 hour aggregates to <code>consumer</code> in chunks of
+     * <code>chunkSize</code> as they are computed instead of collecting them. At most one chunk plus the aggregates
+     * of <code>parallelism</code> batches are held in memory at any time regardless of the number of schedules.
+     *
+     * @param consumer The consumer of 1 hour aggregates. If null, the aggregates are collected and returned from
+     *                 {@link #run()} instead.
+     * @param chunkSize The number of aggregates handed to the consumer per invocation
+     */
+    public Aggregator(ListeningExecutorService aggregationTasks, MetricsDAO dao, MetricsConfiguration configuration,
+        DateTimeService dtService, DateTime startTime, int batchSize, int parallelism, AggregateConsumer consumer,
+        int chunkSize) {
         this.dao = dao;
         this.configuration = configuration;
         this.dtService = dtService;
         this.startTime = startTime;
-        oneHourData = new ConcurrentSkipListSet<AggregateNumericMetric>(AGGREGATE_COMPARATOR);
+
+        AggregateConsumer oneHourDataConsumer;
+        if (consumer == null) {
+            oneHourData = new ConcurrentSkipListSet<AggregateNumericMetric>(AGGREGATE_COMPARATOR);
+            oneHourDataConsumer = new AggregateConsumer() {
+                @Override
+                public void consume(List<AggregateNumericMetric> oneHourAggregates) {
+                    oneHourData.addAll(oneHourAggregates);
+                }
+            };
+        } else {
+            oneHourData = Collections.emptySet();
+            streamingConsumer = new ChunkedAggregateConsumer(consumer, chunkSize);
+            oneHourDataConsumer = streamingConsumer;
+        }
 
         DateTime sixHourTimeSlice = get6HourTimeSlice();
         DateTime twentyFourHourTimeSlice = get24HourTimeSlice();
@@ -77,7 +111,7 @@ public class Aggregator {
             .setStartTime(startTime)
             .setBatchSize(batchSize)
             .setAggregationTasks(aggregationTasks)
-            .setPermits(new Semaphore(parallelism * batchSize, true))
+            .setPermits(new HostPermits(parallelism))
             .setRawAggregationDone(new SignalingCountDownLatch(new CountDownLatch(1)))
             .setOneHourAggregationDone(new SignalingCountDownLatch(new CountDownLatch(1)))
             .setSixHourAggregationDone(new SignalingCountDownLatch(new CountDownLatch(1)))
@@ -87,7 +121,8 @@ public class Aggregator {
             .setSixHourTimeSliceEnd(sixHourTimeSlice.plus(configuration.getOneHourTimeSliceDuration()))
             .setTwentyFourHourTimeSlice(twentyFourHourTimeSlice)
             .setTwentyFourHourTimeSliceEnd(twentyFourHourTimeSlice.plus(configuration.getSixHourTimeSliceDuration()))
-            .setCompute1HourData(new Compute1HourData(startTime, sixHourTimeSlice, dao, oneHourData))
+            .setCompute1HourData(new Compute1HourData(startTime, sixHourTimeSlice, dao, oneHourDataConsumer,
+                aggregationTasks))
             .setCompute6HourData(new Compute6HourData(sixHourTimeSlice, twentyFourHourTimeSlice, dao))
             .setCompute24HourData(new Compute24HourData(twentyFourHourTimeSlice, dao))
             .set6HourTimeSliceFinished(hasTimeSliceEnded(sixHourTimeSlice, configuration.getOneHourTimeSliceDuration()))
@@ -115,17 +150,34 @@ public class Aggregator {
         return dtService.getTimeSlice(dtService.now(), configuration.getRawTimeSliceDuration());
     }
 
+    /**
+     * Stores the given 1 hour aggregates, which were accumulated as the raw data was inserted, instead of computing
+     * them from raw data. Raw data is still read for the schedules that are not in <code>accumulatedData</code>. This
+     * has to be called before {@link #run()}.
+     *
+     * @param accumulatedData 1 hour aggregates for the time slice being aggregated keyed by schedule id
+     */
+    public Aggregator setAccumulatedOneHourData(Map<Integer, AggregateNumericMetric> accumulatedData) {
+        state.setAccumulatedOneHourData(accumulatedData);
+        return this;
+    }
+
+    /**
+     * @return The 1 hour aggregates computed from raw data. The set is empty when the aggregates are streamed to a
+     * {@link AggregateConsumer consumer}.
+     */
     public Set<AggregateNumericMetric> run() {
         log.info("Starting aggregation for time slice " + startTime);
         try {
             Stopwatch stopwatch = new Stopwatch().start();
             List<MetricsTable> indexUpdates = new ArrayList<MetricsTable>(3);
             indexUpdates.add(MetricsTable.ONE_HOUR);
-            StorageResultSetFuture rawIndexFuture = dao.findMetricsIndexEntriesAsync(MetricsTable.ONE_HOUR,
-                startTime.getMillis());
-            Futures.addCallback(rawIndexFuture, new RawDataScheduler(state), state.getAggregationTasks());
+            state.getAggregationTasks().submit(new RawDataScheduler(state));
 
             state.getRawAggregationDone().await();
+            if (streamingConsumer != null) {
+                streamingConsumer.flush();
+            }
             stopwatch.stop();
             log.info("Finished aggregating raw data in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
 
@@ -133,10 +185,7 @@ public class Aggregator {
                 log.info("Starting aggregation of 1 hour data");
                 stopwatch.reset().start();
                 indexUpdates.add(MetricsTable.SIX_HOUR);
-                StorageResultSetFuture oneHourIndexFuture = dao.findMetricsIndexEntriesAsync(MetricsTable.SIX_HOUR,
-                    state.getSixHourTimeSlice().getMillis());
-                Futures.addCallback(oneHourIndexFuture, new OneHourDataScheduler(state),
-                    state.getAggregationTasks());
+                state.getAggregationTasks().submit(new OneHourDataScheduler(state));
 
                 state.getOneHourAggregationDone().await();
                 stopwatch.stop();
@@ -147,17 +196,15 @@ public class Aggregator {
                 log.info("Starting aggregation of 6 hour data");
                 stopwatch.reset().start();
                 indexUpdates.add(MetricsTable.TWENTY_FOUR_HOUR);
-                StorageResultSetFuture sixHourIndexFuture = dao.findMetricsIndexEntriesAsync(
-                    MetricsTable.TWENTY_FOUR_HOUR, state.getTwentyFourHourTimeSlice().getMillis());
-                Futures.addCallback(sixHourIndexFuture, new SixHourDataScheduler(state),
-                    state.getAggregationTasks());
+                state.getAggregationTasks().submit(new SixHourDataScheduler(state));
 
                 state.getSixHourAggregationDone().await();
                 stopwatch.stop();
                 log.info("Finished aggregating six hour data in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
             }
 
-            CountDownLatch updateIndexSignal = new CountDownLatch(indexUpdates.size());
+            // the checkpoints are deleted along with the index entries
+            CountDownLatch updateIndexSignal = new CountDownLatch(indexUpdates.size() * 2);
             for (MetricsTable table : indexUpdates) {
                 deleteIndexEntries(table, updateIndexSignal);
             }
@@ -187,8 +234,7 @@ public class Aggregator {
             break;
         }
         log.debug("Deleting " + table + " index entries for time slice " + time);
-        StorageResultSetFuture future = dao.deleteMetricsIndexEntriesAsync(table, time.getMillis());
-        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+        FutureCallback<ResultSet> callback = new FutureCallback<ResultSet>() {
             @Override
             public void onSuccess(ResultSet result) {
                 doneSignal.countDown();
@@ -205,7 +251,9 @@ public class Aggregator {
                 }
                 doneSignal.countDown();
             }
-        });
+        };
+        Futures.addCallback(dao.deleteMetricsIndexEntriesAsync(table, time.getMillis()), callback);
+        Futures.addCallback(dao.deleteIndexCheckpointAsync(table, time.getMillis()), callback);
     }
 
 }
@@ -1,7 +1,11 @@
 package org.rhq.server.metrics.aggregation;
 
+import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -9,22 +13,27 @@ import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.google.common.base.Stopwatch;
 import com.google.common.util.concurrent.AsyncFunction;
-import com.google.common.util.concurrent.FutureCallback;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTime;
 
 import org.rhq.core.util.exception.ThrowableUtil;
+import org.rhq.server.metrics.MetricsDAO;
 import org.rhq.server.metrics.SignalingCountDownLatch;
 import org.rhq.server.metrics.StorageResultSetFuture;
+import org.rhq.server.metrics.domain.MetricsTable;
 
 /**
- * Schedules {@link BatchAggregator aggregation tasks} for a batch of measurement schedules. An instance of this class
- * is invoked when index entries arrive.
+ * Schedules {@link BatchAggregator aggregation tasks} for batches of measurement schedules. The index entries of the
+ * time slice are read in pages of {@link MetricsDAO#INDEX_PAGE_SIZE}. The schedules of each page are grouped by the
+ * storage node that owns their data, and batches are handed out to whichever node has {@link HostPermits permits}
+ * available. Progress is recorded per page in an {@link IndexCheckpoint} so that an interrupted run can resume after
+ * the last page that was completely aggregated.
  *
  * @author John Sanda
  */
-abstract class BatchAggregationScheduler implements FutureCallback<ResultSet> {
+abstract class BatchAggregationScheduler implements Runnable {
 
     private final Log log = LogFactory.getLog(BatchAggregationScheduler.class);
 
@@ -35,38 +44,41 @@ abstract class BatchAggregationScheduler implements FutureCallback<ResultSet> {
     }
 
     @Override
-    public void onSuccess(ResultSet indexResultSet) {
+    public void run() {
         Stopwatch stopwatch = new Stopwatch().start();
-        Stopwatch batchStopwatch = new Stopwatch().start();
-        List<StorageResultSetFuture> queryFutures = new ArrayList<StorageResultSetFuture>(state.getBatchSize());
-
-        // Calling indexResultSet.all() is somewhat inefficient as it requires copying all of the rows into a new
-        // List. We need the size up front though in order to set remainingSchedules in the statement below. I
-        // opened https://datastax-oss.atlassian.net/browse/JAVA-260 to provide a better way of getting the result
-        // set count.
-        List<Row> rows = indexResultSet.all();
-        getRemainingSchedules().getAndSet(rows.size());
+        MetricsDAO dao = state.getDao();
+        int count = 0;
+
+        // The extra count keeps remainingSchedules above zero until all pages have been scheduled. Otherwise batches
+        // that finish before the next page is read could signal that aggregation is done.
+        getRemainingSchedules().set(1);
         try {
-            for (Row row : rows) {
-                state.getPermits().acquire();
-                queryFutures.add(findMetricData(row.getInt(1)));
-                if (queryFutures.size() == state.getBatchSize()) {
-                    state.getAggregationTasks().submit(new BatchAggregator(createBatchAggregationState(queryFutures,
-                        batchStopwatch)));
-                    queryFutures = new ArrayList<StorageResultSetFuture>(state.getBatchSize());
-                    batchStopwatch = new Stopwatch().start();
-                }
+            int checkpoint = dao.findIndexCheckpoint(getIndexTable(), getTimeSlice().getMillis());
+            if (checkpoint != Integer.MIN_VALUE) {
+                log.info("Resuming " + getAggregationType() + " aggregation for time slice " + getTimeSlice() +
+                    " after schedule id " + checkpoint);
             }
-            if (!queryFutures.isEmpty()) {
-                state.getAggregationTasks().submit(new BatchAggregator(createBatchAggregationState(queryFutures,
-                    batchStopwatch)));
-            }
-            if (rows.isEmpty()) {
+            IndexCheckpoint indexCheckpoint = new IndexCheckpoint(dao, getIndexTable(), getTimeSlice(), checkpoint);
+
+            int lastScheduleId = checkpoint;
+            List<Integer> scheduleIds;
+            do {
+                scheduleIds = findScheduleIds(lastScheduleId);
+                if (!scheduleIds.isEmpty()) {
+                    lastScheduleId = scheduleIds.get(scheduleIds.size() - 1);
+                    getRemainingSchedules().addAndGet(scheduleIds.size());
+                    schedule(scheduleIds, indexCheckpoint, indexCheckpoint.addPage(lastScheduleId,
+                        scheduleIds.size()));
+                    count += scheduleIds.size();
+                }
+            } while (scheduleIds.size() == MetricsDAO.INDEX_PAGE_SIZE);
+
+            if (getRemainingSchedules().decrementAndGet() == 0) {
                 getAggregationDoneSignal().countDown();
             }
             stopwatch.stop();
             if (log.isDebugEnabled()) {
-                log.debug("Finished scheduling " + getAggregationType() + " aggregation tasks for " + rows.size() +
+                log.debug("Finished scheduling " + getAggregationType() + " aggregation tasks for " + count +
                     " schedules in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
             }
         } catch (InterruptedException e) {
@@ -75,40 +87,113 @@ abstract class BatchAggregationScheduler implements FutureCallback<ResultSet> {
             log.info("Aggregation will be aborted");
             getAggregationDoneSignal().abort("There was an interrupt while scheduling aggregation tasks for " +
                 getAggregationType() + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Aggregation for time slice [" + state.getStartTime() + "] cannot proceed. There was an " +
+                    "unexpected error while retrieving " + getAggregationType() + " index entries.", e);
+            } else {
+                log.warn("Aggregation for time slice [" + state.getStartTime() + "] cannot proceed. There was an " +
+                    "unexpected error while retrieving " + getAggregationType() + " index entries: " +
+                    ThrowableUtil.getRootMessage(e));
+            }
+            getAggregationDoneSignal().abort("There was an error while retrieving " + getAggregationType() +
+                " index entries: " + ThrowableUtil.getRootMessage(e));
         }
     }
 
-    private BatchAggregationState createBatchAggregationState(List<StorageResultSetFuture> queryFutures,
-        Stopwatch batchStopwatch) {
-        return new BatchAggregationState()
+    private List<Integer> findScheduleIds(int afterScheduleId) {
+        ResultSet resultSet = state.getDao().findMetricsIndexEntriesPageAsync(getIndexTable(),
+            getTimeSlice().getMillis(), afterScheduleId).get();
+        List<Integer> scheduleIds = new ArrayList<Integer>(MetricsDAO.INDEX_PAGE_SIZE);
+        for (Row row : resultSet) {
+            scheduleIds.add(row.getInt(1));
+        }
+        return scheduleIds;
+    }
+
+    private void schedule(List<Integer> scheduleIds, IndexCheckpoint checkpoint, IndexCheckpoint.Page page)
+        throws InterruptedException {
+        Map<InetAddress, LinkedList<List<Integer>>> batchesByHost = createBatches(scheduleIds);
+        while (!batchesByHost.isEmpty()) {
+            InetAddress host = state.getPermits().acquire(batchesByHost.keySet());
+            LinkedList<List<Integer>> batches = batchesByHost.get(host);
+            List<Integer> batch = batches.removeFirst();
+            if (batches.isEmpty()) {
+                batchesByHost.remove(host);
+            }
+
+            Stopwatch batchStopwatch = new Stopwatch().start();
+            state.getAggregationTasks().submit(new BatchAggregator(createBatchAggregationState(batch, batchStopwatch,
+                host, checkpoint, page)));
+        }
+    }
+
+    /**
+     * @return Batches of schedule ids grouped by the storage node that owns their data
+     */
+    private Map<InetAddress, LinkedList<List<Integer>>> createBatches(List<Integer> scheduleIds) {
+        Map<InetAddress, LinkedList<List<Integer>>> batchesByHost = new HashMap<InetAddress,
+            LinkedList<List<Integer>>>();
+        for (Integer scheduleId : scheduleIds) {
+            InetAddress host = state.getDao().findReplica(scheduleId);
+            LinkedList<List<Integer>> batches = batchesByHost.get(host);
+            if (batches == null) {
+                batches = new LinkedList<List<Integer>>();
+                batchesByHost.put(host, batches);
+            }
+            if (batches.isEmpty() || batches.getLast().size() == state.getBatchSize()) {
+                batches.add(new ArrayList<Integer>(state.getBatchSize()));
+            }
+            batches.getLast().add(scheduleId);
+        }
+        return batchesByHost;
+    }
+
+    private BatchAggregationState createBatchAggregationState(List<Integer> batch, Stopwatch batchStopwatch,
+        InetAddress host, IndexCheckpoint checkpoint, IndexCheckpoint.Page page) {
+        return prepareBatch(batch)
             .setAggregationTasks(state.getAggregationTasks())
             .setAggregationType(getAggregationType())
-            .setComputeAggregates(getComputeAggregates())
             .setDoneSignal(getAggregationDoneSignal())
             .setPermits(state.getPermits())
-            .setQueryFutures(queryFutures)
+            .setHost(host)
+            .setCheckpoint(checkpoint)
+            .setPage(page)
             .setRemainingSchedules(getRemainingSchedules())
             .setStopwatch(batchStopwatch);
     }
 
-    @Override
-    public void onFailure(Throwable t) {
-        if (log.isDebugEnabled()) {
-            log.debug("Aggregation for time slice [" + state.getStartTime() + "] cannot proceed. There was an " +
-                "unexpected error while retrieving " + getAggregationType() + " index entries.", t);
-        } else {
-            log.warn("Aggregation for time slice [" + state.getStartTime() + "] cannot proceed. There was an " +
-                "unexpected error while retrieving " + getAggregationType() + " index entries: " +
-                ThrowableUtil.getRootMessage(t));
+    /**
+     * Starts the queries for the data of the schedules in the batch and sets the function that computes and stores
+     * their aggregates.
+     *
+     * @return The state of the batch with its query futures, compute function, and schedule count set
+     */
+    protected BatchAggregationState prepareBatch(List<Integer> batch) {
+        List<StorageResultSetFuture> queryFutures = new ArrayList<StorageResultSetFuture>(batch.size());
+        for (Integer scheduleId : batch) {
+            queryFutures.add(findMetricData(scheduleId));
         }
-        getAggregationDoneSignal().abort("There was an error while retrieving " + getAggregationType() +
-            " index entries: " + ThrowableUtil.getRootMessage(t));
+        return new BatchAggregationState()
+            .setQueryFutures(queryFutures)
+            .setComputeAggregates(getComputeAggregates())
+            .setScheduleCount(batch.size());
     }
 
     protected abstract SignalingCountDownLatch getAggregationDoneSignal();
 
     protected abstract AggregationType getAggregationType();
 
+    /**
+     * @return The index table whose entries list the schedules to aggregate
+     */
+    protected abstract MetricsTable getIndexTable();
+
+    /**
+     * @return The time slice of the index entries
+     */
+    protected abstract DateTime getTimeSlice();
+
     protected abstract StorageResultSetFuture findMetricData(int scheduleId);
 
     protected abstract AsyncFunction<List<ResultSet>, List<ResultSet>> getComputeAggregates();
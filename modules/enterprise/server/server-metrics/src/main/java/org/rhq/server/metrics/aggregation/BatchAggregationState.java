@@ -1,7 +1,7 @@
 package org.rhq.server.metrics.aggregation;
 
+import java.net.InetAddress;
 import java.util.List;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.datastax.driver.core.ResultSet;
@@ -19,11 +19,19 @@ class BatchAggregationState {
 
     private List<StorageResultSetFuture> queryFutures;
 
+    private int scheduleCount;
+
     private AsyncFunction<List<ResultSet>, List<ResultSet>> computeAggregates;
 
     private ListeningExecutorService aggregationTasks;
 
-    private Semaphore permits;
+    private HostPermits permits;
+
+    private InetAddress host;
+
+    private IndexCheckpoint checkpoint;
+
+    private IndexCheckpoint.Page page;
 
     private AtomicInteger remainingSchedules;
 
@@ -51,6 +59,19 @@ class BatchAggregationState {
         return this;
     }
 
+    /**
+     * @return The number of schedules in the batch. This can be more than the number of queries when aggregates for
+     * some of the schedules are already known.
+     */
+    int getScheduleCount() {
+        return scheduleCount;
+    }
+
+    BatchAggregationState setScheduleCount(int scheduleCount) {
+        this.scheduleCount = scheduleCount;
+        return this;
+    }
+
     AsyncFunction<List<ResultSet>, List<ResultSet>> getComputeAggregates() {
         return computeAggregates;
     }
@@ -69,15 +90,48 @@ class BatchAggregationState {
         return this;
     }
 
-    Semaphore getPermits() {
+    HostPermits getPermits() {
         return permits;
     }
 
-    BatchAggregationState setPermits(Semaphore permits) {
+    BatchAggregationState setPermits(HostPermits permits) {
         this.permits = permits;
         return this;
     }
 
+    /**
+     * @return The storage node from which the batch acquired its permit
+     */
+    InetAddress getHost() {
+        return host;
+    }
+
+    BatchAggregationState setHost(InetAddress host) {
+        this.host = host;
+        return this;
+    }
+
+    IndexCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    BatchAggregationState setCheckpoint(IndexCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /**
+     * @return The page of index entries that the schedules of the batch belong to
+     */
+    IndexCheckpoint.Page getPage() {
+        return page;
+    }
+
+    BatchAggregationState setPage(IndexCheckpoint.Page page) {
+        this.page = page;
+        return this;
+    }
+
     AtomicInteger getRemainingSchedules() {
         return remainingSchedules;
     }
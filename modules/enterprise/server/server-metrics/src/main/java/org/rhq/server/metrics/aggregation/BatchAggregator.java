@@ -34,16 +34,17 @@ class BatchAggregator implements Runnable {
         Futures.addCallback(insertFutures, new FutureCallback<List<ResultSet>>() {
             @Override
             public void onSuccess(List<ResultSet> result) {
+                state.getCheckpoint().finished(state.getPage(), state.getScheduleCount(), true);
                 updateRemainingSchedules();
                 state.getStopwatch().stop();
 
                 if (log.isDebugEnabled()) {
                     log.debug("Finished aggregating " + state.getAggregationType() + " for " +
-                        state.getQueryFutures().size() + " schedules in " +
+                        state.getScheduleCount() + " schedules in " +
                         state.getStopwatch().elapsed(TimeUnit.MILLISECONDS) + " ms");
                 }
 
-                state.getPermits().release(state.getQueryFutures().size());
+                state.getPermits().release(state.getHost());
             }
 
             @Override
@@ -55,14 +56,15 @@ class BatchAggregator implements Runnable {
                     log.warn("There was an error during " + state.getAggregationType() + " aggregation: " +
                         ThrowableUtil.getRootMessage(t));
                 }
-                state.getPermits().release(state.getQueryFutures().size());
+                state.getCheckpoint().finished(state.getPage(), state.getScheduleCount(), false);
+                state.getPermits().release(state.getHost());
                 updateRemainingSchedules();
             }
         }, state.getAggregationTasks());
     }
 
     private void updateRemainingSchedules() {
-        int count = state.getRemainingSchedules().addAndGet(-state.getQueryFutures().size());
+        int count = state.getRemainingSchedules().addAndGet(-state.getScheduleCount());
         if (log.isDebugEnabled()) {
             log.debug("There are " + count + " remaining schedules with " + state.getAggregationType() +
                 " to be aggregated");
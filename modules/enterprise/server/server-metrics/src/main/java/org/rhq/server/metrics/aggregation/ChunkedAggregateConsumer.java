@@ -0,0 +1,66 @@
+package org.rhq.server.metrics.aggregation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.util.exception.ThrowableUtil;
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+
+/**
+ * Buffers aggregates from individual {@link BatchAggregator batches} and hands them to the target consumer in chunks
+ * of a fixed size. Batches are usually small, so this keeps the number of consumer invocations down while still
+ * bounding memory usage to a single chunk.
+ */
+class ChunkedAggregateConsumer implements AggregateConsumer {
+
+    private final Log log = LogFactory.getLog(ChunkedAggregateConsumer.class);
+
+    private AggregateConsumer target;
+
+    private int chunkSize;
+
+    private List<AggregateNumericMetric> chunk;
+
+    public ChunkedAggregateConsumer(AggregateConsumer target, int chunkSize) {
+        this.target = target;
+        this.chunkSize = chunkSize;
+        chunk = new ArrayList<AggregateNumericMetric>(chunkSize);
+    }
+
+    @Override
+    public synchronized void consume(List<AggregateNumericMetric> oneHourAggregates) {
+        for (AggregateNumericMetric aggregate : oneHourAggregates) {
+            chunk.add(aggregate);
+            if (chunk.size() == chunkSize) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Hands any buffered aggregates to the target consumer. This needs to be called once aggregation has finished.
+     */
+    public synchronized void flush() {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            target.consume(chunk);
+        } catch (Exception e) {
+            // A misbehaving consumer should not cause aggregation to fail since the aggregates have already been
+            // stored.
+            if (log.isDebugEnabled()) {
+                log.debug("An error occurred while consuming " + chunk.size() + " 1 hour aggregates", e);
+            } else {
+                log.warn("An error occurred while consuming " + chunk.size() + " 1 hour aggregates: " +
+                    ThrowableUtil.getRootMessage(e));
+            }
+        } finally {
+            chunk = new ArrayList<AggregateNumericMetric>(chunkSize);
+        }
+    }
+
+}
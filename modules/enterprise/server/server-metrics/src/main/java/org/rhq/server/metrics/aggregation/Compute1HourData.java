@@ -1,12 +1,14 @@
 package org.rhq.server.metrics.aggregation;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
+import com.google.common.base.Function;
 import com.google.common.base.Stopwatch;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
@@ -25,7 +27,9 @@ import org.rhq.server.metrics.domain.MetricsTable;
 
 /**
  * Computes 1 hour data for a batch of raw data result sets. The generated 1 hour aggregates are inserted along with
- * their corresponding index updates.
+ * their corresponding index updates. Once the inserts for the batch have completed, the aggregates are handed to the
+ * {@link AggregateConsumer consumer}. The returned future does not complete until the consumer has finished so that
+ * the permits for the batch are held while its aggregates are still in use.
  *
  * @author John Sanda
  */
@@ -39,24 +43,50 @@ class Compute1HourData implements AsyncFunction<List<ResultSet>, List<ResultSet>
 
     private DateTime sixHourTimeSlice;
 
-    private Set<AggregateNumericMetric> oneHourData;
+    private AggregateConsumer consumer;
 
-    public Compute1HourData(DateTime startTime, DateTime sixHourTimeSlice, MetricsDAO dao,
-        Set<AggregateNumericMetric> oneHourData) {
+    private Executor consumerExecutor;
+
+    public Compute1HourData(DateTime startTime, DateTime sixHourTimeSlice, MetricsDAO dao, AggregateConsumer consumer,
+        Executor consumerExecutor) {
         this.startTime = startTime;
         this.sixHourTimeSlice = sixHourTimeSlice;
         this.dao = dao;
-        this.oneHourData = oneHourData;
+        this.consumer = consumer;
+        this.consumerExecutor = consumerExecutor;
     }
 
     @Override
     public ListenableFuture<List<ResultSet>> apply(List<ResultSet> rawDataResultSets) throws Exception {
+        return apply(rawDataResultSets, Collections.<AggregateNumericMetric>emptyList());
+    }
+
+    /**
+     * @param accumulatedData 1 hour aggregates that were maintained as the raw data was inserted. They are stored
+     *                        along with the aggregates computed for the batch.
+     * @return A function that computes 1 hour data for a batch in which some of the schedules have aggregates that
+     * were accumulated at ingest time and thus do not need their raw data read
+     */
+    AsyncFunction<List<ResultSet>, List<ResultSet>> withAccumulatedData(
+        final List<AggregateNumericMetric> accumulatedData) {
+        return new AsyncFunction<List<ResultSet>, List<ResultSet>>() {
+            @Override
+            public ListenableFuture<List<ResultSet>> apply(List<ResultSet> rawDataResultSets) throws Exception {
+                return Compute1HourData.this.apply(rawDataResultSets, accumulatedData);
+            }
+        };
+    }
+
+    private ListenableFuture<List<ResultSet>> apply(List<ResultSet> rawDataResultSets,
+        List<AggregateNumericMetric> accumulatedData) {
+        int count = rawDataResultSets.size() + accumulatedData.size();
         if (log.isDebugEnabled()) {
-            log.debug("Computing and storing 1 hour data for " + rawDataResultSets.size() + " schedules");
+            log.debug("Computing and storing 1 hour data for " + count + " schedules");
         }
         Stopwatch stopwatch = new Stopwatch().start();
         try {
-            List<StorageResultSetFuture> insertFutures = new ArrayList<StorageResultSetFuture>(rawDataResultSets.size());
+            List<StorageResultSetFuture> insertFutures = new ArrayList<StorageResultSetFuture>(count * 4);
+            final List<AggregateNumericMetric> aggregates = new ArrayList<AggregateNumericMetric>(count);
             for (ResultSet resultSet : rawDataResultSets) {
                 if (resultSet == null) {
                     // resultSet could be null if the raw data query failed for whatever reason. We currently lack
@@ -64,8 +94,10 @@ class Compute1HourData implements AsyncFunction<List<ResultSet>, List<ResultSet>
                     // schedule id, possibly for debugging purposes.
                     continue;
                 }
-                AggregateNumericMetric aggregate = calculateAggregatedRaw(resultSet);
-                oneHourData.add(aggregate);
+                aggregates.add(calculateAggregatedRaw(resultSet));
+            }
+            aggregates.addAll(accumulatedData);
+            for (AggregateNumericMetric aggregate : aggregates) {
                 insertFutures.add(dao.insertOneHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
                     AggregateType.MIN, aggregate.getMin()));
                 insertFutures.add(dao.insertOneHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
@@ -75,12 +107,19 @@ class Compute1HourData implements AsyncFunction<List<ResultSet>, List<ResultSet>
                 insertFutures.add(dao.updateMetricsIndex(MetricsTable.SIX_HOUR, aggregate.getScheduleId(),
                     sixHourTimeSlice.getMillis()));
             }
-            return Futures.successfulAsList(insertFutures);
+            ListenableFuture<List<ResultSet>> insertsFuture = Futures.successfulAsList(insertFutures);
+            return Futures.transform(insertsFuture, new Function<List<ResultSet>, List<ResultSet>>() {
+                @Override
+                public List<ResultSet> apply(List<ResultSet> resultSets) {
+                    consumer.consume(aggregates);
+                    return resultSets;
+                }
+            }, consumerExecutor);
         } finally {
             if (log.isDebugEnabled()) {
                 stopwatch.stop();
-                log.debug("Finished computing and storing 1 hour data for " + rawDataResultSets.size() +
-                    " schedules in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+                log.debug("Finished computing and storing 1 hour data for " + count + " schedules in " +
+                    stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
             }
         }
     }
@@ -0,0 +1,97 @@
+package org.rhq.server.metrics.aggregation;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of aggregation batches that are in progress per storage node. Each batch is routed to a node
+ * that owns the data of its schedules, and each node gets its own allotment of permits. A node that is slow to respond
+ * does not hold up batches for the other nodes, and adding nodes adds aggregation throughput.
+ * <p>
+ * A null host stands for schedules whose owner is not known. Those share a single allotment.
+ */
+class HostPermits {
+
+    private final int permitsPerHost;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    // the number of permits in use keyed by host, guarded by lock
+    private final Map<InetAddress, Integer> inUse = new HashMap<InetAddress, Integer>();
+
+    public HostPermits(int permitsPerHost) {
+        if (permitsPerHost < 1) {
+            throw new IllegalArgumentException("The number of permits per host must be greater than zero");
+        }
+        this.permitsPerHost = permitsPerHost;
+    }
+
+    /**
+     * Blocks until at least one of the hosts has a permit available and then acquires a permit from the host with the
+     * most available permits.
+     *
+     * @return The host from which the permit was acquired
+     */
+    public InetAddress acquire(Collection<InetAddress> hosts) throws InterruptedException {
+        if (hosts.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one host to acquire a permit from");
+        }
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                InetAddress selected = null;
+                int selectedInUse = permitsPerHost;
+                for (InetAddress host : hosts) {
+                    int count = getInUse(host);
+                    if (count < selectedInUse) {
+                        selected = host;
+                        selectedInUse = count;
+                    }
+                }
+                if (selectedInUse < permitsPerHost) {
+                    inUse.put(selected, selectedInUse + 1);
+                    return selected;
+                }
+                released.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(InetAddress host) {
+        lock.lock();
+        try {
+            int count = getInUse(host);
+            if (count == 1) {
+                inUse.remove(host);
+            } else if (count > 1) {
+                inUse.put(host, count - 1);
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getAvailable(InetAddress host) {
+        lock.lock();
+        try {
+            return permitsPerHost - getInUse(host);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int getInUse(InetAddress host) {
+        Integer count = inUse.get(host);
+        return count == null ? 0 : count;
+    }
+
+}
@@ -0,0 +1,125 @@
+package org.rhq.server.metrics.aggregation;
+
+import java.util.LinkedList;
+
+import com.datastax.driver.core.ResultSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTime;
+
+import org.rhq.core.util.exception.ThrowableUtil;
+import org.rhq.server.metrics.MetricsDAO;
+import org.rhq.server.metrics.StorageResultSetFuture;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+/**
+ * Tracks how far aggregation of a metrics index time slice has progressed so that an aggregation run which is
+ * interrupted, e.g., by a server crash, can resume where it stopped.
+ * <p>
+ * Index entries are read in pages ordered by schedule id. Batches of a page finish in any order, so the checkpoint is
+ * advanced to the last schedule id of a page only once that page and all of the pages before it have finished. It is
+ * persisted in the index table next to the entries it refers to. If a batch fails, the checkpoint stops advancing for
+ * the rest of the run so that a resumed run retries the schedules of the failed batch.
+ */
+class IndexCheckpoint {
+
+    private final Log log = LogFactory.getLog(IndexCheckpoint.class);
+
+    private final MetricsDAO dao;
+
+    private final MetricsTable table;
+
+    private final DateTime timeSlice;
+
+    // guarded by this
+    private final LinkedList<Page> pages = new LinkedList<Page>();
+
+    private int scheduleId;
+
+    private boolean failed;
+
+    /**
+     * @param table The index table being read. This is the table that the aggregates are stored in.
+     * @param timeSlice The time slice of the index entries
+     * @param scheduleId The persisted checkpoint from which the run resumes, or {@link Integer#MIN_VALUE}
+     */
+    public IndexCheckpoint(MetricsDAO dao, MetricsTable table, DateTime timeSlice, int scheduleId) {
+        this.dao = dao;
+        this.table = table;
+        this.timeSlice = timeSlice;
+        this.scheduleId = scheduleId;
+    }
+
+    public synchronized int getScheduleId() {
+        return scheduleId;
+    }
+
+    /**
+     * Registers a page of index entries before batches for it are scheduled.
+     *
+     * @param lastScheduleId The schedule id of the last entry in the page
+     * @param size The number of entries in the page
+     */
+    public synchronized Page addPage(int lastScheduleId, int size) {
+        Page page = new Page(lastScheduleId, size);
+        pages.add(page);
+        return page;
+    }
+
+    /**
+     * Called when a batch of schedules from the page has been aggregated or has failed.
+     */
+    public void finished(Page page, int count, boolean succeeded) {
+        int checkpoint;
+        synchronized (this) {
+            page.remaining -= count;
+            page.failed |= !succeeded;
+
+            boolean advanced = false;
+            while (!pages.isEmpty() && pages.getFirst().remaining <= 0) {
+                Page finished = pages.removeFirst();
+                failed |= finished.failed;
+                if (!failed) {
+                    scheduleId = finished.lastScheduleId;
+                    advanced = true;
+                }
+            }
+            if (!advanced) {
+                return;
+            }
+            checkpoint = scheduleId;
+        }
+        save(checkpoint);
+    }
+
+    void save(final int checkpoint) {
+        StorageResultSetFuture future = dao.updateIndexCheckpoint(table, timeSlice.getMillis(), checkpoint);
+        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet result) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // Not fatal. A resumed run just starts from an earlier checkpoint.
+                log.warn("Failed to save the " + table + " index checkpoint [" + checkpoint + "] for time slice " +
+                    timeSlice + ": " + ThrowableUtil.getRootMessage(t));
+            }
+        });
+    }
+
+    static class Page {
+        private final int lastScheduleId;
+        private int remaining;
+        private boolean failed;
+
+        private Page(int lastScheduleId, int size) {
+            this.lastScheduleId = lastScheduleId;
+            remaining = size;
+        }
+    }
+
+}
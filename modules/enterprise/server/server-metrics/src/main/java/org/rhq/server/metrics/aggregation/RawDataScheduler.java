@@ -1,13 +1,19 @@
 package org.rhq.server.metrics.aggregation;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.datastax.driver.core.ResultSet;
 import com.google.common.util.concurrent.AsyncFunction;
 
+import org.joda.time.DateTime;
+
 import org.rhq.server.metrics.SignalingCountDownLatch;
 import org.rhq.server.metrics.StorageResultSetFuture;
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.MetricsTable;
 
 /**
  * @author John Sanda
@@ -28,6 +34,16 @@ class RawDataScheduler extends BatchAggregationScheduler {
         return AggregationType.RAW;
     }
 
+    @Override
+    protected MetricsTable getIndexTable() {
+        return MetricsTable.ONE_HOUR;
+    }
+
+    @Override
+    protected DateTime getTimeSlice() {
+        return state.getOneHourTimeSlice();
+    }
+
     @Override
     protected StorageResultSetFuture findMetricData(int scheduleId) {
         return state.getDao().findRawMetricsAsync(scheduleId, state.getOneHourTimeSlice().getMillis(),
@@ -39,6 +55,34 @@ class RawDataScheduler extends BatchAggregationScheduler {
         return state.getCompute1HourData();
     }
 
+    /**
+     * The raw data of schedules whose 1 hour aggregates were accumulated as the raw data was inserted is not read. The
+     * accumulated aggregates are stored along with the ones computed for the rest of the batch.
+     */
+    @Override
+    protected BatchAggregationState prepareBatch(List<Integer> batch) {
+        Map<Integer, AggregateNumericMetric> accumulatedOneHourData = state.getAccumulatedOneHourData();
+        if (accumulatedOneHourData.isEmpty()) {
+            return super.prepareBatch(batch);
+        }
+
+        List<StorageResultSetFuture> queryFutures = new ArrayList<StorageResultSetFuture>(batch.size());
+        List<AggregateNumericMetric> accumulatedData = new ArrayList<AggregateNumericMetric>();
+        for (Integer scheduleId : batch) {
+            AggregateNumericMetric aggregate = accumulatedOneHourData.get(scheduleId);
+            if (aggregate == null) {
+                queryFutures.add(findMetricData(scheduleId));
+            } else {
+                accumulatedData.add(aggregate);
+            }
+        }
+        return new BatchAggregationState()
+            .setQueryFutures(queryFutures)
+            .setComputeAggregates(accumulatedData.isEmpty() ? getComputeAggregates() :
+                state.getCompute1HourData().withAccumulatedData(accumulatedData))
+            .setScheduleCount(batch.size());
+    }
+
     @Override
     protected AtomicInteger getRemainingSchedules() {
         return state.getRemainingRawData();
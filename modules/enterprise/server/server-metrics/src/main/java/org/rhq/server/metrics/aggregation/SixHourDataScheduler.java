@@ -6,8 +6,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 import com.datastax.driver.core.ResultSet;
 import com.google.common.util.concurrent.AsyncFunction;
 
+import org.joda.time.DateTime;
+
 import org.rhq.server.metrics.SignalingCountDownLatch;
 import org.rhq.server.metrics.StorageResultSetFuture;
+import org.rhq.server.metrics.domain.MetricsTable;
 
 /**
  * @author John Sanda
@@ -28,6 +31,16 @@ class SixHourDataScheduler extends BatchAggregationScheduler {
         return AggregationType.SIX_HOUR;
     }
 
+    @Override
+    protected MetricsTable getIndexTable() {
+        return MetricsTable.TWENTY_FOUR_HOUR;
+    }
+
+    @Override
+    protected DateTime getTimeSlice() {
+        return state.getTwentyFourHourTimeSlice();
+    }
+
     @Override
     protected StorageResultSetFuture findMetricData(int scheduleId) {
         return state.getDao().findSixHourMetricsAsync(scheduleId, state.getTwentyFourHourTimeSlice().getMillis(),
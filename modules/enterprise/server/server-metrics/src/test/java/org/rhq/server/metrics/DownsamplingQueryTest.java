@@ -0,0 +1,126 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import static java.util.Arrays.asList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.util.Date;
+
+import com.datastax.driver.core.Row;
+
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.server.metrics.domain.AggregateType;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+public class DownsamplingQueryTest {
+
+    private DateTimeService dateTimeService;
+
+    private DateTime now;
+
+    @BeforeMethod
+    public void initService() {
+        dateTimeService = new DateTimeService();
+        dateTimeService.setConfiguration(new MetricsConfiguration());
+        now = dateTimeService.now();
+    }
+
+    @Test
+    public void selectRawTableWhenBucketsAreNarrowerThanOneHour() {
+        assertEquals(selectTable(now.minusHours(8), 60), MetricsTable.RAW);
+        assertEquals(selectTable(now.minusDays(2), 60), MetricsTable.RAW);
+    }
+
+    @Test
+    public void selectCoarsestTableThatMeetsPointDensity() {
+        assertEquals(selectTable(now.minusDays(5), 60), MetricsTable.ONE_HOUR);
+        assertEquals(selectTable(now.minusDays(5), 10), MetricsTable.SIX_HOUR);
+        assertEquals(selectTable(now.minusDays(30), 20), MetricsTable.TWENTY_FOUR_HOUR);
+    }
+
+    @Test
+    public void selectTableThatStillRetainsBeginTime() {
+        // only 1 hour data meets the point density, but it has already expired for the begin time
+        assertEquals(selectTable(now.minusDays(20), 240), MetricsTable.SIX_HOUR);
+    }
+
+    @Test
+    public void selectFinestRetainedTableWhenBucketsAreNarrowerThanItsResolution() {
+        DateTime beginTime = now.minusDays(10);
+        DownsamplingQuery query = new DownsamplingQuery(null, dateTimeService, null, beginTime.getMillis(),
+            beginTime.plusHours(2).getMillis(), 60);
+
+        assertEquals(query.selectTable(), MetricsTable.ONE_HOUR);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectBeginTimeOutsideOfAllRetentionPeriods() {
+        selectTable(now.minusYears(2), 60);
+    }
+
+    @Test
+    public void doNotCarryMinAndMaxOverToNextAggregate() {
+        long beginTime = now.hourOfDay().roundFloorCopy().minusHours(2).getMillis();
+        long endTime = beginTime + 2 * DownsamplingQuery.getResolution(MetricsTable.ONE_HOUR);
+        long secondHour = beginTime + DownsamplingQuery.getResolution(MetricsTable.ONE_HOUR);
+        MetricsCache cache = new MetricsCache(dateTimeService, 1);
+        DownsamplingQuery query = new DownsamplingQuery(null, dateTimeService, cache, beginTime, endTime, 2);
+
+        // the second aggregate lacks its max and min rows
+        MetricsCache.Load load = cache.beginLoad(MetricsTable.ONE_HOUR, 100, beginTime);
+        long lastTimestamp = query.insertAggregateData(asList(row(beginTime, AggregateType.MAX, 9.0),
+            row(beginTime, AggregateType.MIN, 1.0), row(beginTime, AggregateType.AVG, 5.0),
+            row(secondHour, AggregateType.AVG, 4.0)), load);
+        cache.completeLoad(load);
+
+        assertEquals(lastTimestamp, secondHour);
+        Buckets buckets = new Buckets(beginTime, endTime, 2);
+        cache.insert(MetricsTable.ONE_HOUR, 100, beginTime, endTime, buckets);
+        assertEquals(buckets.get(0).getMax(), 9.0, 0.0);
+        assertEquals(buckets.get(0).getMin(), 1.0, 0.0);
+        assertEquals(buckets.get(1).getMax(), 4.0, 0.0, "The max of the previous aggregate should not carry over");
+        assertEquals(buckets.get(1).getMin(), 4.0, 0.0, "The min of the previous aggregate should not carry over");
+    }
+
+    private Row row(long timestamp, AggregateType type, double value) {
+        Row row = mock(Row.class);
+        when(row.getDate(1)).thenReturn(new Date(timestamp));
+        when(row.getInt(2)).thenReturn(type.ordinal());
+        when(row.getDouble(3)).thenReturn(value);
+        return row;
+    }
+
+    private MetricsTable selectTable(DateTime beginTime, int numberOfBuckets) {
+        DownsamplingQuery query = new DownsamplingQuery(null, dateTimeService, null, beginTime.getMillis(),
+            now.getMillis(), numberOfBuckets);
+        return query.selectTable();
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+public class MetricsCacheTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    private static final int SCHEDULE_ID = 100;
+
+    private DateTime now;
+
+    private MetricsCache cache;
+
+    @BeforeMethod
+    public void initCache() {
+        now = new DateTime().hourOfDay().roundFloorCopy();
+        DateTimeService dateTimeService = new DateTimeService() {
+            @Override
+            public long nowInMillis() {
+                return now.getMillis();
+            }
+        };
+        cache = new MetricsCache(dateTimeService, 2);
+    }
+
+    @Test
+    public void readLoadedRawData() {
+        long startTime = now.minusHours(1).getMillis();
+        Buckets buckets = new Buckets(startTime, now.getMillis(), 2);
+
+        assertEquals(cache.insert(MetricsTable.RAW, SCHEDULE_ID, startTime, now.getMillis(), buckets),
+            MetricsCache.MISS);
+
+        MetricsCache.Load load = cache.beginLoad(MetricsTable.RAW, SCHEDULE_ID, startTime);
+        load.add(startTime + MINUTE, 1.0, 1.0, 1.0);
+        load.add(startTime + 2 * MINUTE, 3.0, 3.0, 3.0);
+        load.add(startTime + 40 * MINUTE, 5.0, 5.0, 5.0);
+        cache.completeLoad(load);
+
+        long lastTimestamp = cache.insert(MetricsTable.RAW, SCHEDULE_ID, startTime, now.getMillis(), buckets);
+
+        assertEquals(lastTimestamp, startTime + 40 * MINUTE, "The timestamp of the last data point is wrong");
+        assertEquals(buckets.get(0).getAvg(), 2.0, 0.0);
+        assertEquals(buckets.get(0).getMin(), 1.0, 0.0);
+        assertEquals(buckets.get(0).getMax(), 3.0, 0.0);
+        assertEquals(buckets.get(1).getAvg(), 5.0, 0.0);
+        assertEquals(cache.getHits(), 1);
+        assertEquals(cache.getMisses(), 1);
+    }
+
+    @Test
+    public void missWhenRangeStartsBeforeLoadedData() {
+        long startTime = now.minusHours(1).getMillis();
+        cache.completeLoad(cache.beginLoad(MetricsTable.RAW, SCHEDULE_ID, startTime));
+
+        Buckets buckets = new Buckets(startTime - MINUTE, now.getMillis(), 2);
+
+        assertEquals(cache.insert(MetricsTable.RAW, SCHEDULE_ID, startTime - MINUTE, now.getMillis(), buckets),
+            MetricsCache.MISS);
+        assertEquals(cache.insert(MetricsTable.RAW, SCHEDULE_ID, startTime, now.getMillis(), buckets), -1);
+    }
+
+    @Test
+    public void writeThroughRawData() {
+        long startTime = now.minusHours(1).getMillis();
+        cache.completeLoad(cache.beginLoad(MetricsTable.RAW, SCHEDULE_ID, startTime));
+
+        cache.addRawData(SCHEDULE_ID, asList(new MeasurementDataNumeric(startTime + 2 * MINUTE, SCHEDULE_ID, 2.0),
+            new MeasurementDataNumeric(startTime + MINUTE, SCHEDULE_ID, 4.0)));
+
+        Buckets buckets = new Buckets(startTime, now.getMillis(), 1);
+        long lastTimestamp = cache.insert(MetricsTable.RAW, SCHEDULE_ID, startTime, now.getMillis(), buckets);
+
+        assertEquals(lastTimestamp, startTime + 2 * MINUTE, "The timestamp of the last data point is wrong");
+        assertEquals(buckets.get(0).getAvg(), 3.0, 0.0);
+    }
+
+    @Test
+    public void mergeWritesThatArriveWhileLoading() {
+        long startTime = now.minusHours(1).getMillis();
+        MetricsCache.Load load = cache.beginLoad(MetricsTable.RAW, SCHEDULE_ID, startTime);
+        load.add(startTime + MINUTE, 1.0, 1.0, 1.0);
+        load.add(startTime + 2 * MINUTE, 2.0, 2.0, 2.0);
+        cache.addRawData(SCHEDULE_ID, asList(new MeasurementDataNumeric(startTime + 2 * MINUTE, SCHEDULE_ID, 2.0),
+            new MeasurementDataNumeric(startTime + 3 * MINUTE, SCHEDULE_ID, 6.0)));
+        cache.completeLoad(load);
+
+        Buckets buckets = new Buckets(startTime, now.getMillis(), 1);
+        long lastTimestamp = cache.insert(MetricsTable.RAW, SCHEDULE_ID, startTime, now.getMillis(), buckets);
+
+        assertEquals(lastTimestamp, startTime + 3 * MINUTE, "The timestamp of the last data point is wrong");
+        assertEquals(buckets.get(0).getAvg(), 3.0, 0.0);
+    }
+
+    @Test
+    public void suspendedCacheIsEmptyAndNotFilled() {
+        long startTime = now.minusHours(1).getMillis();
+        MetricsCache.Load pendingLoad = cache.beginLoad(MetricsTable.RAW, SCHEDULE_ID + 1, startTime);
+        cache.completeLoad(cache.beginLoad(MetricsTable.RAW, SCHEDULE_ID, startTime));
+
+        cache.setSuspended(true);
+
+        assertFalse(cache.isEnabled(), "A suspended cache should not be used");
+        assertEquals(cache.getSize(), 0, "Suspending the cache should have emptied it");
+        assertNull(cache.beginLoad(MetricsTable.RAW, SCHEDULE_ID, startTime));
+        cache.completeLoad(pendingLoad);
+        assertEquals(cache.getSize(), 0, "Data loaded before the cache was suspended should have been discarded");
+
+        cache.setSuspended(false);
+
+        assertTrue(cache.isEnabled());
+        Buckets buckets = new Buckets(startTime, now.getMillis(), 1);
+        assertEquals(cache.insert(MetricsTable.RAW, SCHEDULE_ID, startTime, now.getMillis(), buckets),
+            MetricsCache.MISS, "The cache should start out empty when it is resumed");
+    }
+
+    @Test
+    public void doNotLoadSameWindowConcurrently() {
+        long startTime = now.minusHours(1).getMillis();
+        MetricsCache.Load load = cache.beginLoad(MetricsTable.RAW, SCHEDULE_ID, startTime);
+
+        assertNull(cache.beginLoad(MetricsTable.RAW, SCHEDULE_ID, startTime));
+
+        cache.abortLoad(load);
+
+        assertNotNull(cache.beginLoad(MetricsTable.RAW, SCHEDULE_ID, startTime));
+    }
+
+    @Test
+    public void doNotCacheDataOutsideOfWindow() {
+        long startTime = now.minus(MetricsCache.RAW_WINDOW).minusMinutes(1).getMillis();
+
+        assertNull(cache.beginLoad(MetricsTable.RAW, SCHEDULE_ID, startTime));
+    }
+
+    @Test
+    public void invalidateOneHourData() {
+        long startTime = now.minusDays(2).getMillis();
+        MetricsCache.Load load = cache.beginLoad(MetricsTable.ONE_HOUR, SCHEDULE_ID, startTime);
+        load.add(startTime, 2.0, 1.0, 3.0);
+        cache.completeLoad(load);
+
+        MetricsCache.Load pendingLoad = cache.beginLoad(MetricsTable.ONE_HOUR, SCHEDULE_ID + 1, startTime);
+        cache.invalidateOneHourData();
+        cache.completeLoad(pendingLoad);
+
+        Buckets buckets = new Buckets(startTime, now.getMillis(), 1);
+        assertEquals(cache.insert(MetricsTable.ONE_HOUR, SCHEDULE_ID, startTime, now.getMillis(), buckets),
+            MetricsCache.MISS);
+        assertEquals(cache.insert(MetricsTable.ONE_HOUR, SCHEDULE_ID + 1, startTime, now.getMillis(), buckets),
+            MetricsCache.MISS, "Data loaded before the invalidation should have been discarded");
+    }
+
+    @Test
+    public void evictLeastRecentlyReadSchedule() {
+        long startTime = now.minusHours(1).getMillis();
+        Buckets buckets = new Buckets(startTime, now.getMillis(), 1);
+
+        cache.completeLoad(cache.beginLoad(MetricsTable.RAW, 1, startTime));
+        cache.completeLoad(cache.beginLoad(MetricsTable.RAW, 2, startTime));
+        cache.insert(MetricsTable.RAW, 1, startTime, now.getMillis(), buckets);
+        // writes should not make schedule 2 the most recently used one
+        cache.addRawData(2, asList(new MeasurementDataNumeric(startTime, 2, 1.0)));
+        cache.completeLoad(cache.beginLoad(MetricsTable.RAW, 3, startTime));
+
+        assertEquals(cache.getEvictions(), 1);
+        assertEquals(cache.getSize(), 2);
+        assertEquals(cache.insert(MetricsTable.RAW, 2, startTime, now.getMillis(), buckets), MetricsCache.MISS);
+        assertEquals(cache.insert(MetricsTable.RAW, 1, startTime, now.getMillis(), buckets), -1);
+    }
+
+    @Test
+    public void trimDataAsWindowSlides() {
+        long startTime = now.minusHours(1).getMillis();
+        MetricsCache.Load load = cache.beginLoad(MetricsTable.RAW, SCHEDULE_ID, startTime);
+        load.add(startTime + MINUTE, 1.0, 1.0, 1.0);
+        load.add(startTime + 55 * MINUTE, 2.0, 2.0, 2.0);
+        cache.completeLoad(load);
+
+        // the first data point is now outside of the window
+        now = now.plus(MetricsCache.RAW_WINDOW).minusMinutes(10);
+
+        Buckets buckets = new Buckets(startTime, now.getMillis(), 1);
+        assertEquals(cache.insert(MetricsTable.RAW, SCHEDULE_ID, startTime, now.getMillis(), buckets),
+            MetricsCache.MISS, "The start of the window should have moved past the start time");
+
+        long cutoff = now.minus(MetricsCache.RAW_WINDOW).getMillis();
+        buckets = new Buckets(cutoff, now.getMillis(), 1);
+        assertEquals(cache.insert(MetricsTable.RAW, SCHEDULE_ID, cutoff, now.getMillis(), buckets),
+            startTime + 55 * MINUTE);
+        assertEquals(buckets.get(0).getAvg(), 2.0, 0.0);
+    }
+
+    @Test
+    public void trimWrittenThroughRawData() {
+        long startTime = now.minusHours(1).getMillis();
+        cache.completeLoad(cache.beginLoad(MetricsTable.RAW, SCHEDULE_ID, startTime));
+        cache.addRawData(SCHEDULE_ID, asList(new MeasurementDataNumeric(startTime + MINUTE, SCHEDULE_ID, 1.0),
+            new MeasurementDataNumeric(startTime + 2 * MINUTE, SCHEDULE_ID, 2.0)));
+        assertEquals(cache.getRawDataSize(SCHEDULE_ID), 2);
+
+        // writes alone, without any reads, should keep the window from growing past the cutoff
+        now = now.plus(MetricsCache.RAW_WINDOW).minusMinutes(30);
+        cache.addRawData(SCHEDULE_ID, asList(new MeasurementDataNumeric(now.getMillis(), SCHEDULE_ID, 3.0),
+            new MeasurementDataNumeric(startTime, SCHEDULE_ID, 4.0)));
+
+        assertEquals(cache.getRawDataSize(SCHEDULE_ID), 1, "Data older than the window should have been trimmed");
+    }
+
+    @Test
+    public void evictSchedulesThatAreNotRead() {
+        long startTime = now.minusHours(1).getMillis();
+        Buckets buckets = new Buckets(startTime, now.getMillis(), 1);
+        cache.completeLoad(cache.beginLoad(MetricsTable.RAW, 1, startTime));
+        cache.completeLoad(cache.beginLoad(MetricsTable.RAW, 2, startTime));
+
+        now = now.plus(MetricsCache.IDLE_TIMEOUT).plusMinutes(1);
+        cache.insert(MetricsTable.RAW, 1, startTime, now.getMillis(), buckets);
+        // writes should not keep schedule 2 cached
+        cache.addRawData(2, asList(new MeasurementDataNumeric(now.getMillis(), 2, 1.0)));
+        cache.invalidateOneHourData();
+
+        assertEquals(cache.getSize(), 1);
+        assertEquals(cache.getEvictions(), 1);
+        assertEquals(cache.insert(MetricsTable.RAW, 2, startTime, now.getMillis(), buckets), MetricsCache.MISS);
+        assertEquals(cache.insert(MetricsTable.RAW, 1, startTime, now.getMillis(), buckets), -1);
+    }
+
+}
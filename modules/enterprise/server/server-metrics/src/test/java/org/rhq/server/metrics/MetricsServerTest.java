@@ -912,6 +912,52 @@ public class MetricsServerTest extends CassandraIntegrationTest {
             actual.get(59));
     }
 
+    @Test
+    public void find1HourDataCompositesWithRawDataForLatestHours() throws Exception {
+        // align the buckets on hour boundaries so that each bucket holds exactly two 1 hour aggregates
+        DateTime endTime = now().hourOfDay().roundFloorCopy();
+        DateTime beginTime = endTime.minusDays(5);
+
+        Buckets buckets = new Buckets(beginTime, endTime);
+        DateTime bucket0Time = new DateTime(buckets.get(0).getStartTime());
+        DateTime lastAggregateTime = new DateTime(buckets.get(59).getStartTime());
+        int scheduleId = 123;
+
+        dao.insertOneHourData(scheduleId, bucket0Time.getMillis(), AggregateType.MIN, 1.0);
+        dao.insertOneHourData(scheduleId, bucket0Time.getMillis(), AggregateType.MAX, 3.0);
+        dao.insertOneHourData(scheduleId, bucket0Time.getMillis(), AggregateType.AVG, 2.0);
+        dao.insertOneHourData(scheduleId, lastAggregateTime.getMillis(), AggregateType.MIN, 4.0);
+        dao.insertOneHourData(scheduleId, lastAggregateTime.getMillis(), AggregateType.MAX, 6.0);
+        dao.insertOneHourData(scheduleId, lastAggregateTime.getMillis(), AggregateType.AVG, 5.0);
+
+        // raw data that has already been aggregated must not be read again
+        Set<MeasurementDataNumeric> data = new HashSet<MeasurementDataNumeric>();
+        data.add(new MeasurementDataNumeric(bucket0Time.plusMinutes(10).getMillis(), scheduleId, 100.0));
+        data.add(new MeasurementDataNumeric(lastAggregateTime.plusMinutes(10).getMillis(), scheduleId, 100.0));
+        // raw data that has not been aggregated yet
+        data.add(new MeasurementDataNumeric(lastAggregateTime.plusHours(1).getMillis(), scheduleId, 8.0));
+        data.add(new MeasurementDataNumeric(endTime.minusMinutes(1).getMillis(), scheduleId, 2.0));
+
+        WaitForRawInserts waitForRawInserts = new WaitForRawInserts(data.size());
+        metricsServer.addNumericData(data, waitForRawInserts);
+        waitForRawInserts.await("Failed to insert raw data");
+
+        List<MeasurementDataNumericHighLowComposite> actualData = Lists.newArrayList(metricsServer.findDataForResource(
+            scheduleId, beginTime.getMillis(), endTime.getMillis(), 60));
+
+        assertEquals(actualData.size(), buckets.getNumDataPoints(), "Expected to get back 60 data points.");
+
+        MeasurementDataNumericHighLowComposite expectedBucket0Data = new MeasurementDataNumericHighLowComposite(
+            buckets.get(0).getStartTime(), 2.0, 3.0, 1.0);
+        MeasurementDataNumericHighLowComposite expectedBucket59Data = new MeasurementDataNumericHighLowComposite(
+            buckets.get(59).getStartTime(), divide(5.0 + 8.0 + 2.0, 3), 8.0, 2.0);
+
+        assertPropertiesMatch("The data for bucket 0 does not match the expected values.", expectedBucket0Data,
+            actualData.get(0), TEST_PRECISION);
+        assertPropertiesMatch("The data for bucket 59 does not match the expected values.", expectedBucket59Data,
+            actualData.get(59), TEST_PRECISION);
+    }
+
     @Test//(enabled = ENABLED)
     public void find6HourDataComposites() {
         DateTime beginTime = now().minusDays(20);
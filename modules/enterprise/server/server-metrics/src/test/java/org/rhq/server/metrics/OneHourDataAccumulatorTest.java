@@ -0,0 +1,117 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+
+public class OneHourDataAccumulatorTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @Test
+    public void accumulateMinMaxAndAverage() {
+        OneHourDataAccumulator accumulator = new OneHourDataAccumulator(0);
+        accumulator.add(100, HOUR, asList(data(100, HOUR + 10, 3.0), data(100, HOUR + 20, 5.0)));
+        accumulator.add(100, HOUR, asList(data(100, HOUR + 30, 1.0)));
+        accumulator.add(200, HOUR, asList(data(200, HOUR + 10, 7.0)));
+
+        Map<Integer, AggregateNumericMetric> aggregates = accumulator.flush(HOUR);
+
+        assertEquals(aggregates.size(), 2);
+        AggregateNumericMetric aggregate = aggregates.get(100);
+        assertEquals(aggregate.getMin(), 1.0);
+        assertEquals(aggregate.getMax(), 5.0);
+        assertEquals(aggregate.getAvg(), 3.0);
+        assertEquals(aggregate.getTimestamp(), HOUR);
+        assertEquals(aggregates.get(200).getAvg(), 7.0);
+        assertEquals(accumulator.getFlushed(), 2);
+    }
+
+    @Test
+    public void skipSchedulesWithOutOfOrderData() {
+        OneHourDataAccumulator accumulator = new OneHourDataAccumulator(0);
+        accumulator.add(100, HOUR, asList(data(100, HOUR + 20, 3.0)));
+        accumulator.add(100, HOUR, asList(data(100, HOUR + 10, 5.0)));
+        accumulator.add(200, HOUR, asList(data(200, HOUR + 10, 3.0)));
+        accumulator.add(200, HOUR, asList(data(200, HOUR + 10, 3.0)));
+
+        assertTrue(accumulator.flush(HOUR).isEmpty(), "Late and duplicate data requires the raw data to be read");
+        assertEquals(accumulator.getInexact(), 2);
+    }
+
+    @Test
+    public void doNotAccumulateTimeSlicesStartedBeforeCreation() {
+        OneHourDataAccumulator accumulator = new OneHourDataAccumulator(HOUR + 1);
+        accumulator.add(100, HOUR, asList(data(100, HOUR + 10, 3.0)));
+        accumulator.add(100, HOUR * 2, asList(data(100, HOUR * 2 + 10, 3.0)));
+
+        assertTrue(accumulator.flush(HOUR).isEmpty());
+        assertEquals(accumulator.flush(HOUR * 2).size(), 1);
+    }
+
+    @Test
+    public void flushRemovesEarlierTimeSlices() {
+        OneHourDataAccumulator accumulator = new OneHourDataAccumulator(0);
+        accumulator.add(100, HOUR, asList(data(100, HOUR + 10, 3.0)));
+        accumulator.add(100, HOUR * 2, asList(data(100, HOUR * 2 + 10, 4.0)));
+        accumulator.add(100, HOUR * 3, asList(data(100, HOUR * 3 + 10, 5.0)));
+
+        assertEquals(accumulator.flush(HOUR * 2).get(100).getAvg(), 4.0);
+        assertTrue(accumulator.flush(HOUR).isEmpty(), "The earlier time slice should have been removed");
+        assertEquals(accumulator.flush(HOUR * 3).get(100).getAvg(), 5.0);
+    }
+
+    @Test
+    public void suspendWhileThereAreMultipleServers() {
+        MetricsServer metricsServer = new MetricsServer();
+        metricsServer.setDateTimeService(new DateTimeService());
+        metricsServer.setIncrementalAggregation(true);
+        assertNotNull(metricsServer.getOneHourDataAccumulator());
+
+        metricsServer.setMultipleServers(true);
+        assertNull(metricsServer.getOneHourDataAccumulator(), "Nothing should be accumulated while there are other " +
+            "servers");
+        assertTrue(metricsServer.isIncrementalAggregation());
+
+        metricsServer.setMultipleServers(false);
+        assertNotNull(metricsServer.getOneHourDataAccumulator(), "Accumulating should resume when this is the only " +
+            "server again");
+    }
+
+    private MeasurementDataNumeric data(int scheduleId, long timestamp, double value) {
+        return new MeasurementDataNumeric(timestamp, scheduleId, value);
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+
+public class RawDataBatchingTest {
+
+    private MetricsServer metricsServer;
+
+    @BeforeMethod
+    public void initServer() {
+        MetricsConfiguration configuration = new MetricsConfiguration();
+        DateTimeService dateTimeService = new DateTimeService();
+        dateTimeService.setConfiguration(configuration);
+
+        metricsServer = new MetricsServer();
+        metricsServer.setConfiguration(configuration);
+        metricsServer.setDateTimeService(dateTimeService);
+    }
+
+    @Test
+    public void splitBatchesByScheduleId() {
+        DateTime hour = new DateTime(2014, 1, 20, 10, 0);
+        Set<MeasurementDataNumeric> data = new HashSet<MeasurementDataNumeric>();
+        data.add(new MeasurementDataNumeric(hour.plusMinutes(1).getMillis(), 200, 1.0));
+        data.add(new MeasurementDataNumeric(hour.plusMinutes(1).getMillis(), 100, 2.0));
+        data.add(new MeasurementDataNumeric(hour.plusMinutes(2).getMillis(), 100, 3.0));
+
+        List<MetricsServer.RawDataBatch> batches = metricsServer.createRawDataBatches(data);
+
+        assertEquals(batches.size(), 2, "Expected one batch per schedule");
+        assertEquals(batches.get(0).scheduleId, 100);
+        assertEquals(batches.get(0).data.size(), 2);
+        assertEquals(batches.get(0).data.get(0).getValue(), 2.0, 0.0);
+        assertEquals(batches.get(0).data.get(1).getValue(), 3.0, 0.0);
+        assertEquals(batches.get(1).scheduleId, 200);
+        assertEquals(batches.get(1).data.size(), 1);
+    }
+
+    @Test
+    public void splitBatchesByTimeSlice() {
+        DateTime hour = new DateTime(2014, 1, 20, 10, 0);
+        Set<MeasurementDataNumeric> data = new HashSet<MeasurementDataNumeric>();
+        data.add(new MeasurementDataNumeric(hour.plusMinutes(59).getMillis(), 100, 1.0));
+        data.add(new MeasurementDataNumeric(hour.plusMinutes(61).getMillis(), 100, 2.0));
+
+        List<MetricsServer.RawDataBatch> batches = metricsServer.createRawDataBatches(data);
+
+        assertEquals(batches.size(), 2, "Expected one batch per time slice");
+        assertEquals(batches.get(0).timeSlice, hour.getMillis());
+        assertEquals(batches.get(1).timeSlice, hour.plusHours(1).getMillis());
+    }
+
+    @Test
+    public void splitBatchesByBatchSize() {
+        metricsServer.setRawBatchSize(3);
+        DateTime hour = new DateTime(2014, 1, 20, 10, 0);
+        Set<MeasurementDataNumeric> data = new HashSet<MeasurementDataNumeric>();
+        for (int i = 0; i < 7; ++i) {
+            data.add(new MeasurementDataNumeric(hour.plusMinutes(i).getMillis(), 100, (double) i));
+        }
+
+        List<MetricsServer.RawDataBatch> batches = metricsServer.createRawDataBatches(data);
+
+        assertEquals(batches.size(), 3, "Expected batches to be split by the batch size");
+        assertEquals(batches.get(0).data.size(), 3);
+        assertEquals(batches.get(1).data.size(), 3);
+        assertEquals(batches.get(2).data.size(), 1);
+        assertEquals(batches.get(2).data.get(0).getValue(), 6.0, 0.0);
+    }
+
+    @Test(timeOut = 10000)
+    public void releasePermitWhenInsertFailsSynchronously() {
+        MetricsDAO dao = mock(MetricsDAO.class);
+        when(dao.insertRawData(anyListOf(MeasurementDataNumeric.class))).thenThrow(
+            new IllegalStateException("The session is closed"));
+        metricsServer.setDAO(dao);
+        metricsServer.setRawMaxInFlight(1);
+
+        Set<MeasurementDataNumeric> data = new HashSet<MeasurementDataNumeric>();
+        data.add(new MeasurementDataNumeric(new DateTime(2014, 1, 20, 10, 0).getMillis(), 100, 1.0));
+
+        // with a leaked permit the second attempt would block forever
+        for (int i = 0; i < 2; ++i) {
+            try {
+                metricsServer.addNumericData(data, mock(RawDataInsertedCallback.class));
+                fail("Expected the insert to fail");
+            } catch (RuntimeException e) {
+                // expected
+            }
+        }
+    }
+
+}
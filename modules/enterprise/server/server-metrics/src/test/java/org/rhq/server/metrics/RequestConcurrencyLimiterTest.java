@@ -0,0 +1,165 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class RequestConcurrencyLimiterTest {
+
+    private static final long LATENCY_THRESHOLD = 100;
+
+    @Test
+    public void decreaseLimitOnTimeout() {
+        RequestConcurrencyLimiter limiter = new RequestConcurrencyLimiter(10, 100, LATENCY_THRESHOLD, 0);
+
+        limiter.acquire();
+        limiter.release(0, true);
+
+        assertEquals(limiter.getLimit(), 75);
+        assertEquals(limiter.getTimeouts(), 1);
+        assertEquals(limiter.getInFlight(), 0);
+    }
+
+    @Test
+    public void decreaseLimitWhenLatencyExceedsThreshold() {
+        RequestConcurrencyLimiter limiter = new RequestConcurrencyLimiter(10, 100, LATENCY_THRESHOLD, 0);
+
+        // a single slow request is within the 99th percentile
+        completeWindow(limiter, 1, LATENCY_THRESHOLD * 2);
+        assertEquals(limiter.getLimit(), 100);
+
+        completeWindow(limiter, 2, LATENCY_THRESHOLD * 2);
+        assertEquals(limiter.getLimit(), 75);
+        assertEquals(limiter.getP99Latency(), LATENCY_THRESHOLD * 2);
+    }
+
+    @Test
+    public void doNotDecreaseLimitBelowMinimum() {
+        RequestConcurrencyLimiter limiter = new RequestConcurrencyLimiter(10, 12, LATENCY_THRESHOLD, 0);
+
+        for (int i = 0; i < 5; ++i) {
+            limiter.acquire();
+            limiter.release(0, true);
+        }
+
+        assertEquals(limiter.getLimit(), 10);
+    }
+
+    @Test
+    public void increaseLimitOnlyWhenLimitIsReached() {
+        RequestConcurrencyLimiter limiter = new RequestConcurrencyLimiter(1, 100, LATENCY_THRESHOLD, 0);
+        limiter.acquire();
+        limiter.release(0, true);
+        assertEquals(limiter.getLimit(), 75);
+
+        completeWindow(limiter, 0, 0);
+        assertEquals(limiter.getLimit(), 75, "The limit should not increase when it is not holding back requests");
+
+        // fill up the limit so that the next request has to wait
+        for (int i = 0; i < 75; ++i) {
+            limiter.acquire();
+        }
+        limiter.acquire();
+        assertEquals(limiter.getOverflows(), 1);
+        for (int i = 0; i < 76; ++i) {
+            limiter.release(0, false);
+        }
+        completeWindow(limiter, 0, 0);
+
+        assertEquals(limiter.getLimit(), 75 + RequestConcurrencyLimiter.INCREMENT);
+    }
+
+    @Test
+    public void waitForPermit() throws Exception {
+        final RequestConcurrencyLimiter limiter = new RequestConcurrencyLimiter(1, 1, LATENCY_THRESHOLD, 10000);
+        limiter.acquire();
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                limiter.acquire();
+                acquired.countDown();
+            }
+        });
+        thread.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS), "The permit should not be granted while the limit " +
+            "is reached");
+        assertEquals(limiter.getWaiting(), 1);
+
+        limiter.release(0, false);
+
+        assertTrue(acquired.await(5, TimeUnit.SECONDS), "The permit should be granted after a release");
+        assertEquals(limiter.getInFlight(), 1);
+        assertEquals(limiter.getOverflows(), 0);
+    }
+
+    @Test
+    public void signalCongestion() throws Exception {
+        final RequestConcurrencyLimiter limiter = new RequestConcurrencyLimiter(1, 2, LATENCY_THRESHOLD, 10000);
+        limiter.acquire();
+        limiter.release(0, true);
+        limiter.acquire();
+
+        assertFalse(limiter.isCongested(), "No requests are waiting");
+        assertEquals(limiter.getBackoffHint(), 0);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                limiter.acquire();
+            }
+        });
+        thread.start();
+        while (limiter.getWaiting() == 0) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(limiter.isCongested());
+        assertTrue(limiter.getBackoffHint() > 0);
+
+        limiter.release(0, false);
+        thread.join(5000);
+        assertFalse(limiter.isCongested());
+    }
+
+    /**
+     * Completes a full window of requests of which the given number are slow
+     */
+    private void completeWindow(RequestConcurrencyLimiter limiter, int slowRequests, long slowLatency) {
+        for (int i = 0; i < RequestConcurrencyLimiter.WINDOW_SIZE; ++i) {
+            limiter.acquire();
+            limiter.release(i < slowRequests ? slowLatency : 0, false);
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package org.rhq.server.metrics.aggregation;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+
+public class ChunkedAggregateConsumerTest {
+
+    private static class RecordingConsumer implements AggregateConsumer {
+        List<List<AggregateNumericMetric>> chunks = new ArrayList<List<AggregateNumericMetric>>();
+
+        @Override
+        public void consume(List<AggregateNumericMetric> oneHourAggregates) {
+            chunks.add(new ArrayList<AggregateNumericMetric>(oneHourAggregates));
+        }
+    }
+
+    @Test
+    public void consumeInChunks() {
+        RecordingConsumer target = new RecordingConsumer();
+        ChunkedAggregateConsumer consumer = new ChunkedAggregateConsumer(target, 2);
+
+        consumer.consume(asList(aggregate(1), aggregate(2), aggregate(3)));
+        assertEquals(target.chunks.size(), 1, "Expected a chunk to be handed off once it is full");
+        assertEquals(target.chunks.get(0).size(), 2);
+
+        consumer.consume(asList(aggregate(4)));
+        assertEquals(target.chunks.size(), 2);
+        assertEquals(target.chunks.get(1).get(0).getScheduleId(), 3);
+        assertEquals(target.chunks.get(1).get(1).getScheduleId(), 4);
+
+        consumer.consume(asList(aggregate(5)));
+        consumer.flush();
+        assertEquals(target.chunks.size(), 3, "Expected the remaining aggregates to be handed off on flush");
+        assertEquals(target.chunks.get(2).size(), 1);
+
+        consumer.flush();
+        assertEquals(target.chunks.size(), 3, "Flushing an empty chunk should be a no-op");
+    }
+
+    @Test
+    public void consumerFailureDoesNotPropagate() {
+        ChunkedAggregateConsumer consumer = new ChunkedAggregateConsumer(new AggregateConsumer() {
+            @Override
+            public void consume(List<AggregateNumericMetric> oneHourAggregates) {
+                throw new RuntimeException("consumer failure");
+            }
+        }, 1);
+
+        consumer.consume(asList(aggregate(1), aggregate(2)));
+    }
+
+    private AggregateNumericMetric aggregate(int scheduleId) {
+        return new AggregateNumericMetric(scheduleId, 2.0, 1.0, 3.0, 0);
+    }
+
+}
@@ -0,0 +1,70 @@
+package org.rhq.server.metrics.aggregation;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class HostPermitsTest {
+
+    @Test
+    public void acquireFromLeastBusyHost() throws Exception {
+        InetAddress host1 = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+        InetAddress host2 = InetAddress.getByAddress(new byte[] {127, 0, 0, 2});
+        HostPermits permits = new HostPermits(2);
+
+        assertEquals(permits.acquire(asList(host1)), host1);
+        assertEquals(permits.acquire(asList(host1, host2)), host2);
+        permits.acquire(asList(host1, host2));
+        permits.acquire(asList(host1, host2));
+
+        assertEquals(permits.getAvailable(host1), 0);
+        assertEquals(permits.getAvailable(host2), 0);
+
+        permits.release(host2);
+        assertEquals(permits.acquire(asList(host1, host2)), host2);
+    }
+
+    @Test
+    public void busyHostDoesNotBlockOtherHosts() throws Exception {
+        final InetAddress host1 = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+        InetAddress host2 = InetAddress.getByAddress(new byte[] {127, 0, 0, 2});
+        final HostPermits permits = new HostPermits(1);
+
+        permits.acquire(asList(host1));
+        assertEquals(permits.acquire(asList(host2)), host2);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    permits.acquire(asList(host1));
+                    acquired.countDown();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        thread.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS), "No permit should be available for " + host1);
+        permits.release(host1);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS), "Expected a permit to be acquired after a release");
+    }
+
+    @Test
+    public void unknownHostsSharePermits() throws Exception {
+        HostPermits permits = new HostPermits(1);
+        assertEquals(permits.acquire(asList((InetAddress) null)), null);
+        assertEquals(permits.getAvailable(null), 0);
+        permits.release(null);
+        assertEquals(permits.getAvailable(null), 1);
+    }
+
+}
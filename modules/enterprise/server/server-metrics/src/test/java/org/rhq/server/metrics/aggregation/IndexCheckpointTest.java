@@ -0,0 +1,63 @@
+package org.rhq.server.metrics.aggregation;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.testng.annotations.Test;
+
+import org.rhq.server.metrics.domain.MetricsTable;
+
+public class IndexCheckpointTest {
+
+    private static class RecordingCheckpoint extends IndexCheckpoint {
+        List<Integer> saved = new ArrayList<Integer>();
+
+        RecordingCheckpoint(int scheduleId) {
+            super(null, MetricsTable.ONE_HOUR, new DateTime(0), scheduleId);
+        }
+
+        @Override
+        void save(int checkpoint) {
+            saved.add(checkpoint);
+        }
+    }
+
+    @Test
+    public void advanceOnlyPastContiguousFinishedPages() {
+        RecordingCheckpoint checkpoint = new RecordingCheckpoint(Integer.MIN_VALUE);
+        IndexCheckpoint.Page first = checkpoint.addPage(10, 4);
+        IndexCheckpoint.Page second = checkpoint.addPage(20, 2);
+        IndexCheckpoint.Page third = checkpoint.addPage(30, 2);
+
+        checkpoint.finished(second, 2, true);
+        checkpoint.finished(first, 2, true);
+        assertTrue(checkpoint.saved.isEmpty(), "The checkpoint should not advance until the first page is finished");
+
+        checkpoint.finished(first, 2, true);
+        assertEquals(checkpoint.saved, asList(20), "Expected the checkpoint to advance past both finished pages");
+
+        checkpoint.finished(third, 2, true);
+        assertEquals(checkpoint.saved, asList(20, 30));
+        assertEquals(checkpoint.getScheduleId(), 30);
+    }
+
+    @Test
+    public void stopAdvancingAfterFailure() {
+        RecordingCheckpoint checkpoint = new RecordingCheckpoint(5);
+        IndexCheckpoint.Page first = checkpoint.addPage(10, 2);
+        IndexCheckpoint.Page second = checkpoint.addPage(20, 1);
+
+        checkpoint.finished(first, 1, true);
+        checkpoint.finished(first, 1, false);
+        checkpoint.finished(second, 1, true);
+
+        assertTrue(checkpoint.saved.isEmpty(), "The checkpoint should not advance past a failed batch");
+        assertEquals(checkpoint.getScheduleId(), 5);
+    }
+
+}